@@ -33,10 +33,30 @@ public @interface StateMachineAction {
      */
     String targetState() default "*";
 
+    /**
+     * 执行顺序
+     * <pre>
+     *     值越小越先执行, 相同值按注册顺序执行, 对应 {@link cn.jasonone.sm.support.Action#getPriority()}
+     * </pre>
+     *
+     * @return 执行顺序
+     */
+    int order() default 0;
+
     /**
      * 是否在转换之前执行
      *
      * @return
      */
     boolean before() default false;
+
+    /**
+     * 是否延迟到事务提交之后异步执行
+     * <pre>
+     *     只适用于后置动作, 用于发送消息、调用回调地址等耗时的副作用, 对应 {@link cn.jasonone.sm.support.Action#isDeferred()}
+     * </pre>
+     *
+     * @return 是否延迟执行
+     */
+    boolean deferred() default false;
 }
@@ -34,4 +34,25 @@ public @interface StateMachineGuard {
      * @return
      */
     String targetState() default "*";
+
+    /**
+     * 执行顺序
+     * <pre>
+     *     值越小越先执行, 相同值按注册顺序执行, 对应 {@link cn.jasonone.sm.support.Guard#getPriority()}
+     * </pre>
+     *
+     * @return 执行顺序
+     */
+    int order() default 0;
+
+    /**
+     * 是否可与相邻的并行守卫同时执行
+     * <pre>
+     *     按执行顺序排列后, 连续的并行守卫作为一组并发执行, 任一守卫未通过时取消组内其余守卫;
+     *     适用于相互独立且包含远程调用的守卫, 对应 {@link cn.jasonone.sm.support.Guard#isParallel()}
+     * </pre>
+     *
+     * @return 是否并行执行
+     */
+    boolean parallel() default false;
 }
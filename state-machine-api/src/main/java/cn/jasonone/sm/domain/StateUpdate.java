@@ -0,0 +1,19 @@
+package cn.jasonone.sm.domain;
+
+import cn.jasonone.sm.support.Event;
+import cn.jasonone.sm.support.State;
+
+/**
+ * 比较并更新状态请求
+ *
+ * @param businessId 业务ID
+ * @param expected   期望的当前状态, 为null时表示当前尚无状态
+ * @param state      新状态
+ * @param event      触发本次更新的事件, 直接更新状态时为null
+ */
+public record StateUpdate(String businessId, State expected, State state, Event event) {
+
+    public StateUpdate(String businessId, State expected, State state) {
+        this(businessId, expected, state, null);
+    }
+}
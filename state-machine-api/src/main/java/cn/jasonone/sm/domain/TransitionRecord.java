@@ -0,0 +1,29 @@
+package cn.jasonone.sm.domain;
+
+import cn.jasonone.sm.support.Event;
+import cn.jasonone.sm.support.State;
+
+/**
+ * 状态转换审计记录
+ *
+ * @param machineCode   状态机编码
+ * @param businessId    业务ID
+ * @param event         事件
+ * @param from          源状态, 未能确定当前状态时为null
+ * @param to            目标状态, 未匹配到转换规则时为null
+ * @param timestamp     完成时间(毫秒时间戳)
+ * @param durationNanos 耗时(纳秒), 批量触发时为整批耗时
+ * @param error         失败原因, 成功时为null
+ */
+public record TransitionRecord(String machineCode, String businessId, Event event, State from, State to,
+                               long timestamp, long durationNanos, Throwable error) {
+
+    /**
+     * 是否转换成功
+     *
+     * @return 成功时返回true
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
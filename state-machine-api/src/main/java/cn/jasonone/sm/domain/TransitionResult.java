@@ -0,0 +1,45 @@
+package cn.jasonone.sm.domain;
+
+import cn.jasonone.sm.support.Event;
+import cn.jasonone.sm.support.State;
+
+/**
+ * 单个业务的状态转换结果
+ *
+ * @param businessId  业务ID
+ * @param event       事件
+ * @param from        源状态, 未能确定当前状态时为null
+ * @param to          目标状态, 未匹配到转换规则时为null
+ * @param error       失败原因, 成功时为null
+ * @param actionError 状态已更新, 但转换日志或后置动作失败的原因, 其写入已回滚; 只出现在批量触发的成功结果中
+ */
+public record TransitionResult(String businessId, Event event, State from, State to, Throwable error, Throwable actionError) {
+
+    public TransitionResult(String businessId, Event event, State from, State to, Throwable error) {
+        this(businessId, event, from, to, error, null);
+    }
+
+    public static TransitionResult success(String businessId, Event event, State from, State to) {
+        return new TransitionResult(businessId, event, from, to, null, null);
+    }
+
+    /**
+     * 状态已更新, 但转换日志或后置动作失败
+     */
+    public static TransitionResult actionFailure(String businessId, Event event, State from, State to, Throwable actionError) {
+        return new TransitionResult(businessId, event, from, to, null, actionError);
+    }
+
+    public static TransitionResult failure(String businessId, Event event, State from, State to, Throwable error) {
+        return new TransitionResult(businessId, event, from, to, error, null);
+    }
+
+    /**
+     * 是否转换成功
+     *
+     * @return 状态已更新时返回true
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,18 @@
+package cn.jasonone.sm.domain;
+
+import cn.jasonone.sm.support.Event;
+import lombok.Builder;
+
+/**
+ * 批量触发中的单个触发请求
+ *
+ * @param businessId 业务ID
+ * @param event      事件
+ * @param payload    数据
+ */
+@Builder
+public record TriggerRequest(String businessId, Event event, Object payload) {
+    public TriggerRequest(String businessId, Event event) {
+        this(businessId, event, null);
+    }
+}
@@ -0,0 +1,19 @@
+package cn.jasonone.sm.enums;
+
+/**
+ * 处理器类型
+ */
+public enum StateMachineHandlerType {
+    /**
+     * 状态守卫
+     */
+    GUARD,
+    /**
+     * 前置动作
+     */
+    BEFORE_ACTION,
+    /**
+     * 后置动作
+     */
+    AFTER_ACTION
+}
@@ -0,0 +1,22 @@
+package cn.jasonone.sm.enums;
+
+/**
+ * 终态处理策略
+ * <pre>
+ *     终态: 显式声明为终态, 或没有以该状态为源状态的转换规则的状态
+ * </pre>
+ */
+public enum TerminalStatePolicy {
+    /**
+     * 保留, 进入终态的业务状态永久保存
+     */
+    RETAIN,
+    /**
+     * 过期, 进入终态的业务状态在保留时间后删除
+     */
+    EXPIRE,
+    /**
+     * 归档, 进入终态时交给 {@link cn.jasonone.sm.support.StateArchiver} 归档, 并在保留时间后删除
+     */
+    ARCHIVE
+}
@@ -0,0 +1,12 @@
+package cn.jasonone.sm.exceptions;
+
+/**
+ * 状态冲突异常
+ *
+ * @apiNote 比较并更新状态时, 当前状态已被其他线程或节点修改. 重新读取状态后可重试本次触发
+ */
+public class StateConflictException extends StateMachineException {
+    public StateConflictException(String message, Object... args) {
+        super(message, args);
+    }
+}
@@ -13,4 +13,35 @@ public interface Action {
      * @throws Exception 抛出异常
      */
     void execute(StateMachineEngine engine, StateContext ctx) throws Exception;
+
+    /**
+     * 获取优先级(值越小优先级越高,默认0)
+     *
+     * @return 优先级
+     */
+    default int getPriority() {
+        return 0;
+    }
+
+    /**
+     * 是否延迟到事务提交之后执行(仅后置动作)
+     * <pre>
+     *     启用发件箱时, 延迟动作随状态转换写入本地发件箱, 事务提交后由后台线程异步执行, 失败时重试, 至少执行一次;
+     *     未启用发件箱时与普通后置动作相同, 在事务内同步执行. 发件箱按 {@link #getName()} 恢复重启前未完成的动作, 因此名称应稳定且唯一
+     * </pre>
+     *
+     * @return 是否延迟执行, 默认false
+     */
+    default boolean isDeferred() {
+        return false;
+    }
+
+    /**
+     * 获取名称, 用于日志与指标
+     *
+     * @return 名称, 默认为实现类名; 注解方法生成的动作为 beanName#methodName
+     */
+    default String getName() {
+        return getClass().getName();
+    }
 }
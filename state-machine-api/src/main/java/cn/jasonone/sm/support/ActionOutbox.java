@@ -0,0 +1,29 @@
+package cn.jasonone.sm.support;
+
+import cn.jasonone.sm.domain.StateContext;
+
+/**
+ * 延迟动作发件箱
+ *
+ * @implSpec 注册中心在执行后置动作时调用 {@link #stage}, 此时状态已经更新、事务尚未提交; 实现应只做本地持久化,
+ * 通过 {@link #transactionManagement(TransactionManagement)} 包装的事务管理在事务提交后执行动作, 事务回滚时丢弃;
+ * 不在事务中(如响应式引擎)写入的动作立即开始执行
+ */
+public interface ActionOutbox {
+    /**
+     * 写入本次转换的延迟动作
+     *
+     * @param engine  状态机引擎, 执行动作时传给动作
+     * @param actions 延迟动作, 按优先级排列
+     * @param context 状态上下文
+     */
+    void stage(StateMachineEngine engine, Action[] actions, StateContext context);
+
+    /**
+     * 包装事务管理, 使已写入的延迟动作在事务提交后执行、在事务回滚后丢弃
+     *
+     * @param delegate 引擎使用的事务管理
+     * @return 包装后的事务管理
+     */
+    TransactionManagement transactionManagement(TransactionManagement delegate);
+}
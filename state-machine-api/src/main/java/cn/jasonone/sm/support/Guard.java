@@ -23,4 +23,25 @@ public interface Guard {
     default int getPriority() {
         return 0;
     }
+
+    /**
+     * 是否可与相邻的并行守卫同时执行
+     * <pre>
+     *     并行守卫在守卫执行器的线程中执行, 不能依赖调用线程绑定的上下文(如事务)
+     * </pre>
+     *
+     * @return 是否并行执行, 默认false
+     */
+    default boolean isParallel() {
+        return false;
+    }
+
+    /**
+     * 获取名称, 用于日志与指标
+     *
+     * @return 名称, 默认为实现类名; 注解方法生成的守卫为 beanName#methodName
+     */
+    default String getName() {
+        return getClass().getName();
+    }
 }
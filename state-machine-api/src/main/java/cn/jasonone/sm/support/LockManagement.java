@@ -0,0 +1,65 @@
+package cn.jasonone.sm.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 状态锁管理
+ *
+ * @implSpec 用于串行化同一业务(machineCode, businessId)的状态转换, 不同业务之间不应相互阻塞
+ */
+public interface LockManagement {
+    /**
+     * 加锁
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     */
+    void lock(String machineCode, String businessId);
+
+    /**
+     * 解锁
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     */
+    void unlock(String machineCode, String businessId);
+
+    /**
+     * 批量加锁, 用于批量触发
+     * <pre>
+     *     按业务ID排序后依次加锁, 所有批次使用同一顺序, 不会相互等待; 加锁失败时释放已获得的锁
+     * </pre>
+     *
+     * @param machineCode 状态机编码
+     * @param businessIds 业务ID
+     * @implSpec 实现需按固定的全局顺序加锁, 并与 {@link #unlockAll(String, Collection)} 成对使用
+     */
+    default void lockAll(String machineCode, Collection<String> businessIds) {
+        List<String> locked = new ArrayList<>(businessIds.size());
+        try {
+            for (String businessId : new TreeSet<>(businessIds)) {
+                lock(machineCode, businessId);
+                locked.add(businessId);
+            }
+        } catch (RuntimeException e) {
+            unlockAll(machineCode, locked);
+            throw e;
+        }
+    }
+
+    /**
+     * 批量解锁, 按加锁的相反顺序解锁
+     *
+     * @param machineCode 状态机编码
+     * @param businessIds 业务ID
+     */
+    default void unlockAll(String machineCode, Collection<String> businessIds) {
+        List<String> sorted = new ArrayList<>(new TreeSet<>(businessIds));
+        for (int i = sorted.size() - 1; i >= 0; i--) {
+            unlock(machineCode, sorted.get(i));
+        }
+    }
+}
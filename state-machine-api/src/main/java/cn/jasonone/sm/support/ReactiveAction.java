@@ -0,0 +1,25 @@
+package cn.jasonone.sm.support;
+
+import cn.jasonone.sm.domain.StateContext;
+import reactor.core.publisher.Mono;
+
+/**
+ * 响应式状态变更动作
+ *
+ * @implSpec 响应式引擎订阅 {@link #executeReactive} 的结果, 不阻塞调用线程; 同步引擎通过 {@link #execute} 阻塞等待完成
+ */
+public interface ReactiveAction extends Action {
+    /**
+     * 执行动作
+     *
+     * @param engine 状态机引擎
+     * @param ctx    上下文
+     * @return 动作完成信号
+     */
+    Mono<Void> executeReactive(StateMachineEngine engine, StateContext ctx);
+
+    @Override
+    default void execute(StateMachineEngine engine, StateContext ctx) throws Exception {
+        executeReactive(engine, ctx).block();
+    }
+}
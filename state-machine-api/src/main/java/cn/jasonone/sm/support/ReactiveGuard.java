@@ -0,0 +1,25 @@
+package cn.jasonone.sm.support;
+
+import cn.jasonone.sm.domain.StateContext;
+import reactor.core.publisher.Mono;
+
+/**
+ * 响应式状态守卫
+ *
+ * @implSpec 响应式引擎订阅 {@link #canTransitionReactive} 的结果, 不阻塞调用线程; 同步引擎通过 {@link #canTransition} 阻塞等待结果
+ */
+public interface ReactiveGuard extends Guard {
+    /**
+     * 判断是否可以进行状态转换
+     *
+     * @param engine  状态机引擎
+     * @param context 状态上下文
+     * @return 是否可以进行状态转换, 为空时视为不可以
+     */
+    Mono<Boolean> canTransitionReactive(StateMachineEngine engine, StateContext context);
+
+    @Override
+    default boolean canTransition(StateMachineEngine engine, StateContext context) throws Exception {
+        return Boolean.TRUE.equals(canTransitionReactive(engine, context).block());
+    }
+}
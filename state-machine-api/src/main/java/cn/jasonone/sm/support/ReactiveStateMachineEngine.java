@@ -0,0 +1,57 @@
+package cn.jasonone.sm.support;
+
+import cn.jasonone.sm.domain.TransitionResult;
+import cn.jasonone.sm.domain.TriggerRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * 响应式状态机引擎
+ *
+ * @implSpec 触发过程不阻塞调用线程, 状态读写通过 {@link ReactiveStateMachineManager} 完成;
+ * 返回的 Mono 总是以转换结果完成, 执行失败时为失败的转换结果
+ */
+public interface ReactiveStateMachineEngine {
+    /**
+     * 获取注册中心
+     *
+     * @return 注册中心
+     */
+    StateRegistry getRegistry();
+
+    /**
+     * 触发状态机事件
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param event       事件
+     * @param payload     负载
+     * @return 转换结果
+     */
+    Mono<TransitionResult> trigger(String machineCode, String businessId, Event event, Object payload);
+
+    /**
+     * 触发状态机事件
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param event       事件
+     * @return 转换结果
+     */
+    default Mono<TransitionResult> trigger(String machineCode, String businessId, Event event) {
+        return trigger(machineCode, businessId, event, null);
+    }
+
+    /**
+     * 按顺序依次触发状态机事件
+     *
+     * @param machineCode 状态机编码
+     * @param requests    触发请求
+     * @return 与请求顺序一致的转换结果
+     */
+    default Flux<TransitionResult> triggerAll(String machineCode, List<TriggerRequest> requests) {
+        return Flux.fromIterable(requests).concatMap(request -> trigger(machineCode, request.businessId(), request.event(), request.payload()));
+    }
+}
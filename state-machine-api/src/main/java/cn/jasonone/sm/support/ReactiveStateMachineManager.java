@@ -0,0 +1,45 @@
+package cn.jasonone.sm.support;
+
+import cn.jasonone.sm.domain.StateContext;
+import reactor.core.publisher.Mono;
+
+/**
+ * 响应式状态管理器
+ *
+ * @implSpec 只负责业务当前状态的读写; 初始状态、转换规则与终态声明仍由 {@link StateMachineManager} 管理并在本地缓存
+ */
+public interface ReactiveStateMachineManager {
+    /**
+     * 获取当前状态
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @return 当前状态, 不存在时为空
+     */
+    Mono<State> getCurrentState(String machineCode, String businessId);
+
+    /**
+     * 比较并更新状态
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param expected    期望的当前状态, 为null表示期望状态不存在
+     * @param state       新状态
+     * @return 当前状态与期望状态一致并已更新时为true
+     */
+    Mono<Boolean> updateState(String machineCode, String businessId, State expected, State state);
+
+    /**
+     * 比较并更新状态, 同时提供触发本次更新的状态上下文
+     *
+     * @param context  状态上下文, 目标状态即新状态
+     * @param expected 期望的当前状态, 为null表示期望状态不存在
+     * @return 当前状态与期望状态一致并已更新时为true
+     * @implSpec 默认实现忽略事件与数据, 等同于 {@code updateState(context.machineCode(), context.businessId(), expected, context.to())};
+     * 需要记录事件的实现应覆盖本方法
+     * @see StateMachineManager#updateState(StateContext, State)
+     */
+    default Mono<Boolean> updateState(StateContext context, State expected) {
+        return updateState(context.machineCode(), context.businessId(), expected, context.to());
+    }
+}
@@ -0,0 +1,18 @@
+package cn.jasonone.sm.support;
+
+/**
+ * 终态归档
+ *
+ * @implSpec 终态处理策略为 {@link cn.jasonone.sm.enums.TerminalStatePolicy#ARCHIVE} 时, 业务进入终态且状态写入成功后调用;
+ * 归档失败时应抛出异常, 此时状态已写入, 由调用方决定是否重试
+ */
+public interface StateArchiver {
+    /**
+     * 归档已进入终态的业务
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param state       终态
+     */
+    void archive(String machineCode, String businessId, State state);
+}
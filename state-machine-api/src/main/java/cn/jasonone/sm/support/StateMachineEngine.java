@@ -1,5 +1,12 @@
 package cn.jasonone.sm.support;
 
+import cn.jasonone.sm.domain.TransitionResult;
+import cn.jasonone.sm.domain.TriggerRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * 状态机引擎
  */
@@ -33,4 +40,56 @@ public interface StateMachineEngine {
     default void trigger(String machineCode, String businessId, Event event) throws Exception{
         trigger(machineCode, businessId, event, null);
     }
+
+    /**
+     * 异步触发状态机事件
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param event       事件
+     * @param payload     数据
+     * @return 转换结果, 执行失败时返回失败的转换结果
+     * @implSpec 同一业务的事件按提交顺序执行; 默认实现在调用线程中同步执行, 引擎实现应覆盖本方法以异步执行
+     */
+    default CompletableFuture<TransitionResult> triggerAsync(String machineCode, String businessId, Event event, Object payload) {
+        try {
+            trigger(machineCode, businessId, event, payload);
+            return CompletableFuture.completedFuture(TransitionResult.success(businessId, event, null, null));
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(TransitionResult.failure(businessId, event, null, null, e));
+        }
+    }
+
+    /**
+     * 异步触发状态机事件
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param event       事件
+     * @return 转换结果, 执行失败时返回失败的转换结果
+     */
+    default CompletableFuture<TransitionResult> triggerAsync(String machineCode, String businessId, Event event) {
+        return triggerAsync(machineCode, businessId, event, null);
+    }
+
+    /**
+     * 批量触发状态机事件
+     *
+     * @param machineCode 状态机编码
+     * @param requests    触发请求
+     * @return 与触发请求一一对应的转换结果, 单个请求失败不影响其他请求
+     * @implSpec 默认实现逐个调用 {@link #trigger(String, String, Event, Object)}, 引擎实现应覆盖本方法以批量读写状态
+     */
+    default List<TransitionResult> triggerAll(String machineCode, List<TriggerRequest> requests) {
+        List<TransitionResult> results = new ArrayList<>(requests.size());
+        for (TriggerRequest request : requests) {
+            try {
+                trigger(machineCode, request.businessId(), request.event(), request.payload());
+                results.add(TransitionResult.success(request.businessId(), request.event(), null, null));
+            } catch (Exception e) {
+                results.add(TransitionResult.failure(request.businessId(), request.event(), null, null, e));
+            }
+        }
+        return results;
+    }
 }
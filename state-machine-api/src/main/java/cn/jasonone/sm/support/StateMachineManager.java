@@ -1,8 +1,10 @@
 package cn.jasonone.sm.support;
 
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.domain.StateUpdate;
 import cn.jasonone.sm.domain.Transition;
 
-import java.util.Set;
+import java.util.*;
 
 /**
  * 状态管理器
@@ -36,6 +38,19 @@ public interface StateMachineManager {
      */
     State getCurrentState(String machineCode, String businessId);
 
+    /**
+     * 获取用于状态转换的当前状态
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @return 当前状态
+     * @apiNote 引擎在执行守卫前调用, 守卫与前置动作基于该状态做出判断
+     * @implSpec 带本地缓存的实现应绕过可能过期的缓存, 返回存储中的最新状态; 默认实现等同于 {@link #getCurrentState(String, String)}
+     */
+    default State getLatestState(String machineCode, String businessId) {
+        return getCurrentState(machineCode, businessId);
+    }
+
     /**
      * 保存转换规则
      *
@@ -54,6 +69,50 @@ public interface StateMachineManager {
      */
     Set<Transition> getTransitions(String machineCode);
 
+    /**
+     * 获取转换规则版本号
+     *
+     * @param machineCode 状态机编码
+     * @return 版本号, 转换规则发生变化时版本号随之变化; 返回-1表示不支持版本号
+     * @apiNote 注册中心据此判断本地编译的转换表是否仍然有效, 实现应保证本方法的开销远低于 {@link #getTransitions(String)}
+     */
+    default long getTransitionVersion(String machineCode) {
+        return -1;
+    }
+
+    /**
+     * 保存终态声明
+     *
+     * @param machineCode 状态机编码
+     * @param state       终态
+     * @apiNote 声明为终态的状态即使存在以其为源状态的转换规则, 也按终态处理
+     * @implSpec 默认实现不保存声明, 与默认的 {@link #isTerminalState(String, State)} 一致, 只根据转换规则判断终态;
+     * 支持终态处理策略的存储实现应覆盖本方法与 {@link #isTerminalState(String, State)}
+     */
+    default void saveTerminalState(String machineCode, State state) {
+    }
+
+    /**
+     * 是否为终态
+     *
+     * @param machineCode 状态机编码
+     * @param state       状态
+     * @return 状态已声明为终态, 或没有以该状态为源状态的转换规则时返回true
+     * @implSpec 默认实现每次遍历全部转换规则且不识别显式声明, 存储实现应覆盖本方法
+     */
+    default boolean isTerminalState(String machineCode, State state) {
+        Set<Transition> transitions = getTransitions(machineCode);
+        if (transitions.isEmpty()) {
+            return false;
+        }
+        for (Transition transition : transitions) {
+            if (transition.from().getState().equals(state.getState())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * 更新当前状态
      *
@@ -63,4 +122,82 @@ public interface StateMachineManager {
      * @return 是否更新成功
      */
     boolean updateState(String machineCode, String businessId, State state);
+
+    /**
+     * 比较并更新当前状态
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param expected    期望的当前状态, 为null时表示当前尚无状态
+     * @param state       新状态
+     * @return 当前状态与期望状态一致且更新成功时返回true
+     * @implSpec 默认实现先读取再更新, 不具备原子性, 存储实现应覆盖本方法以原子方式完成比较与更新
+     */
+    default boolean updateState(String machineCode, String businessId, State expected, State state) {
+        State current = getCurrentState(machineCode, businessId);
+        if (current == null ? expected != null : expected == null || !current.getState().equals(expected.getState())) {
+            return false;
+        }
+        return updateState(machineCode, businessId, state);
+    }
+
+    /**
+     * 比较并更新当前状态, 同时提供触发本次更新的状态上下文
+     *
+     * @param context  状态上下文, 目标状态即新状态
+     * @param expected 期望的当前状态, 为null时表示当前尚无状态
+     * @return 当前状态与期望状态一致且更新成功时返回true
+     * @implSpec 默认实现忽略事件与数据, 等同于 {@code updateState(context.machineCode(), context.businessId(), expected, context.to())};
+     * 需要记录事件的实现(例如事件溯源)应覆盖本方法
+     */
+    default boolean updateState(StateContext context, State expected) {
+        return updateState(context.machineCode(), context.businessId(), expected, context.to());
+    }
+
+    /**
+     * 批量获取当前状态
+     *
+     * @param machineCode 状态机编码
+     * @param businessIds 业务ID
+     * @return 业务ID -> 当前状态, 不包含尚无状态的业务
+     * @implSpec 默认实现逐个读取, 存储实现应覆盖本方法以一次请求完成读取
+     */
+    default Map<String, State> getCurrentStates(String machineCode, Collection<String> businessIds) {
+        Map<String, State> states = new HashMap<>(businessIds.size());
+        for (String businessId : businessIds) {
+            State state = getCurrentState(machineCode, businessId);
+            if (state != null) {
+                states.put(businessId, state);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * 批量获取用于状态转换的当前状态
+     *
+     * @param machineCode 状态机编码
+     * @param businessIds 业务ID
+     * @return 业务ID -> 当前状态, 不包含尚无状态的业务
+     * @implSpec 与 {@link #getLatestState(String, String)} 相同, 带本地缓存的实现应绕过缓存; 默认实现等同于 {@link #getCurrentStates(String, Collection)}
+     */
+    default Map<String, State> getLatestStates(String machineCode, Collection<String> businessIds) {
+        return getCurrentStates(machineCode, businessIds);
+    }
+
+    /**
+     * 批量比较并更新当前状态
+     *
+     * @param machineCode 状态机编码
+     * @param updates     更新请求, 同一批次中的业务ID不应重复
+     * @return 与更新请求一一对应的更新结果
+     * @implSpec 默认实现逐个比较并更新, 存储实现应覆盖本方法以一次请求完成更新; 每个业务的比较与更新各自独立, 不要求整批原子
+     */
+    default List<Boolean> updateStates(String machineCode, List<StateUpdate> updates) {
+        List<Boolean> results = new ArrayList<>(updates.size());
+        for (StateUpdate update : updates) {
+            results.add(updateState(machineCode, update.businessId(), update.expected(), update.state()));
+        }
+        return results;
+    }
 }
@@ -0,0 +1,84 @@
+package cn.jasonone.sm.support;
+
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.enums.StateMachineHandlerType;
+
+/**
+ * 状态机指标
+ *
+ * @implSpec 引擎与注册中心在 {@link #isEnabled()} 返回true时计时并调用记录方法, 否则不调用 {@link System#nanoTime()};
+ * 记录方法不接收业务ID, 实现不应以业务ID等无界的值作为维度
+ */
+public interface StateMachineMetrics {
+    /**
+     * 不记录任何指标
+     */
+    StateMachineMetrics NOOP = new StateMachineMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+    };
+
+    /**
+     * 是否记录指标
+     *
+     * @return 返回false时调用方跳过计时
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * 记录一次事件触发
+     *
+     * @param machineCode 状态机编码
+     * @param event       事件
+     * @param transition  执行的转换规则, 未匹配到转换规则时为null
+     * @param nanos       耗时(纳秒), 包括加锁与冲突重试
+     * @param error       失败原因, 成功时为null
+     */
+    default void recordTrigger(String machineCode, Event event, Transition transition, long nanos, Throwable error) {
+    }
+
+    /**
+     * 记录一次守卫拒绝
+     *
+     * @param machineCode 状态机编码
+     * @param sourceState 源状态
+     * @param targetState 目标状态
+     * @param guard       返回false的守卫
+     */
+    default void recordGuardRejected(String machineCode, State sourceState, State targetState, Guard guard) {
+    }
+
+    /**
+     * 记录一次处理器执行
+     *
+     * @param machineCode 状态机编码
+     * @param type        处理器类型
+     * @param handler     守卫或动作
+     * @param nanos       耗时(纳秒)
+     * @param error       执行异常, 正常返回时为null
+     */
+    default void recordHandler(String machineCode, StateMachineHandlerType type, Object handler, long nanos, Throwable error) {
+    }
+
+    /**
+     * 记录一次状态读取
+     *
+     * @param machineCode 状态机编码
+     * @param nanos       耗时(纳秒)
+     */
+    default void recordStateRead(String machineCode, long nanos) {
+    }
+
+    /**
+     * 记录一次状态写入
+     *
+     * @param machineCode 状态机编码
+     * @param nanos       耗时(纳秒)
+     */
+    default void recordStateWrite(String machineCode, long nanos) {
+    }
+}
@@ -59,6 +59,40 @@ public interface StateRegistry {
      */
     Transition getTransition(String machineCode, State from, Event event);
 
+    /**
+     * 注册终态
+     *
+     * @param machineCode 状态机编码
+     * @param state       终态
+     * @implSpec 应使用 {@link StateMachineManager#saveTerminalState(String, State)} 来保存终态声明;
+     * 默认实现不保存声明, 与默认的 {@link #isTerminalState(String, State)} 一致, 只根据转换规则判断终态
+     * @apiNote 没有以某状态为源状态的转换规则时, 该状态自动视为终态, 无需注册
+     */
+    default void registerTerminalState(String machineCode, State state) {
+    }
+
+    /**
+     * 是否为终态
+     *
+     * @param machineCode 状态机编码
+     * @param state       状态
+     * @return 状态已注册为终态, 或没有以该状态为源状态的转换规则时返回true
+     * @implSpec 应使用 {@link StateMachineManager#isTerminalState(String, State)} 来判断;
+     * 默认实现遍历 {@link #getTransitions(String)}, 尚无转换规则时返回false
+     */
+    default boolean isTerminalState(String machineCode, State state) {
+        Set<Transition> transitions = getTransitions(machineCode);
+        if (transitions == null || transitions.isEmpty()) {
+            return false;
+        }
+        for (Transition transition : transitions) {
+            if (transition.from().getState().equals(state.getState())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * 注册状态守卫
      *
@@ -0,0 +1,26 @@
+package cn.jasonone.sm.support;
+
+/**
+ * 状态持久化存储
+ *
+ * @implSpec 内存状态管理器的后备存储: 状态写入内存后同步写入本存储, 内存中不存在(未加载或已淘汰)时从本存储加载
+ */
+public interface StateStore {
+    /**
+     * 加载当前状态
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @return 当前状态, 不存在时返回null
+     */
+    State load(String machineCode, String businessId);
+
+    /**
+     * 保存当前状态
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param state       当前状态
+     */
+    void save(String machineCode, String businessId, State state);
+}
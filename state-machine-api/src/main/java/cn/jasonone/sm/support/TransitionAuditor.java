@@ -0,0 +1,17 @@
+package cn.jasonone.sm.support;
+
+import cn.jasonone.sm.domain.TransitionRecord;
+
+/**
+ * 状态转换审计
+ *
+ * @implSpec 由审计日志的后台线程按记录顺序逐条调用, 不在触发事件的线程中执行; 抛出的异常只记录日志, 不影响后续记录
+ */
+public interface TransitionAuditor {
+    /**
+     * 写入审计记录
+     *
+     * @param record 审计记录
+     */
+    void audit(TransitionRecord record);
+}
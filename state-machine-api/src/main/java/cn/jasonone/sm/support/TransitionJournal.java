@@ -0,0 +1,20 @@
+package cn.jasonone.sm.support;
+
+/**
+ * 状态转换日志
+ *
+ * @implSpec 引擎在状态更新成功之后、后置动作之前同步调用, 实现应只做顺序追加, 不应执行远程调用;
+ * 追加失败时抛出的异常会使本次触发失败并回滚事务, 但状态已经更新
+ */
+public interface TransitionJournal {
+    /**
+     * 追加一条已生效的状态转换
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param from        源状态
+     * @param to          目标状态
+     * @param event       事件
+     */
+    void append(String machineCode, String businessId, State from, State to, Event event);
+}
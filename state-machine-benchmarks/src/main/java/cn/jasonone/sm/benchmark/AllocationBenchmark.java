@@ -0,0 +1,54 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.support.StateMachineEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.CANCEL;
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.PAY;
+import static cn.jasonone.sm.benchmark.BenchmarkState.CREATED;
+
+/**
+ * 触发路径的内存分配, 需配合GC分析器运行:
+ * <pre>
+ *     java -jar benchmarks.jar AllocationBenchmark -prof gc
+ * </pre>
+ * 关注 gc.alloc.rate.norm 指标(每次操作分配的字节数)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+
+    private final Object payload = new Object();
+
+    private StateMachineEngine engine;
+    private String machineCode;
+
+    @Setup
+    public void setup() {
+        engine = BenchmarkMachines.newEngine(new DefaultStateMachineManager());
+        machineCode = BenchmarkMachines.newMachineCode("allocation");
+        BenchmarkMachines.registerTransitions(engine.getRegistry(), machineCode);
+        BenchmarkMachines.registerHandlers(engine.getRegistry(), machineCode, 1, false);
+    }
+
+    /**
+     * CREATED -PAY-> PAID -CANCEL-> CREATED
+     */
+    @Benchmark
+    public void trigger() throws Exception {
+        engine.trigger(machineCode, "1", PAY, payload);
+        engine.trigger(machineCode, "1", CANCEL, payload);
+    }
+
+    @Benchmark
+    public Object lookup() {
+        return engine.getRegistry().getTransition(machineCode, CREATED, PAY);
+    }
+}
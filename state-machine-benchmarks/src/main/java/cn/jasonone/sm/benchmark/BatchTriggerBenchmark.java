@@ -0,0 +1,83 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.RedisStateMachineManager;
+import cn.jasonone.sm.domain.TransitionResult;
+import cn.jasonone.sm.domain.TriggerRequest;
+import cn.jasonone.sm.support.StateMachineEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.CANCEL;
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.PAY;
+
+/**
+ * 逐个 {@link StateMachineEngine#trigger} vs {@link StateMachineEngine#triggerAll} 批量触发
+ * <pre>
+ *     每次操作对同一批业务依次触发 PAY 与 CANCEL
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchTriggerBenchmark {
+
+    @Param({"default", "redis"})
+    private String manager;
+
+    @Param({"100"})
+    private int batchSize;
+
+    private EmbeddedRedis redis;
+    private StateMachineEngine engine;
+    private String machineCode;
+    private List<TriggerRequest> pay;
+    private List<TriggerRequest> cancel;
+
+    @Setup
+    public void setup() throws Exception {
+        if ("redis".equals(manager)) {
+            redis = new EmbeddedRedis();
+            engine = BenchmarkMachines.newEngine(new RedisStateMachineManager(redis.template()));
+        } else {
+            engine = BenchmarkMachines.newEngine(new DefaultStateMachineManager());
+        }
+        machineCode = BenchmarkMachines.newMachineCode("batch");
+        BenchmarkMachines.registerTransitions(engine.getRegistry(), machineCode);
+        pay = new ArrayList<>(batchSize);
+        cancel = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            pay.add(new TriggerRequest(String.valueOf(i), PAY));
+            cancel.add(new TriggerRequest(String.valueOf(i), CANCEL));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    @Benchmark
+    public void loop() throws Exception {
+        for (TriggerRequest request : pay) {
+            engine.trigger(machineCode, request.businessId(), request.event());
+        }
+        for (TriggerRequest request : cancel) {
+            engine.trigger(machineCode, request.businessId(), request.event());
+        }
+    }
+
+    @Benchmark
+    public List<TransitionResult> batch() {
+        engine.triggerAll(machineCode, pay);
+        return engine.triggerAll(machineCode, cancel);
+    }
+}
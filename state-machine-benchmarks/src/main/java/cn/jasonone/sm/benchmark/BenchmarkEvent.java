@@ -0,0 +1,22 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.support.Event;
+
+/**
+ * 基准测试事件
+ */
+public enum BenchmarkEvent implements Event {
+    PAY,
+    SHIP,
+    DELIVER,
+    CANCEL,
+    /**
+     * 自循环事件, 不改变状态, 用于并发场景
+     */
+    REFRESH;
+
+    @Override
+    public String getCode() {
+        return name();
+    }
+}
@@ -0,0 +1,85 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.core.DefaultStateMachineEngine;
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.core.DefaultTransactionManagement;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.enums.StateMachineActionType;
+import cn.jasonone.sm.support.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.*;
+import static cn.jasonone.sm.benchmark.BenchmarkState.*;
+
+/**
+ * 基准测试用状态机构建工具
+ */
+final class BenchmarkMachines {
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    private BenchmarkMachines() {
+    }
+
+    /**
+     * 生成唯一的状态机编码, 避免同一JVM内多次 Setup 时重复注册
+     *
+     * @param prefix 前缀
+     * @return 状态机编码
+     */
+    static String newMachineCode(String prefix) {
+        return prefix + "-" + SEQUENCE.incrementAndGet();
+    }
+
+    static StateMachineEngine newEngine(StateMachineManager manager) {
+        StateRegistry registry = new DefaultStateRegistry(manager);
+        return new DefaultStateMachineEngine(registry, manager, new DefaultTransactionManagement());
+    }
+
+    /**
+     * 注册订单状态机: CREATED -PAY-> PAID -CANCEL-> CREATED, 以及 CREATED/PAID 上的 REFRESH 自循环
+     *
+     * @param registry    注册中心
+     * @param machineCode 状态机编码
+     */
+    static void registerTransitions(StateRegistry registry, String machineCode) {
+        registry.setInitialState(machineCode, CREATED);
+        registry.registerTransition(machineCode, new Transition(CREATED, PAY, PAID));
+        registry.registerTransition(machineCode, new Transition(PAID, CANCEL, CREATED));
+        registry.registerTransition(machineCode, new Transition(CREATED, REFRESH, CREATED));
+        registry.registerTransition(machineCode, new Transition(PAID, REFRESH, PAID));
+    }
+
+    /**
+     * 注册守卫与动作
+     *
+     * @param registry    注册中心
+     * @param machineCode 状态机编码
+     * @param count       守卫数量, 前置/后置动作各注册相同数量
+     * @param wildcard    是否使用通配符注册, 通配符模式下同时注册同等数量的不匹配处理器
+     */
+    static void registerHandlers(StateRegistry registry, String machineCode, int count, boolean wildcard) {
+        for (int i = 0; i < count; i++) {
+            // 捕获序号, 保证每个处理器都是独立实例(注册中心会对同一实例去重)
+            int index = i;
+            Guard guard = (engine, context) -> context.businessId() != null || index < 0;
+            Action action = (engine, ctx) -> Blackholes.consume(index < 0 ? null : ctx);
+            if (wildcard) {
+                String mc = (i % 2 == 0) ? "*" : machineCode;
+                State source = (i % 3 == 0) ? null : CREATED;
+                State target = (i % 3 == 1) ? null : PAID;
+                registry.registerGuard(mc, source, target, guard);
+                registry.registerAction(mc, source, target, action, StateMachineActionType.BEFORE);
+                registry.registerAction(mc, null, null, action, StateMachineActionType.AFTER);
+                // 不匹配的处理器, 只增加注册表规模
+                registry.registerGuard(machineCode + "-other-" + i, null, null, guard);
+                registry.registerAction(machineCode, SHIPPED, null, action, StateMachineActionType.AFTER);
+            } else {
+                registry.registerGuard(machineCode, CREATED, PAID, guard);
+                registry.registerAction(machineCode, CREATED, PAID, action, StateMachineActionType.BEFORE);
+                registry.registerAction(machineCode, CREATED, PAID, action, StateMachineActionType.AFTER);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.support.State;
+
+/**
+ * 基准测试状态
+ */
+public enum BenchmarkState implements State {
+    CREATED,
+    PAID,
+    SHIPPED,
+    DELIVERED,
+    CANCELLED;
+
+    @Override
+    public String getState() {
+        return name();
+    }
+}
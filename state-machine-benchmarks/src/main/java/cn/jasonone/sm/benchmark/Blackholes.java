@@ -0,0 +1,18 @@
+package cn.jasonone.sm.benchmark;
+
+/**
+ * 处理器内部使用的简易消费器, 防止处理器逻辑被JIT消除
+ */
+final class Blackholes {
+
+    private static volatile Object sink;
+
+    private Blackholes() {
+    }
+
+    static void consume(Object value) {
+        if (value == null) {
+            sink = value;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.support.StateMachineEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.REFRESH;
+
+/**
+ * 多线程并发触发: 所有线程触发同一业务ID vs 每个线程触发各自的业务ID
+ * <pre>
+ *     使用 REFRESH 自循环事件, 保证任意交错顺序下触发均合法
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ContentionBenchmark {
+
+    private StateMachineEngine engine;
+    private String machineCode;
+
+    @Setup
+    public void setup() {
+        engine = BenchmarkMachines.newEngine(new DefaultStateMachineManager());
+        machineCode = BenchmarkMachines.newMachineCode("contention");
+        BenchmarkMachines.registerTransitions(engine.getRegistry(), machineCode);
+        BenchmarkMachines.registerHandlers(engine.getRegistry(), machineCode, 10, false);
+    }
+
+    @State(Scope.Thread)
+    public static class BusinessId {
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+        private final String value = "biz-" + SEQUENCE.incrementAndGet();
+    }
+
+    @Benchmark
+    public void sameBusinessId() throws Exception {
+        engine.trigger(machineCode, "shared", REFRESH);
+    }
+
+    @Benchmark
+    public void differentBusinessIds(BusinessId businessId) throws Exception {
+        engine.trigger(machineCode, businessId.value, REFRESH);
+    }
+}
@@ -0,0 +1,60 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.config.MethodHandlerFactory;
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.support.Guard;
+import cn.jasonone.sm.support.StateMachineEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 注解守卫方法的调用开销: 反射调用 vs {@link MethodHandlerFactory} 生成的实现
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerInvocationBenchmark {
+
+    private final StateContext context = new StateContext("bench", "1", BenchmarkState.CREATED, BenchmarkState.PAID, BenchmarkEvent.PAY, null);
+
+    private Handler handler;
+    private Guard reflective;
+    private Guard generated;
+
+    @Setup
+    public void setup() throws Exception {
+        handler = new Handler();
+        Method method = Handler.class.getDeclaredMethod("check", StateMachineEngine.class, StateContext.class);
+        // 与原 StateMachineProcessor 相同的反射调用方式
+        reflective = (engine, ctx) -> (Boolean) method.invoke(handler, engine, ctx);
+        generated = MethodHandlerFactory.createGuard(handler, method, 0);
+    }
+
+    @Benchmark
+    public boolean direct() {
+        return handler.check(null, context);
+    }
+
+    @Benchmark
+    public boolean reflective() throws Exception {
+        return reflective.canTransition(null, context);
+    }
+
+    @Benchmark
+    public boolean generated() throws Exception {
+        return generated.canTransition(null, context);
+    }
+
+    public static class Handler {
+        private int counter;
+
+        public boolean check(StateMachineEngine engine, StateContext ctx) {
+            return (++counter & 1) == 0 || ctx.payload() == null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.core.journal.MappedTransitionJournal;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.PAY;
+import static cn.jasonone.sm.benchmark.BenchmarkState.CREATED;
+import static cn.jasonone.sm.benchmark.BenchmarkState.PAID;
+
+/**
+ * 状态转换日志追加吞吐量
+ * <pre>
+ *     groupCommit: 后台线程每10ms刷写一次, 追加线程不等待刷写
+ *     awaitCommit: 追加线程等待包含本条记录的刷写完成, 多个线程共用一次刷写
+ * </pre>
+ * 日志写入系统临时目录, 结果取决于本地磁盘的同步延迟
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class JournalBenchmark {
+
+    @Param({"false", "true"})
+    private boolean awaitCommit;
+
+    private Path directory;
+    private MappedTransitionJournal journal;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("state-machine-journal");
+        journal = new MappedTransitionJournal(directory, 64 * 1024 * 1024, Duration.ofMillis(10), awaitCommit);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void append() {
+        journal.append("journal", "1", CREATED, PAID, PAY);
+    }
+}
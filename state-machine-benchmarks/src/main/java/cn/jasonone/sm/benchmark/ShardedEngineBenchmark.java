@@ -0,0 +1,100 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.core.DefaultTransactionManagement;
+import cn.jasonone.sm.core.ShardedStateMachineEngine;
+import cn.jasonone.sm.domain.TransitionResult;
+import cn.jasonone.sm.support.StateMachineEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.REFRESH;
+
+/**
+ * 多线程触发不同业务ID: 默认引擎(锁 + 比较并更新) vs 分片单写引擎
+ * <pre>
+ *     1. sharded 每次同步等待结果, 包含一次线程切换
+ *     2. shardedPipelined 每批异步提交 {@link #BATCH} 个事件后再等待, 分片线程连续执行
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ShardedEngineBenchmark {
+
+    private static final int BATCH = 64;
+
+    private StateMachineEngine defaultEngine;
+    private ShardedStateMachineEngine shardedEngine;
+    private String machineCode;
+
+    @Setup
+    public void setup() {
+        machineCode = BenchmarkMachines.newMachineCode("sharded");
+        defaultEngine = BenchmarkMachines.newEngine(new DefaultStateMachineManager());
+        BenchmarkMachines.registerTransitions(defaultEngine.getRegistry(), machineCode);
+        BenchmarkMachines.registerHandlers(defaultEngine.getRegistry(), machineCode, 10, false);
+
+        DefaultStateRegistry registry = new DefaultStateRegistry(new DefaultStateMachineManager());
+        BenchmarkMachines.registerTransitions(registry, machineCode);
+        BenchmarkMachines.registerHandlers(registry, machineCode, 10, false);
+        shardedEngine = new ShardedStateMachineEngine(registry, new DefaultTransactionManagement(), 4, 4096);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        shardedEngine.close();
+    }
+
+    @State(Scope.Thread)
+    public static class BusinessIds {
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+        private final String[] values = new String[BATCH];
+        private final CompletableFuture<?>[] futures = new CompletableFuture<?>[BATCH];
+        private int next;
+
+        public BusinessIds() {
+            int thread = SEQUENCE.incrementAndGet();
+            for (int i = 0; i < BATCH; i++) {
+                values[i] = "biz-" + thread + "-" + i;
+            }
+        }
+
+        String next() {
+            next = (next + 1) % BATCH;
+            return values[next];
+        }
+    }
+
+    @Benchmark
+    public void defaultEngine(BusinessIds businessIds) throws Exception {
+        defaultEngine.trigger(machineCode, businessIds.next(), REFRESH);
+    }
+
+    @Benchmark
+    public void sharded(BusinessIds businessIds) throws Exception {
+        shardedEngine.trigger(machineCode, businessIds.next(), REFRESH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void shardedPipelined(BusinessIds businessIds) {
+        for (int i = 0; i < BATCH; i++) {
+            businessIds.futures[i] = shardedEngine.triggerAsync(machineCode, businessIds.values[i], REFRESH);
+        }
+        for (CompletableFuture<?> future : businessIds.futures) {
+            if (!((TransitionResult) future.join()).isSuccess()) {
+                throw new IllegalStateException("触发失败");
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.RedisStateMachineManager;
+import cn.jasonone.sm.support.StateMachineManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static cn.jasonone.sm.benchmark.BenchmarkState.CREATED;
+import static cn.jasonone.sm.benchmark.BenchmarkState.PAID;
+
+/**
+ * 状态管理器读写开销: {@link DefaultStateMachineManager} vs {@link RedisStateMachineManager}(进程内 Redis 替身)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateManagerBenchmark {
+
+    @Param({"default", "redis"})
+    private String manager;
+
+    private EmbeddedRedis redis;
+    private StateMachineManager stateManager;
+    private String machineCode;
+    private boolean paid;
+
+    @Setup
+    public void setup() throws Exception {
+        if ("redis".equals(manager)) {
+            redis = new EmbeddedRedis();
+            stateManager = new RedisStateMachineManager(redis.template());
+        } else {
+            stateManager = new DefaultStateMachineManager();
+        }
+        machineCode = BenchmarkMachines.newMachineCode("manager");
+        stateManager.updateState(machineCode, "1", CREATED);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    @Benchmark
+    public cn.jasonone.sm.support.State read() {
+        return stateManager.getCurrentState(machineCode, "1");
+    }
+
+    @Benchmark
+    public boolean write() {
+        paid = !paid;
+        return stateManager.updateState(machineCode, "1", paid ? PAID : CREATED);
+    }
+}
@@ -0,0 +1,60 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.support.StateRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.PAY;
+import static cn.jasonone.sm.benchmark.BenchmarkState.CREATED;
+import static cn.jasonone.sm.benchmark.BenchmarkState.DELIVERED;
+
+/**
+ * {@link StateRegistry#getTransition} 缓存命中与未命中的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransitionLookupBenchmark {
+
+    /**
+     * 除订单状态机外额外注册的转换规则数量
+     */
+    @Param({"0", "100"})
+    private int extraTransitions;
+
+    private StateRegistry registry;
+    private String machineCode;
+
+    @Setup
+    public void setup() {
+        registry = new DefaultStateRegistry(new DefaultStateMachineManager());
+        machineCode = BenchmarkMachines.newMachineCode("lookup");
+        BenchmarkMachines.registerTransitions(registry, machineCode);
+        for (int i = 0; i < extraTransitions; i++) {
+            String from = "S" + i;
+            String to = "S" + (i + 1);
+            cn.jasonone.sm.support.State source = () -> from;
+            cn.jasonone.sm.support.State target = () -> to;
+            registry.registerTransition(machineCode, new Transition(source, PAY, target));
+        }
+        // 预热缓存
+        registry.getTransition(machineCode, CREATED, PAY);
+    }
+
+    @Benchmark
+    public Transition hit() {
+        return registry.getTransition(machineCode, CREATED, PAY);
+    }
+
+    @Benchmark
+    public Transition miss() {
+        return registry.getTransition(machineCode, DELIVERED, PAY);
+    }
+}
@@ -0,0 +1,48 @@
+package cn.jasonone.sm.benchmark;
+
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.support.StateMachineEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.CANCEL;
+import static cn.jasonone.sm.benchmark.BenchmarkEvent.PAY;
+
+/**
+ * {@link StateMachineEngine#trigger} 吞吐量, 按守卫/动作数量与注册方式分组
+ * <pre>
+ *     每次操作触发两次事件: CREATED -PAY-> PAID -CANCEL-> CREATED
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriggerBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    private int handlers;
+
+    @Param({"false", "true"})
+    private boolean wildcard;
+
+    private StateMachineEngine engine;
+    private String machineCode;
+
+    @Setup
+    public void setup() {
+        engine = BenchmarkMachines.newEngine(new DefaultStateMachineManager());
+        machineCode = BenchmarkMachines.newMachineCode("trigger");
+        BenchmarkMachines.registerTransitions(engine.getRegistry(), machineCode);
+        BenchmarkMachines.registerHandlers(engine.getRegistry(), machineCode, handlers, wildcard);
+    }
+
+    @Benchmark
+    public void payAndCancel() throws Exception {
+        engine.trigger(machineCode, "1", PAY);
+        engine.trigger(machineCode, "1", CANCEL);
+    }
+}
@@ -0,0 +1,58 @@
+package cn.jasonone.sm.config;
+
+import cn.jasonone.sm.core.outbox.FileActionOutbox;
+import cn.jasonone.sm.support.StateMachineEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+
+/**
+ * 在容器启动时执行上次退出前未完成的延迟动作, 在容器停止时停止执行
+ * <pre>
+ *     在所有单例Bean初始化完成后、状态恢复之后启动, 此时守卫与动作均已注册, 状态已经恢复;
+ *     停止时尚未完成的动作保留在发件箱中, 下次启动时再次执行
+ * </pre>
+ */
+@Slf4j
+public class ActionOutboxLifecycle implements SmartLifecycle {
+
+    private final FileActionOutbox actionOutbox;
+
+    private final ObjectProvider<StateMachineEngine> engine;
+
+    private volatile boolean running;
+
+    public ActionOutboxLifecycle(FileActionOutbox actionOutbox, ObjectProvider<StateMachineEngine> engine) {
+        this.actionOutbox = actionOutbox;
+        this.engine = engine;
+    }
+
+    @Override
+    public void start() {
+        engine.ifAvailable(actionOutbox::recover);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        try {
+            actionOutbox.close();
+        } catch (IOException e) {
+            log.warn("关闭发件箱失败", e);
+        } finally {
+            running = false;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE + 1;
+    }
+}
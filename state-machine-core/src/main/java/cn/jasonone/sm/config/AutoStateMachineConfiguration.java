@@ -1,16 +1,29 @@
 package cn.jasonone.sm.config;
 
-import cn.jasonone.sm.core.DefaultStateMachineEngine;
-import cn.jasonone.sm.core.DefaultStateMachineManager;
-import cn.jasonone.sm.core.DefaultStateRegistry;
-import cn.jasonone.sm.core.DefaultTransactionManagement;
+import cn.hutool.core.lang.Assert;
+import cn.jasonone.sm.core.*;
+import cn.jasonone.sm.core.eventsource.EventSourcedStateMachineManager;
+import cn.jasonone.sm.core.journal.MappedTransitionJournal;
+import cn.jasonone.sm.core.journal.StateRecovery;
+import cn.jasonone.sm.core.outbox.FileActionOutbox;
+import cn.jasonone.sm.enums.TerminalStatePolicy;
 import cn.jasonone.sm.support.*;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.Resource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
 
 /**
  * 自动配置
@@ -18,6 +31,15 @@ import org.springframework.context.annotation.Bean;
 @AutoConfiguration
 @EnableConfigurationProperties(StateMachineProperties.class)
 public class AutoStateMachineConfiguration {
+    /**
+     * 自定义异步触发执行器的Bean名称, 未定义时使用 {@link StateMachineExecutors#defaultExecutor()}
+     */
+    public static final String ASYNC_EXECUTOR_BEAN_NAME = "stateMachineAsyncExecutor";
+    /**
+     * 自定义并行守卫执行器的Bean名称, 未定义时使用 {@link StateMachineExecutors#defaultExecutor()}
+     */
+    public static final String GUARD_EXECUTOR_BEAN_NAME = "stateMachineGuardExecutor";
+
     @Resource
     private StateMachineProperties properties;
 
@@ -33,10 +55,46 @@ public class AutoStateMachineConfiguration {
         return new DefaultStateMachineConfiguration(properties);
     }
 
+    /**
+     * 事件溯源状态管理器, 启用时代替默认状态管理器
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "state-machine.event-sourcing", name = "enabled", havingValue = "true")
+    @ConditionalOnMissingBean(StateMachineManager.class)
+    public EventSourcedStateMachineManager eventSourcedStateMachineManager() throws IOException {
+        StateMachineProperties.EventSourcing config = properties.getEventSourcing();
+        EventSourcedStateMachineManager manager = new EventSourcedStateMachineManager(Path.of(config.getDirectory()),
+                Math.toIntExact(config.getSegmentSize().toBytes()));
+        manager.start(config.getFlushInterval(), config.getSnapshotInterval());
+        return manager;
+    }
+
     @Bean
     @ConditionalOnMissingBean(StateMachineManager.class)
-    public StateMachineManager stateMachineManager() {
-        return new DefaultStateMachineManager();
+    public DefaultStateMachineManager stateMachineManager(ObjectProvider<StateStore> stateStore, ObjectProvider<StateArchiver> stateArchiver) {
+        StateMachineProperties.Cache cache = properties.getCache();
+        StateMachineProperties.Terminal terminal = properties.getTerminal();
+        DefaultStateMachineManager manager = new DefaultStateMachineManager();
+        manager.setMaximumSize(cache.getMaximumSize());
+        manager.setRecordStats(cache.isRecordStats());
+        manager.setTerminalStatePolicy(terminal.getPolicy());
+        manager.setTerminalTtl(terminal.getTtl());
+        manager.setStateArchiver(requireArchiver(terminal, stateArchiver));
+        stateStore.ifAvailable(manager::setStateStore);
+        return manager;
+    }
+
+    /**
+     * 获取终态归档器, 归档策略下必须注册 {@link StateArchiver}
+     *
+     * @param terminal      终态处理配置
+     * @param stateArchiver 终态归档器
+     * @return 终态归档器, 非归档策略下未注册时返回null
+     */
+    public static StateArchiver requireArchiver(StateMachineProperties.Terminal terminal, ObjectProvider<StateArchiver> stateArchiver) {
+        StateArchiver archiver = stateArchiver.getIfAvailable();
+        Assert.isFalse(terminal.getPolicy() == TerminalStatePolicy.ARCHIVE && archiver == null, "终态处理策略为ARCHIVE时必须注册StateArchiver");
+        return archiver;
     }
 
     @Bean
@@ -45,18 +103,161 @@ public class AutoStateMachineConfiguration {
         return new DefaultTransactionManagement();
     }
 
+    @Bean
+    @ConditionalOnMissingBean(LockManagement.class)
+    public LockManagement lockManagement() {
+        StateMachineProperties.Lock lock = properties.getLock();
+        if (!lock.isEnabled()) {
+            return new DefaultLockManagement();
+        }
+        return new StripedLockManagement(lock.getStripes());
+    }
+
+    /**
+     * 延迟动作发件箱, 默认使用异步触发执行器执行延迟动作
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "state-machine.outbox", name = "enabled", havingValue = "true")
+    @ConditionalOnMissingBean(ActionOutbox.class)
+    public FileActionOutbox actionOutbox(@Qualifier(ASYNC_EXECUTOR_BEAN_NAME) ObjectProvider<Executor> asyncExecutor) throws IOException {
+        StateMachineProperties.Outbox outbox = properties.getOutbox();
+        FileActionOutbox actionOutbox = new FileActionOutbox(Path.of(outbox.getDirectory()), outbox.getCompactSize().toBytes(), outbox.isSync());
+        actionOutbox.setMaxAttempts(outbox.getMaxAttempts());
+        actionOutbox.setRetryInterval(outbox.getRetryInterval());
+        actionOutbox.setMaxRetryInterval(outbox.getMaxRetryInterval());
+        asyncExecutor.ifAvailable(actionOutbox::setExecutor);
+        return actionOutbox;
+    }
+
+    /**
+     * 在容器启动时执行上次退出前未完成的延迟动作
+     */
+    @Bean
+    @ConditionalOnBean(FileActionOutbox.class)
+    public ActionOutboxLifecycle actionOutboxLifecycle(FileActionOutbox actionOutbox, ObjectProvider<StateMachineEngine> engine) {
+        return new ActionOutboxLifecycle(actionOutbox, engine);
+    }
+
     @Bean
     @ConditionalOnMissingBean(StateRegistry.class)
-    public StateRegistry stateRegistry(StateMachineManager  manager) {
-        return new DefaultStateRegistry(manager);
+    public DefaultStateRegistry stateRegistry(StateMachineManager  manager, ObjectProvider<StateMachineMetrics> metrics,
+                                       @Qualifier(GUARD_EXECUTOR_BEAN_NAME) ObjectProvider<Executor> guardExecutor, ObjectProvider<ActionOutbox> actionOutbox) {
+        DefaultStateRegistry registry = new DefaultStateRegistry(manager);
+        metrics.ifAvailable(registry::setMetrics);
+        guardExecutor.ifAvailable(registry::setGuardExecutor);
+        actionOutbox.ifAvailable(registry::setActionOutbox);
+        return registry;
+    }
+
+    /**
+     * 配置发件箱时包装事务管理, 使延迟动作在事务提交后执行
+     */
+    private static TransactionManagement transactionManagement(TransactionManagement transactionManagement, ObjectProvider<ActionOutbox> actionOutbox) {
+        ActionOutbox outbox = actionOutbox.getIfAvailable();
+        return outbox == null ? transactionManagement : outbox.transactionManagement(transactionManagement);
+    }
+
+    /**
+     * 分片单写引擎, 启用时代替默认引擎
+     * <pre>
+     *     状态由分片持有, 不经过状态管理器, 因此不支持从状态转换日志恢复; 同时启用状态转换日志时需关闭 state-machine.journal.recovery.enabled
+     * </pre>
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnBean(StateRegistry.class)
+    @ConditionalOnProperty(prefix = "state-machine.sharding", name = "enabled", havingValue = "true")
+    @ConditionalOnMissingBean(StateMachineEngine.class)
+    public ShardedStateMachineEngine shardedStateMachineEngine(StateRegistry registry, TransactionManagement transactionManagement, ObjectProvider<StateStore> stateStore,
+                                                               ObjectProvider<StateMachineMetrics> metrics, ObjectProvider<TransitionJournal> journal,
+                                                               ObjectProvider<ActionOutbox> actionOutbox, ObjectProvider<TransitionAuditLog> auditLog) {
+        StateMachineProperties.Journal journalConfig = properties.getJournal();
+        Assert.isFalse(journalConfig.isEnabled() && journalConfig.getRecovery().isEnabled(),
+                "分片引擎不支持从状态转换日志恢复状态, 同时启用分片与状态转换日志时请设置 state-machine.journal.recovery.enabled=false");
+        StateMachineProperties.Sharding sharding = properties.getSharding();
+        int shards = sharding.getShards() > 0 ? sharding.getShards() : Runtime.getRuntime().availableProcessors();
+        ShardedStateMachineEngine engine = new ShardedStateMachineEngine(registry, transactionManagement(transactionManagement, actionOutbox), shards, sharding.getQueueCapacity());
+        engine.setSubmitTimeout(sharding.getSubmitTimeout());
+        stateStore.ifAvailable(engine::setStateStore);
+        metrics.ifAvailable(engine::setMetrics);
+        journal.ifAvailable(engine::setJournal);
+        auditLog.ifAvailable(engine::setAuditLog);
+        return engine;
     }
 
     @Bean
     @ConditionalOnBean({StateMachineManager.class, StateRegistry.class})
     @ConditionalOnMissingBean(StateMachineEngine.class)
-    public StateMachineEngine stateMachineEngine(StateRegistry registry, StateMachineManager manager, TransactionManagement transactionManagement) {
-        return new DefaultStateMachineEngine(registry, manager, transactionManagement);
+    public StateMachineEngine stateMachineEngine(StateRegistry registry, StateMachineManager manager, TransactionManagement transactionManagement, LockManagement lockManagement,
+                                                 @Qualifier(ASYNC_EXECUTOR_BEAN_NAME) ObjectProvider<Executor> asyncExecutor, ObjectProvider<StateMachineMetrics> metrics,
+                                                 ObjectProvider<TransitionAuditLog> auditLog, ObjectProvider<TransitionJournal> journal, ObjectProvider<ActionOutbox> actionOutbox) {
+        DefaultStateMachineEngine engine = new DefaultStateMachineEngine(registry, manager, transactionManagement(transactionManagement, actionOutbox));
+        engine.setLockManagement(lockManagement);
+        engine.setConflictRetries(properties.getConflictRetries());
+        asyncExecutor.ifAvailable(engine::setAsyncExecutor);
+        metrics.ifAvailable(engine::setMetrics);
+        auditLog.ifAvailable(engine::setAuditLog);
+        journal.ifAvailable(engine::setJournal);
+        return engine;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "state-machine.audit", name = "enabled", havingValue = "true")
+    @ConditionalOnMissingBean(TransitionAuditLog.class)
+    public TransitionAuditLog transitionAuditLog(ObjectProvider<TransitionAuditor> auditor) {
+        StateMachineProperties.Audit audit = properties.getAudit();
+        return new TransitionAuditLog(auditor.getIfAvailable(() -> new LoggingTransitionAuditor(audit.getLogger())),
+                audit.getBufferSize(), audit.getSampleRate());
     }
 
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "state-machine.journal", name = "enabled", havingValue = "true")
+    @ConditionalOnMissingBean(TransitionJournal.class)
+    public MappedTransitionJournal transitionJournal() throws IOException {
+        StateMachineProperties.Journal journal = properties.getJournal();
+        return new MappedTransitionJournal(Path.of(journal.getDirectory()), Math.toIntExact(journal.getSegmentSize().toBytes()),
+                journal.getCommitInterval(), journal.isAwaitCommit());
+    }
 
+    /**
+     * 默认状态管理器的快照与恢复, 启用状态转换日志且未启用分片引擎时生效
+     */
+    @Bean
+    @ConditionalOnBean({DefaultStateMachineManager.class, MappedTransitionJournal.class})
+    @ConditionalOnMissingBean(ShardedStateMachineEngine.class)
+    @ConditionalOnProperty(prefix = "state-machine.journal.recovery", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public StateRecoveryLifecycle stateRecoveryLifecycle(DefaultStateMachineManager manager, MappedTransitionJournal journal) throws IOException {
+        StateMachineProperties.Recovery config = properties.getJournal().getRecovery();
+        StateRecovery recovery = new StateRecovery(manager, journal, Path.of(config.getSnapshotDirectory()));
+        recovery.setRetainedSnapshots(config.getRetainedSnapshots());
+        if (config.getPartitions() > 0) {
+            recovery.setPartitions(config.getPartitions());
+        }
+        return new StateRecoveryLifecycle(recovery, config.getSnapshotInterval());
+    }
+
+    /**
+     * Micrometer 指标, 类路径中存在 Micrometer 且容器中存在 MeterRegistry 时生效
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnProperty(prefix = "state-machine.metrics", name = "enabled", havingValue = "true", matchIfMissing = true)
+    static class MetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(StateMachineMetrics.class)
+        public StateMachineMetrics stateMachineMetrics(ObjectProvider<MeterRegistry> meterRegistry, StateMachineProperties properties) {
+            MeterRegistry registry = meterRegistry.getIfAvailable();
+            if (registry == null) {
+                return StateMachineMetrics.NOOP;
+            }
+            StateMachineProperties.Metrics config = properties.getMetrics();
+            MicrometerStateMachineMetrics metrics = new MicrometerStateMachineMetrics(registry);
+            metrics.setMachineCodeTag(config.isMachineCodeTag());
+            metrics.setEventTag(config.isEventTag());
+            metrics.setTransitionTag(config.isTransitionTag());
+            metrics.setHandlerTag(config.isHandlerTag());
+            metrics.setPercentileHistogram(config.isPercentileHistogram());
+            return metrics;
+        }
+    }
 }
@@ -0,0 +1,235 @@
+package cn.jasonone.sm.config;
+
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.exceptions.StateMachineException;
+import cn.jasonone.sm.support.Action;
+import cn.jasonone.sm.support.Guard;
+import cn.jasonone.sm.support.StateMachineEngine;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * 将注解方法绑定为 {@link Guard}/{@link Action} 实现
+ * <pre>
+ *     优先通过 {@link LambdaMetafactory} 生成直接调用目标方法的实现类, 调用时不经过反射, 也不会装箱返回值或包装异常;
+ *     当目标类不允许生成实现类时(例如类加载器不可见), 退化为绑定到实例的 {@link MethodHandle} 调用
+ * </pre>
+ */
+public final class MethodHandlerFactory {
+
+    private static final MethodType GUARD_METHOD_TYPE = MethodType.methodType(boolean.class, StateMachineEngine.class, StateContext.class);
+    private static final MethodType ACTION_METHOD_TYPE = MethodType.methodType(void.class, StateMachineEngine.class, StateContext.class);
+
+    private MethodHandlerFactory() {
+    }
+
+    /**
+     * 创建状态守卫, 名称为 类名#方法名
+     *
+     * @param bean     方法所属实例
+     * @param method   守卫方法, 参数列表为: StateMachineEngine, StateContext, 返回值类型为: boolean/Boolean
+     * @param priority 优先级
+     * @return 状态守卫
+     */
+    public static Guard createGuard(Object bean, Method method, int priority) {
+        return createGuard(bean, defaultName(method), method, priority);
+    }
+
+    /**
+     * 创建状态守卫
+     *
+     * @param bean     方法所属实例
+     * @param name     守卫名称
+     * @param method   守卫方法, 参数列表为: StateMachineEngine, StateContext, 返回值类型为: boolean/Boolean
+     * @param priority 优先级
+     * @return 状态守卫
+     */
+    public static Guard createGuard(Object bean, String name, Method method, int priority) {
+        return createGuard(bean, name, method, priority, false);
+    }
+
+    /**
+     * 创建状态守卫
+     *
+     * @param bean     方法所属实例
+     * @param name     守卫名称
+     * @param method   守卫方法, 参数列表为: StateMachineEngine, StateContext, 返回值类型为: boolean/Boolean
+     * @param priority 优先级
+     * @param parallel 是否可与相邻的并行守卫同时执行
+     * @return 状态守卫
+     */
+    public static Guard createGuard(Object bean, String name, Method method, int priority, boolean parallel) {
+        MethodHandle handle = unreflect(method);
+        Guard guard;
+        try {
+            guard = (Guard) bind(handle, method, bean, Guard.class, "canTransition", GUARD_METHOD_TYPE);
+        } catch (LambdaConversionException | IllegalAccessException e) {
+            guard = MethodHandleProxies.asInterfaceInstance(Guard.class, bindTo(handle, method, bean).asType(GUARD_METHOD_TYPE));
+        }
+        return new MethodGuard(guard, name, priority, parallel);
+    }
+
+    /**
+     * 创建状态动作, 名称为 类名#方法名
+     *
+     * @param bean     方法所属实例
+     * @param method   动作方法, 参数列表为: StateMachineEngine, StateContext, 返回值类型为: void
+     * @param priority 优先级
+     * @return 状态动作
+     */
+    public static Action createAction(Object bean, Method method, int priority) {
+        return createAction(bean, defaultName(method), method, priority);
+    }
+
+    /**
+     * 创建状态动作
+     *
+     * @param bean     方法所属实例
+     * @param name     动作名称
+     * @param method   动作方法, 参数列表为: StateMachineEngine, StateContext, 返回值类型为: void
+     * @param priority 优先级
+     * @return 状态动作
+     */
+    public static Action createAction(Object bean, String name, Method method, int priority) {
+        return createAction(bean, name, method, priority, false);
+    }
+
+    /**
+     * 创建状态动作
+     *
+     * @param bean     方法所属实例
+     * @param name     动作名称
+     * @param method   动作方法, 参数列表为: StateMachineEngine, StateContext, 返回值类型为: void
+     * @param priority 优先级
+     * @param deferred 是否延迟到事务提交之后执行
+     * @return 状态动作
+     */
+    public static Action createAction(Object bean, String name, Method method, int priority, boolean deferred) {
+        MethodHandle handle = unreflect(method);
+        Action action;
+        try {
+            action = (Action) bind(handle, method, bean, Action.class, "execute", ACTION_METHOD_TYPE);
+        } catch (LambdaConversionException | IllegalAccessException e) {
+            action = MethodHandleProxies.asInterfaceInstance(Action.class, bindTo(handle, method, bean).asType(ACTION_METHOD_TYPE));
+        }
+        return new MethodAction(action, name, priority, deferred);
+    }
+
+    private static String defaultName(Method method) {
+        return method.getDeclaringClass().getSimpleName() + "#" + method.getName();
+    }
+
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return lookup(method).unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new StateMachineException(e, "无法访问状态机方法[{}#{}]", method.getDeclaringClass().getName(), method.getName());
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(Method method) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+    }
+
+    /**
+     * 通过 {@link LambdaMetafactory} 生成接口实现, 无法生成时由调用方退回到 {@link MethodHandleProxies}
+     */
+    private static Object bind(MethodHandle handle, Method method, Object bean, Class<?> interfaceType, String interfaceMethod, MethodType samType)
+            throws LambdaConversionException, IllegalAccessException {
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        MethodType factoryType = isStatic
+                ? MethodType.methodType(interfaceType)
+                : MethodType.methodType(interfaceType, method.getDeclaringClass());
+        CallSite site = LambdaMetafactory.metafactory(lookup(method), interfaceMethod, factoryType, samType, handle,
+                MethodType.methodType(samType.returnType(), samType.parameterArray()));
+        try {
+            return isStatic ? site.getTarget().invoke() : site.getTarget().invoke(bean);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // 工厂方法只创建实例, 不会抛出受检异常
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    private static MethodHandle bindTo(MethodHandle handle, Method method, Object bean) {
+        return Modifier.isStatic(method.getModifiers()) ? handle : handle.bindTo(bean);
+    }
+
+    /**
+     * 注解方法生成的状态守卫
+     */
+    private static final class MethodGuard implements Guard {
+        private final Guard delegate;
+        private final String name;
+        private final int priority;
+        private final boolean parallel;
+
+        private MethodGuard(Guard delegate, String name, int priority, boolean parallel) {
+            this.delegate = delegate;
+            this.name = name;
+            this.priority = priority;
+            this.parallel = parallel;
+        }
+
+        @Override
+        public boolean canTransition(StateMachineEngine engine, StateContext context) throws Exception {
+            return delegate.canTransition(engine, context);
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public boolean isParallel() {
+            return parallel;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * 注解方法生成的状态动作
+     */
+    private static final class MethodAction implements Action {
+        private final Action delegate;
+        private final String name;
+        private final int priority;
+        private final boolean deferred;
+
+        private MethodAction(Action delegate, String name, int priority, boolean deferred) {
+            this.delegate = delegate;
+            this.name = name;
+            this.priority = priority;
+            this.deferred = deferred;
+        }
+
+        @Override
+        public void execute(StateMachineEngine engine, StateContext ctx) throws Exception {
+            delegate.execute(engine, ctx);
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public boolean isDeferred() {
+            return deferred;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
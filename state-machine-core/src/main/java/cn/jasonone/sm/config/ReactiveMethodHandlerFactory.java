@@ -0,0 +1,124 @@
+package cn.jasonone.sm.config;
+
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.exceptions.StateMachineException;
+import cn.jasonone.sm.support.ReactiveAction;
+import cn.jasonone.sm.support.ReactiveGuard;
+import cn.jasonone.sm.support.StateMachineEngine;
+import reactor.core.publisher.Mono;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * 将返回 {@link Mono} 的注解方法绑定为 {@link ReactiveGuard}/{@link ReactiveAction} 实现
+ * <pre>
+ *     与 {@link MethodHandlerFactory} 分开, 只有存在返回 Mono 的注解方法时才会加载, 未引入 Reactor 时不影响同步处理器
+ * </pre>
+ */
+public final class ReactiveMethodHandlerFactory {
+
+    private static final MethodType HANDLER_METHOD_TYPE = MethodType.methodType(Mono.class, StateMachineEngine.class, StateContext.class);
+
+    private ReactiveMethodHandlerFactory() {
+    }
+
+    /**
+     * 创建响应式状态守卫
+     *
+     * @param bean     方法所属实例
+     * @param name     守卫名称
+     * @param method   守卫方法, 参数列表为: StateMachineEngine, StateContext, 返回值类型为: Mono&lt;Boolean&gt;
+     * @param priority 优先级
+     * @param parallel 是否可与相邻的并行守卫同时执行
+     * @return 响应式状态守卫
+     */
+    public static ReactiveGuard createGuard(Object bean, String name, Method method, int priority, boolean parallel) {
+        MethodHandle handle = bind(bean, method);
+        return new ReactiveGuard() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Mono<Boolean> canTransitionReactive(StateMachineEngine engine, StateContext context) {
+                return (Mono<Boolean>) invoke(handle, engine, context);
+            }
+
+            @Override
+            public int getPriority() {
+                return priority;
+            }
+
+            @Override
+            public boolean isParallel() {
+                return parallel;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+        };
+    }
+
+    /**
+     * 创建响应式状态动作
+     *
+     * @param bean     方法所属实例
+     * @param name     动作名称
+     * @param method   动作方法, 参数列表为: StateMachineEngine, StateContext, 返回值类型为: Mono&lt;Void&gt;
+     * @param priority 优先级
+     * @param deferred 是否延迟到事务提交之后执行
+     * @return 响应式状态动作
+     */
+    public static ReactiveAction createAction(Object bean, String name, Method method, int priority, boolean deferred) {
+        MethodHandle handle = bind(bean, method);
+        return new ReactiveAction() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Mono<Void> executeReactive(StateMachineEngine engine, StateContext ctx) {
+                return (Mono<Void>) invoke(handle, engine, ctx);
+            }
+
+            @Override
+            public int getPriority() {
+                return priority;
+            }
+
+            @Override
+            public boolean isDeferred() {
+                return deferred;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+        };
+    }
+
+    private static MethodHandle bind(Object bean, Method method) {
+        try {
+            MethodHandle handle = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup()).unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers())) {
+                handle = handle.bindTo(bean);
+            }
+            return handle.asType(HANDLER_METHOD_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new StateMachineException(e, "无法访问状态机方法[{}#{}]", method.getDeclaringClass().getName(), method.getName());
+        }
+    }
+
+    /**
+     * 调用处理器方法, 同步抛出的异常转换为错误信号, 返回null时视为空
+     */
+    private static Mono<?> invoke(MethodHandle handle, StateMachineEngine engine, StateContext context) {
+        try {
+            Mono<?> result = (Mono<?>) handle.invokeExact(engine, context);
+            return result == null ? Mono.empty() : result;
+        } catch (Throwable e) {
+            return Mono.error(e);
+        }
+    }
+}
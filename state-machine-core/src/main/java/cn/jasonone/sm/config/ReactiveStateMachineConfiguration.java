@@ -0,0 +1,62 @@
+package cn.jasonone.sm.config;
+
+import cn.jasonone.sm.core.DefaultLockManagement;
+import cn.jasonone.sm.core.DefaultReactiveStateMachineEngine;
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.core.ReactiveStateMachineManagerAdapter;
+import cn.jasonone.sm.support.*;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 响应式引擎自动配置, 类路径中存在 Reactor 且设置 state-machine.reactive.enabled=true 时生效
+ * <pre>
+ *     在 {@link AutoStateMachineConfiguration} 之后处理, 使用其注册的 {@link DefaultStateRegistry}
+ * </pre>
+ */
+@AutoConfiguration(after = AutoStateMachineConfiguration.class)
+@ConditionalOnClass(name = "reactor.core.publisher.Mono")
+@ConditionalOnProperty(prefix = "state-machine.reactive", name = "enabled", havingValue = "true")
+public class ReactiveStateMachineConfiguration {
+
+    /**
+     * 未注册响应式状态管理器时适配同步状态管理器; 访问外部存储的状态管理器在 boundedElastic 调度器上执行
+     */
+    @Bean
+    @ConditionalOnMissingBean(ReactiveStateMachineManager.class)
+    public ReactiveStateMachineManager reactiveStateMachineManager(StateMachineManager manager) {
+        boolean inMemory = manager instanceof DefaultStateMachineManager defaultManager && defaultManager.getStateStore() == null;
+        return new ReactiveStateMachineManagerAdapter(manager, inMemory ? null : Schedulers.boundedElastic());
+    }
+
+    /**
+     * 同一业务的触发在本节点内串行执行; 注册了实际加锁的 {@link LockManagement} (例如Redis租约) 时在执行期间持有该锁
+     */
+    @Bean
+    @ConditionalOnBean(DefaultStateRegistry.class)
+    @ConditionalOnMissingBean(ReactiveStateMachineEngine.class)
+    public ReactiveStateMachineEngine reactiveStateMachineEngine(DefaultStateRegistry registry, ReactiveStateMachineManager manager, StateMachineProperties properties,
+                                                                 ObjectProvider<StateMachineMetrics> metrics, ObjectProvider<TransitionJournal> journal,
+                                                                 ObjectProvider<LockManagement> lockManagement) {
+        DefaultReactiveStateMachineEngine engine = new DefaultReactiveStateMachineEngine(registry, manager);
+        engine.setConflictRetries(properties.getConflictRetries());
+        if (properties.getReactive().isOffloadBlockingHandlers()) {
+            engine.setHandlerScheduler(Schedulers.boundedElastic());
+        }
+        metrics.ifAvailable(engine::setMetrics);
+        journal.ifAvailable(engine::setJournal);
+        lockManagement.ifAvailable(lock -> {
+            if (!(lock instanceof DefaultLockManagement)) {
+                engine.setLockManagement(lock);
+            }
+        });
+        return engine;
+    }
+}
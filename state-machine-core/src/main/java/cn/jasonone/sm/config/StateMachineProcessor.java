@@ -10,6 +10,8 @@ import cn.jasonone.sm.annotations.StateMachineGuard;
 import cn.jasonone.sm.domain.StateContext;
 import cn.jasonone.sm.domain.Transition;
 import cn.jasonone.sm.enums.StateMachineActionType;
+import cn.jasonone.sm.support.Action;
+import cn.jasonone.sm.support.Guard;
 import cn.jasonone.sm.support.State;
 import cn.jasonone.sm.support.StateMachineEngine;
 import cn.jasonone.sm.support.StateRegistry;
@@ -38,21 +40,22 @@ public class StateMachineProcessor implements BeanPostProcessor {
             for (Method method : ClassUtil.getDeclaredMethods(type)) {
                 // 获取方法上的状态守卫
                 if (AnnotationUtil.hasAnnotation(method, StateMachineGuard.class)) {
-                    registerGurard(bean, method, machineCodes);
+                    registerGurard(bean, beanName, method, machineCodes);
                 }
                 // 获取方法上的状态动作
                 if (AnnotationUtil.hasAnnotation(method, StateMachineAction.class)) {
-                    registerAction(bean, method, machineCodes);
+                    registerAction(bean, beanName, method, machineCodes);
                 }
             }
         }
         return bean;
     }
 
-    private void registerAction(Object bean, Method method, String[] machineCodes) {
+    private void registerAction(Object bean, String beanName, Method method, String[] machineCodes) {
         // 检查参数列表
         Assert.isTrue(method.getParameterCount() == 2, "状态动作方法参数列表错误, 参数列表为: StateMachineEngine, StateContext");
-        Assert.isTrue(method.getReturnType() == void.class, "状态动作方法返回值类型错误, 返回值类型为: void");
+        boolean reactive = isReactive(method);
+        Assert.isTrue(method.getReturnType() == void.class || reactive, "状态动作方法返回值类型错误, 返回值类型为: void 或 Mono<Void>");
         Assert.isTrue(method.getParameterTypes()[0] == StateMachineEngine.class, "状态动作方法参数类型错误, 参数类型为: StateMachineEngine, StateContext");
         Assert.isTrue(method.getParameterTypes()[1] == StateContext.class, "状态动作方法参数类型错误, 参数类型为: StateMachineEngine, StateContext");
         StateMachineActions smas = AnnotationUtil.getAnnotation(method, StateMachineActions.class);
@@ -67,29 +70,44 @@ public class StateMachineProcessor implements BeanPostProcessor {
             State sourceState = action::sourceState;
             State targetState = action::targetState;
             StateMachineActionType type = action.before() ? StateMachineActionType.BEFORE : StateMachineActionType.AFTER;
+            Assert.isFalse(action.before() && action.deferred(), "前置动作不支持延迟执行: {}#{}", beanName, method.getName());
             List<String> mcList = getMachineCodes(machineCodes, action.machineCode());
+            Action handler = reactive
+                    ? ReactiveMethodHandlerFactory.createAction(bean, beanName + "#" + method.getName(), method, action.order(), action.deferred())
+                    : MethodHandlerFactory.createAction(bean, beanName + "#" + method.getName(), method, action.order(), action.deferred());
             for (String mc : mcList) {
-                registry.registerAction(mc, sourceState, targetState, (engine, ctx) -> method.invoke(bean, engine, ctx), type);
+                registry.registerAction(mc, sourceState, targetState, handler, type);
             }
         }
     }
 
-    private void registerGurard(Object bean, Method method, String[] machineCodes) {
+    private void registerGurard(Object bean, String beanName, Method method, String[] machineCodes) {
         // 检查参数列表
         Assert.isTrue(method.getParameterCount() == 2, "状态守卫方法参数列表错误, 参数列表为: StateMachineEngine, StateContext");
-        Assert.isTrue(method.getReturnType() == Boolean.class || method.getReturnType() == boolean.class, "状态守卫方法返回值类型错误, 返回值类型为: Boolean");
+        boolean reactive = isReactive(method);
+        Assert.isTrue(method.getReturnType() == Boolean.class || method.getReturnType() == boolean.class || reactive, "状态守卫方法返回值类型错误, 返回值类型为: Boolean 或 Mono<Boolean>");
         Assert.isTrue(method.getParameterTypes()[0] == StateMachineEngine.class, "状态守卫方法参数类型错误, 参数类型为: StateMachineEngine, StateContext");
         Assert.isTrue(method.getParameterTypes()[1] == StateContext.class, "状态守卫方法参数类型错误, 参数类型为: StateMachineEngine, StateContext");
         StateMachineGuard guard = AnnotationUtil.getAnnotation(method, StateMachineGuard.class);
         String[] mcs = guard.machineCode();
         State sourceState = guard::sourceState;
         State targetState = guard::targetState;
+        Guard handler = reactive
+                ? ReactiveMethodHandlerFactory.createGuard(bean, beanName + "#" + method.getName(), method, guard.order(), guard.parallel())
+                : MethodHandlerFactory.createGuard(bean, beanName + "#" + method.getName(), method, guard.order(), guard.parallel());
         List<String> mcList = getMachineCodes(machineCodes, mcs);
         for (String mc : mcList) {
-            registry.registerGuard(mc, sourceState, targetState, (engine, ctx) -> (Boolean) method.invoke(bean, engine, ctx));
+            registry.registerGuard(mc, sourceState, targetState, handler);
         }
     }
 
+    /**
+     * 判断方法是否返回 Mono; 按类名比较, 未引入 Reactor 时不加载响应式处理器
+     */
+    private static boolean isReactive(Method method) {
+        return method.getReturnType().getName().equals("reactor.core.publisher.Mono");
+    }
+
     /**
      * 获取状态机编码列表
      * <pre>
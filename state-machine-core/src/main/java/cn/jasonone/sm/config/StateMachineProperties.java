@@ -1,8 +1,13 @@
 package cn.jasonone.sm.config;
 
+import cn.jasonone.sm.core.LoggingTransitionAuditor;
+import cn.jasonone.sm.enums.TerminalStatePolicy;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
 
 /**
  * 状态机属性
@@ -15,4 +20,350 @@ public class StateMachineProperties {
      * 默认状态机编码
      */
     private String defaultMachineCode;
+
+    /**
+     * 状态冲突(比较并更新失败)时的重试次数
+     */
+    private int conflictRetries = 3;
+
+    /**
+     * 状态锁配置
+     */
+    private Lock lock = new Lock();
+
+    /**
+     * 内存状态缓存配置, 仅对默认状态管理器生效
+     */
+    private Cache cache = new Cache();
+
+    /**
+     * 终态处理配置
+     */
+    private Terminal terminal = new Terminal();
+
+    /**
+     * 指标配置, 存在 MeterRegistry 时生效
+     */
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 状态转换审计日志配置
+     */
+    private Audit audit = new Audit();
+
+    /**
+     * 状态转换日志配置
+     */
+    private Journal journal = new Journal();
+
+    /**
+     * 事件溯源状态管理器配置
+     */
+    private EventSourcing eventSourcing = new EventSourcing();
+
+    /**
+     * 分片单写引擎配置
+     */
+    private Sharding sharding = new Sharding();
+
+    /**
+     * 响应式引擎配置, 类路径中存在 Reactor 时生效
+     */
+    private Reactive reactive = new Reactive();
+
+    /**
+     * 延迟动作发件箱配置
+     */
+    private Outbox outbox = new Outbox();
+
+    /**
+     * 状态锁配置
+     */
+    @Data
+    public static class Lock {
+        /**
+         * 是否启用进程内分段锁, 启用后同一业务的状态转换串行执行
+         */
+        private boolean enabled = true;
+
+        /**
+         * 分段锁段数, 向上取整为2的幂
+         */
+        private int stripes = 1024;
+    }
+
+    /**
+     * 内存状态缓存配置
+     */
+    @Data
+    public static class Cache {
+        /**
+         * 每个状态机最多缓存的业务数量, 超出后按 W-TinyLFU 淘汰, 小于0表示不限制
+         */
+        private long maximumSize = -1;
+
+        /**
+         * 是否记录缓存统计(命中、加载、淘汰次数)
+         */
+        private boolean recordStats = true;
+    }
+
+    /**
+     * 终态处理配置
+     */
+    @Data
+    public static class Terminal {
+        /**
+         * 业务进入终态(已声明为终态或没有以该状态为源状态的转换规则)后的处理策略
+         */
+        private TerminalStatePolicy policy = TerminalStatePolicy.RETAIN;
+
+        /**
+         * 过期与归档策略下终态的保留时间, 内存中的状态与Redis中的状态Key在该时间后删除; 为空表示不过期, 需要删除终态时显式配置
+         */
+        private Duration ttl;
+    }
+
+    /**
+     * 指标配置
+     */
+    @Data
+    public static class Metrics {
+        /**
+         * 是否记录指标
+         */
+        private boolean enabled = true;
+
+        /**
+         * 是否以状态机编码作为维度
+         */
+        private boolean machineCodeTag = true;
+
+        /**
+         * 是否以事件作为维度
+         */
+        private boolean eventTag = true;
+
+        /**
+         * 是否以转换规则的源状态与目标状态作为维度
+         */
+        private boolean transitionTag = true;
+
+        /**
+         * 是否以守卫与动作的Bean名称与方法名称作为维度
+         */
+        private boolean handlerTag = true;
+
+        /**
+         * 守卫与动作的耗时是否发布百分位直方图
+         */
+        private boolean percentileHistogram = true;
+    }
+
+    /**
+     * 状态转换审计日志配置
+     */
+    @Data
+    public static class Audit {
+        /**
+         * 是否记录审计日志, 注册了 TransitionAuditor Bean 时默认写入该Bean, 否则写入审计日志
+         */
+        private boolean enabled = false;
+
+        /**
+         * 成功转换的采样率, 取值范围[0, 1], 失败的转换总是记录
+         */
+        private double sampleRate = 1.0;
+
+        /**
+         * 环形缓冲区容量, 缓冲区已满时丢弃新的记录
+         */
+        private int bufferSize = 8192;
+
+        /**
+         * 未注册 TransitionAuditor Bean 时写入的日志名称
+         */
+        private String logger = LoggingTransitionAuditor.DEFAULT_LOGGER;
+    }
+
+    /**
+     * 状态转换日志配置
+     */
+    @Data
+    public static class Journal {
+        /**
+         * 是否记录状态转换日志, 注册了 TransitionJournal Bean 时使用该Bean
+         */
+        private boolean enabled = false;
+
+        /**
+         * 日志目录
+         */
+        private String directory = "state-machine-journal";
+
+        /**
+         * 分段文件大小, 最大2GB
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * 组提交间隔, 后台线程每隔该时间将新追加的记录刷写到磁盘
+         */
+        private Duration commitInterval = Duration.ofMillis(10);
+
+        /**
+         * 追加记录时是否等待刷写到磁盘, 开启后断电也不会丢失已完成的转换, 但每次触发至少等待一次磁盘同步
+         */
+        private boolean awaitCommit = false;
+
+        /**
+         * 状态恢复配置, 仅对默认状态管理器生效
+         */
+        private Recovery recovery = new Recovery();
+    }
+
+    /**
+     * 状态恢复配置
+     */
+    @Data
+    public static class Recovery {
+        /**
+         * 启动时是否从最新快照与之后的状态转换日志恢复默认状态管理器的状态, 并定期写入快照
+         */
+        private boolean enabled = true;
+
+        /**
+         * 快照目录
+         */
+        private String snapshotDirectory = "state-machine-snapshot";
+
+        /**
+         * 快照间隔
+         */
+        private Duration snapshotInterval = Duration.ofMinutes(5);
+
+        /**
+         * 保留的快照数量
+         */
+        private int retainedSnapshots = 2;
+
+        /**
+         * 恢复时按业务ID划分的分区数量, 小于1时使用可用处理器数量
+         */
+        private int partitions = 0;
+    }
+
+    /**
+     * 事件溯源状态管理器配置
+     */
+    @Data
+    public static class EventSourcing {
+        /**
+         * 是否使用事件溯源状态管理器代替默认状态管理器
+         */
+        private boolean enabled = false;
+
+        /**
+         * 数据目录, 事件存储与快照分别保存在其中的 events 与 snapshots 目录
+         */
+        private String directory = "state-machine-events";
+
+        /**
+         * 事件存储分段文件大小, 最大2GB
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * 事件存储刷写到磁盘的间隔, 断电时最多丢失该间隔内的事件
+         */
+        private Duration flushInterval = Duration.ofSeconds(1);
+
+        /**
+         * 快照间隔
+         */
+        private Duration snapshotInterval = Duration.ofMinutes(5);
+    }
+
+    /**
+     * 分片单写引擎配置
+     */
+    @Data
+    public static class Sharding {
+        /**
+         * 是否使用分片单写引擎代替默认引擎
+         */
+        private boolean enabled = false;
+
+        /**
+         * 分片数量, 小于等于0时使用CPU核数
+         */
+        private int shards = 0;
+
+        /**
+         * 每个分片的队列容量
+         */
+        private int queueCapacity = 1024;
+
+        /**
+         * 分片队列已满时提交事件的最长等待时间, 超时后拒绝该事件
+         */
+        private Duration submitTimeout = Duration.ofSeconds(1);
+    }
+
+    /**
+     * 响应式引擎配置
+     */
+    @Data
+    public static class Reactive {
+        /**
+         * 是否注册响应式引擎与响应式状态管理器, 默认不注册
+         */
+        private boolean enabled = false;
+
+        /**
+         * 普通(非响应式)守卫与动作是否在 boundedElastic 调度器上执行, 处理器包含阻塞调用时开启
+         */
+        private boolean offloadBlockingHandlers = false;
+    }
+
+    /**
+     * 延迟动作发件箱配置
+     */
+    @Data
+    public static class Outbox {
+        /**
+         * 是否启用发件箱, 启用后延迟动作在事务提交后异步执行; 未启用时延迟动作与普通后置动作相同
+         */
+        private boolean enabled = false;
+
+        /**
+         * 发件箱目录
+         */
+        private String directory = "state-machine-outbox";
+
+        /**
+         * 发件箱文件达到该大小时压缩, 只保留未完成的记录
+         */
+        private DataSize compactSize = DataSize.ofMegabytes(16);
+
+        /**
+         * 每次写入后是否刷写到磁盘, 开启后断电也不会丢失已提交转换的延迟动作, 但每次触发至少等待一次磁盘同步
+         */
+        private boolean sync = false;
+
+        /**
+         * 每个动作在本进程中的最大执行次数, 小于1表示不限次数
+         */
+        private int maxAttempts = 10;
+
+        /**
+         * 首次重试间隔, 之后每次翻倍
+         */
+        private Duration retryInterval = Duration.ofSeconds(1);
+
+        /**
+         * 最大重试间隔
+         */
+        private Duration maxRetryInterval = Duration.ofMinutes(1);
+    }
 }
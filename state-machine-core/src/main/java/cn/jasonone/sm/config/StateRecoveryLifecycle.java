@@ -0,0 +1,55 @@
+package cn.jasonone.sm.config;
+
+import cn.jasonone.sm.core.journal.StateRecovery;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+
+/**
+ * 在容器启动时恢复状态并开始定期快照, 在容器停止时写入最后一次快照
+ * <pre>
+ *     在所有单例Bean初始化完成后启动, 因此在Bean初始化阶段注册的转换规则可以用于解析状态;
+ *     最先启动、最后停止, 停止时其他组件已不再触发状态转换
+ * </pre>
+ */
+public class StateRecoveryLifecycle implements SmartLifecycle {
+
+    private final StateRecovery recovery;
+
+    private final Duration snapshotInterval;
+
+    private volatile boolean running;
+
+    public StateRecoveryLifecycle(StateRecovery recovery, Duration snapshotInterval) {
+        this.recovery = recovery;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    @Override
+    public void start() {
+        recovery.recover();
+        recovery.start(snapshotInterval);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        try {
+            recovery.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE;
+    }
+}
@@ -0,0 +1,192 @@
+package cn.jasonone.sm.core;
+
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.support.Event;
+import cn.jasonone.sm.support.State;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 编译后的状态机
+ * <pre>
+ *     为状态机中出现的每个状态与事件分配从0开始的连续序号, 构建:
+ *     1. 转换表 transitions[源状态][事件]
+ *     2. 处理器表 handlers[源状态][目标状态], 只为存在转换规则的边解析处理器
+ *     状态与事件为同一枚举类型时按枚举序号直接映射, 否则按编码查找序号.
+ *     创建后不可变, 可在线程间共享; 注册新的转换规则或处理器后由注册中心重新编译
+ * </pre>
+ */
+public final class CompiledStateMachine {
+
+    private final String machineCode;
+
+    /**
+     * 编译时状态管理器中转换规则的版本号, -1表示不支持版本号
+     */
+    private final long version;
+
+    private final Map<String, Integer> stateOrdinals = new HashMap<>();
+    private final Map<String, Integer> eventOrdinals = new HashMap<>();
+
+    /**
+     * 状态枚举类型, 状态不全是同一枚举类型时为null
+     */
+    private final Class<?> stateEnum;
+    /**
+     * 枚举序号 -> 状态序号, 不在状态机中的枚举常量为-1
+     */
+    private final int[] stateEnumOrdinals;
+
+    private final Class<?> eventEnum;
+    private final int[] eventEnumOrdinals;
+
+    private final Transition[][] transitions;
+    private final HandlerChain[][] handlers;
+
+    /**
+     * @param machineCode     状态机编码
+     * @param version         转换规则版本号
+     * @param transitionRules 转换规则
+     * @param resolver        处理器解析: (源状态, 目标状态) -> 处理器链
+     */
+    CompiledStateMachine(String machineCode, long version, Collection<Transition> transitionRules, BiFunction<State, State, HandlerChain> resolver) {
+        this.machineCode = machineCode;
+        this.version = version;
+        List<State> states = new ArrayList<>();
+        List<Event> events = new ArrayList<>();
+        for (Transition transition : transitionRules) {
+            addState(states, transition.from());
+            addState(states, transition.to());
+            if (eventOrdinals.putIfAbsent(transition.event().getCode(), events.size()) == null) {
+                events.add(transition.event());
+            }
+        }
+        this.stateEnum = commonEnumType(states);
+        this.stateEnumOrdinals = enumOrdinals(stateEnum, states, stateOrdinals, s -> ((State) s).getState());
+        this.eventEnum = commonEnumType(events);
+        this.eventEnumOrdinals = enumOrdinals(eventEnum, events, eventOrdinals, e -> ((Event) e).getCode());
+        this.transitions = new Transition[states.size()][events.size()];
+        this.handlers = new HandlerChain[states.size()][states.size()];
+        for (Transition transition : transitionRules) {
+            int from = stateOrdinals.get(transition.from().getState());
+            int to = stateOrdinals.get(transition.to().getState());
+            transitions[from][eventOrdinals.get(transition.event().getCode())] = transition;
+            if (handlers[from][to] == null) {
+                handlers[from][to] = resolver.apply(transition.from(), transition.to());
+            }
+        }
+    }
+
+    private void addState(List<State> states, State state) {
+        if (stateOrdinals.putIfAbsent(state.getState(), states.size()) == null) {
+            states.add(state);
+        }
+    }
+
+    private static Class<?> commonEnumType(List<?> values) {
+        Class<?> type = null;
+        for (Object value : values) {
+            if (!value.getClass().isEnum() || (type != null && type != value.getClass())) {
+                return null;
+            }
+            type = value.getClass();
+        }
+        return type;
+    }
+
+    private static int[] enumOrdinals(Class<?> enumType, List<?> values, Map<String, Integer> ordinals, Function<Object, String> code) {
+        if (enumType == null) {
+            return null;
+        }
+        Object[] constants = enumType.getEnumConstants();
+        int[] result = new int[constants.length];
+        for (Object constant : constants) {
+            Integer ordinal = ordinals.get(code.apply(constant));
+            // 编码相同的其他枚举常量不在状态机中, 只映射状态机实际使用的常量
+            result[((Enum<?>) constant).ordinal()] = ordinal != null && values.get(ordinal) == constant ? ordinal : -1;
+        }
+        return result;
+    }
+
+    /**
+     * 获取状态序号
+     *
+     * @param state 状态
+     * @return 状态序号, 不在状态机中时返回-1
+     */
+    public int ordinal(State state) {
+        if (state.getClass() == stateEnum) {
+            int ordinal = stateEnumOrdinals[((Enum<?>) state).ordinal()];
+            if (ordinal >= 0) {
+                return ordinal;
+            }
+        }
+        Integer ordinal = stateOrdinals.get(state.getState());
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * 获取事件序号
+     *
+     * @param event 事件
+     * @return 事件序号, 不在状态机中时返回-1
+     */
+    public int ordinal(Event event) {
+        if (event.getClass() == eventEnum) {
+            int ordinal = eventEnumOrdinals[((Enum<?>) event).ordinal()];
+            if (ordinal >= 0) {
+                return ordinal;
+            }
+        }
+        Integer ordinal = eventOrdinals.get(event.getCode());
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * 获取转换规则
+     *
+     * @param from  源状态
+     * @param event 事件
+     * @return 转换规则, 不存在时返回null
+     */
+    public Transition getTransition(State from, Event event) {
+        int state = ordinal(from);
+        int e = ordinal(event);
+        return state < 0 || e < 0 ? null : transitions[state][e];
+    }
+
+    /**
+     * 获取边上的处理器链
+     *
+     * @return 处理器链, 状态不在状态机中或两个状态之间没有转换规则时返回null
+     */
+    HandlerChain getHandlerChain(State source, State target) {
+        int from = ordinal(source);
+        int to = ordinal(target);
+        return from < 0 || to < 0 ? null : handlers[from][to];
+    }
+
+    public String getMachineCode() {
+        return machineCode;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 状态数量
+     */
+    public int stateCount() {
+        return stateOrdinals.size();
+    }
+
+    /**
+     * 事件数量
+     */
+    public int eventCount() {
+        return eventOrdinals.size();
+    }
+}
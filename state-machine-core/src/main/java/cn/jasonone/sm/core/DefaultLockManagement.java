@@ -0,0 +1,20 @@
+package cn.jasonone.sm.core;
+
+import cn.jasonone.sm.support.LockManagement;
+
+/**
+ * 默认状态锁管理空实现
+ *
+ * @apiNote 不进行任何加锁, 适用于调用方已保证同一业务串行触发的场景
+ */
+public class DefaultLockManagement implements LockManagement {
+    @Override
+    public void lock(String machineCode, String businessId) {
+
+    }
+
+    @Override
+    public void unlock(String machineCode, String businessId) {
+
+    }
+}
@@ -0,0 +1,319 @@
+package cn.jasonone.sm.core;
+
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.StrUtil;
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.domain.TransitionResult;
+import cn.jasonone.sm.exceptions.StateConflictException;
+import cn.jasonone.sm.support.*;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 默认响应式状态机引擎
+ * <pre>
+ *     1. 状态读写通过 {@link ReactiveStateMachineManager} 完成, 转换规则与处理器从注册中心的本地缓存读取, 整个触发过程不阻塞调用线程
+ *     2. {@link ReactiveGuard}/{@link ReactiveAction} 订阅其返回的 Mono; 普通守卫与动作在订阅线程中同步执行,
+ *        设置 handlerScheduler 后改为在该调度器上执行, 用于包含阻塞调用的处理器
+ *     3. 同一业务(machineCode, businessId)的触发在本节点按订阅顺序串行执行, 不会因并发冲突重复执行守卫与前置动作;
+ *        设置 lockManagement 后在串行执行期间持有该锁(例如跨节点的Redis租约), 锁在 boundedElastic 的同一线程上获取与释放
+ *     4. 其他节点或同步引擎并发修改时由比较并更新保证只有一个成功, 失败的一方重新读取状态后重试
+ *     5. 状态转换日志与发件箱的写入可能阻塞, 在 boundedElastic 调度器上执行
+ * </pre>
+ * 事务管理基于线程绑定, 与响应式执行模型不兼容, 因此响应式引擎不开启事务; 触发已开始执行后取消订阅不会中断该次触发.
+ * 守卫与动作中不应同步触发同一业务的事件, 否则会等待自身完成
+ */
+@Getter
+@Setter
+public class DefaultReactiveStateMachineEngine implements ReactiveStateMachineEngine {
+
+    private final DefaultStateRegistry registry;
+
+    private final ReactiveStateMachineManager manager;
+
+    /**
+     * 状态冲突时的重试次数
+     */
+    private int conflictRetries = 3;
+
+    /**
+     * 普通(非响应式)守卫与动作的执行调度器, 为null表示在订阅线程中执行
+     */
+    private Scheduler handlerScheduler;
+
+    /**
+     * 状态机指标
+     */
+    private StateMachineMetrics metrics = StateMachineMetrics.NOOP;
+
+    /**
+     * 状态转换日志, 为null表示不记录
+     */
+    private TransitionJournal journal;
+
+    /**
+     * 串行执行期间持有的状态锁, 为null表示只在本节点内串行
+     */
+    private LockManagement lockManagement;
+
+    /**
+     * 每个业务的最后一次触发, 队尾触发结束后移除
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, CompletableFuture<TransitionResult>> tails = new ConcurrentHashMap<>();
+
+    /**
+     * 传给守卫与动作的同步引擎视图
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final StateMachineEngine handlerEngine = new HandlerEngine();
+
+    public DefaultReactiveStateMachineEngine(DefaultStateRegistry registry, ReactiveStateMachineManager manager) {
+        Assert.notNull(registry, "注册中心不能为空");
+        Assert.notNull(manager, "状态管理器不能为空");
+        this.registry = registry;
+        this.manager = manager;
+    }
+
+    @Override
+    public Mono<TransitionResult> trigger(String machineCode, String businessId, Event event, Object payload) {
+        return Mono.defer(() -> {
+            if (StrUtil.isBlank(machineCode)) {
+                return Mono.error(new IllegalArgumentException("状态机编码不能为空"));
+            }
+            if (StrUtil.isBlank(businessId)) {
+                return Mono.error(new IllegalArgumentException("业务ID不能为空"));
+            }
+            return serialize(machineCode + ":" + businessId, Mono.defer(() -> {
+                long start = metrics.isEnabled() ? System.nanoTime() : 0;
+                return locked(machineCode, businessId, Mono.defer(() -> attempt(machineCode, businessId, event, payload))
+                        .retryWhen(Retry.max(conflictRetries).filter(StateConflictException.class::isInstance)
+                                .onRetryExhaustedThrow((spec, signal) -> signal.failure())))
+                        .map(transition -> {
+                            record(machineCode, event, transition, start, null);
+                            return TransitionResult.success(businessId, event, transition.from(), transition.to());
+                        })
+                        .onErrorResume(e -> {
+                            record(machineCode, event, null, start, e);
+                            return Mono.just(TransitionResult.failure(businessId, event, null, null, e));
+                        });
+            }));
+        }).onErrorResume(e -> Mono.just(TransitionResult.failure(businessId, event, null, null, e)));
+    }
+
+    /**
+     * 同一key的触发按订阅顺序依次执行, 前一次触发结束后才订阅下一次
+     * <pre>
+     *     触发与返回的 Mono 分开订阅, 取消返回的 Mono 不会中断已开始的触发, 也不会影响后续触发的执行顺序
+     * </pre>
+     */
+    private Mono<TransitionResult> serialize(String key, Mono<TransitionResult> task) {
+        return Mono.defer(() -> {
+            CompletableFuture<TransitionResult> future = new CompletableFuture<>();
+            CompletableFuture<TransitionResult> tail;
+            do {
+                tail = tails.get(key);
+            } while (tail == null ? tails.putIfAbsent(key, future) != null : !tails.replace(key, tail, future));
+            CompletableFuture<?> previous = tail == null ? CompletableFuture.completedFuture(null) : tail;
+            previous.whenComplete((ignored, ignoredError) -> task.subscribe(result -> {
+                tails.remove(key, future);
+                future.complete(result);
+            }, error -> {
+                tails.remove(key, future);
+                future.completeExceptionally(error);
+            }));
+            return Mono.fromFuture(future.copy());
+        });
+    }
+
+    /**
+     * 设置 lockManagement 时在持有锁期间执行 task
+     * <pre>
+     *     锁可能与线程绑定(例如 {@link java.util.concurrent.locks.ReentrantLock}), 因此在 boundedElastic 的同一个工作线程上加锁与解锁;
+     *     加锁可能阻塞, 不占用订阅线程
+     * </pre>
+     */
+    private <T> Mono<T> locked(String machineCode, String businessId, Mono<T> task) {
+        LockManagement lock = lockManagement;
+        if (lock == null) {
+            return task;
+        }
+        return Mono.defer(() -> {
+            Scheduler.Worker worker = Schedulers.boundedElastic().createWorker();
+            Scheduler pinned = Schedulers.fromExecutor(worker::schedule);
+            Mono<Void> unlock = Mono.<Void>fromRunnable(() -> lock.unlock(machineCode, businessId))
+                    .subscribeOn(pinned)
+                    .doFinally(signal -> worker.dispose());
+            return Mono.usingWhen(Mono.fromCallable(() -> {
+                                lock.lock(machineCode, businessId);
+                                return pinned;
+                            })
+                            .subscribeOn(pinned)
+                            .doOnError(e -> worker.dispose()),
+                    ignored -> task,
+                    ignored -> unlock,
+                    (ignored, e) -> unlock,
+                    ignored -> unlock);
+        });
+    }
+
+    private void record(String machineCode, Event event, Transition transition, long start, Throwable error) {
+        if (metrics.isEnabled() && start != 0) {
+            metrics.recordTrigger(machineCode, event, transition, System.nanoTime() - start, error);
+        }
+    }
+
+    /**
+     * 执行一次状态转换
+     *
+     * @return 实际执行的转换规则
+     */
+    private Mono<Transition> attempt(String machineCode, String businessId, Event event, Object payload) {
+        return manager.getCurrentState(machineCode, businessId)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(stored -> {
+                    State storedState = stored.orElse(null);
+                    State currentState = storedState != null ? storedState : registry.getInitialState(machineCode);
+                    if (currentState == null) {
+                        return Mono.error(new IllegalArgumentException(StrUtil.format("状态机[{}]未配置初始状态", machineCode)));
+                    }
+                    Transition transition = registry.getTransition(machineCode, currentState, event);
+                    if (transition == null) {
+                        return Mono.error(new IllegalArgumentException(StrUtil.format("状态机[{}] 不支持的事件[{}]", machineCode, event.getCode())));
+                    }
+                    StateContext context = new StateContext(machineCode, businessId, transition.from(), transition.to(), transition.event(), payload);
+                    HandlerChain chain = registry.getHandlerChain(machineCode, currentState, transition.to());
+                    return executeGuards(chain.guards(), 0, context)
+                            .flatMap(passed -> passed
+                                    ? executeActions(chain.beforeActions(), 0, context)
+                                    : Mono.error(new IllegalArgumentException(StrUtil.format("状态机[{}] 守卫[{}]未通过", machineCode, transition.key()))))
+                            .then(Mono.defer(() -> manager.updateState(context, storedState)))
+                            .flatMap(updated -> {
+                                if (!updated) {
+                                    return Mono.error(new StateConflictException("状态机[{}] 业务ID[{}]状态已被并发修改, 期望状态: {}", machineCode, businessId, currentState.getState()));
+                                }
+                                Mono<Void> journaled = journal == null ? Mono.empty()
+                                        : Mono.<Void>fromRunnable(() -> journal.append(machineCode, businessId, currentState, transition.to(), transition.event()))
+                                        .subscribeOn(Schedulers.boundedElastic());
+                                return journaled
+                                        .then(Mono.defer(() -> executeActions(chain.afterActions(), 0, context)))
+                                        .then(Mono.defer(() -> executeDeferredActions(chain.deferredActions(), context)))
+                                        .thenReturn(transition);
+                            });
+                });
+    }
+
+    /**
+     * 依次执行守卫, 任一守卫未通过时不再执行后续守卫
+     * <pre>
+     *     相邻的并行守卫作为一组同时订阅, 任一守卫未通过时取消组内其余守卫; 普通守卫只有在设置 handlerScheduler 后才会真正并发执行
+     * </pre>
+     */
+    private Mono<Boolean> executeGuards(Guard[] guards, int index, StateContext context) {
+        if (index == guards.length) {
+            return Mono.just(true);
+        }
+        int end = index + 1;
+        if (guards[index].isParallel()) {
+            while (end < guards.length && guards[end].isParallel()) {
+                end++;
+            }
+        }
+        Mono<Boolean> result = end - index == 1
+                ? executeGuard(guards[index], context)
+                : Flux.range(index, end - index)
+                .flatMap(i -> executeGuard(guards[i], context), end - index)
+                .any(passed -> !passed)
+                .map(rejected -> !rejected);
+        int next = end;
+        return result.flatMap(passed -> passed ? executeGuards(guards, next, context) : Mono.just(false));
+    }
+
+    private Mono<Boolean> executeGuard(Guard guard, StateContext context) {
+        Mono<Boolean> result = guard instanceof ReactiveGuard reactiveGuard
+                ? Mono.defer(() -> reactiveGuard.canTransitionReactive(handlerEngine, context))
+                : schedule(Mono.fromCallable(() -> guard.canTransition(handlerEngine, context)));
+        return result.defaultIfEmpty(false);
+    }
+
+    /**
+     * 依次执行动作, 前一个动作完成后才执行下一个
+     */
+    private Mono<Void> executeActions(Action[] actions, int index, StateContext context) {
+        if (index == actions.length) {
+            return Mono.empty();
+        }
+        Action action = actions[index];
+        Mono<Void> result = action instanceof ReactiveAction reactiveAction
+                ? Mono.defer(() -> reactiveAction.executeReactive(handlerEngine, context))
+                : schedule(Mono.fromRunnable(() -> {
+            try {
+                action.execute(handlerEngine, context);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        return result.then(Mono.defer(() -> executeActions(actions, index + 1, context)));
+    }
+
+    /**
+     * 处理延迟动作: 配置发件箱时在 boundedElastic 调度器上写入发件箱, 响应式引擎不开启事务, 写入后立即开始执行; 未配置时与普通后置动作相同
+     */
+    private Mono<Void> executeDeferredActions(Action[] actions, StateContext context) {
+        if (actions.length == 0) {
+            return Mono.empty();
+        }
+        ActionOutbox outbox = registry.getActionOutbox();
+        return outbox == null
+                ? executeActions(actions, 0, context)
+                : Mono.<Void>fromRunnable(() -> outbox.stage(handlerEngine, actions, context)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private <T> Mono<T> schedule(Mono<T> handler) {
+        return handlerScheduler == null ? handler : handler.subscribeOn(handlerScheduler);
+    }
+
+    /**
+     * 守卫与动作接收的同步引擎视图: 异步触发不阻塞, 同步触发阻塞等待结果, 只应在 handlerScheduler 的线程中使用
+     */
+    private final class HandlerEngine implements StateMachineEngine {
+
+        @Override
+        public StateRegistry getRegistry() {
+            return registry;
+        }
+
+        @Override
+        public void trigger(String machineCode, String businessId, Event event, Object payload) throws Exception {
+            TransitionResult result = DefaultReactiveStateMachineEngine.this.trigger(machineCode, businessId, event, payload).block();
+            if (result != null && result.error() instanceof Exception e) {
+                throw e;
+            }
+            if (result != null && result.error() != null) {
+                throw new RuntimeException(result.error());
+            }
+        }
+
+        @Override
+        public CompletableFuture<TransitionResult> triggerAsync(String machineCode, String businessId, Event event, Object payload) {
+            return DefaultReactiveStateMachineEngine.this.trigger(machineCode, businessId, event, payload).toFuture();
+        }
+    }
+}
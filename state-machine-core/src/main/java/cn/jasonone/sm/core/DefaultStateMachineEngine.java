@@ -1,12 +1,19 @@
 package cn.jasonone.sm.core;
 
-import cn.hutool.core.lang.Assert;
-import cn.jasonone.sm.domain.StateContext;
-import cn.jasonone.sm.domain.Transition;
+import cn.hutool.core.util.StrUtil;
+import cn.jasonone.sm.domain.*;
+import cn.jasonone.sm.exceptions.StateConflictException;
 import cn.jasonone.sm.support.*;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * 状态机引擎默认实现
  */
@@ -20,18 +27,57 @@ public class DefaultStateMachineEngine implements StateMachineEngine {
 
     private final TransactionManagement transactionManagement;
 
+    /**
+     * 状态锁, 默认按业务分段加锁, 保证同一业务的状态转换串行执行
+     */
+    private LockManagement lockManagement = new StripedLockManagement();
+
+    /**
+     * 状态冲突时的重试次数
+     */
+    private int conflictRetries = 3;
+
+    /**
+     * 异步触发执行器, 默认JDK 21及以上使用虚拟线程
+     */
+    private Executor asyncExecutor = StateMachineExecutors.defaultExecutor();
+
+    /**
+     * 异步触发按业务串行执行
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final KeyedSerialExecutor serialExecutor = new KeyedSerialExecutor();
+
+    /**
+     * 状态机指标, 启用时记录每次触发以及状态读写的耗时
+     */
+    private StateMachineMetrics metrics = StateMachineMetrics.NOOP;
+
+    /**
+     * 状态转换审计日志, 为null表示不记录; 引擎本身不为每次触发输出日志
+     */
+    private TransitionAuditLog auditLog;
+
+    /**
+     * 状态转换日志, 为null表示不记录; 状态更新成功后、后置动作之前同步追加
+     */
+    private TransitionJournal journal;
+
     /**
      * 获取当前状态
      *
-     * @param machineCode
-     * @param businessId
-     * @return
+     * @param machineCode 状态机编码
+     * @param storedState 状态管理器中保存的状态
+     * @return 当前状态, 未保存状态时返回初始状态
      */
-    private State getCurrentState(String machineCode, String businessId) {
-        State currentState = manager.getCurrentState(machineCode, businessId);
+    private State getCurrentState(String machineCode, State storedState) {
+        State currentState = storedState;
         if (currentState == null) {
             currentState = registry.getInitialState(machineCode);
-            Assert.notNull(currentState, "状态机[{}]未配置初始状态", machineCode);
+            if (currentState == null) {
+                throw new IllegalArgumentException(StrUtil.format("状态机[{}]未配置初始状态", machineCode));
+            }
         }
         return currentState;
     }
@@ -52,28 +98,343 @@ public class DefaultStateMachineEngine implements StateMachineEngine {
 
     @Override
     public void trigger(String machineCode, String businessId, Event event, Object payload) throws Exception {
-        log.info("状态机[{}] 业务ID[{}] 触发事件[{}]", machineCode, businessId, event.getCode());
-        State currentState = getCurrentState(machineCode, businessId);
+        execute(machineCode, businessId, event, payload);
+    }
+
+    /**
+     * 异步触发状态机事件
+     * <pre>
+     *     任务提交到 {@link #asyncExecutor} 执行, 同一业务的事件按提交顺序依次执行, 不同业务并行执行;
+     *     返回的Future总是正常完成, 执行失败时返回失败的转换结果;
+     *     守卫与动作中不应阻塞等待返回的Future, 见 {@link StripedLockManagement}
+     * </pre>
+     */
+    @Override
+    public CompletableFuture<TransitionResult> triggerAsync(String machineCode, String businessId, Event event, Object payload) {
+        return serialExecutor.submit(machineCode + ":" + businessId, () -> {
+            try {
+                Transition transition = execute(machineCode, businessId, event, payload);
+                return TransitionResult.success(businessId, event, transition.from(), transition.to());
+            } catch (Exception e) {
+                return TransitionResult.failure(businessId, event, null, null, e);
+            }
+        }, asyncExecutor);
+    }
+
+    /**
+     * 执行状态转换, 启用指标或审计日志时记录耗时
+     *
+     * @return 实际执行的转换规则
+     */
+    private Transition execute(String machineCode, String businessId, Event event, Object payload) {
+        // 加锁前校验, 分段锁与租约需要使用状态机编码与业务ID计算锁
+        checkKey(machineCode, businessId);
+        if (log.isDebugEnabled()) {
+            log.debug("状态机[{}] 业务ID[{}] 触发事件[{}]", machineCode, businessId, event.getCode());
+        }
+        if (!metrics.isEnabled() && auditLog == null) {
+            return executeLocked(machineCode, businessId, event, payload);
+        }
+        long start = System.nanoTime();
+        Transition transition;
+        try {
+            transition = executeLocked(machineCode, businessId, event, payload);
+        } catch (RuntimeException e) {
+            long nanos = System.nanoTime() - start;
+            metrics.recordTrigger(machineCode, event, null, nanos, e);
+            audit(machineCode, businessId, event, null, null, nanos, e);
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+        metrics.recordTrigger(machineCode, event, transition, nanos, null);
+        audit(machineCode, businessId, event, transition.from(), transition.to(), nanos, null);
+        return transition;
+    }
+
+    private static void checkKey(String machineCode, String businessId) {
+        if (StrUtil.isBlank(machineCode)) {
+            throw new IllegalArgumentException("状态机编码不能为空");
+        }
+        if (StrUtil.isBlank(businessId)) {
+            throw new IllegalArgumentException("业务ID不能为空");
+        }
+    }
+
+    /**
+     * 按采样结果写入审计日志, 未采样时不构建审计记录
+     */
+    private void audit(String machineCode, String businessId, Event event, State from, State to, long nanos, Throwable error) {
+        TransitionAuditLog auditLog = this.auditLog;
+        if (auditLog != null && auditLog.isSampled(error == null)) {
+            auditLog.append(new TransitionRecord(machineCode, businessId, event, from, to, System.currentTimeMillis(), nanos, error));
+        }
+    }
+
+    /**
+     * 加锁执行状态转换, 状态冲突时重试
+     *
+     * @return 实际执行的转换规则
+     */
+    private Transition executeLocked(String machineCode, String businessId, Event event, Object payload) {
+        lockManagement.lock(machineCode, businessId);
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    return doTrigger(machineCode, businessId, event, payload);
+                } catch (StateConflictException e) {
+                    if (attempt >= conflictRetries) {
+                        throw e;
+                    }
+                    log.debug("状态机[{}] 业务ID[{}]状态冲突, 第{}次重试", machineCode, businessId, attempt + 1);
+                }
+            }
+        } finally {
+            lockManagement.unlock(machineCode, businessId);
+        }
+    }
+
+    /**
+     * 执行一次状态转换
+     * <pre>
+     *     除状态上下文外不分配对象: 多参数日志先判断日志级别, 避免构建可变参数数组; 校验失败时才格式化异常信息
+     * </pre>
+     *
+     * @return 实际执行的转换规则
+     */
+    private Transition doTrigger(String machineCode, String businessId, Event event, Object payload) {
+        State storedState = readState(machineCode, businessId);
+        State currentState = getCurrentState(machineCode, storedState);
         Transition transition = registry.getTransition(machineCode, currentState, event);
-        Assert.notNull(transition, "状态机[{}] 不支持的事件[{}]", machineCode, event.getCode());
+        if (transition == null) {
+            throw new IllegalArgumentException(StrUtil.format("状态机[{}] 不支持的事件[{}]", machineCode, event.getCode()));
+        }
         StateContext context = createStateContext(machineCode, businessId, transition, payload);
-        log.trace("状态机[{}] 业务ID[{}]构建状态上下文: {}", machineCode, businessId, context);
+        boolean debug = log.isDebugEnabled();
+        if (log.isTraceEnabled()) {
+            log.trace("状态机[{}] 业务ID[{}]构建状态上下文: {}", machineCode, businessId, context);
+        }
         transactionManagement.begin();
         try {
-            log.debug("状态机[{}] 业务ID[{}]执行状态守卫: {}", machineCode, businessId, transition.key());
-            Assert.isTrue(registry.executeGuard(this, machineCode, currentState, transition.to(), context), "状态机[{}] 守卫[{}]未通过", machineCode, transition.key());
-            log.debug("状态机[{}] 业务ID[{}]执行状态动作(前置): {}", machineCode, businessId, transition.key());
+            if (debug) {
+                log.debug("状态机[{}] 业务ID[{}]执行状态守卫: {}", machineCode, businessId, transition.key());
+            }
+            if (!registry.executeGuard(this, machineCode, currentState, transition.to(), context)) {
+                throw new IllegalArgumentException(StrUtil.format("状态机[{}] 守卫[{}]未通过", machineCode, transition.key()));
+            }
+            if (debug) {
+                log.debug("状态机[{}] 业务ID[{}]执行状态动作(前置): {}", machineCode, businessId, transition.key());
+            }
             registry.executeBeforeAction(this, machineCode, currentState, transition.to(), context);
-            log.debug("状态机[{}] 业务ID[{}]更新状态: {} -> {}", machineCode, businessId, currentState.getState(), transition.to().getState());
-            manager.updateState(machineCode, businessId, transition.to());
-            log.debug("状态机[{}] 业务ID[{}]执行状态动作(后置): {}", machineCode, businessId, transition.key());
+            if (debug) {
+                log.debug("状态机[{}] 业务ID[{}]更新状态: {} -> {}", machineCode, businessId, currentState.getState(), transition.to().getState());
+            }
+            if (!writeState(context, storedState)) {
+                throw new StateConflictException("状态机[{}] 业务ID[{}]状态已被并发修改, 期望状态: {}", machineCode, businessId, currentState.getState());
+            }
+            if (journal != null) {
+                journal.append(machineCode, businessId, currentState, transition.to(), transition.event());
+            }
+            if (debug) {
+                log.debug("状态机[{}] 业务ID[{}]执行状态动作(后置): {}", machineCode, businessId, transition.key());
+            }
             registry.executeAfterAction(this, machineCode, currentState, transition.to(), context);
             // 提交事务
             transactionManagement.commit();
+            return transition;
+        } catch (StateConflictException e) {
+            // 回滚事务, 由调用方重试
+            transactionManagement.rollback();
+            throw e;
         } catch (Exception e) {
             // 回滚事务
             transactionManagement.rollback();
             throw new RuntimeException(e);
         }
     }
+
+    private State readState(String machineCode, String businessId) {
+        if (!metrics.isEnabled()) {
+            return manager.getLatestState(machineCode, businessId);
+        }
+        long start = System.nanoTime();
+        try {
+            return manager.getLatestState(machineCode, businessId);
+        } finally {
+            metrics.recordStateRead(machineCode, System.nanoTime() - start);
+        }
+    }
+
+    private boolean writeState(StateContext context, State expected) {
+        if (!metrics.isEnabled()) {
+            return manager.updateState(context, expected);
+        }
+        long start = System.nanoTime();
+        try {
+            return manager.updateState(context, expected);
+        } finally {
+            metrics.recordStateWrite(context.machineCode(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 批量触发状态机事件
+     * <pre>
+     *     1. 一次读取所有业务的当前状态
+     *     2. 逐个执行转换规则匹配、状态守卫与前置动作, 失败的请求记录失败结果后跳过
+     *     3. 一次提交所有状态的比较并更新, 再逐个执行后置动作
+     *     整批在同一个事务中执行, 单个请求失败不会回滚其他请求; 每个请求的守卫与前置动作、转换日志与后置动作分别在嵌套事务中执行:
+     *     守卫或前置动作失败时回滚其写入并返回失败结果; 状态更新后转换日志或后置动作失败时回滚其写入, 返回带有
+     *     {@link TransitionResult#actionError()} 的成功结果, 前置动作的写入随批次提交; 执行前通过 {@link LockManagement#lockAll(String, Collection)}
+     *     按固定顺序锁定批次中的所有业务, 与单个触发互斥; 未通过状态锁的并发修改由比较并更新发现,
+     *     状态已被并发修改的请求返回 {@link StateConflictException} 失败结果, 不重试(其前置动作的写入已随批次提交, 只发生在绕过状态锁的写入时); 业务ID为空的请求直接返回失败结果;
+     *     同一批次中重复的业务ID按顺序执行, 后一个请求基于前一个请求的结果
+     * </pre>
+     */
+    @Override
+    public List<TransitionResult> triggerAll(String machineCode, List<TriggerRequest> requests) {
+        if (log.isDebugEnabled()) {
+            log.debug("状态机[{}] 批量触发事件, 数量: {}", machineCode, requests.size());
+        }
+        if (StrUtil.isBlank(machineCode)) {
+            throw new IllegalArgumentException("状态机编码不能为空");
+        }
+        long batchStart = auditLog != null ? System.nanoTime() : 0;
+        TransitionResult[] results = new TransitionResult[requests.size()];
+        Set<String> businessIds = new HashSet<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            TriggerRequest request = requests.get(i);
+            if (StrUtil.isBlank(request.businessId())) {
+                results[i] = TransitionResult.failure(request.businessId(), request.event(), null, null, new IllegalArgumentException("业务ID不能为空"));
+            } else {
+                businessIds.add(request.businessId());
+            }
+        }
+        lockManagement.lockAll(machineCode, businessIds);
+        try {
+            long start = metrics.isEnabled() ? System.nanoTime() : 0;
+            Map<String, State> storedStates = new HashMap<>(manager.getLatestStates(machineCode, businessIds));
+            if (metrics.isEnabled()) {
+                metrics.recordStateRead(machineCode, System.nanoTime() - start);
+            }
+            List<PendingTransition> pending = new ArrayList<>();
+            Set<String> pendingIds = new HashSet<>();
+            transactionManagement.begin();
+            try {
+                for (int i = 0; i < requests.size(); i++) {
+                    if (results[i] != null) {
+                        continue;
+                    }
+                    TriggerRequest request = requests.get(i);
+                    if (!pendingIds.add(request.businessId())) {
+                        // 同一业务的后续请求需要基于已提交的状态执行
+                        flush(machineCode, pending, storedStates, results);
+                        pendingIds.clear();
+                        pendingIds.add(request.businessId());
+                    }
+                    prepare(machineCode, i, request, storedStates, pending, results);
+                }
+                flush(machineCode, pending, storedStates, results);
+                transactionManagement.commit();
+            } catch (RuntimeException e) {
+                transactionManagement.rollback();
+                throw e;
+            }
+        } finally {
+            lockManagement.unlockAll(machineCode, businessIds);
+        }
+        if (auditLog != null) {
+            long nanos = System.nanoTime() - batchStart;
+            for (TransitionResult result : results) {
+                audit(machineCode, result.businessId(), result.event(), result.from(), result.to(), nanos,
+                        result.error() != null ? result.error() : result.actionError());
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 匹配转换规则并执行状态守卫与前置动作
+     */
+    private void prepare(String machineCode, int index, TriggerRequest request, Map<String, State> storedStates, List<PendingTransition> pending, TransitionResult[] results) {
+        String businessId = request.businessId();
+        State storedState = storedStates.get(businessId);
+        State currentState = null;
+        Transition transition = null;
+        try {
+            currentState = getCurrentState(machineCode, storedState);
+            transition = registry.getTransition(machineCode, currentState, request.event());
+            if (transition == null) {
+                throw new IllegalArgumentException(StrUtil.format("状态机[{}] 不支持的事件[{}]", machineCode, request.event().getCode()));
+            }
+            StateContext context = createStateContext(machineCode, businessId, transition, request.payload());
+            transactionManagement.begin();
+            try {
+                if (!registry.executeGuard(this, machineCode, currentState, transition.to(), context)) {
+                    throw new IllegalArgumentException(StrUtil.format("状态机[{}] 守卫[{}]未通过", machineCode, transition.key()));
+                }
+                registry.executeBeforeAction(this, machineCode, currentState, transition.to(), context);
+                transactionManagement.commit();
+            } catch (Exception e) {
+                transactionManagement.rollback();
+                throw e;
+            }
+            pending.add(new PendingTransition(index, storedState, currentState, transition, context));
+        } catch (Exception e) {
+            results[index] = TransitionResult.failure(businessId, request.event(), currentState, transition == null ? null : transition.to(), e);
+        }
+    }
+
+    /**
+     * 批量比较并更新状态, 然后执行后置动作
+     */
+    private void flush(String machineCode, List<PendingTransition> pending, Map<String, State> storedStates, TransitionResult[] results) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<StateUpdate> updates = new ArrayList<>(pending.size());
+        for (PendingTransition p : pending) {
+            updates.add(new StateUpdate(p.context().businessId(), p.storedState(), p.transition().to(), p.transition().event()));
+        }
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        List<Boolean> updated = manager.updateStates(machineCode, updates);
+        if (metrics.isEnabled()) {
+            metrics.recordStateWrite(machineCode, System.nanoTime() - start);
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            PendingTransition p = pending.get(i);
+            StateContext context = p.context();
+            State to = p.transition().to();
+            if (!updated.get(i)) {
+                results[p.index()] = TransitionResult.failure(context.businessId(), context.event(), p.currentState(), to,
+                        new StateConflictException("状态机[{}] 业务ID[{}]状态已被并发修改, 期望状态: {}", machineCode, context.businessId(), p.currentState().getState()));
+                continue;
+            }
+            storedStates.put(context.businessId(), to);
+            transactionManagement.begin();
+            try {
+                if (journal != null) {
+                    journal.append(machineCode, context.businessId(), p.currentState(), to, context.event());
+                }
+                registry.executeAfterAction(this, machineCode, p.currentState(), to, context);
+                transactionManagement.commit();
+                results[p.index()] = TransitionResult.success(context.businessId(), context.event(), p.currentState(), to);
+            } catch (Exception e) {
+                transactionManagement.rollback();
+                results[p.index()] = TransitionResult.actionFailure(context.businessId(), context.event(), p.currentState(), to, e);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * 已通过守卫、等待提交状态的转换
+     *
+     * @param index        请求序号
+     * @param storedState  状态管理器中保存的状态
+     * @param currentState 当前状态
+     * @param transition   转换规则
+     * @param context      状态上下文
+     */
+    private record PendingTransition(int index, State storedState, State currentState, Transition transition, StateContext context) {
+    }
 }
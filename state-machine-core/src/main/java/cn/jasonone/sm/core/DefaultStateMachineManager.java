@@ -1,72 +1,421 @@
 package cn.jasonone.sm.core;
 
 import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.StrUtil;
+import cn.jasonone.sm.domain.StateUpdate;
 import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.enums.TerminalStatePolicy;
 import cn.jasonone.sm.support.State;
+import cn.jasonone.sm.support.StateArchiver;
 import cn.jasonone.sm.support.StateMachineManager;
+import cn.jasonone.sm.support.StateStore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
 
-import java.util.Map;
-import java.util.Set;
+import java.time.Duration;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 /**
  * 状态管理器默认实现
- *
+ * <pre>
+ *     当前状态保存在按状态机划分的 Caffeine 缓存中(W-TinyLFU 淘汰):
+ *     1. maximumSize: 每个状态机最多缓存的业务数量, 小于0表示不限制
+ *     2. terminalStatePolicy: 终态(已声明为终态或没有以该状态为源状态的转换规则)处理策略, 默认保留, 保留策略下终态不过期
+ *     3. terminalTtl: 业务进入终态后在内存中保留的时间, 为null表示不过期
+ *     4. stateArchiver: 归档策略下业务进入终态时调用
+ *     5. stateStore: 后备存储, 状态写入内存后同步写入, 内存中不存在时从中加载; 未配置时被淘汰的状态将丢失
+ *     缓存参数在状态机首次读写状态时生效, 之后修改不影响已创建的缓存
+ * </pre>
  */
+@Getter
+@Setter
 public class DefaultStateMachineManager implements StateMachineManager {
 
-    private static final Map<String, Set<Transition>> TRANSITION_CACHE = new ConcurrentHashMap<>();
+    /**
+     * 每个状态机最多缓存的业务数量, 小于0表示不限制
+     */
+    private long maximumSize = -1;
 
-    private static final Map<String, State> STATE_CACHE = new ConcurrentHashMap<>();
+    /**
+     * 终态处理策略
+     */
+    private TerminalStatePolicy terminalStatePolicy = TerminalStatePolicy.RETAIN;
 
-    private static final Map<String, State> INITIAL_STATE_CACHE = new ConcurrentHashMap<>();
+    /**
+     * 终态在内存中保留的时间, 为null表示不过期
+     */
+    private Duration terminalTtl;
+
+    /**
+     * 终态归档, 仅在归档策略下使用
+     */
+    private StateArchiver stateArchiver;
+
+    /**
+     * 是否记录缓存统计
+     */
+    private boolean recordStats = true;
+
+    /**
+     * 后备存储, 为null表示仅保存在内存中
+     */
+    private StateStore stateStore;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, Set<Transition>> transitionCache = new ConcurrentHashMap<>();
+
+    /**
+     * 源状态编码: machineCode -> 作为转换规则源状态出现过的状态编码, 不在其中的状态为终态
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, Set<String>> sourceStates = new ConcurrentHashMap<>();
+
+    /**
+     * 显式声明的终态编码: machineCode -> 终态编码
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, Set<String>> terminalStates = new ConcurrentHashMap<>();
+
+    /**
+     * 当前状态: machineCode -> (businessId -> 状态), 逐级查找不拼接字符串
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, StateTable> stateCache = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, State> initialStateCache = new ConcurrentHashMap<>();
 
 
     @Override
     public void setInitialState(String machineCode, State initialState) {
-        Assert.isFalse(INITIAL_STATE_CACHE.containsKey(machineCode), "状态机[{}]已存在初始状态", machineCode);
-        INITIAL_STATE_CACHE.put(machineCode, initialState);
+        Assert.isFalse(initialStateCache.containsKey(machineCode), "状态机[{}]已存在初始状态", machineCode);
+        initialStateCache.put(machineCode, initialState);
     }
 
     @Override
     public State getInitialState(String machineCode) {
-        return INITIAL_STATE_CACHE.get(machineCode);
+        return initialStateCache.get(machineCode);
     }
 
     @Override
     public State getCurrentState(String machineCode, String businessId) {
+        checkKey(machineCode, businessId);
+        return getState(getStates(machineCode), machineCode, businessId);
+    }
+
+    /**
+     * 读取状态, 内存中不存在时从后备存储加载
+     */
+    private State getState(StateTable states, String machineCode, String businessId) {
+        State state = states.cache() != null ? states.cache().getIfPresent(businessId) : states.map().get(businessId);
+        if (state != null || stateStore == null) {
+            return state;
+        }
+        return states.cache() != null
+                ? states.cache().get(businessId, k -> stateStore.load(machineCode, k))
+                : states.map().computeIfAbsent(businessId, k -> stateStore.load(machineCode, k));
+    }
+
+    /**
+     * 校验状态机编码与业务ID, 不使用可变参数的断言方法, 避免每次调用分配参数数组
+     */
+    private static void checkKey(String machineCode, String businessId) {
+        if (StrUtil.isBlank(machineCode)) {
+            throw new IllegalArgumentException("状态机编码不能为空");
+        }
+        if (StrUtil.isBlank(businessId)) {
+            throw new IllegalArgumentException("业务ID不能为空");
+        }
+    }
+
+    private StateTable getStates(String machineCode) {
+        StateTable states = stateCache.get(machineCode);
+        return states != null ? states : stateCache.computeIfAbsent(machineCode, this::createStateTable);
+    }
+
+    /**
+     * 未配置容量与终态过期时直接使用 ConcurrentHashMap, 读写不分配对象;
+     * 否则使用 Caffeine 缓存, 其比较并更新每次调用会分配少量对象
+     */
+    private StateTable createStateTable(String machineCode) {
+        boolean expireTerminal = terminalTtl != null && terminalStatePolicy != TerminalStatePolicy.RETAIN;
+        if (maximumSize < 0 && !expireTerminal) {
+            return new StateTable(new ConcurrentHashMap<>(), null);
+        }
+        Caffeine<Object, Object> builder = Caffeine.newBuilder();
+        if (maximumSize >= 0) {
+            builder.maximumSize(maximumSize);
+        }
+        if (expireTerminal) {
+            builder.expireAfter(new TerminalExpiry(machineCode, terminalTtl.toNanos()));
+        }
+        if (recordStats) {
+            builder.recordStats();
+        }
+        Cache<String, State> cache = builder.build();
+        return new StateTable(cache.asMap(), cache);
+    }
+
+    @Override
+    public void saveTerminalState(String machineCode, State state) {
         Assert.notBlank(machineCode, "状态机编码不能为空");
-        Assert.notBlank(businessId, "业务ID不能为空");
-        String key = getKey(machineCode, businessId);
-        return STATE_CACHE.get(key);
+        Assert.notNull(state, "终态不能为空");
+        terminalStates.computeIfAbsent(machineCode, k -> ConcurrentHashMap.newKeySet()).add(state.getState());
+    }
+
+    @Override
+    public boolean isTerminalState(String machineCode, State state) {
+        Set<String> terminals = terminalStates.get(machineCode);
+        if (terminals != null && terminals.contains(state.getState())) {
+            return true;
+        }
+        Set<String> sources = sourceStates.get(machineCode);
+        return sources != null && !sources.contains(state.getState());
+    }
+
+    /**
+     * 归档策略下, 业务进入终态时交给归档器
+     */
+    private void archiveIfTerminal(String machineCode, String businessId, State state) {
+        if (terminalStatePolicy == TerminalStatePolicy.ARCHIVE && stateArchiver != null && isTerminalState(machineCode, state)) {
+            stateArchiver.archive(machineCode, businessId, state);
+        }
+    }
+
+    /**
+     * 获取所有状态机缓存的统计信息之和
+     *
+     * @return 缓存统计, 包括命中、加载与淘汰次数; 未配置容量与终态过期时不记录统计
+     */
+    public CacheStats getCacheStats() {
+        CacheStats stats = CacheStats.empty();
+        for (StateTable table : stateCache.values()) {
+            if (table.cache() != null) {
+                stats = stats.plus(table.cache().stats());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 获取所有状态机缓存的业务数量估计值
+     *
+     * @return 业务数量
+     */
+    public long getEstimatedSize() {
+        long size = 0;
+        for (StateTable table : stateCache.values()) {
+            size += table.cache() != null ? table.cache().estimatedSize() : table.map().size();
+        }
+        return size;
+    }
+
+    /**
+     * 立即执行待处理的淘汰与过期
+     */
+    public void cleanUp() {
+        for (StateTable table : stateCache.values()) {
+            if (table.cache() != null) {
+                table.cache().cleanUp();
+            }
+        }
     }
 
-    private static String getKey(String machineCode, String businessId) {
-        return machineCode + ":" + businessId;
+    /**
+     * 获取内存中保存了状态的状态机编码
+     *
+     * @return 状态机编码
+     */
+    public Set<String> getStateMachineCodes() {
+        return Collections.unmodifiableSet(stateCache.keySet());
+    }
+
+    /**
+     * 遍历状态机保存在内存中的状态, 不从后备存储加载; 遍历期间的并发修改可能可见也可能不可见
+     *
+     * @param machineCode 状态机编码
+     * @param consumer    业务ID与当前状态的消费者
+     */
+    public void forEachState(String machineCode, BiConsumer<String, State> consumer) {
+        StateTable states = stateCache.get(machineCode);
+        if (states != null) {
+            states.map().forEach(consumer);
+        }
+    }
+
+    /**
+     * 恢复状态: 直接写入内存, 不比较、不写入后备存储、不归档
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param state       状态
+     */
+    public void restoreState(String machineCode, String businessId, State state) {
+        checkKey(machineCode, businessId);
+        if (state == null) {
+            throw new IllegalArgumentException("状态不能为空");
+        }
+        getStates(machineCode).map().put(businessId, state);
     }
 
     @Override
     public void saveTransition(String machineCode, Transition transition) {
         Assert.notBlank(machineCode, "状态机编码不能为空");
         Assert.notNull(transition, "转换规则不能为空");
-        Set<Transition> transitions = TRANSITION_CACHE.computeIfAbsent(machineCode, k -> ConcurrentHashMap.newKeySet());
+        Set<Transition> transitions = transitionCache.computeIfAbsent(machineCode, k -> ConcurrentHashMap.newKeySet());
         Assert.isTrue(transitions.add(transition), "状态转换规则[{}->{}->{}]已存在", transition.from(), transition.event(), transition.to());
+        sourceStates.computeIfAbsent(machineCode, k -> ConcurrentHashMap.newKeySet()).add(transition.from().getState());
     }
 
     @Override
     public Set<Transition> getTransitions(String machineCode) {
         ConcurrentHashMap.KeySetView<Transition, Boolean> transitions = ConcurrentHashMap.newKeySet();
-        transitions.addAll(TRANSITION_CACHE.get(machineCode));
+        transitions.addAll(transitionCache.getOrDefault(machineCode, Set.of()));
         return transitions;
     }
 
+    /**
+     * 转换规则只增不减, 以规则数量作为版本号
+     */
+    @Override
+    public long getTransitionVersion(String machineCode) {
+        Set<Transition> transitions = transitionCache.get(machineCode);
+        return transitions == null ? 0 : transitions.size();
+    }
+
     @Override
     public boolean updateState(String machineCode, String businessId, State state) {
-        Assert.notBlank(machineCode, "状态机编码不能为空");
-        Assert.notBlank(businessId, "业务ID不能为空");
+        checkKey(machineCode, businessId);
         Assert.notNull(state, "状态不能为空");
-        String key = getKey(machineCode, businessId);
-        STATE_CACHE.put(key, state);
+        Map<String, State> map = getStates(machineCode).map();
+        State previous = map.put(businessId, state);
+        if (stateStore != null) {
+            try {
+                stateStore.save(machineCode, businessId, state);
+            } catch (RuntimeException e) {
+                // 写入失败时恢复内存中的状态, 期间已被其他线程修改时保留其修改
+                if (previous == null) {
+                    map.remove(businessId, state);
+                } else {
+                    map.replace(businessId, state, previous);
+                }
+                throw e;
+            }
+        }
+        archiveIfTerminal(machineCode, businessId, state);
         return true;
     }
+
+    @Override
+    public boolean updateState(String machineCode, String businessId, State expected, State state) {
+        checkKey(machineCode, businessId);
+        if (state == null) {
+            throw new IllegalArgumentException("状态不能为空");
+        }
+        return compareAndSet(getStates(machineCode), machineCode, businessId, expected, state);
+    }
+
+    /**
+     * 在内存中比较并更新, 成功后写入后备存储; 写入失败时恢复内存中的状态并抛出异常
+     */
+    private boolean compareAndSet(StateTable states, String machineCode, String businessId, State expected, State state) {
+        if (stateStore != null) {
+            // 确保已淘汰的状态先从后备存储加载, 再进行比较
+            getState(states, machineCode, businessId);
+        }
+        Map<String, State> map = states.map();
+        boolean updated = expected == null
+                ? map.putIfAbsent(businessId, state) == null
+                : map.replace(businessId, expected, state);
+        if (updated && stateStore != null) {
+            try {
+                stateStore.save(machineCode, businessId, state);
+            } catch (RuntimeException e) {
+                if (expected == null) {
+                    map.remove(businessId, state);
+                } else {
+                    map.replace(businessId, state, expected);
+                }
+                throw e;
+            }
+        }
+        if (updated) {
+            archiveIfTerminal(machineCode, businessId, state);
+        }
+        return updated;
+    }
+
+    @Override
+    public Map<String, State> getCurrentStates(String machineCode, Collection<String> businessIds) {
+        Assert.notBlank(machineCode, "状态机编码不能为空");
+        StateTable current = getStates(machineCode);
+        Map<String, State> states = new HashMap<>(businessIds.size());
+        for (String businessId : businessIds) {
+            State state = getState(current, machineCode, businessId);
+            if (state != null) {
+                states.put(businessId, state);
+            }
+        }
+        return states;
+    }
+
+    @Override
+    public List<Boolean> updateStates(String machineCode, List<StateUpdate> updates) {
+        Assert.notBlank(machineCode, "状态机编码不能为空");
+        StateTable states = getStates(machineCode);
+        List<Boolean> results = new ArrayList<>(updates.size());
+        for (StateUpdate update : updates) {
+            results.add(compareAndSet(states, machineCode, update.businessId(), update.expected(), update.state()));
+        }
+        return results;
+    }
+
+    /**
+     * 单个状态机的状态表
+     *
+     * @param map   状态映射, 使用缓存时为缓存的映射视图
+     * @param cache 缓存, 未配置容量与终态过期时为null
+     */
+    private record StateTable(Map<String, State> map, Cache<String, State> cache) {
+    }
+
+    /**
+     * 终态过期: 进入终态的业务在 ttl 后过期, 其他状态不过期
+     */
+    private final class TerminalExpiry implements Expiry<String, State> {
+        private final String machineCode;
+        private final long ttlNanos;
+
+        private TerminalExpiry(String machineCode, long ttlNanos) {
+            this.machineCode = machineCode;
+            this.ttlNanos = ttlNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(String key, State value, long currentTime) {
+            return isTerminalState(machineCode, value) ? ttlNanos : Long.MAX_VALUE;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, State value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, State value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
 }
@@ -4,13 +4,17 @@ import cn.hutool.core.util.StrUtil;
 import cn.jasonone.sm.domain.StateContext;
 import cn.jasonone.sm.domain.Transition;
 import cn.jasonone.sm.enums.StateMachineActionType;
+import cn.jasonone.sm.enums.StateMachineHandlerType;
 import cn.jasonone.sm.support.*;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 /**
  * 状态机注册中心默认实现
@@ -19,14 +23,55 @@ import java.util.concurrent.ConcurrentHashMap;
 public class DefaultStateRegistry implements StateRegistry {
 
     private static final String ALL_MATCH = "*";
-    private static final String KEY_SEPARATOR = ":";
 
     private final StateMachineManager manager;
 
-    private final Map<String, Transition> TRANSITION_CACHE = new ConcurrentHashMap<>();
-    private final Map<String, Set<Guard>> GUARD_CACHE = new ConcurrentHashMap<>();
-    private final Map<String, Set<Action>> ACTION_BEFORE_CACHE = new ConcurrentHashMap<>();
-    private final Map<String, Set<Action>> ACTION_AFTER_CACHE = new ConcurrentHashMap<>();
+    /**
+     * 状态机指标, 启用时记录每个守卫与动作的耗时以及守卫拒绝次数
+     */
+    private StateMachineMetrics metrics = StateMachineMetrics.NOOP;
+
+    /**
+     * 并行守卫的执行器, 为null时使用 {@link StateMachineExecutors#defaultExecutor()}
+     */
+    private Executor guardExecutor;
+
+    /**
+     * 延迟动作发件箱, 为null时延迟动作与普通后置动作相同, 在事务内同步执行
+     */
+    private ActionOutbox actionOutbox;
+
+    /**
+     * 编译后的状态机: machineCode -> 转换表与处理器表
+     * <pre>
+     *     首次查找时编译; 注册转换规则时移除对应状态机, 注册守卫或动作时整体替换为新的空映射, 由后续触发重新编译
+     * </pre>
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile Map<String, CompiledStateMachine> compiledMachines = new ConcurrentHashMap<>();
+    /**
+     * 本节点注册的终态编码: machineCode -> 终态编码
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, Set<String>> terminalStates = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    private final List<Registration<Guard>> GUARD_CACHE = new CopyOnWriteArrayList<>();
+    @Getter(AccessLevel.NONE)
+    private final List<Registration<Action>> ACTION_BEFORE_CACHE = new CopyOnWriteArrayList<>();
+    @Getter(AccessLevel.NONE)
+    private final List<Registration<Action>> ACTION_AFTER_CACHE = new CopyOnWriteArrayList<>();
+
+    /**
+     * 处理器索引: machineCode -> sourceState -> targetState -> 已解析通配符的处理器数组
+     * <pre>
+     *     逐级按字符串查找, 查找过程不分配对象; 注册守卫或动作时整体替换为新的空索引, 由后续触发按需重建
+     * </pre>
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile Map<String, Map<String, Map<String, HandlerChain>>> handlerIndex = new ConcurrentHashMap<>();
 
 
     @Override
@@ -42,6 +87,22 @@ public class DefaultStateRegistry implements StateRegistry {
     @Override
     public void registerTransition(String machineCode, Transition transition) {
         manager.saveTransition(machineCode, transition);
+        compiledMachines.remove(machineCode);
+    }
+
+    /**
+     * 同时在本地记录终态声明, 状态管理器不保存声明(默认实现)时注册中心仍能识别
+     */
+    @Override
+    public void registerTerminalState(String machineCode, State state) {
+        manager.saveTerminalState(machineCode, state);
+        terminalStates.computeIfAbsent(machineCode, k -> ConcurrentHashMap.newKeySet()).add(state.getState());
+    }
+
+    @Override
+    public boolean isTerminalState(String machineCode, State state) {
+        Set<String> declared = terminalStates.get(machineCode);
+        return declared != null && declared.contains(state.getState()) || manager.isTerminalState(machineCode, state);
     }
 
     @Override
@@ -52,22 +113,55 @@ public class DefaultStateRegistry implements StateRegistry {
         return objects;
     }
 
+    /**
+     * 获取编译后的状态机, 不存在时根据当前的转换规则与处理器编译
+     *
+     * @param machineCode 状态机编码
+     * @return 编译后的状态机
+     */
+    public CompiledStateMachine getCompiledMachine(String machineCode) {
+        Map<String, CompiledStateMachine> machines = compiledMachines;
+        CompiledStateMachine machine = machines.get(machineCode);
+        return machine != null ? machine : machines.computeIfAbsent(machineCode, this::compile);
+    }
+
+    private CompiledStateMachine compile(String machineCode) {
+        // 先读取版本号再读取转换规则, 二者之间发生的变更会在下一次未命中时触发重新编译
+        long version = manager.getTransitionVersion(machineCode);
+        Set<Transition> transitions = manager.getTransitions(machineCode);
+        return new CompiledStateMachine(machineCode, version, transitions == null ? Set.of() : transitions,
+                (from, to) -> resolveHandlerChain(new HandlerKey(normalize(machineCode), from.getState(), to.getState())));
+    }
+
+    /**
+     * 获取转换规则
+     * <pre>
+     *     先比较状态管理器中的转换规则版本号, 已变化(例如其他节点注册或修改了转换规则)时重新编译, 再在编译后的转换表中查找,
+     *     命中时为两次数组下标访问; 状态管理器不支持版本号时, 未命中才遍历其中的转换规则, 找到时重新编译该状态机
+     * </pre>
+     */
     @Override
     public Transition getTransition(String machineCode, State from, Event event) {
-        String key = machineCode + ":" + from.getState() + ":" + event.getCode();
-        // 缓存中获取
-        Transition transition = TRANSITION_CACHE.get(key);
+        CompiledStateMachine machine = getCompiledMachine(machineCode);
+        long version = manager.getTransitionVersion(machineCode);
+        if (version >= 0) {
+            if (version != machine.getVersion()) {
+                compiledMachines.remove(machineCode, machine);
+                machine = getCompiledMachine(machineCode);
+            }
+            return machine.getTransition(from, event);
+        }
+        Transition transition = machine.getTransition(from, event);
         if (transition != null) {
             return transition;
         }
-        // 获取所有转换规则
         Set<Transition> transitions = manager.getTransitions(machineCode);
-        key = from.getState() + ":" + event.getCode();
-        // 遍历转换规则
+        if (transitions == null) {
+            return null;
+        }
         for (Transition t : transitions) {
-            if (StrUtil.equals(t.key(), key)) {
-                // 缓存转换规则
-                TRANSITION_CACHE.put(machineCode + ":" + key, t);
+            if (StrUtil.equals(t.from().getState(), from.getState()) && StrUtil.equals(t.event().getCode(), event.getCode())) {
+                compiledMachines.remove(machineCode, machine);
                 return t;
             }
         }
@@ -76,132 +170,303 @@ public class DefaultStateRegistry implements StateRegistry {
 
     @Override
     public void registerGuard(String machineCode, State sourceState, State targetState, Guard guard) {
-        String key = buildKey(machineCode, sourceState, targetState);
-        Set<Guard> guards = GUARD_CACHE.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet());
-        guards.add(guard);
+        register(GUARD_CACHE, new Registration<>(normalize(machineCode), normalize(sourceState), normalize(targetState), guard, guard.getPriority()));
     }
 
     @Override
     public void registerAction(String machineCode, State sourceState, State targetState, Action action, StateMachineActionType type) {
-        String key = buildKey(machineCode, sourceState, targetState);
-        Set<Action> actions = null;
+        if (type == StateMachineActionType.BEFORE && action.isDeferred()) {
+            throw new IllegalArgumentException(StrUtil.format("前置动作不支持延迟执行: {}", action.getName()));
+        }
+        Registration<Action> registration = new Registration<>(normalize(machineCode), normalize(sourceState), normalize(targetState), action, action.getPriority());
         if (type == StateMachineActionType.BEFORE) {
-            actions = ACTION_BEFORE_CACHE.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet());
+            register(ACTION_BEFORE_CACHE, registration);
         } else if (type == StateMachineActionType.AFTER) {
-            actions = ACTION_AFTER_CACHE.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet());
-        }
-        if (actions != null) {
-            actions.add(action);
+            register(ACTION_AFTER_CACHE, registration);
         }
     }
 
+    /**
+     * 执行守卫
+     * <pre>
+     *     1. 按优先级依次执行, 任一守卫未通过时不再执行后续守卫
+     *     2. 相邻的并行守卫({@link Guard#isParallel()})作为一组在守卫执行器中并发执行, 组内任一守卫未通过或抛出异常时
+     *        立即返回并取消(中断)组内其余守卫; 组内全部通过后继续执行后续守卫
+     * </pre>
+     */
     @Override
     public boolean executeGuard(StateMachineEngine engine, String machineCode, State sourceState, State targetState, StateContext context) throws Exception {
-        Set<Guard> guards = getList(machineCode, sourceState, targetState,GUARD_CACHE);
-        if (guards != null) {
+        HandlerChain chain = getHandlerChain(machineCode, sourceState, targetState);
+        Guard[] guards = chain.guards();
+        if (chain.parallelGuards()) {
+            return executeGuardGroups(guards, engine, machineCode, sourceState, targetState, context);
+        }
+        if (metrics.isEnabled()) {
             for (Guard guard : guards) {
-                if (!guard.canTransition(engine, context)) {
+                if (!executeGuardTimed(guard, engine, machineCode, sourceState, targetState, context)) {
                     return false;
                 }
             }
+            return true;
+        }
+        for (Guard guard : guards) {
+            if (!guard.canTransition(engine, context)) {
+                return false;
+            }
         }
         return true;
     }
 
-    @Override
-    public void executeBeforeAction(StateMachineEngine engine, String machineCode, State sourceState, State targetState, StateContext context) throws Exception {
-        String key = buildKey(machineCode, sourceState, targetState);
-        Set<Action> actions = getList(machineCode, sourceState, targetState,ACTION_BEFORE_CACHE);
-        if (actions != null) {
-            for (Action action : actions) {
-                action.execute(engine, context);
+    private boolean executeGuardGroups(Guard[] guards, StateMachineEngine engine, String machineCode, State sourceState, State targetState, StateContext context) throws Exception {
+        int index = 0;
+        while (index < guards.length) {
+            int end = index + 1;
+            if (guards[index].isParallel()) {
+                while (end < guards.length && guards[end].isParallel()) {
+                    end++;
+                }
             }
+            boolean passed = end - index == 1
+                    ? executeGuard(guards[index], engine, machineCode, sourceState, targetState, context)
+                    : executeGuardsInParallel(guards, index, end, engine, machineCode, sourceState, targetState, context);
+            if (!passed) {
+                return false;
+            }
+            index = end;
         }
+        return true;
     }
 
-    @Override
-    public void executeAfterAction(StateMachineEngine engine, String machineCode, State sourceState, State targetState, StateContext context) throws Exception {
-        String key = buildKey(machineCode, sourceState, targetState);
-        Set<Action> actions = getList(machineCode, sourceState, targetState,ACTION_AFTER_CACHE);
-        if (actions != null) {
-            for (Action action : actions) {
-                action.execute(engine, context);
+    /**
+     * 并发执行 guards[from, to), 按完成顺序检查结果, 返回前取消尚未完成的守卫
+     */
+    private boolean executeGuardsInParallel(Guard[] guards, int from, int to, StateMachineEngine engine, String machineCode, State sourceState, State targetState, StateContext context) throws Exception {
+        CompletionService<Boolean> completion = new ExecutorCompletionService<>(guardExecutor != null ? guardExecutor : StateMachineExecutors.defaultExecutor());
+        List<Future<Boolean>> futures = new ArrayList<>(to - from);
+        try {
+            for (int i = from; i < to; i++) {
+                Guard guard = guards[i];
+                futures.add(completion.submit(() -> executeGuard(guard, engine, machineCode, sourceState, targetState, context)));
+            }
+            for (int i = from; i < to; i++) {
+                if (!completion.take().get()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        } finally {
+            for (Future<Boolean> future : futures) {
+                future.cancel(true);
             }
         }
     }
 
+    private boolean executeGuard(Guard guard, StateMachineEngine engine, String machineCode, State sourceState, State targetState, StateContext context) throws Exception {
+        return metrics.isEnabled()
+                ? executeGuardTimed(guard, engine, machineCode, sourceState, targetState, context)
+                : guard.canTransition(engine, context);
+    }
 
+    private boolean executeGuardTimed(Guard guard, StateMachineEngine engine, String machineCode, State sourceState, State targetState, StateContext context) throws Exception {
+        long start = System.nanoTime();
+        boolean passed;
+        try {
+            passed = guard.canTransition(engine, context);
+        } catch (Exception e) {
+            metrics.recordHandler(machineCode, StateMachineHandlerType.GUARD, guard, System.nanoTime() - start, e);
+            throw e;
+        }
+        metrics.recordHandler(machineCode, StateMachineHandlerType.GUARD, guard, System.nanoTime() - start, null);
+        if (!passed) {
+            metrics.recordGuardRejected(machineCode, sourceState, targetState, guard);
+        }
+        return passed;
+    }
+
+    @Override
+    public void executeBeforeAction(StateMachineEngine engine, String machineCode, State sourceState, State targetState, StateContext context) throws Exception {
+        executeActions(getHandlerChain(machineCode, sourceState, targetState).beforeActions(), StateMachineHandlerType.BEFORE_ACTION, engine, machineCode, context);
+    }
 
     /**
-     * 构建缓存Key：machineCode:sourceState:targetState
-     * @param machineCode 机器码
+     * 执行后置动作
+     * <pre>
+     *     延迟动作({@link Action#isDeferred()})在其他后置动作之后处理: 配置发件箱时写入发件箱, 由发件箱在事务提交后异步执行;
+     *     未配置发件箱时直接执行
+     * </pre>
+     */
+    @Override
+    public void executeAfterAction(StateMachineEngine engine, String machineCode, State sourceState, State targetState, StateContext context) throws Exception {
+        HandlerChain chain = getHandlerChain(machineCode, sourceState, targetState);
+        executeActions(chain.afterActions(), StateMachineHandlerType.AFTER_ACTION, engine, machineCode, context);
+        Action[] deferredActions = chain.deferredActions();
+        if (deferredActions.length > 0) {
+            ActionOutbox outbox = actionOutbox;
+            if (outbox == null) {
+                executeActions(deferredActions, StateMachineHandlerType.AFTER_ACTION, engine, machineCode, context);
+            } else {
+                outbox.stage(engine, deferredActions, context);
+            }
+        }
+    }
+
+    /**
+     * 获取延迟执行的后置动作
+     *
+     * @param machineCode 状态机编码
      * @param sourceState 源状态
      * @param targetState 目标状态
-     * @return 拼接后的Key
+     * @return 延迟动作, 按优先级排列
      */
-    private String buildKey(String machineCode, State sourceState, State targetState) {
-        // 处理State为null的情况，默认用*匹配所有
-        String source = sourceState == null ? ALL_MATCH : sourceState.getState();
-        String target = targetState == null ? ALL_MATCH : targetState.getState();
-        // 处理machineCode为null的情况
-        String machine = StrUtil.isBlank(machineCode) ? ALL_MATCH : machineCode;
-        return machine + KEY_SEPARATOR + source + KEY_SEPARATOR + target;
+    public Action[] getDeferredActions(String machineCode, State sourceState, State targetState) {
+        return getHandlerChain(machineCode, sourceState, targetState).deferredActions().clone();
+    }
+
+    private void executeActions(Action[] actions, StateMachineHandlerType type, StateMachineEngine engine, String machineCode, StateContext context) throws Exception {
+        if (!metrics.isEnabled()) {
+            for (Action action : actions) {
+                action.execute(engine, context);
+            }
+            return;
+        }
+        for (Action action : actions) {
+            long start = System.nanoTime();
+            try {
+                action.execute(engine, context);
+            } catch (Exception e) {
+                metrics.recordHandler(machineCode, type, action, System.nanoTime() - start, e);
+                throw e;
+            }
+            metrics.recordHandler(machineCode, type, action, System.nanoTime() - start, null);
+        }
     }
 
     /**
-     * 根据machineCode、sourceState、targetState从缓存中获取匹配的集合
-     * 支持*通配符匹配，优先级：精确匹配 > 部分通配 > 全通配
-     * @param machineCode 机器码（支持*）
-     * @param sourceState 源状态（支持*）
-     * @param targetState 目标状态（支持*）
-     * @param cache 目标缓存Map
-     * @return 匹配到的集合（线程安全，无重复元素）
+     * 获取处理器链, 索引中不存在时解析通配符并写入索引
+     *
+     * @param machineCode 状态机编码
+     * @param sourceState 源状态
+     * @param targetState 目标状态
+     * @return 处理器链
      */
-    private static <T> Set<T> getList(String machineCode, State sourceState, State targetState, Map<String, Set<T>> cache) {
-        // 空缓存直接返回空集合
-        if (cache == null || cache.isEmpty()) {
-            return Collections.emptySet();
+    HandlerChain getHandlerChain(String machineCode, State sourceState, State targetState) {
+        if (sourceState != null && targetState != null && !StrUtil.isBlank(machineCode)) {
+            // 转换规则对应的边直接使用编译后的处理器表
+            HandlerChain chain = getCompiledMachine(machineCode).getHandlerChain(sourceState, targetState);
+            if (chain != null) {
+                return chain;
+            }
+        }
+        String mc = normalize(machineCode);
+        String source = normalize(sourceState);
+        String target = normalize(targetState);
+        Map<String, HandlerChain> chains = getOrCreate(getOrCreate(handlerIndex, mc, k -> new ConcurrentHashMap<>()), source, k -> new ConcurrentHashMap<>());
+        HandlerChain chain = chains.get(target);
+        if (chain == null) {
+            chain = chains.computeIfAbsent(target, k -> resolveHandlerChain(new HandlerKey(mc, source, k)));
         }
+        return chain;
+    }
 
-        // 处理入参，null值替换为*
-        String mc = StrUtil.isBlank(machineCode) ? ALL_MATCH : machineCode;
-        String ss = sourceState == null ? ALL_MATCH : sourceState.getState();
-        String ts = targetState == null ? ALL_MATCH : targetState.getState();
+    /**
+     * 获取或创建映射值, 已存在时只执行一次查找
+     */
+    private static <K, V> V getOrCreate(Map<K, V> map, K key, Function<K, V> factory) {
+        V value = map.get(key);
+        return value != null ? value : map.computeIfAbsent(key, factory);
+    }
 
-        // 线程安全的结果集合，避免并发问题
-        Set<T> result = ConcurrentHashMap.newKeySet();
+    private HandlerChain resolveHandlerChain(HandlerKey key) {
+        Action[] afterActions = match(key, ACTION_AFTER_CACHE, Action[]::new);
+        List<Action> immediate = new ArrayList<>(afterActions.length);
+        List<Action> deferred = new ArrayList<>();
+        for (Action action : afterActions) {
+            (action.isDeferred() ? deferred : immediate).add(action);
+        }
+        return new HandlerChain(
+                match(key, GUARD_CACHE, Guard[]::new),
+                match(key, ACTION_BEFORE_CACHE, Action[]::new),
+                immediate.toArray(Action[]::new),
+                deferred.toArray(Action[]::new)
+        );
+    }
 
-        // 遍历缓存所有Key，匹配符合规则的项
-        for (Map.Entry<String, Set<T>> entry : cache.entrySet()) {
-            String cacheKey = entry.getKey();
-            Set<T> cacheValue = entry.getValue();
+    /**
+     * 按优先级插入注册项并使处理器索引失效
+     * <pre>
+     *     注册列表始终按优先级升序排列, 相同优先级保持注册顺序, 因此解析处理器链时无需再次排序
+     * </pre>
+     *
+     * @param registrations 注册列表
+     * @param registration  注册项
+     */
+    private synchronized <T> void register(List<Registration<T>> registrations, Registration<T> registration) {
+        int index = registrations.size();
+        while (index > 0 && registrations.get(index - 1).priority() > registration.priority()) {
+            index--;
+        }
+        registrations.add(index, registration);
+        handlerIndex = new ConcurrentHashMap<>();
+        compiledMachines = new ConcurrentHashMap<>();
+    }
 
-            if (cacheValue == null || cacheValue.isEmpty()) {
-                continue;
+    /**
+     * 根据machineCode、sourceState、targetState从注册列表中获取匹配的处理器
+     * 支持*通配符匹配, 按优先级返回且去重
+     *
+     * @param key           索引Key
+     * @param registrations 注册列表
+     * @param generator     数组构造器
+     * @return 匹配到的处理器数组
+     */
+    private static <T> T[] match(HandlerKey key, List<Registration<T>> registrations, IntFunction<T[]> generator) {
+        Set<T> result = new LinkedHashSet<>();
+        for (Registration<T> registration : registrations) {
+            // 匹配规则：注册项的每一部分为* 或 与入参相等，则该部分匹配
+            if (matches(registration.machineCode(), key.machineCode())
+                    && matches(registration.sourceState(), key.sourceState())
+                    && matches(registration.targetState(), key.targetState())) {
+                result.add(registration.handler());
             }
+        }
+        return result.toArray(generator.apply(result.size()));
+    }
 
-            // 拆分缓存Key为三部分：machineCode:sourceState:targetState
-            String[] keyParts = cacheKey.split(KEY_SEPARATOR);
-            if (keyParts.length != 3) {
-                // 非法Key格式，跳过
-                continue;
-            }
+    private static boolean matches(String pattern, String value) {
+        return ALL_MATCH.equals(pattern) || pattern.equals(value);
+    }
 
-            String cacheMc = keyParts[0];
-            String cacheSs = keyParts[1];
-            String cacheTs = keyParts[2];
+    private static String normalize(String machineCode) {
+        return StrUtil.isBlank(machineCode) ? ALL_MATCH : machineCode;
+    }
 
-            // 匹配规则：缓存Key的每一部分为* 或 与入参相等，则该部分匹配
-            boolean machineMatch = ALL_MATCH.equals(cacheMc) || mc.equals(cacheMc);
-            boolean sourceMatch = ALL_MATCH.equals(cacheSs) || ss.equals(cacheSs);
-            boolean targetMatch = ALL_MATCH.equals(cacheTs) || ts.equals(cacheTs);
+    private static String normalize(State state) {
+        return state == null ? ALL_MATCH : state.getState();
+    }
 
-            // 三个部分都匹配，才将对应集合加入结果
-            if (machineMatch && sourceMatch && targetMatch) {
-                result.addAll(cacheValue);
-            }
-        }
+    /**
+     * 处理器注册项
+     *
+     * @param machineCode 状态机编码(支持*)
+     * @param sourceState 源状态(支持*)
+     * @param targetState 目标状态(支持*)
+     * @param handler     处理器
+     * @param priority    优先级(值越小优先级越高)
+     */
+    private record Registration<T>(String machineCode, String sourceState, String targetState, T handler, int priority) {
+    }
 
-        return result;
+    /**
+     * 处理器索引Key
+     */
+    private record HandlerKey(String machineCode, String sourceState, String targetState) {
     }
 }
@@ -0,0 +1,29 @@
+package cn.jasonone.sm.core;
+
+import cn.jasonone.sm.support.Action;
+import cn.jasonone.sm.support.Guard;
+
+/**
+ * 处理器链, 创建后不可变
+ *
+ * @param guards          状态守卫
+ * @param beforeActions   前置动作
+ * @param afterActions    后置动作(事务内执行)
+ * @param deferredActions 延迟到事务提交之后执行的后置动作
+ * @param parallelGuards  是否存在可并发执行的守卫组(至少两个相邻的并行守卫), 不存在时按顺序执行全部守卫
+ */
+record HandlerChain(Guard[] guards, Action[] beforeActions, Action[] afterActions, Action[] deferredActions, boolean parallelGuards) {
+
+    HandlerChain(Guard[] guards, Action[] beforeActions, Action[] afterActions, Action[] deferredActions) {
+        this(guards, beforeActions, afterActions, deferredActions, hasParallelGroup(guards));
+    }
+
+    private static boolean hasParallelGroup(Guard[] guards) {
+        for (int i = 1; i < guards.length; i++) {
+            if (guards[i - 1].isParallel() && guards[i].isParallel()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
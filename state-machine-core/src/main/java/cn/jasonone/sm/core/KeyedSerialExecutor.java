@@ -0,0 +1,57 @@
+package cn.jasonone.sm.core;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * 按key串行执行任务
+ * <pre>
+ *     同一key的任务按提交顺序依次执行, 前一个任务结束(无论成功或失败)后才开始下一个; 不同key的任务互不等待, 在执行器中并行执行.
+ *     每个key只保留队尾任务, 队尾任务结束后移除, 空闲key不占用内存
+ * </pre>
+ */
+public class KeyedSerialExecutor {
+
+    private final Map<String, CompletableFuture<?>> tails = new ConcurrentHashMap<>();
+
+    /**
+     * 提交任务
+     *
+     * @param key      串行key
+     * @param task     任务
+     * @param executor 执行器
+     * @param <T>      任务结果类型
+     * @return 任务结果, 取消返回的Future不会影响后续任务的执行顺序
+     */
+    public <T> CompletableFuture<T> submit(String key, Supplier<T> task, Executor executor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<?> tail;
+        // 先成为队尾再链接任务: 链接可能在当前线程直接执行任务(同线程执行器), 不能在 Map 的原子操作中进行
+        do {
+            tail = tails.get(key);
+        } while (tail == null ? tails.putIfAbsent(key, future) != null : !tails.replace(key, tail, future));
+        CompletableFuture<?> previous = tail == null ? CompletableFuture.completedFuture(null) : tail;
+        previous.handleAsync((result, error) -> task.get(), executor).whenComplete((result, error) -> {
+            tails.remove(key, future);
+            if (error != null) {
+                future.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } else {
+                future.complete(result);
+            }
+        });
+        return future.copy();
+    }
+
+    /**
+     * 当前有未完成任务的key数量
+     *
+     * @return key数量
+     */
+    public int size() {
+        return tails.size();
+    }
+}
@@ -0,0 +1,53 @@
+package cn.jasonone.sm.core;
+
+import cn.jasonone.sm.domain.TransitionRecord;
+import cn.jasonone.sm.support.State;
+import cn.jasonone.sm.support.TransitionAuditor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 将审计记录以键值对格式写入独立的日志
+ * <pre>
+ *     成功的转换以INFO级别输出, 失败的转换以WARN级别输出; 可以为该日志单独配置级别与输出目标
+ * </pre>
+ */
+public class LoggingTransitionAuditor implements TransitionAuditor {
+
+    /**
+     * 默认审计日志名称
+     */
+    public static final String DEFAULT_LOGGER = "cn.jasonone.sm.audit";
+
+    private final Logger logger;
+
+    public LoggingTransitionAuditor() {
+        this(DEFAULT_LOGGER);
+    }
+
+    public LoggingTransitionAuditor(String loggerName) {
+        this.logger = LoggerFactory.getLogger(loggerName);
+    }
+
+    @Override
+    public void audit(TransitionRecord record) {
+        if (record.isSuccess()) {
+            if (logger.isInfoEnabled()) {
+                logger.info("machine={} businessId={} event={} from={} to={} durationMicros={} outcome=success",
+                        record.machineCode(), record.businessId(), code(record), state(record.from()), state(record.to()), record.durationNanos() / 1000);
+            }
+        } else if (logger.isWarnEnabled()) {
+            logger.warn("machine={} businessId={} event={} from={} to={} durationMicros={} outcome=failure error=\"{}\"",
+                    record.machineCode(), record.businessId(), code(record), state(record.from()), state(record.to()), record.durationNanos() / 1000,
+                    record.error().getMessage());
+        }
+    }
+
+    private static String code(TransitionRecord record) {
+        return record.event() == null ? null : record.event().getCode();
+    }
+
+    private static String state(State state) {
+        return state == null ? null : state.getState();
+    }
+}
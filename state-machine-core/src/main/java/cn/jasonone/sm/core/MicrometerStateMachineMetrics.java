@@ -0,0 +1,229 @@
+package cn.jasonone.sm.core;
+
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.enums.StateMachineHandlerType;
+import cn.jasonone.sm.support.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 基于 Micrometer 的状态机指标
+ * <pre>
+ *     state.machine.trigger         计时器, 每次事件触发的耗时, 维度: machine, event, from, to, outcome; 失败时 from 与 to 为 none
+ *     state.machine.guard.rejected  计数器, 守卫拒绝次数, 维度: machine, from, to, bean, method
+ *     state.machine.handler         计时器, 每个守卫与动作的耗时, 维度: machine, type, bean, method, outcome
+ *     state.machine.state.read      计时器, 状态读取耗时, 维度: machine
+ *     state.machine.state.write     计时器, 状态写入耗时, 维度: machine
+ *     各维度可以单独关闭, 关闭后不再输出该维度; 业务ID不会作为维度
+ *     计时器按状态机、转换规则(失败时按事件编码)与处理器实例缓存, 命中缓存时记录指标不构建维度
+ * </pre>
+ */
+@Getter
+@Setter
+public class MicrometerStateMachineMetrics implements StateMachineMetrics {
+
+    private static final String NONE = "none";
+    private static final int SUCCESS = 0;
+    private static final int FAILURE = 1;
+
+    private final MeterRegistry registry;
+
+    /**
+     * 是否以状态机编码作为维度
+     */
+    private boolean machineCodeTag = true;
+
+    /**
+     * 是否以事件作为维度
+     */
+    private boolean eventTag = true;
+
+    /**
+     * 是否以转换规则的源状态与目标状态作为维度
+     */
+    private boolean transitionTag = true;
+
+    /**
+     * 是否以处理器的Bean名称与方法名称作为维度
+     */
+    private boolean handlerTag = true;
+
+    /**
+     * 处理器计时器是否发布百分位直方图
+     */
+    private boolean percentileHistogram = true;
+
+    /**
+     * 成功触发计时器: machineCode -> 转换规则
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, Map<Transition, Timer>> successTimers = new ConcurrentHashMap<>();
+
+    /**
+     * 失败触发计时器: machineCode -> 事件编码; 以编码作为key, 非枚举事件每次触发创建新实例时不会无限增长
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, Map<String, Timer>> failureTimers = new ConcurrentHashMap<>();
+
+    /**
+     * 处理器计时器: machineCode -> 处理器 -> [处理器类型 * 2 + 成功/失败]
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, Map<Object, Timer[]>> handlerTimers = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, Timer> readTimers = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, Timer> writeTimers = new ConcurrentHashMap<>();
+
+    public MicrometerStateMachineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void recordTrigger(String machineCode, Event event, Transition transition, long nanos, Throwable error) {
+        Timer timer;
+        if (error == null && transition != null) {
+            Map<Transition, Timer> timers = getOrCreate(successTimers, machineCode, k -> new ConcurrentHashMap<>());
+            timer = timers.get(transition);
+            if (timer == null) {
+                timer = timers.computeIfAbsent(transition, k -> triggerTimer(machineCode, k.event().getCode(), k, "success"));
+            }
+        } else {
+            Map<String, Timer> timers = getOrCreate(failureTimers, machineCode, k -> new ConcurrentHashMap<>());
+            String code = event.getCode();
+            timer = timers.get(code);
+            if (timer == null) {
+                timer = timers.computeIfAbsent(code, k -> triggerTimer(machineCode, k, null, "failure"));
+            }
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer triggerTimer(String machineCode, String eventCode, Transition transition, String outcome) {
+        Tags tags = machineTags(machineCode).and("outcome", outcome);
+        if (eventTag) {
+            tags = tags.and("event", eventCode);
+        }
+        if (transitionTag) {
+            tags = tags.and("from", transition == null ? NONE : transition.from().getState(),
+                    "to", transition == null ? NONE : transition.to().getState());
+        }
+        return Timer.builder("state.machine.trigger")
+                .description("状态机事件触发耗时")
+                .tags(tags)
+                .register(registry);
+    }
+
+    /**
+     * 守卫拒绝较少发生, 直接通过注册中心查找计数器
+     */
+    @Override
+    public void recordGuardRejected(String machineCode, State sourceState, State targetState, Guard guard) {
+        Tags tags = machineTags(machineCode);
+        if (transitionTag) {
+            tags = tags.and("from", sourceState == null ? NONE : sourceState.getState(),
+                    "to", targetState == null ? NONE : targetState.getState());
+        }
+        if (handlerTag) {
+            tags = tags.and(handlerTags(guard.getName()));
+        }
+        Counter.builder("state.machine.guard.rejected")
+                .description("状态守卫拒绝次数")
+                .tags(tags)
+                .register(registry)
+                .increment();
+    }
+
+    @Override
+    public void recordHandler(String machineCode, StateMachineHandlerType type, Object handler, long nanos, Throwable error) {
+        Map<Object, Timer[]> timers = getOrCreate(handlerTimers, machineCode, k -> new ConcurrentHashMap<>());
+        Timer[] byType = timers.get(handler);
+        if (byType == null) {
+            byType = timers.computeIfAbsent(handler, k -> new Timer[StateMachineHandlerType.values().length * 2]);
+        }
+        int index = type.ordinal() * 2 + (error == null ? SUCCESS : FAILURE);
+        Timer timer = byType[index];
+        if (timer == null) {
+            // 并发创建时注册中心返回同一个计时器
+            timer = handlerTimer(machineCode, type, handler, error == null ? "success" : "failure");
+            byType[index] = timer;
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer handlerTimer(String machineCode, StateMachineHandlerType type, Object handler, String outcome) {
+        Tags tags = machineTags(machineCode).and("type", type.name().toLowerCase(), "outcome", outcome);
+        if (handlerTag) {
+            tags = tags.and(handlerTags(handlerName(handler)));
+        }
+        return Timer.builder("state.machine.handler")
+                .description("状态守卫与动作执行耗时")
+                .tags(tags)
+                .publishPercentileHistogram(percentileHistogram)
+                .register(registry);
+    }
+
+    @Override
+    public void recordStateRead(String machineCode, long nanos) {
+        stateTimer(readTimers, "state.machine.state.read", "状态读取耗时", machineCode).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordStateWrite(String machineCode, long nanos) {
+        stateTimer(writeTimers, "state.machine.state.write", "状态写入耗时", machineCode).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer stateTimer(Map<String, Timer> timers, String name, String description, String machineCode) {
+        Timer timer = timers.get(machineCode);
+        return timer != null ? timer : timers.computeIfAbsent(machineCode, k -> Timer.builder(name)
+                .description(description)
+                .tags(machineTags(k))
+                .register(registry));
+    }
+
+    private Tags machineTags(String machineCode) {
+        return machineCodeTag ? Tags.of("machine", machineCode) : Tags.empty();
+    }
+
+    private static String handlerName(Object handler) {
+        if (handler instanceof Guard guard) {
+            return guard.getName();
+        }
+        if (handler instanceof Action action) {
+            return action.getName();
+        }
+        return handler.getClass().getName();
+    }
+
+    /**
+     * 处理器名称为 beanName#methodName 时拆分为 bean 与 method 两个维度
+     */
+    private static Tags handlerTags(String name) {
+        int index = name.indexOf('#');
+        return index < 0
+                ? Tags.of("bean", name, "method", NONE)
+                : Tags.of("bean", name.substring(0, index), "method", name.substring(index + 1));
+    }
+
+    private static <K, V> V getOrCreate(Map<K, V> map, K key, Function<K, V> factory) {
+        V value = map.get(key);
+        return value != null ? value : map.computeIfAbsent(key, factory);
+    }
+}
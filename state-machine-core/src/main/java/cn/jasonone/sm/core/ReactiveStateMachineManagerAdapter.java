@@ -0,0 +1,69 @@
+package cn.jasonone.sm.core;
+
+import cn.hutool.core.lang.Assert;
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.support.ReactiveStateMachineManager;
+import cn.jasonone.sm.support.State;
+import cn.jasonone.sm.support.StateMachineManager;
+import lombok.Getter;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * 将同步状态管理器适配为响应式状态管理器
+ * <pre>
+ *     内存状态管理器(如 {@link DefaultStateMachineManager})的读写不阻塞, 直接在订阅线程中调用;
+ *     访问外部存储的状态管理器应指定调度器, 读写在调度器的线程中执行
+ * </pre>
+ */
+@Getter
+public class ReactiveStateMachineManagerAdapter implements ReactiveStateMachineManager {
+
+    private final StateMachineManager manager;
+
+    /**
+     * 执行读写的调度器, 为null表示在订阅线程中执行
+     */
+    private final Scheduler scheduler;
+
+    public ReactiveStateMachineManagerAdapter(StateMachineManager manager) {
+        this(manager, null);
+    }
+
+    /**
+     * @param manager   同步状态管理器
+     * @param scheduler 执行读写的调度器, 为null表示在订阅线程中执行
+     */
+    public ReactiveStateMachineManagerAdapter(StateMachineManager manager, Scheduler scheduler) {
+        Assert.notNull(manager, "状态管理器不能为空");
+        this.manager = manager;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 响应式引擎在执行守卫前通过本方法读取状态, 因此读取最新状态
+     *
+     * @see StateMachineManager#getLatestState(String, String)
+     */
+    @Override
+    public Mono<State> getCurrentState(String machineCode, String businessId) {
+        return schedule(Mono.fromSupplier(() -> manager.getLatestState(machineCode, businessId)));
+    }
+
+    @Override
+    public Mono<Boolean> updateState(String machineCode, String businessId, State expected, State state) {
+        return schedule(Mono.fromSupplier(() -> manager.updateState(machineCode, businessId, expected, state)));
+    }
+
+    /**
+     * 委托给 {@link StateMachineManager#updateState(StateContext, State)}, 使记录事件的状态管理器(如事件溯源)取得触发事件
+     */
+    @Override
+    public Mono<Boolean> updateState(StateContext context, State expected) {
+        return schedule(Mono.fromSupplier(() -> manager.updateState(context, expected)));
+    }
+
+    private <T> Mono<T> schedule(Mono<T> operation) {
+        return scheduler == null ? operation : operation.subscribeOn(scheduler);
+    }
+}
@@ -0,0 +1,16 @@
+package cn.jasonone.sm.core;
+
+/**
+ * 分片运行统计
+ *
+ * @param shard               分片序号
+ * @param queueDepth          当前排队的事件数量
+ * @param queueCapacity       队列容量
+ * @param completed           已执行的事件数量
+ * @param rejected            因队列已满或引擎已关闭而拒绝的事件数量
+ * @param averageLatencyNanos 事件从提交到执行完成的平均耗时(纳秒, 指数加权移动平均)
+ * @param averageServiceNanos 事件执行的平均耗时(纳秒, 指数加权移动平均), 不含排队时间
+ */
+public record ShardStats(int shard, int queueDepth, int queueCapacity, long completed, long rejected,
+                         long averageLatencyNanos, long averageServiceNanos) {
+}
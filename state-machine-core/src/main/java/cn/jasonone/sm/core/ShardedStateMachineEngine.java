@@ -0,0 +1,444 @@
+package cn.jasonone.sm.core;
+
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.StrUtil;
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.domain.TransitionRecord;
+import cn.jasonone.sm.domain.TransitionResult;
+import cn.jasonone.sm.domain.TriggerRequest;
+import cn.jasonone.sm.exceptions.StateConflictException;
+import cn.jasonone.sm.support.*;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分片单写者状态机引擎
+ * <pre>
+ *     1. 按(machineCode, businessId)的哈希值把事件分配到固定数量的分片, 每个分片有一个单线程事件循环与一个有界队列
+ *     2. 每个分片独占自己负责的业务的当前状态, 只有分片线程读写, 因此不加锁、不比较并更新
+ *     3. 同一业务的事件始终进入同一个分片, 按提交顺序执行; 不同分片并行执行
+ *     4. 分片队列已满时提交线程最多等待 submitTimeout, 仍无空位时拒绝该事件, 以此向调用方施加背压
+ *     5. 配置 stateStore 时, 分片内不存在的状态从中加载, 状态更新后同步写入; 未配置时状态只保存在内存中
+ * </pre>
+ * 状态由分片持有, 不经过 {@link StateMachineManager}; 注册中心仍通过状态管理器保存转换规则与初始状态。
+ * 守卫与动作在分片线程中执行, 其中同步触发同一分片的事件会直接执行; 同步触发其他分片的事件会阻塞当前分片, 应改用 {@link #triggerAsync}
+ */
+@Getter
+@Setter
+public class ShardedStateMachineEngine implements StateMachineEngine, AutoCloseable {
+
+    /**
+     * 指数加权移动平均的权重
+     */
+    private static final double EWMA_ALPHA = 0.05;
+
+    /**
+     * 分片线程每次从队列批量取出的最大任务数
+     */
+    private static final int DRAIN_BATCH = 256;
+
+    private final StateRegistry registry;
+
+    private final TransactionManagement transactionManagement;
+
+    /**
+     * 提交事件时队列已满的最长等待时间
+     */
+    private Duration submitTimeout = Duration.ofSeconds(1);
+
+    /**
+     * 状态后备存储, 为null表示仅保存在内存中
+     */
+    private StateStore stateStore;
+
+    /**
+     * 状态机指标
+     */
+    private StateMachineMetrics metrics = StateMachineMetrics.NOOP;
+
+    /**
+     * 状态转换日志, 为null表示不记录
+     */
+    private TransitionJournal journal;
+
+    /**
+     * 状态转换审计日志, 为null表示不记录
+     */
+    private TransitionAuditLog auditLog;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Shard[] shards;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile boolean closed;
+
+    /**
+     * @param registry              注册中心
+     * @param transactionManagement 事务管理
+     * @param shards                分片数量
+     * @param queueCapacity         每个分片的队列容量
+     */
+    public ShardedStateMachineEngine(StateRegistry registry, TransactionManagement transactionManagement, int shards, int queueCapacity) {
+        Assert.notNull(registry, "注册中心不能为空");
+        Assert.notNull(transactionManagement, "事务管理不能为空");
+        Assert.isTrue(shards > 0, "分片数量必须大于0");
+        Assert.isTrue(queueCapacity > 0, "队列容量必须大于0");
+        this.registry = registry;
+        this.transactionManagement = transactionManagement;
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i, queueCapacity);
+        }
+    }
+
+    @Override
+    public void trigger(String machineCode, String businessId, Event event, Object payload) throws Exception {
+        TransitionResult result;
+        try {
+            result = triggerAsync(machineCode, businessId, event, payload).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        Throwable error = result.error();
+        if (error instanceof Exception e) {
+            throw e;
+        }
+        if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * 异步触发状态机事件
+     * <pre>
+     *     事件进入所属分片的队列, 返回的Future总是正常完成; 执行失败、队列已满或引擎已关闭时返回失败的转换结果
+     * </pre>
+     */
+    @Override
+    public CompletableFuture<TransitionResult> triggerAsync(String machineCode, String businessId, Event event, Object payload) {
+        checkKey(machineCode, businessId);
+        Shard shard = shardOf(machineCode, businessId);
+        return shard.submit(new Task(shard, machineCode, businessId, event, payload));
+    }
+
+    /**
+     * 批量触发状态机事件: 所有请求先进入各自分片的队列, 再等待全部完成
+     */
+    @Override
+    public List<TransitionResult> triggerAll(String machineCode, List<TriggerRequest> requests) {
+        List<CompletableFuture<TransitionResult>> futures = new ArrayList<>(requests.size());
+        for (TriggerRequest request : requests) {
+            futures.add(triggerAsync(machineCode, request.businessId(), request.event(), request.payload()));
+        }
+        List<TransitionResult> results = new ArrayList<>(requests.size());
+        for (CompletableFuture<TransitionResult> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * 获取业务的当前状态
+     * <pre>
+     *     读取在所属分片的线程中执行, 因此能看到此前提交的所有事件的结果
+     * </pre>
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @return 当前状态, 尚未触发过事件时为null
+     */
+    public CompletableFuture<State> getCurrentState(String machineCode, String businessId) {
+        checkKey(machineCode, businessId);
+        return shardOf(machineCode, businessId).read(machineCode, businessId);
+    }
+
+    /**
+     * 获取各分片的运行统计
+     *
+     * @return 按分片序号排列的统计
+     */
+    public List<ShardStats> getShardStats() {
+        List<ShardStats> stats = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            stats.add(shard.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * 获取分片数量
+     *
+     * @return 分片数量
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * 停止接收新事件, 等待各分片执行完已排队的事件
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        for (Shard shard : shards) {
+            shard.thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private Shard shardOf(String machineCode, String businessId) {
+        int h = 31 * machineCode.hashCode() + businessId.hashCode();
+        h ^= (h >>> 16);
+        return shards[(h & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private static void checkKey(String machineCode, String businessId) {
+        if (StrUtil.isBlank(machineCode)) {
+            throw new IllegalArgumentException("状态机编码不能为空");
+        }
+        if (StrUtil.isBlank(businessId)) {
+            throw new IllegalArgumentException("业务ID不能为空");
+        }
+    }
+
+    /**
+     * 排队中的事件
+     */
+    private static final class Task implements Runnable {
+        private final Shard shard;
+        private final String machineCode;
+        private final String businessId;
+        private final Event event;
+        private final Object payload;
+        private final CompletableFuture<TransitionResult> future = new CompletableFuture<>();
+        private long enqueuedNanos;
+
+        private Task(Shard shard, String machineCode, String businessId, Event event, Object payload) {
+            this.shard = shard;
+            this.machineCode = machineCode;
+            this.businessId = businessId;
+            this.event = event;
+            this.payload = payload;
+        }
+
+        @Override
+        public void run() {
+            shard.execute(this);
+        }
+    }
+
+    /**
+     * 分片: 单线程事件循环 + 有界队列 + 独占的状态表
+     */
+    private final class Shard {
+
+        private final int index;
+
+        private final ArrayBlockingQueue<Runnable> queue;
+
+        private final Thread thread;
+
+        /**
+         * 当前状态: machineCode -> (businessId -> 状态), 只由分片线程访问
+         */
+        private final Map<String, Map<String, State>> states = new HashMap<>();
+
+        private final LongAdder rejected = new LongAdder();
+
+        /**
+         * 以下统计只由分片线程写入
+         */
+        private volatile long completed;
+        private volatile double averageLatencyNanos;
+        private volatile double averageServiceNanos;
+
+        private Shard(int index, int queueCapacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.thread = new Thread(this::run, "state-machine-shard-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        CompletableFuture<TransitionResult> submit(Task task) {
+            task.enqueuedNanos = System.nanoTime();
+            if (!offer(task)) {
+                String message = closed ? "状态机引擎已关闭" : StrUtil.format("状态机分片[{}]队列已满, 容量: {}", index, queue.size() + queue.remainingCapacity());
+                task.future.complete(TransitionResult.failure(task.businessId, task.event, null, null, new RejectedExecutionException(message)));
+            }
+            return task.future;
+        }
+
+        CompletableFuture<State> read(String machineCode, String businessId) {
+            CompletableFuture<State> future = new CompletableFuture<>();
+            Runnable read = () -> {
+                try {
+                    future.complete(loadState(machineCode, businessId));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            };
+            if (!offer(read)) {
+                future.completeExceptionally(new RejectedExecutionException(closed ? "状态机引擎已关闭" : StrUtil.format("状态机分片[{}]队列已满", index)));
+            }
+            return future;
+        }
+
+        /**
+         * 将任务放入队列, 队列已满时最多等待 submitTimeout
+         *
+         * @return 是否已接受; 在分片线程内提交时直接执行并返回true
+         */
+        private boolean offer(Runnable task) {
+            if (Thread.currentThread() == thread) {
+                // 守卫或动作中提交到同一分片, 直接执行, 避免等待自身
+                task.run();
+                return true;
+            }
+            boolean accepted = false;
+            if (!closed) {
+                try {
+                    accepted = queue.offer(task, submitTimeout.toNanos(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                // 等待期间引擎已关闭时分片线程可能已退出; 仍在队列中则撤回, 已被分片线程取出则会执行
+                if (accepted && closed && queue.remove(task)) {
+                    accepted = false;
+                }
+            }
+            if (!accepted) {
+                rejected.increment();
+            }
+            return accepted;
+        }
+
+        private void run() {
+            List<Runnable> batch = new ArrayList<>(DRAIN_BATCH);
+            while (!closed || !queue.isEmpty()) {
+                Runnable task;
+                try {
+                    task = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // 只通过 closed 标记停止
+                    continue;
+                }
+                if (task == null) {
+                    continue;
+                }
+                task.run();
+                // 一次取出已排队的任务, 减少与提交线程争用队列锁
+                queue.drainTo(batch, DRAIN_BATCH);
+                for (Runnable queued : batch) {
+                    queued.run();
+                }
+                batch.clear();
+            }
+        }
+
+        private void execute(Task task) {
+            long start = System.nanoTime();
+            TransitionResult result;
+            Transition transition = null;
+            try {
+                transition = doTrigger(task);
+                result = TransitionResult.success(task.businessId, task.event, transition.from(), transition.to());
+            } catch (Throwable e) {
+                result = TransitionResult.failure(task.businessId, task.event, null, null, e);
+            }
+            long end = System.nanoTime();
+            if (metrics.isEnabled()) {
+                metrics.recordTrigger(task.machineCode, task.event, transition, end - start, result.error());
+            }
+            TransitionAuditLog auditLog = ShardedStateMachineEngine.this.auditLog;
+            if (auditLog != null && auditLog.isSampled(result.error() == null)) {
+                auditLog.append(new TransitionRecord(task.machineCode, task.businessId, task.event, result.from(), result.to(),
+                        System.currentTimeMillis(), end - start, result.error()));
+            }
+            averageServiceNanos += EWMA_ALPHA * ((end - start) - averageServiceNanos);
+            averageLatencyNanos += EWMA_ALPHA * ((end - task.enqueuedNanos) - averageLatencyNanos);
+            completed++;
+            task.future.complete(result);
+        }
+
+        /**
+         * 执行一次状态转换, 与 {@link DefaultStateMachineEngine} 的步骤一致, 但直接读写分片的状态表
+         */
+        private Transition doTrigger(Task task) throws Exception {
+            String machineCode = task.machineCode;
+            String businessId = task.businessId;
+            Map<String, State> table = states.computeIfAbsent(machineCode, k -> new HashMap<>());
+            State storedState = loadState(machineCode, businessId);
+            State currentState = storedState != null ? storedState : registry.getInitialState(machineCode);
+            if (currentState == null) {
+                throw new IllegalArgumentException(StrUtil.format("状态机[{}]未配置初始状态", machineCode));
+            }
+            Transition transition = registry.getTransition(machineCode, currentState, task.event);
+            if (transition == null) {
+                throw new IllegalArgumentException(StrUtil.format("状态机[{}] 不支持的事件[{}]", machineCode, task.event.getCode()));
+            }
+            StateContext context = new StateContext(machineCode, businessId, transition.from(), transition.to(), transition.event(), task.payload);
+            transactionManagement.begin();
+            try {
+                if (!registry.executeGuard(ShardedStateMachineEngine.this, machineCode, currentState, transition.to(), context)) {
+                    throw new IllegalArgumentException(StrUtil.format("状态机[{}] 守卫[{}]未通过", machineCode, transition.key()));
+                }
+                registry.executeBeforeAction(ShardedStateMachineEngine.this, machineCode, currentState, transition.to(), context);
+                if (table.get(businessId) != storedState) {
+                    // 守卫或前置动作在分片线程内直接触发了同一业务的事件, 状态已被修改, 不能覆盖
+                    throw new StateConflictException("状态机[{}] 业务ID[{}]状态已被并发修改, 期望状态: {}", machineCode, businessId, currentState.getState());
+                }
+                table.put(businessId, transition.to());
+                if (stateStore != null) {
+                    try {
+                        stateStore.save(machineCode, businessId, transition.to());
+                    } catch (RuntimeException e) {
+                        if (storedState == null) {
+                            table.remove(businessId);
+                        } else {
+                            table.put(businessId, storedState);
+                        }
+                        throw e;
+                    }
+                }
+                if (journal != null) {
+                    journal.append(machineCode, businessId, currentState, transition.to(), transition.event());
+                }
+                registry.executeAfterAction(ShardedStateMachineEngine.this, machineCode, currentState, transition.to(), context);
+                transactionManagement.commit();
+                return transition;
+            } catch (Exception e) {
+                transactionManagement.rollback();
+                throw e;
+            }
+        }
+
+        /**
+         * 获取分片持有的当前状态, 不存在时从状态存储加载
+         */
+        private State loadState(String machineCode, String businessId) {
+            Map<String, State> table = states.computeIfAbsent(machineCode, k -> new HashMap<>());
+            State state = table.get(businessId);
+            if (state == null && stateStore != null) {
+                state = stateStore.load(machineCode, businessId);
+                if (state != null) {
+                    table.put(businessId, state);
+                }
+            }
+            return state;
+        }
+
+        ShardStats stats() {
+            return new ShardStats(index, queue.size(), queue.size() + queue.remainingCapacity(), completed, rejected.sum(),
+                    (long) averageLatencyNanos, (long) averageServiceNanos);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package cn.jasonone.sm.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 状态机异步执行器
+ */
+@Slf4j
+public final class StateMachineExecutors {
+
+    private StateMachineExecutors() {
+    }
+
+    /**
+     * 获取默认异步执行器
+     * <pre>
+     *     JDK 21及以上使用虚拟线程(每个任务一个虚拟线程), 阻塞的动作不占用平台线程;
+     *     更低版本使用按需创建的守护线程池. 执行器在首次使用时创建, 整个进程共享
+     * </pre>
+     *
+     * @return 默认异步执行器
+     */
+    public static ExecutorService defaultExecutor() {
+        return Holder.EXECUTOR;
+    }
+
+    private static ExecutorService createDefaultExecutor() {
+        try {
+            // 项目以JDK 17编译, 通过反射使用JDK 21的虚拟线程
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            log.debug("状态机异步执行器使用虚拟线程");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger sequence = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "state-machine-async-" + sequence.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static final class Holder {
+        private static final ExecutorService EXECUTOR = createDefaultExecutor();
+    }
+}
@@ -0,0 +1,104 @@
+package cn.jasonone.sm.core;
+
+import cn.hutool.core.lang.Assert;
+import cn.jasonone.sm.support.LockManagement;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分段锁实现
+ * <pre>
+ *     按(machineCode, businessId)的哈希值映射到固定数量的锁上, 同一业务始终使用同一把锁;
+ *     不同业务仅在哈希冲突时共享锁, 段数越大冲突概率越低. 加锁过程不分配对象
+ *
+ *     引擎在执行守卫与动作期间持有当前业务所在的段, 处理器中不应同步等待其他业务的触发结果
+ *     (例如阻塞等待 triggerAsync 返回的Future): 其他业务映射到已持有的段时, 执行线程无法获得锁而处理器一直等待, 造成死锁.
+ *     在同一线程中直接调用 trigger 不受影响, 段锁可重入
+ * </pre>
+ */
+public class StripedLockManagement implements LockManagement {
+
+    /**
+     * 默认段数
+     */
+    public static final int DEFAULT_STRIPES = 1024;
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public StripedLockManagement() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes 段数, 向上取整为2的幂
+     */
+    public StripedLockManagement(int stripes) {
+        Assert.isTrue(stripes > 0, "分段锁段数必须大于0");
+        int size = Integer.highestOneBit(stripes - 1) << 1;
+        size = Math.max(size, 1);
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    @Override
+    public void lock(String machineCode, String businessId) {
+        getLock(machineCode, businessId).lock();
+    }
+
+    @Override
+    public void unlock(String machineCode, String businessId) {
+        getLock(machineCode, businessId).unlock();
+    }
+
+    /**
+     * 不同业务可能映射到同一段, 按段序号而不是业务ID排序加锁, 每段只加一次
+     */
+    @Override
+    public void lockAll(String machineCode, Collection<String> businessIds) {
+        int locked = 0;
+        Integer[] stripes = getStripes(machineCode, businessIds);
+        try {
+            for (int stripe : stripes) {
+                locks[stripe].lock();
+                locked++;
+            }
+        } catch (RuntimeException e) {
+            for (int i = locked - 1; i >= 0; i--) {
+                locks[stripes[i]].unlock();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void unlockAll(String machineCode, Collection<String> businessIds) {
+        Integer[] stripes = getStripes(machineCode, businessIds);
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    private Integer[] getStripes(String machineCode, Collection<String> businessIds) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String businessId : businessIds) {
+            stripes.add(getStripe(machineCode, businessId));
+        }
+        return stripes.toArray(new Integer[0]);
+    }
+
+    private ReentrantLock getLock(String machineCode, String businessId) {
+        return locks[getStripe(machineCode, businessId)];
+    }
+
+    private int getStripe(String machineCode, String businessId) {
+        int h = 31 * machineCode.hashCode() + businessId.hashCode();
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+}
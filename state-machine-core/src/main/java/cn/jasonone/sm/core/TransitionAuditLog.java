@@ -0,0 +1,127 @@
+package cn.jasonone.sm.core;
+
+import cn.hutool.core.lang.Assert;
+import cn.jasonone.sm.domain.TransitionRecord;
+import cn.jasonone.sm.support.TransitionAuditor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 采样的异步状态转换审计日志
+ * <pre>
+ *     1. 成功的转换按采样率采样, 失败的转换总是记录
+ *     2. 触发事件的线程只把记录放入定长环形缓冲区(基于数组的 {@link ArrayBlockingQueue}), 不执行任何I/O;
+ *        缓冲区已满时丢弃记录并计数, 不阻塞触发事件的线程
+ *     3. 后台守护线程批量取出记录, 按顺序交给 {@link TransitionAuditor} 写入
+ * </pre>
+ */
+@Slf4j
+public class TransitionAuditLog implements AutoCloseable {
+
+    /**
+     * 后台线程每次最多取出的记录数量
+     */
+    private static final int BATCH_SIZE = 256;
+
+    private final TransitionAuditor auditor;
+
+    private final double sampleRate;
+
+    private final ArrayBlockingQueue<TransitionRecord> buffer;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Thread worker;
+
+    private volatile boolean closed;
+
+    /**
+     * @param auditor    审计记录写入目标
+     * @param bufferSize 缓冲区容量
+     * @param sampleRate 成功转换的采样率, 取值范围[0, 1]
+     */
+    public TransitionAuditLog(TransitionAuditor auditor, int bufferSize, double sampleRate) {
+        Assert.notNull(auditor, "审计记录写入目标不能为空");
+        Assert.isTrue(bufferSize > 0, "缓冲区容量必须大于0");
+        Assert.isTrue(sampleRate >= 0 && sampleRate <= 1, "采样率取值范围为[0, 1]");
+        this.auditor = auditor;
+        this.sampleRate = sampleRate;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.worker = new Thread(this::run, "state-machine-audit");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 是否记录本次转换, 调用方据此决定是否构建审计记录
+     *
+     * @param success 转换是否成功
+     * @return 失败时总是返回true, 成功时按采样率返回
+     */
+    public boolean isSampled(boolean success) {
+        if (!success || sampleRate >= 1) {
+            return true;
+        }
+        return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * 放入审计记录, 不阻塞
+     *
+     * @param record 审计记录
+     */
+    public void append(TransitionRecord record) {
+        if (closed || !buffer.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * 获取因缓冲区已满或已关闭而丢弃的记录数量
+     *
+     * @return 丢弃的记录数量
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private void run() {
+        List<TransitionRecord> batch = new ArrayList<>(BATCH_SIZE);
+        while (!closed || !buffer.isEmpty()) {
+            try {
+                TransitionRecord first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                // 只通过 closed 标记停止, 继续写完缓冲区中剩余的记录
+                continue;
+            }
+            buffer.drainTo(batch, BATCH_SIZE - 1);
+            for (TransitionRecord record : batch) {
+                try {
+                    auditor.audit(record);
+                } catch (RuntimeException e) {
+                    log.warn("写入状态转换审计记录失败: {}", record, e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 停止接收新记录, 等待后台线程写完缓冲区中剩余的记录
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        worker.join(TimeUnit.SECONDS.toMillis(5));
+    }
+}
@@ -0,0 +1,438 @@
+package cn.jasonone.sm.core.eventsource;
+
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.StrUtil;
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.domain.StateUpdate;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.support.Event;
+import cn.jasonone.sm.support.State;
+import cn.jasonone.sm.support.StateMachineManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * 事件溯源状态管理器
+ * <pre>
+ *     1. 每次状态更新都作为一条状态变更事件(事件、源状态、目标状态、时间)追加到 {@link FileEventStore}, 事件是唯一的写入路径
+ *     2. 内存中只保存每个业务的当前状态编码与最新事件的位置, 由事件推导得出; 事件之间按业务串联, 可以查询任意业务的历史
+ *        ({@link #getHistory(String, String)}) 以及任意时刻的状态 ({@link #getStateAt(String, String, Instant)})
+ *     3. 快照保存内存中的当前状态与对应的事件存储位置, 启动时加载最新快照并重放其后的事件
+ *     4. 同一业务的比较并更新在分段锁内完成比较、追加事件与更新内存, 写入快照时短暂获取所有分段锁以确定快照位置
+ * </pre>
+ * 转换规则、初始状态与终态声明只保存在内存中; 状态编码在读取时通过已注册的初始状态与转换规则解析为状态。
+ * 事件需要保留完整历史, 因此不支持终态过期与归档
+ */
+@Slf4j
+public class EventSourcedStateMachineManager implements StateMachineManager, AutoCloseable {
+
+    private static final int MAGIC = 0x534D4553;
+
+    private static final int VERSION = 1;
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final FileEventStore store;
+
+    private final Path snapshotDirectory;
+
+    /**
+     * 转换规则、初始状态与终态声明
+     */
+    private final DefaultStateMachineManager definitions = new DefaultStateMachineManager();
+
+    /**
+     * 当前状态: machineCode -> (businessId -> 最新事件)
+     */
+    private final Map<String, Map<String, Head>> heads = new ConcurrentHashMap<>();
+
+    /**
+     * 状态编码解析缓存: machineCode -> 状态编码 -> 状态
+     */
+    private final Map<String, Map<String, State>> stateCodes = new ConcurrentHashMap<>();
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 打开事件存储, 从最新快照与其后的事件恢复当前状态
+     *
+     * @param directory   数据目录, 事件存储与快照分别保存在其中的 events 与 snapshots 目录
+     * @param segmentSize 事件存储分段文件大小(字节)
+     */
+    public EventSourcedStateMachineManager(Path directory, int segmentSize) throws IOException {
+        Assert.notNull(directory, "数据目录不能为空");
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.store = new FileEventStore(directory.resolve("events"), segmentSize);
+        this.snapshotDirectory = Files.createDirectories(directory.resolve("snapshots"));
+        recover();
+    }
+
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        Path snapshot = latestSnapshot();
+        long position = 0;
+        if (snapshot != null) {
+            position = readSnapshot(snapshot);
+        }
+        long[] replayed = {0};
+        store.scan(position, event -> {
+            table(event.machineCode()).put(event.businessId(), new Head(event.to(), event.position()));
+            replayed[0]++;
+        });
+        log.info("事件溯源状态恢复完成: 快照[{}], 重放事件 {} 条, 耗时 {}ms", snapshot == null ? "无" : snapshot.getFileName(),
+                replayed[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private long readSnapshot(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException(StrUtil.format("事件溯源快照格式错误: {}", path));
+            }
+            long position = in.readLong();
+            while (in.readBoolean()) {
+                Map<String, Head> table = table(in.readUTF());
+                while (in.readBoolean()) {
+                    table.put(in.readUTF(), new Head(in.readUTF(), in.readLong()));
+                }
+            }
+            return position;
+        }
+    }
+
+    /**
+     * 写入快照, 事件存储没有新事件时跳过
+     * <pre>
+     *     快照格式:
+     *     int MAGIC, int VERSION, long 事件存储位置
+     *     每个状态机: boolean true, UTF 状态机编码, 每个业务: boolean true, UTF 业务ID, UTF 状态编码, long 最新事件位置; boolean false
+     *     boolean false
+     * </pre>
+     *
+     * @return 快照对应的事件存储位置, 该位置之前的事件均已包含在快照中
+     */
+    public synchronized long snapshot() {
+        // 获取所有分段锁, 保证该位置之前的事件都已更新到内存
+        long position;
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            position = store.getEndPosition();
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
+            }
+        }
+        Path latest = latestSnapshot();
+        if (latest != null && snapshotPosition(latest) == position) {
+            return position;
+        }
+        Path target = snapshotDirectory.resolve(String.format("%020d", position) + SNAPSHOT_SUFFIX);
+        Path temp = snapshotDirectory.resolve(target.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(position);
+                for (Map.Entry<String, Map<String, Head>> machine : heads.entrySet()) {
+                    out.writeBoolean(true);
+                    out.writeUTF(machine.getKey());
+                    for (Map.Entry<String, Head> entry : machine.getValue().entrySet()) {
+                        out.writeBoolean(true);
+                        out.writeUTF(entry.getKey());
+                        out.writeUTF(entry.getValue().state());
+                        out.writeLong(entry.getValue().position());
+                    }
+                    out.writeBoolean(false);
+                }
+                out.writeBoolean(false);
+                out.flush();
+                file.getChannel().force(true);
+            }
+            // 写入期间分段锁已释放, 快照可能包含 position 之后追加的事件; 生效前刷写事件存储, 使快照引用的事件都已持久化
+            store.force();
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            if (latest != null) {
+                Files.deleteIfExists(latest);
+            }
+            return position;
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new UncheckedIOException(StrUtil.format("写入事件溯源快照失败: {}", snapshotDirectory), e);
+        }
+    }
+
+    /**
+     * 在后台定期刷写事件存储与写入快照
+     *
+     * @param flushInterval    事件存储刷写到磁盘的间隔, 断电时最多丢失该间隔内的事件
+     * @param snapshotInterval 快照间隔
+     */
+    public synchronized void start(Duration flushInterval, Duration snapshotInterval) {
+        Assert.isNull(scheduler, "后台任务已启动");
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-machine-event-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> runQuietly(store::force, "刷写事件存储失败"),
+                flushInterval.toNanos(), flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+        scheduler.scheduleWithFixedDelay(() -> runQuietly(this::snapshot, "写入事件溯源快照失败"),
+                snapshotInterval.toNanos(), snapshotInterval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private static void runQuietly(Runnable task, String message) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            log.error(message, e);
+        }
+    }
+
+    /**
+     * 停止后台任务, 写入快照并关闭事件存储
+     */
+    @Override
+    public synchronized void close() throws IOException, InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            scheduler = null;
+        }
+        snapshot();
+        store.close();
+    }
+
+    /**
+     * 查询业务的全部状态变更事件
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @return 按时间先后排列的事件, 业务没有状态时返回空列表
+     */
+    public List<StateEvent> getHistory(String machineCode, String businessId) {
+        checkKey(machineCode, businessId);
+        List<StateEvent> history = new ArrayList<>();
+        Head head = table(machineCode).get(businessId);
+        for (long position = head == null ? FileEventStore.NONE : head.position(); position != FileEventStore.NONE; ) {
+            StateEvent event = store.read(position);
+            history.add(event);
+            position = event.previous();
+        }
+        Collections.reverse(history);
+        return history;
+    }
+
+    /**
+     * 查询业务在指定时刻的状态
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param time        时刻
+     * @return 该时刻之前(含)最后一条事件的目标状态, 该时刻业务尚无状态时返回null
+     */
+    public State getStateAt(String machineCode, String businessId, Instant time) {
+        checkKey(machineCode, businessId);
+        long timestamp = time.toEpochMilli();
+        Head head = table(machineCode).get(businessId);
+        for (long position = head == null ? FileEventStore.NONE : head.position(); position != FileEventStore.NONE; ) {
+            StateEvent event = store.read(position);
+            if (event.timestamp() <= timestamp) {
+                return resolve(machineCode, event.to());
+            }
+            position = event.previous();
+        }
+        return null;
+    }
+
+    /**
+     * 获取事件存储
+     *
+     * @return 事件存储
+     */
+    public FileEventStore getStore() {
+        return store;
+    }
+
+    @Override
+    public void setInitialState(String machineCode, State initialState) {
+        definitions.setInitialState(machineCode, initialState);
+    }
+
+    @Override
+    public State getInitialState(String machineCode) {
+        return definitions.getInitialState(machineCode);
+    }
+
+    @Override
+    public void saveTransition(String machineCode, Transition transition) {
+        definitions.saveTransition(machineCode, transition);
+    }
+
+    @Override
+    public Set<Transition> getTransitions(String machineCode) {
+        return definitions.getTransitions(machineCode);
+    }
+
+    @Override
+    public long getTransitionVersion(String machineCode) {
+        return definitions.getTransitionVersion(machineCode);
+    }
+
+    @Override
+    public void saveTerminalState(String machineCode, State state) {
+        definitions.saveTerminalState(machineCode, state);
+    }
+
+    @Override
+    public boolean isTerminalState(String machineCode, State state) {
+        return definitions.isTerminalState(machineCode, state);
+    }
+
+    @Override
+    public State getCurrentState(String machineCode, String businessId) {
+        checkKey(machineCode, businessId);
+        Head head = table(machineCode).get(businessId);
+        return head == null ? null : resolve(machineCode, head.state());
+    }
+
+    @Override
+    public boolean updateState(String machineCode, String businessId, State state) {
+        return apply(machineCode, businessId, false, null, state, null);
+    }
+
+    @Override
+    public boolean updateState(String machineCode, String businessId, State expected, State state) {
+        return apply(machineCode, businessId, true, expected, state, null);
+    }
+
+    @Override
+    public boolean updateState(StateContext context, State expected) {
+        return apply(context.machineCode(), context.businessId(), true, expected, context.to(), context.event());
+    }
+
+    @Override
+    public List<Boolean> updateStates(String machineCode, List<StateUpdate> updates) {
+        List<Boolean> results = new ArrayList<>(updates.size());
+        for (StateUpdate update : updates) {
+            results.add(apply(machineCode, update.businessId(), true, update.expected(), update.state(), update.event()));
+        }
+        return results;
+    }
+
+    /**
+     * 在分段锁内比较当前状态、追加事件并更新内存
+     */
+    private boolean apply(String machineCode, String businessId, boolean compare, State expected, State state, Event event) {
+        checkKey(machineCode, businessId);
+        if (state == null) {
+            throw new IllegalArgumentException("状态不能为空");
+        }
+        Map<String, Head> table = table(machineCode);
+        ReentrantLock lock = locks[(businessId.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+        lock.lock();
+        try {
+            Head head = table.get(businessId);
+            if (compare && (expected == null ? head != null : head == null || !head.state().equals(expected.getState()))) {
+                return false;
+            }
+            long position = store.append(head == null ? FileEventStore.NONE : head.position(), System.currentTimeMillis(),
+                    machineCode, businessId, event == null ? null : event.getCode(), head == null ? null : head.state(), state.getState());
+            table.put(businessId, new Head(state.getState(), position));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Map<String, Head> table(String machineCode) {
+        Map<String, Head> table = heads.get(machineCode);
+        return table != null ? table : heads.computeIfAbsent(machineCode, k -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * 将状态编码解析为已注册的状态, 未命中时按最新的转换规则重建索引
+     */
+    private State resolve(String machineCode, String code) {
+        Map<String, State> codes = stateCodes.get(machineCode);
+        State state = codes == null ? null : codes.get(code);
+        if (state == null) {
+            codes = loadStateCodes(machineCode);
+            stateCodes.put(machineCode, codes);
+            state = codes.get(code);
+            if (state == null) {
+                throw new IllegalStateException(StrUtil.format("状态机[{}]未注册状态[{}]", machineCode, code));
+            }
+        }
+        return state;
+    }
+
+    private Map<String, State> loadStateCodes(String machineCode) {
+        Map<String, State> codes = new HashMap<>();
+        State initialState = definitions.getInitialState(machineCode);
+        if (initialState != null) {
+            codes.put(initialState.getState(), initialState);
+        }
+        for (Transition transition : definitions.getTransitions(machineCode)) {
+            codes.putIfAbsent(transition.from().getState(), transition.from());
+            codes.putIfAbsent(transition.to().getState(), transition.to());
+        }
+        return codes;
+    }
+
+    private static void checkKey(String machineCode, String businessId) {
+        if (StrUtil.isBlank(machineCode)) {
+            throw new IllegalArgumentException("状态机编码不能为空");
+        }
+        if (StrUtil.isBlank(businessId)) {
+            throw new IllegalArgumentException("业务ID不能为空");
+        }
+    }
+
+    private Path latestSnapshot() {
+        try (Stream<Path> files = Files.list(snapshotDirectory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SNAPSHOT_SUFFIX)).max(Comparator.naturalOrder()).orElse(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(StrUtil.format("读取快照目录失败: {}", snapshotDirectory), e);
+        }
+    }
+
+    private static long snapshotPosition(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+
+    /**
+     * 业务的当前状态
+     *
+     * @param state    当前状态编码
+     * @param position 最新事件的位置
+     */
+    private record Head(String state, long position) {
+    }
+}
@@ -0,0 +1,351 @@
+package cn.jasonone.sm.core.eventsource;
+
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 基于本地文件的状态变更事件存储
+ * <pre>
+ *     1. 事件依次追加到编号递增的分段文件(10位编号, 左补0), 当前分段写满时创建新分段, 已写入的事件不会被修改或移动
+ *     2. 事件位置 = 分段编号 << 32 | 分段内偏移量, 位置随追加单调递增, 可以直接按位置读取单条事件
+ *     3. 每条事件保存同一业务上一条事件的位置, 从最新的事件向前即可遍历该业务的全部历史, 无需额外索引
+ *     4. 追加只写入操作系统页缓存, 进程崩溃不会丢失事件; 调用 {@link #force()} 后断电也不会丢失
+ *     5. 打开时校验最后一个分段, 丢弃末尾未写完或校验和不匹配的事件
+ * </pre>
+ * 事件布局: int 长度, int CRC32C, long 时间戳, long 上一条事件位置, 5 x (short 长度 + UTF-8 字节)
+ */
+@Slf4j
+public class FileEventStore implements AutoCloseable {
+
+    /**
+     * 没有事件时的位置
+     */
+    public static final long NONE = -1;
+
+    static final String SUFFIX = ".events";
+
+    /**
+     * 长度之后的固定部分: crc + 时间戳 + 上一条事件位置
+     */
+    private static final int FIXED_LENGTH = 4 + 8 + 8;
+
+    private static final int FIELD_COUNT = 5;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 所有分段的文件通道, 下标即分段编号; 只在持有 lock 时追加, 读取不加锁
+     */
+    private final List<FileChannel> channels = new CopyOnWriteArrayList<>();
+
+    private final CRC32C crc = new CRC32C();
+
+    /**
+     * 当前分段的写入位置, 由 lock 保护
+     */
+    private int size;
+
+    private volatile boolean closed;
+
+    /**
+     * @param directory   存储目录, 不存在时自动创建
+     * @param segmentSize 分段文件大小(字节)
+     */
+    public FileEventStore(Path directory, int segmentSize) throws IOException {
+        Assert.notNull(directory, "存储目录不能为空");
+        Assert.isTrue(segmentSize >= 1024, "分段文件大小不能小于1KB");
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            Assert.isTrue(segments.get(i).getFileName().toString().equals(fileName(i)), "事件存储分段不连续: {}", segments.get(i));
+            boolean last = i == segments.size() - 1;
+            channels.add(last
+                    ? FileChannel.open(segments.get(i), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(segments.get(i), StandardOpenOption.READ));
+        }
+        if (channels.isEmpty()) {
+            channels.add(FileChannel.open(directory.resolve(fileName(0)), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        } else {
+            recoverLastSegment();
+        }
+    }
+
+    /**
+     * 定位最后一个分段的写入位置, 截断末尾不完整的事件
+     */
+    private void recoverLastSegment() throws IOException {
+        FileChannel channel = channels.get(channels.size() - 1);
+        long fileSize = channel.size();
+        size = scan(channel, channels.size() - 1, 0, (int) fileSize, event -> {
+        });
+        if (size < fileSize) {
+            log.warn("丢弃事件存储末尾不完整的事件: 分段[{}], 位置 {}, 长度 {}", channels.size() - 1, size, fileSize - size);
+            channel.truncate(size);
+        }
+    }
+
+    /**
+     * 追加一条事件
+     *
+     * @param previous    同一业务上一条事件的位置, 没有时为 {@link #NONE}
+     * @param timestamp   事件时间
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param event       事件编码
+     * @param from        源状态编码
+     * @param to          目标状态编码
+     * @return 事件位置
+     */
+    public long append(long previous, long timestamp, String machineCode, String businessId, String event, String from, String to) {
+        byte[][] fields = {encode(machineCode), encode(businessId), encode(event), encode(from), encode(to)};
+        int length = 4 + FIXED_LENGTH;
+        for (byte[] field : fields) {
+            length += 2 + field.length;
+        }
+        if (length > segmentSize) {
+            throw new IllegalArgumentException(StrUtil.format("事件长度超过分段文件大小: {}", segmentSize));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length - 4).putInt(0).putLong(timestamp).putLong(previous);
+        for (byte[] field : fields) {
+            buffer.putShort((short) field.length).put(field);
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("事件存储已关闭");
+            }
+            crc.reset();
+            crc.update(buffer.array(), 8, length - 8);
+            buffer.putInt(4, (int) crc.getValue());
+            buffer.flip();
+            if (size + length > segmentSize) {
+                roll();
+            }
+            int segment = channels.size() - 1;
+            writeFully(channels.get(segment), buffer, size);
+            long position = (long) segment << 32 | size;
+            size += length;
+            return position;
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入事件失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void roll() throws IOException {
+        FileChannel current = channels.get(channels.size() - 1);
+        current.force(false);
+        channels.add(FileChannel.open(directory.resolve(fileName(channels.size())), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        size = 0;
+    }
+
+    /**
+     * 按位置读取一条事件
+     *
+     * @param position 事件位置
+     * @return 事件
+     */
+    public StateEvent read(long position) {
+        int segment = (int) (position >>> 32);
+        int offset = (int) position;
+        try {
+            FileChannel channel = channels.get(segment);
+            ByteBuffer header = ByteBuffer.allocate(4);
+            readFully(channel, header, offset);
+            int length = header.getInt(0);
+            ByteBuffer record = ByteBuffer.allocate(4 + length);
+            readFully(channel, record, offset);
+            StateEvent event = decode(record, 0, position);
+            if (event == null) {
+                throw new IllegalStateException(StrUtil.format("事件校验失败: {}", position));
+            }
+            return event;
+        } catch (IOException e) {
+            throw new UncheckedIOException(StrUtil.format("读取事件失败: {}", position), e);
+        }
+    }
+
+    /**
+     * 按位置顺序读取事件
+     *
+     * @param from     起始位置(包含), 为0时读取全部事件
+     * @param consumer 事件消费者
+     */
+    public void scan(long from, Consumer<StateEvent> consumer) {
+        int segments;
+        int end;
+        lock.lock();
+        try {
+            segments = channels.size();
+            end = size;
+        } finally {
+            lock.unlock();
+        }
+        for (int i = Math.max((int) (from >>> 32), 0); i < segments; i++) {
+            int start = i == (int) (from >>> 32) ? (int) from : 0;
+            try {
+                FileChannel channel = channels.get(i);
+                scan(channel, i, start, i == segments - 1 ? end : (int) channel.size(), consumer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(StrUtil.format("读取事件存储分段失败: {}", i), e);
+            }
+        }
+    }
+
+    /**
+     * 顺序读取分段中 [start, limit) 范围的事件, 遇到不完整或校验和不匹配的事件时停止
+     *
+     * @return 最后一条完整事件之后的偏移量
+     */
+    private static int scan(FileChannel channel, int segment, int start, int limit, Consumer<StateEvent> consumer) throws IOException {
+        if (limit <= start) {
+            return start;
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, limit);
+        int offset = start;
+        while (offset + 4 <= limit) {
+            int length = buffer.getInt(offset);
+            if (length < FIXED_LENGTH + FIELD_COUNT * 2 || offset + 4 + length > limit) {
+                break;
+            }
+            StateEvent event = decode(buffer, offset, (long) segment << 32 | offset);
+            if (event == null) {
+                break;
+            }
+            consumer.accept(event);
+            offset += 4 + length;
+        }
+        return offset;
+    }
+
+    /**
+     * 解码 offset 处的事件
+     *
+     * @return 校验和不匹配时返回null
+     */
+    private static StateEvent decode(ByteBuffer buffer, int offset, long position) {
+        int length = buffer.getInt(offset);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset + 8, length - 4));
+        if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+            return null;
+        }
+        long timestamp = buffer.getLong(offset + 8);
+        long previous = buffer.getLong(offset + 16);
+        String[] fields = new String[FIELD_COUNT];
+        int index = offset + 4 + FIXED_LENGTH;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            int fieldLength = buffer.getShort(index) & 0xFFFF;
+            byte[] bytes = new byte[fieldLength];
+            buffer.get(index + 2, bytes);
+            fields[i] = new String(bytes, StandardCharsets.UTF_8);
+            index += 2 + fieldLength;
+        }
+        return new StateEvent(position, previous, timestamp, fields[0], fields[1], fields[2], fields[3], fields[4]);
+    }
+
+    /**
+     * 获取下一条事件的位置, 小于该位置的事件均已追加完成
+     *
+     * @return 下一条事件的位置
+     */
+    public long getEndPosition() {
+        lock.lock();
+        try {
+            return (long) (channels.size() - 1) << 32 | size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 将已追加的事件刷写到磁盘
+     */
+    public void force() {
+        lock.lock();
+        try {
+            if (!closed) {
+                channels.get(channels.size() - 1).force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("刷写事件存储失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static byte[] encode(String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException(StrUtil.format("事件字段长度超过65535字节: {}", value));
+        }
+        return bytes;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException(StrUtil.format("事件存储在位置 {} 提前结束", position));
+            }
+            position += read;
+        }
+    }
+
+    private static String fileName(int segment) {
+        return String.format("%010d", segment) + SUFFIX;
+    }
+
+    /**
+     * 刷写并关闭所有分段
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            channels.get(channels.size() - 1).force(false);
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
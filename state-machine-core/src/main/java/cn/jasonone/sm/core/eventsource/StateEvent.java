@@ -0,0 +1,17 @@
+package cn.jasonone.sm.core.eventsource;
+
+/**
+ * 事件存储中的一条状态变更事件
+ *
+ * @param position    事件在存储中的位置
+ * @param previous    同一业务上一条事件的位置, 没有时为 {@link FileEventStore#NONE}
+ * @param timestamp   事件时间(毫秒时间戳)
+ * @param machineCode 状态机编码
+ * @param businessId  业务ID
+ * @param event       事件编码, 直接更新状态时为空字符串
+ * @param from        源状态编码, 业务首次写入状态时为空字符串
+ * @param to          目标状态编码
+ */
+public record StateEvent(long position, long previous, long timestamp, String machineCode, String businessId,
+                         String event, String from, String to) {
+}
@@ -0,0 +1,16 @@
+package cn.jasonone.sm.core.journal;
+
+/**
+ * 从状态转换日志中读取的记录
+ *
+ * @param sequence    序号, 从1开始连续递增
+ * @param timestamp   追加时间(毫秒时间戳)
+ * @param machineCode 状态机编码
+ * @param businessId  业务ID
+ * @param event       事件编码
+ * @param from        源状态编码
+ * @param to          目标状态编码
+ */
+public record JournalEntry(long sequence, long timestamp, String machineCode, String businessId,
+                           String event, String from, String to) {
+}
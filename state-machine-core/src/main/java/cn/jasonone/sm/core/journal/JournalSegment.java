@@ -0,0 +1,236 @@
+package cn.jasonone.sm.core.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * 状态转换日志分段文件
+ * <pre>
+ *     文件名为该分段第一条记录的序号(20位, 左补0), 文件创建时即分配为固定大小并整体映射到内存;
+ *     记录依次追加, 每条记录的布局为:
+ *     int   length      本字段之后的记录长度, 为0表示后续没有记录
+ *     int   crc         [sequence, 记录末尾] 的 CRC32C 校验和
+ *     long  sequence    序号
+ *     long  timestamp   追加时间(毫秒时间戳)
+ *     5 x (short 长度 + UTF-8 字节)  状态机编码, 业务ID, 事件编码, 源状态编码, 目标状态编码
+ *     先写入记录内容, 最后写入 length, 进程在写入过程中退出时该记录的 length 仍为0或校验和不匹配, 读取时视为日志末尾
+ * </pre>
+ */
+final class JournalSegment {
+
+    static final String SUFFIX = ".journal";
+
+    /**
+     * length 之后的固定部分: crc + sequence + timestamp
+     */
+    private static final int FIXED_LENGTH = 4 + 8 + 8;
+
+    private static final int FIELD_COUNT = 5;
+
+    private final Path path;
+    private final long baseSequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final CRC32C crc = new CRC32C();
+    private int position;
+    private long lastSequence;
+
+    private JournalSegment(Path path, long baseSequence, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.baseSequence = baseSequence;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.lastSequence = baseSequence - 1;
+    }
+
+    /**
+     * 创建新的分段文件
+     *
+     * @param directory    日志目录
+     * @param baseSequence 第一条记录的序号
+     * @param size         分段大小(字节)
+     * @return 分段文件
+     */
+    static JournalSegment create(Path directory, long baseSequence, int size) throws IOException {
+        Path path = directory.resolve(fileName(baseSequence));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new JournalSegment(path, baseSequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 打开已有的分段文件继续追加, 定位到最后一条完整记录之后, 并清除其后未写完的记录
+     *
+     * @param path 分段文件
+     * @return 分段文件
+     */
+    static JournalSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            JournalSegment segment = new JournalSegment(path, baseSequence(path), channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            segment.position = scan(segment.buffer, Long.MIN_VALUE, entry -> segment.lastSequence = entry.sequence());
+            if (segment.position + 4 <= segment.buffer.capacity() && segment.buffer.getInt(segment.position) != 0) {
+                for (int i = segment.position; i < segment.buffer.capacity(); i++) {
+                    segment.buffer.put(i, (byte) 0);
+                }
+            }
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 依次读取分段文件中的记录
+     *
+     * @param path          分段文件
+     * @param afterSequence 只读取序号大于该值的记录
+     * @param consumer      记录消费者
+     * @return 读取的最后一条记录的序号, 没有记录时返回 afterSequence
+     */
+    static long read(Path path, long afterSequence, Consumer<JournalEntry> consumer) throws IOException {
+        long[] last = {afterSequence};
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), afterSequence, entry -> {
+                consumer.accept(entry);
+                last[0] = entry.sequence();
+            });
+        }
+        return last[0];
+    }
+
+    /**
+     * 从头扫描记录, 遇到长度为0、越界或校验和不匹配的记录时停止
+     *
+     * @return 最后一条完整记录之后的位置
+     */
+    private static int scan(ByteBuffer buffer, long afterSequence, Consumer<JournalEntry> consumer) {
+        CRC32C crc = new CRC32C();
+        int position = 0;
+        while (position + 4 <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length < FIXED_LENGTH + FIELD_COUNT * 2 || position + 4 + length > buffer.capacity()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(position + 8, length - 4));
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            long sequence = buffer.getLong(position + 8);
+            if (sequence > afterSequence) {
+                consumer.accept(decode(buffer, position, sequence));
+            }
+            position += 4 + length;
+        }
+        return position;
+    }
+
+    private static JournalEntry decode(ByteBuffer buffer, int position, long sequence) {
+        long timestamp = buffer.getLong(position + 16);
+        String[] fields = new String[FIELD_COUNT];
+        int offset = position + 4 + FIXED_LENGTH;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            int length = buffer.getShort(offset) & 0xFFFF;
+            byte[] bytes = new byte[length];
+            buffer.get(offset + 2, bytes);
+            fields[i] = new String(bytes, StandardCharsets.UTF_8);
+            offset += 2 + length;
+        }
+        return new JournalEntry(sequence, timestamp, fields[0], fields[1], fields[2], fields[3], fields[4]);
+    }
+
+    /**
+     * 计算记录占用的字节数
+     */
+    static int recordLength(byte[][] fields) {
+        int length = 4 + FIXED_LENGTH;
+        for (byte[] field : fields) {
+            length += 2 + field.length;
+        }
+        return length;
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @return 剩余空间不足时返回false, 不写入任何内容
+     */
+    boolean append(long sequence, long timestamp, byte[][] fields) {
+        int length = recordLength(fields);
+        if (position + length + 4 > buffer.capacity()) {
+            return false;
+        }
+        int offset = position + 8;
+        buffer.putLong(offset, sequence);
+        buffer.putLong(offset + 8, timestamp);
+        offset += 16;
+        for (byte[] field : fields) {
+            buffer.putShort(offset, (short) field.length);
+            buffer.put(offset + 2, field);
+            offset += 2 + field.length;
+        }
+        crc.reset();
+        crc.update(buffer.slice(position + 8, length - 8));
+        buffer.putInt(position + 4, (int) crc.getValue());
+        // 最后写入长度, 使记录整体可见
+        buffer.putInt(position, length - 4);
+        position += length;
+        lastSequence = sequence;
+        return true;
+    }
+
+    /**
+     * 将已写入的内容刷写到磁盘
+     */
+    void force() {
+        buffer.force();
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    static String fileName(long baseSequence) {
+        return String.format("%020d", baseSequence) + SUFFIX;
+    }
+
+    static long baseSequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    static boolean isSegment(Path path) {
+        return Files.isRegularFile(path) && path.getFileName().toString().endsWith(SUFFIX);
+    }
+}
@@ -0,0 +1,415 @@
+package cn.jasonone.sm.core.journal;
+
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.StrUtil;
+import cn.jasonone.sm.support.Event;
+import cn.jasonone.sm.support.State;
+import cn.jasonone.sm.support.TransitionJournal;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 基于内存映射分段文件的状态转换日志
+ * <pre>
+ *     1. 日志由若干固定大小的分段文件组成, 记录只追加到最后一个分段, 当前分段剩余空间不足时创建新分段
+ *     2. 追加记录只是写入映射内存, 由后台守护线程按提交间隔批量刷写到磁盘(组提交),
+ *        多次追加共用一次刷写, 触发事件的线程不执行磁盘同步
+ *     3. 开启 awaitCommit 时, 追加记录会等待包含该记录的刷写完成后再返回, 进程崩溃与断电都不会丢失已返回的记录;
+ *        未开启时进程崩溃不会丢失记录(映射内存由操作系统写回), 断电最多丢失一个提交间隔内的记录
+ *     4. 打开日志时从最后一个分段恢复写入位置, 末尾未写完或校验和不匹配的记录会被丢弃
+ *     5. 刷写失败后日志停止工作: 未刷写的记录不计入已提交序号, 等待提交的追加与之后的追加都抛出异常, 需要重新打开日志
+ * </pre>
+ * 记录中保存状态机编码、业务ID以及事件与状态的编码, 通过 {@link #replay(long, Consumer)} 按序号顺序读取
+ */
+@Slf4j
+public class MappedTransitionJournal implements TransitionJournal, AutoCloseable {
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final long commitIntervalNanos;
+
+    private final boolean awaitCommit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 有记录等待提交, 用于在 awaitCommit 时立即唤醒提交线程
+     */
+    private final Condition pending = lock.newCondition();
+
+    /**
+     * 提交完成, 用于唤醒等待提交的追加线程
+     */
+    private final Condition committed = lock.newCondition();
+
+    private final Thread committer;
+
+    /**
+     * 当前分段, 由 lock 保护
+     */
+    private JournalSegment segment;
+
+    /**
+     * 最后追加的序号, 由 lock 保护
+     */
+    private long sequence;
+
+    /**
+     * 已刷写到磁盘的最大序号, 由 lock 保护
+     */
+    private long committedSequence;
+
+    /**
+     * 刷写失败的原因, 由 lock 保护
+     */
+    private RuntimeException failure;
+
+    private volatile boolean closed;
+
+    /**
+     * @param directory      日志目录, 不存在时自动创建
+     * @param segmentSize    分段文件大小(字节)
+     * @param commitInterval 组提交间隔
+     * @param awaitCommit    追加记录时是否等待刷写到磁盘
+     */
+    public MappedTransitionJournal(Path directory, int segmentSize, Duration commitInterval, boolean awaitCommit) throws IOException {
+        Assert.notNull(directory, "日志目录不能为空");
+        Assert.isTrue(segmentSize >= 1024, "分段文件大小不能小于1KB");
+        Assert.isTrue(commitInterval != null && !commitInterval.isNegative() && !commitInterval.isZero(), "提交间隔必须大于0");
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.commitIntervalNanos = commitInterval.toNanos();
+        this.awaitCommit = awaitCommit;
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty()) {
+            this.segment = JournalSegment.create(directory, 1, segmentSize);
+        } else {
+            this.segment = JournalSegment.open(segments.get(segments.size() - 1));
+        }
+        this.sequence = segment.getLastSequence();
+        this.committedSequence = sequence;
+        this.committer = new Thread(this::commitLoop, "state-machine-journal");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    @Override
+    public void append(String machineCode, String businessId, State from, State to, Event event) {
+        byte[][] fields = {
+                encode(machineCode),
+                encode(businessId),
+                encode(event.getCode()),
+                encode(from == null ? null : from.getState()),
+                encode(to.getState())
+        };
+        if (JournalSegment.recordLength(fields) + 4 > segmentSize) {
+            throw new IllegalArgumentException(StrUtil.format("状态转换记录长度超过分段文件大小: {}", segmentSize));
+        }
+        long timestamp = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("状态转换日志已关闭");
+            }
+            checkFailure();
+            long next = sequence + 1;
+            if (!segment.append(next, timestamp, fields)) {
+                roll(next);
+                segment.append(next, timestamp, fields);
+            }
+            sequence = next;
+            if (awaitCommit) {
+                pending.signal();
+                while (committedSequence < next) {
+                    checkFailure();
+                    committed.awaitUninterruptibly();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 刷写并关闭当前分段, 创建以 nextSequence 开头的新分段
+     */
+    private void roll(long nextSequence) {
+        try {
+            segment.force();
+        } catch (RuntimeException e) {
+            fail(e);
+            throw e;
+        }
+        segment.close();
+        committedSequence = sequence;
+        committed.signalAll();
+        try {
+            segment = JournalSegment.create(directory, nextSequence, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(StrUtil.format("创建状态转换日志分段失败: {}", nextSequence), e);
+        }
+    }
+
+    /**
+     * 记录刷写失败并唤醒等待提交的追加线程, 调用方需持有 lock
+     */
+    private void fail(RuntimeException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        committed.signalAll();
+    }
+
+    /**
+     * 刷写失败后拒绝追加, 调用方需持有 lock
+     */
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException(StrUtil.format("状态转换日志刷写失败, 已停止写入: {}", directory), failure);
+        }
+    }
+
+    private static byte[] encode(String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException(StrUtil.format("状态转换记录字段长度超过65535字节: {}", value));
+        }
+        return bytes;
+    }
+
+    private void commitLoop() {
+        while (true) {
+            JournalSegment target;
+            long targetSequence;
+            lock.lock();
+            try {
+                if (sequence == committedSequence && !closed) {
+                    pending.awaitNanos(commitIntervalNanos);
+                }
+                if (failure != null) {
+                    return;
+                }
+                if (sequence == committedSequence) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                target = segment;
+                targetSequence = sequence;
+            } catch (InterruptedException e) {
+                // 只通过 closed 标记停止
+                continue;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                target.force();
+            } catch (RuntimeException e) {
+                log.error("刷写状态转换日志失败: {}", target.getPath(), e);
+                lock.lock();
+                try {
+                    fail(e);
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            lock.lock();
+            try {
+                committedSequence = Math.max(committedSequence, targetSequence);
+                committed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 立即刷写已追加的记录, 不等待组提交
+     *
+     * @return 已刷写到磁盘的最大序号, 即调用时最后追加的序号
+     */
+    public long commit() {
+        JournalSegment target;
+        long targetSequence;
+        lock.lock();
+        try {
+            checkFailure();
+            if (sequence == committedSequence) {
+                return sequence;
+            }
+            target = segment;
+            targetSequence = sequence;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            target.force();
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                fail(e);
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+        lock.lock();
+        try {
+            committedSequence = Math.max(committedSequence, targetSequence);
+            committed.signalAll();
+            return targetSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取最后追加的序号
+     *
+     * @return 最后追加的序号, 没有记录时返回0
+     */
+    public long getSequence() {
+        lock.lock();
+        try {
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取已刷写到磁盘的最大序号
+     *
+     * @return 已刷写到磁盘的最大序号
+     */
+    public long getCommittedSequence() {
+        lock.lock();
+        try {
+            return committedSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按序号顺序读取日志记录
+     *
+     * @param afterSequence 只读取序号大于该值的记录, 为0时读取全部记录
+     * @param consumer      记录消费者
+     * @return 读取的最后一条记录的序号, 没有记录时返回 afterSequence
+     */
+    public long replay(long afterSequence, Consumer<JournalEntry> consumer) {
+        return replay(directory, afterSequence, consumer);
+    }
+
+    /**
+     * 按序号顺序读取日志目录中的记录, 每次只映射一个分段文件, 不会将整个日志加载到内存
+     *
+     * @param directory     日志目录
+     * @param afterSequence 只读取序号大于该值的记录, 为0时读取全部记录
+     * @param consumer      记录消费者
+     * @return 读取的最后一条记录的序号, 没有记录时返回 afterSequence
+     */
+    public static long replay(Path directory, long afterSequence, Consumer<JournalEntry> consumer) {
+        List<Path> segments = segments(directory);
+        long last = afterSequence;
+        for (int i = 0; i < segments.size(); i++) {
+            // 下一个分段从 afterSequence 之前开始时, 当前分段中没有需要读取的记录
+            if (i + 1 < segments.size() && JournalSegment.baseSequence(segments.get(i + 1)) <= afterSequence + 1) {
+                continue;
+            }
+            try {
+                last = Math.max(last, JournalSegment.read(segments.get(i), afterSequence, consumer));
+            } catch (IOException e) {
+                throw new UncheckedIOException(StrUtil.format("读取状态转换日志失败: {}", segments.get(i)), e);
+            }
+        }
+        return last;
+    }
+
+    /**
+     * 删除所有记录的序号都不大于 sequence 的分段文件, 用于在快照之后回收日志空间; 最后一个分段(当前写入的分段)不会被删除
+     *
+     * @param sequence 已被快照包含的最大序号
+     * @return 删除的分段数量
+     */
+    public int deleteSegmentsThrough(long sequence) {
+        List<Path> segments = segments(directory);
+        int deleted = 0;
+        // 下一个分段从 sequence + 1 或更早开始时, 当前分段中的记录都已被快照包含
+        for (int i = 0; i + 1 < segments.size() && JournalSegment.baseSequence(segments.get(i + 1)) <= sequence + 1; i++) {
+            try {
+                Files.deleteIfExists(segments.get(i));
+                deleted++;
+            } catch (IOException e) {
+                log.warn("删除状态转换日志分段失败: {}", segments.get(i), e);
+                break;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 列出日志目录中的分段文件, 按第一条记录的序号排序
+     */
+    private static List<Path> segments(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(JournalSegment::isSegment)
+                    .sorted((a, b) -> Long.compare(JournalSegment.baseSequence(a), JournalSegment.baseSequence(b)))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(StrUtil.format("读取状态转换日志目录失败: {}", directory), e);
+        }
+    }
+
+    /**
+     * 停止接收新记录, 刷写剩余记录并关闭当前分段
+     */
+    @Override
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        committer.join(TimeUnit.SECONDS.toMillis(5));
+        lock.lock();
+        try {
+            if (failure != null) {
+                segment.close();
+                committed.signalAll();
+                return;
+            }
+            segment.force();
+            segment.close();
+            committedSequence = sequence;
+            committed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package cn.jasonone.sm.core.journal;
+
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.StrUtil;
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.support.State;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * 内存状态的快照与恢复
+ * <pre>
+ *     1. 快照: 刷写状态转换日志并记录当前的序号, 然后逐条写出 {@link DefaultStateMachineManager} 内存中的状态,
+ *        先写入临时文件并刷写到磁盘, 再原子重命名为以该序号命名的快照文件;
+ *        序号之前的转换在写入日志前已经更新了内存状态, 因此一定包含在快照中
+ *     2. 恢复: 读取最新的快照, 再按序号顺序重放快照之后的日志记录;
+ *        快照与日志都是边读边应用, 不会先整体加载到内存
+ *     3. 回收: 写入快照后只保留最近的 retainedSnapshots 个快照, 并删除记录全部被最早保留的快照包含的日志分段;
+ *        序号大于日志当前序号的快照(日志被清空或替换)无法与日志衔接, 恢复与写入快照时丢弃
+ *     4. 读取线程按业务ID哈希把记录分发到多个分区, 每个分区由一个线程按读取顺序写入状态, 同一业务的记录顺序不变;
+ *        分区队列有界, 写入跟不上时读取线程等待
+ * </pre>
+ * 日志与快照只保存状态编码, 恢复时通过已注册的初始状态与转换规则把编码解析为状态, 因此需要在转换规则注册完成后调用 {@link #recover()};
+ * 无法解析的状态会被跳过并计数
+ */
+@Slf4j
+@Getter
+@Setter
+public class StateRecovery implements AutoCloseable {
+
+    static final String SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x534D5353;
+
+    private static final int VERSION = 1;
+
+    /**
+     * 分发到分区的批量大小
+     */
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * 每个分区最多排队的批次数量
+     */
+    private static final int QUEUE_CAPACITY = 16;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final DefaultStateMachineManager manager;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final MappedTransitionJournal journal;
+
+    /**
+     * 快照目录
+     */
+    @Setter(AccessLevel.NONE)
+    private final Path snapshotDirectory;
+
+    /**
+     * 恢复时的分区数量
+     */
+    private int partitions = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 保留的快照数量
+     */
+    private int retainedSnapshots = 2;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param manager           状态管理器
+     * @param journal           状态转换日志
+     * @param snapshotDirectory 快照目录, 不存在时自动创建
+     */
+    public StateRecovery(DefaultStateMachineManager manager, MappedTransitionJournal journal, Path snapshotDirectory) throws IOException {
+        Assert.notNull(manager, "状态管理器不能为空");
+        Assert.notNull(journal, "状态转换日志不能为空");
+        Assert.notNull(snapshotDirectory, "快照目录不能为空");
+        this.manager = manager;
+        this.journal = journal;
+        this.snapshotDirectory = Files.createDirectories(snapshotDirectory);
+    }
+
+    /**
+     * 从最新的快照与之后的日志记录恢复状态
+     *
+     * @return 恢复的记录数量, 包括快照中的状态与重放的日志记录
+     */
+    public long recover() {
+        Assert.isTrue(partitions > 0, "分区数量必须大于0");
+        long start = System.nanoTime();
+        checkSnapshotsAhead(journal.getSequence());
+        Path snapshot = latestSnapshot();
+        try (PartitionedApplier applier = new PartitionedApplier(partitions)) {
+            long snapshotSequence = snapshot == null ? 0 : readSnapshot(snapshot, applier);
+            long snapshotCount = applier.submitted;
+            long lastSequence = journal.replay(snapshotSequence, entry -> applier.submit(entry.machineCode(), entry.businessId(), entry.to()));
+            applier.finish();
+            log.info("状态恢复完成: 快照[{}]恢复 {} 条, 重放日志序号({}, {}] 共 {} 条, 跳过无法解析的状态 {} 条, 耗时 {}ms",
+                    snapshot == null ? "无" : snapshot.getFileName(), snapshotCount, snapshotSequence, lastSequence,
+                    applier.submitted - snapshotCount, applier.skipped.sum(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return applier.submitted - applier.skipped.sum();
+        } catch (IOException e) {
+            throw new UncheckedIOException(StrUtil.format("读取状态快照失败: {}", snapshot), e);
+        }
+    }
+
+    private long readSnapshot(Path path, PartitionedApplier applier) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException(StrUtil.format("状态快照格式错误: {}", path));
+            }
+            long sequence = in.readLong();
+            while (in.readBoolean()) {
+                String machineCode = in.readUTF();
+                while (in.readBoolean()) {
+                    applier.submit(machineCode, in.readUTF(), in.readUTF());
+                }
+            }
+            return sequence;
+        }
+    }
+
+    /**
+     * 写入快照, 日志没有新记录时跳过
+     * <pre>
+     *     快照格式:
+     *     int MAGIC, int VERSION, long 日志序号
+     *     每个状态机: boolean true, UTF 状态机编码, 每个业务: boolean true, UTF 业务ID, UTF 状态编码; boolean false
+     *     boolean false
+     * </pre>
+     *
+     * @return 快照对应的日志序号
+     */
+    public long snapshot() {
+        snapshotLock.lock();
+        Path temp = null;
+        try {
+            // 先刷写日志, 快照序号之前的记录在断电后仍然存在, 快照不会领先于日志
+            long sequence = journal.commit();
+            checkSnapshotsAhead(sequence);
+            Path latest = latestSnapshot();
+            if (latest != null && snapshotSequence(latest) == sequence) {
+                return sequence;
+            }
+            Path target = snapshotDirectory.resolve(String.format("%020d", sequence) + SUFFIX);
+            temp = snapshotDirectory.resolve(target.getFileName() + ".tmp");
+            long start = System.nanoTime();
+            long[] count = {0};
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(sequence);
+                for (String machineCode : manager.getStateMachineCodes()) {
+                    out.writeBoolean(true);
+                    out.writeUTF(machineCode);
+                    manager.forEachState(machineCode, (businessId, state) -> {
+                        try {
+                            out.writeBoolean(true);
+                            out.writeUTF(businessId);
+                            out.writeUTF(state.getState());
+                            count[0]++;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    out.writeBoolean(false);
+                }
+                out.writeBoolean(false);
+                out.flush();
+                file.getChannel().force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            deleteExpiredSnapshots();
+            log.debug("写入状态快照[{}], 状态 {} 条, 耗时 {}ms", target.getFileName(), count[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return sequence;
+        } catch (IOException | UncheckedIOException e) {
+            deleteQuietly(temp);
+            throw new IllegalStateException(StrUtil.format("写入状态快照失败: {}", snapshotDirectory), e);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * 按固定间隔在后台写入快照
+     *
+     * @param interval 快照间隔
+     */
+    public synchronized void start(Duration interval) {
+        Assert.isNull(scheduler, "快照任务已启动");
+        Assert.isTrue(interval != null && !interval.isNegative() && !interval.isZero(), "快照间隔必须大于0");
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-machine-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long nanos = interval.toNanos();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (RuntimeException e) {
+                log.error("写入状态快照失败", e);
+            }
+        }, nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 停止后台快照任务, 已启动时再写入一次快照
+     */
+    @Override
+    public synchronized void close() throws InterruptedException {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        scheduler = null;
+        snapshot();
+    }
+
+    private List<Path> snapshots() {
+        try (Stream<Path> files = Files.list(snapshotDirectory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(StrUtil.format("读取快照目录失败: {}", snapshotDirectory), e);
+        }
+    }
+
+    private Path latestSnapshot() {
+        List<Path> snapshots = snapshots();
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+
+    private static long snapshotSequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * 删除多余的快照, 再删除最早保留的快照之前的日志分段
+     */
+    private void deleteExpiredSnapshots() {
+        List<Path> snapshots = snapshots();
+        int expired = snapshots.size() - Math.max(retainedSnapshots, 1);
+        for (int i = 0; i < expired; i++) {
+            deleteQuietly(snapshots.get(i));
+        }
+        long oldest = snapshotSequence(snapshots.get(Math.max(expired, 0)));
+        int deleted = journal.deleteSegmentsThrough(oldest);
+        if (deleted > 0) {
+            log.debug("删除已被快照[{}]包含的日志分段 {} 个", oldest, deleted);
+        }
+    }
+
+    /**
+     * 存在序号大于日志当前序号的快照时失败: 日志被清空或替换后, 新日志的序号会与快照重叠, 基于这类快照恢复会跳过新记录;
+     * 快照可能是状态的唯一副本, 不自动删除
+     */
+    private void checkSnapshotsAhead(long journalSequence) {
+        Path latest = latestSnapshot();
+        if (latest != null && snapshotSequence(latest) > journalSequence) {
+            throw new IllegalStateException(StrUtil.format("状态快照[{}]的序号大于状态转换日志序号[{}], 日志目录可能已被清空或替换: "
+                    + "请恢复原日志目录; 确认放弃快照中的状态后, 手动删除快照目录[{}]中的快照", latest.getFileName(), journalSequence, snapshotDirectory));
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("删除文件失败: {}", path, e);
+        }
+    }
+
+    /**
+     * 待恢复的状态
+     */
+    private record Restore(String machineCode, String businessId, String state) {
+    }
+
+    /**
+     * 按业务ID分区, 由多个线程并行写入状态
+     */
+    private final class PartitionedApplier implements AutoCloseable {
+
+        /**
+         * 分区结束标记
+         */
+        private static final List<Restore> END = List.of();
+
+        private final List<BlockingQueue<List<Restore>>> queues = new ArrayList<>();
+
+        private final List<List<Restore>> batches = new ArrayList<>();
+
+        private final List<Thread> workers = new ArrayList<>();
+
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        /**
+         * 状态编码解析缓存: machineCode -> 状态编码 -> 状态
+         */
+        private final Map<String, Map<String, State>> states = new ConcurrentHashMap<>();
+
+        private final LongAdder skipped = new LongAdder();
+
+        /**
+         * 已分发的记录数量, 只由读取线程访问
+         */
+        private long submitted;
+
+        private PartitionedApplier(int partitions) {
+            for (int i = 0; i < partitions; i++) {
+                BlockingQueue<List<Restore>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+                Thread worker = new Thread(() -> apply(queue), "state-machine-recovery-" + i);
+                worker.setDaemon(true);
+                queues.add(queue);
+                batches.add(new ArrayList<>(BATCH_SIZE));
+                workers.add(worker);
+                worker.start();
+            }
+        }
+
+        void submit(String machineCode, String businessId, String state) {
+            int partition = (businessId.hashCode() & Integer.MAX_VALUE) % queues.size();
+            List<Restore> batch = batches.get(partition);
+            batch.add(new Restore(machineCode, businessId, state));
+            submitted++;
+            if (batch.size() >= BATCH_SIZE) {
+                put(partition, batch);
+                batches.set(partition, new ArrayList<>(BATCH_SIZE));
+            }
+        }
+
+        /**
+         * 分发剩余的记录并等待所有分区写入完成
+         */
+        void finish() {
+            for (int i = 0; i < queues.size(); i++) {
+                if (!batches.get(i).isEmpty()) {
+                    put(i, batches.get(i));
+                }
+                put(i, END);
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("等待状态恢复完成时被中断", e);
+                }
+            }
+            checkError();
+        }
+
+        private void put(int partition, List<Restore> batch) {
+            try {
+                while (!queues.get(partition).offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                    checkError();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("状态恢复被中断", e);
+            }
+        }
+
+        private void checkError() {
+            Throwable e = error.get();
+            if (e != null) {
+                throw new IllegalStateException("状态恢复失败", e);
+            }
+        }
+
+        private void apply(BlockingQueue<List<Restore>> queue) {
+            try {
+                List<Restore> batch;
+                while ((batch = queue.take()) != END) {
+                    for (Restore restore : batch) {
+                        State state = states.computeIfAbsent(restore.machineCode(), this::loadStates).get(restore.state());
+                        if (state == null) {
+                            skipped.increment();
+                        } else {
+                            manager.restoreState(restore.machineCode(), restore.businessId(), state);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // 由 close 中断, 直接退出
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            }
+        }
+
+        /**
+         * 以已注册的初始状态与转换规则中出现的状态建立编码索引
+         */
+        private Map<String, State> loadStates(String machineCode) {
+            Map<String, State> codes = new HashMap<>();
+            State initialState = manager.getInitialState(machineCode);
+            if (initialState != null) {
+                codes.put(initialState.getState(), initialState);
+            }
+            for (Transition transition : manager.getTransitions(machineCode)) {
+                if (transition.from() != null) {
+                    codes.putIfAbsent(transition.from().getState(), transition.from());
+                }
+                codes.putIfAbsent(transition.to().getState(), transition.to());
+            }
+            return codes;
+        }
+
+        /**
+         * 读取失败时中断所有分区线程
+         */
+        @Override
+        public void close() {
+            for (Thread worker : workers) {
+                if (worker.isAlive()) {
+                    worker.interrupt();
+                }
+            }
+        }
+    }
+}
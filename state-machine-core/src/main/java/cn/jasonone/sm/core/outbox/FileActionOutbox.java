@@ -0,0 +1,402 @@
+package cn.jasonone.sm.core.outbox;
+
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.StrUtil;
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.core.KeyedSerialExecutor;
+import cn.jasonone.sm.core.StateMachineExecutors;
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.support.*;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于本地文件的延迟动作发件箱
+ * <pre>
+ *     1. 延迟动作随状态转换写入 {@link OutboxStore}, 事务提交后写入提交记录并提交到执行器异步执行, 事务回滚时标记为完成(丢弃);
+ *        不在事务中写入(例如响应式引擎)时立即提交. 进程在事务提交前退出时, 重启后丢弃该事务写入的动作
+ *     2. 同一业务的延迟动作按写入顺序依次执行, 不同业务并行执行; 失败的动作按指数退避重试, 重试不保证与之后写入的动作的顺序
+ *     3. 动作执行成功后才标记完成, 进程在执行期间退出时动作会在重启后再次执行, 因此动作应当幂等(至少执行一次)
+ *     4. 重试次数用尽的动作保留在发件箱中, 本进程不再执行, 重启后由 {@link #recover(StateMachineEngine)} 再次执行
+ *     5. 重启后按动作名称从注册中心查找动作; 状态上下文中的 payload 不持久化, 恢复执行时为null
+ * </pre>
+ */
+@Slf4j
+@Getter
+@Setter
+public class FileActionOutbox implements ActionOutbox, AutoCloseable {
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final OutboxStore store;
+
+    /**
+     * 打开发件箱时已提交且未完成的记录, 由 {@link #recover(StateMachineEngine)} 执行
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private List<OutboxEntry> unfinished;
+
+    /**
+     * 延迟动作执行器, 默认JDK 21及以上使用虚拟线程
+     */
+    private Executor executor = StateMachineExecutors.defaultExecutor();
+
+    /**
+     * 每个动作在本进程中的最大执行次数, 小于1表示不限次数
+     */
+    private int maxAttempts = 10;
+
+    /**
+     * 首次重试间隔, 之后每次翻倍
+     */
+    private Duration retryInterval = Duration.ofSeconds(1);
+
+    /**
+     * 最大重试间隔
+     */
+    private Duration maxRetryInterval = Duration.ofMinutes(1);
+
+    /**
+     * 当前线程进行中的事务写入的延迟动作
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ThreadLocal<Staging> transactions = new ThreadLocal<>();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final KeyedSerialExecutor serialExecutor = new KeyedSerialExecutor();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ScheduledExecutorService scheduler;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final LongAdder completed = new LongAdder();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final LongAdder retried = new LongAdder();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final LongAdder exhausted = new LongAdder();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile boolean closed;
+
+    /**
+     * @param directory        发件箱目录, 不存在时自动创建
+     * @param compactThreshold 发件箱文件的压缩阈值(字节)
+     * @param sync             是否在每次写入后刷写到磁盘
+     */
+    public FileActionOutbox(Path directory, long compactThreshold, boolean sync) throws IOException {
+        this.store = new OutboxStore(directory, compactThreshold, sync);
+        this.unfinished = store.pending();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-machine-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void stage(StateMachineEngine engine, Action[] actions, StateContext context) {
+        Staging staging = transactions.get();
+        long timestamp = System.currentTimeMillis();
+        String from = context.from() == null ? "" : context.from().getState();
+        for (Action action : actions) {
+            long id = store.append(timestamp, context.machineCode(), context.businessId(), from, context.to().getState(), context.event().getCode(), action.getName(), staging == null);
+            Delivery delivery = new Delivery(id, action, engine, context);
+            if (staging != null) {
+                staging.deliveries.add(delivery);
+            } else {
+                dispatch(delivery);
+            }
+        }
+    }
+
+    @Override
+    public TransactionManagement transactionManagement(TransactionManagement delegate) {
+        Assert.notNull(delegate, "事务管理不能为空");
+        return new OutboxTransactionManagement(delegate);
+    }
+
+    /**
+     * 执行打开发件箱时已提交且未完成的延迟动作, 只在首次调用时执行
+     * <pre>
+     *     应在所有守卫与动作注册完成后调用; 转换规则中找不到的状态与事件按编码构造, 未注册的动作保留到下次启动
+     * </pre>
+     *
+     * @param engine 状态机引擎, 注册中心需为 {@link DefaultStateRegistry}
+     * @return 开始执行的动作数量
+     */
+    public synchronized int recover(StateMachineEngine engine) {
+        if (unfinished == null) {
+            return 0;
+        }
+        Assert.isInstanceOf(DefaultStateRegistry.class, engine.getRegistry(), "恢复延迟动作需要使用 DefaultStateRegistry");
+        DefaultStateRegistry registry = (DefaultStateRegistry) engine.getRegistry();
+        int recovered = 0;
+        for (OutboxEntry entry : unfinished) {
+            Transition transition = findTransition(registry.getTransitions(entry.machineCode()), entry);
+            State from = transition != null ? transition.from() : entry::from;
+            State to = transition != null ? transition.to() : entry::to;
+            Event event = transition != null ? transition.event() : entry::event;
+            Action action = null;
+            for (Action candidate : registry.getDeferredActions(entry.machineCode(), from, to)) {
+                if (StrUtil.equals(candidate.getName(), entry.action())) {
+                    action = candidate;
+                    break;
+                }
+            }
+            if (action == null) {
+                log.warn("状态机[{}] 业务ID[{}]延迟动作[{}]未注册, 保留到下次启动", entry.machineCode(), entry.businessId(), entry.action());
+                continue;
+            }
+            dispatch(new Delivery(entry.id(), action, engine, new StateContext(entry.machineCode(), entry.businessId(), from, to, event, null)));
+            recovered++;
+        }
+        log.info("发件箱恢复延迟动作: {}/{}", recovered, unfinished.size());
+        unfinished = null;
+        return recovered;
+    }
+
+    private static Transition findTransition(Set<Transition> transitions, OutboxEntry entry) {
+        if (transitions == null) {
+            return null;
+        }
+        for (Transition transition : transitions) {
+            if (transition.from() != null && StrUtil.equals(transition.from().getState(), entry.from())
+                    && StrUtil.equals(transition.to().getState(), entry.to())
+                    && StrUtil.equals(transition.event().getCode(), entry.event())) {
+                return transition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按业务串行提交到执行器
+     */
+    private void dispatch(Delivery delivery) {
+        if (closed) {
+            return;
+        }
+        try {
+            serialExecutor.submit(delivery.key, () -> {
+                deliver(delivery);
+                return null;
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            log.warn("状态机[{}] 业务ID[{}]延迟动作[{}]提交失败, 保留到下次启动", delivery.context.machineCode(), delivery.context.businessId(), delivery.action.getName(), e);
+        }
+    }
+
+    private void deliver(Delivery delivery) {
+        if (closed) {
+            return;
+        }
+        try {
+            delivery.action.execute(delivery.engine, delivery.context);
+        } catch (Exception e) {
+            retry(delivery, e);
+            return;
+        }
+        try {
+            store.complete(delivery.id);
+            completed.increment();
+        } catch (RuntimeException e) {
+            log.error("状态机[{}] 业务ID[{}]延迟动作[{}]已执行, 但标记完成失败, 重启后会再次执行", delivery.context.machineCode(), delivery.context.businessId(), delivery.action.getName(), e);
+        }
+    }
+
+    private void retry(Delivery delivery, Exception error) {
+        int attempts = ++delivery.attempts;
+        StateContext context = delivery.context;
+        if (maxAttempts > 0 && attempts >= maxAttempts) {
+            exhausted.increment();
+            log.error("状态机[{}] 业务ID[{}]延迟动作[{}]执行失败{}次, 停止重试, 重启后再次执行", context.machineCode(), context.businessId(), delivery.action.getName(), attempts, error);
+            return;
+        }
+        retried.increment();
+        long max = maxRetryInterval.toMillis();
+        long delay = retryInterval.toMillis();
+        for (int i = 1; i < attempts && delay < max; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, max);
+        log.warn("状态机[{}] 业务ID[{}]延迟动作[{}]第{}次执行失败, {}ms后重试", context.machineCode(), context.businessId(), delivery.action.getName(), attempts, delay, error);
+        try {
+            scheduler.schedule(() -> dispatch(delivery), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已关闭, 重启后再次执行
+        }
+    }
+
+    /**
+     * 获取未完成的延迟动作数量, 包括进行中事务写入的与重试次数用尽的动作
+     *
+     * @return 未完成数量
+     */
+    public int getPendingCount() {
+        return store.getPendingCount();
+    }
+
+    /**
+     * 获取执行成功的延迟动作数量
+     *
+     * @return 成功数量
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * 获取重试次数
+     *
+     * @return 重试次数
+     */
+    public long getRetriedCount() {
+        return retried.sum();
+    }
+
+    /**
+     * 获取重试次数用尽的延迟动作数量
+     *
+     * @return 重试次数用尽的数量
+     */
+    public long getExhaustedCount() {
+        return exhausted.sum();
+    }
+
+    /**
+     * 停止执行并关闭发件箱, 未完成的动作在重启后执行
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        scheduler.shutdownNow();
+        store.close();
+    }
+
+    /**
+     * 一次延迟动作的执行
+     */
+    private static final class Delivery {
+        private final long id;
+        private final Action action;
+        private final StateMachineEngine engine;
+        private final StateContext context;
+        private final String key;
+        private int attempts;
+
+        private Delivery(long id, Action action, StateMachineEngine engine, StateContext context) {
+            this.id = id;
+            this.action = action;
+            this.engine = engine;
+            this.context = context;
+            this.key = context.machineCode() + ":" + context.businessId();
+        }
+    }
+
+    /**
+     * 当前线程的事务: 写入的延迟动作与每层事务开始时的位置
+     */
+    private static final class Staging {
+        private final List<Delivery> deliveries = new ArrayList<>();
+        private final Deque<Integer> marks = new ArrayDeque<>();
+    }
+
+    /**
+     * 在事务提交后执行、回滚后丢弃延迟动作的事务管理
+     * <pre>
+     *     支持同一线程中的嵌套事务: 最外层事务提交后才执行动作, 内层事务回滚只丢弃该层写入的动作
+     * </pre>
+     */
+    private final class OutboxTransactionManagement implements TransactionManagement {
+
+        private final TransactionManagement delegate;
+
+        private OutboxTransactionManagement(TransactionManagement delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void begin() {
+            delegate.begin();
+            Staging staging = transactions.get();
+            if (staging == null) {
+                staging = new Staging();
+                transactions.set(staging);
+            }
+            staging.marks.push(staging.deliveries.size());
+        }
+
+        @Override
+        public void commit() {
+            // 提交失败时保留写入的动作, 由之后的回滚丢弃
+            delegate.commit();
+            Staging staging = transactions.get();
+            if (staging == null) {
+                return;
+            }
+            staging.marks.pop();
+            if (staging.marks.isEmpty()) {
+                transactions.remove();
+                if (staging.deliveries.isEmpty()) {
+                    return;
+                }
+                List<Long> ids = new ArrayList<>(staging.deliveries.size());
+                for (Delivery delivery : staging.deliveries) {
+                    ids.add(delivery.id);
+                }
+                try {
+                    store.commit(ids);
+                } catch (RuntimeException e) {
+                    // 事务已提交, 动作仍在本进程中执行, 但进程在执行完成前退出时不会恢复
+                    log.error("写入发件箱提交记录失败, 重启后不会恢复这些延迟动作: {}", ids, e);
+                }
+                for (Delivery delivery : staging.deliveries) {
+                    dispatch(delivery);
+                }
+            }
+        }
+
+        @Override
+        public void rollback() {
+            try {
+                delegate.rollback();
+            } finally {
+                Staging staging = transactions.get();
+                if (staging != null) {
+                    List<Delivery> discarded = staging.deliveries.subList(staging.marks.pop(), staging.deliveries.size());
+                    for (Delivery delivery : discarded) {
+                        store.complete(delivery.id);
+                    }
+                    discarded.clear();
+                    if (staging.marks.isEmpty()) {
+                        transactions.remove();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package cn.jasonone.sm.core.outbox;
+
+/**
+ * 发件箱中一条未完成的延迟动作
+ *
+ * @param id          记录ID, 随写入单调递增
+ * @param timestamp   写入时间(毫秒时间戳)
+ * @param machineCode 状态机编码
+ * @param businessId  业务ID
+ * @param from        源状态编码
+ * @param to          目标状态编码
+ * @param event       事件编码
+ * @param action      动作名称, 即 {@link cn.jasonone.sm.support.Action#getName()}
+ */
+public record OutboxEntry(long id, long timestamp, String machineCode, String businessId,
+                          String from, String to, String event, String action) {
+}
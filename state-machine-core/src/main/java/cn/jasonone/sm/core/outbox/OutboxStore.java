@@ -0,0 +1,382 @@
+package cn.jasonone.sm.core.outbox;
+
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * 基于本地文件的发件箱存储
+ * <pre>
+ *     1. 写入、提交与完成都以记录的形式追加到同一个文件, 打开时顺序读取, 已提交且未完成的记录即为待执行的延迟动作
+ *     2. 事务中写入的记录在事务提交后才写入提交记录; 打开时已写入但未提交的记录属于退出前未提交的事务, 直接丢弃
+ *     3. 追加只写入操作系统页缓存, 进程崩溃不会丢失记录; 开启 sync 时每次写入后刷写到磁盘, 断电也不会丢失
+ *     4. 文件超过压缩阈值时, 将未完成的记录写入临时文件后原子替换, 文件大小只与未完成的记录数量有关
+ *     5. 打开时丢弃末尾未写完或校验和不匹配的记录
+ * </pre>
+ * 记录布局: int 长度, int CRC32C, byte 类型(1 写入, 2 完成, 3 提交), long ID, long 时间戳, 写入记录另有 6 x (short 长度 + UTF-8 字节)
+ */
+@Slf4j
+public class OutboxStore implements AutoCloseable {
+
+    static final String FILE_NAME = "outbox.log";
+
+    private static final byte STAGED = 1;
+
+    private static final byte DONE = 2;
+
+    private static final byte COMMITTED = 3;
+
+    /**
+     * 长度之后的固定部分: crc + 类型 + ID + 时间戳
+     */
+    private static final int FIXED_LENGTH = 4 + 1 + 8 + 8;
+
+    private static final int FIELD_COUNT = 6;
+
+    private final Path file;
+
+    private final long compactThreshold;
+
+    private final boolean sync;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final CRC32C crc = new CRC32C();
+
+    /**
+     * 已提交且未完成的记录, 按ID升序, 由 lock 保护
+     */
+    private final Map<Long, OutboxEntry> pending = new TreeMap<>();
+
+    /**
+     * 已写入但尚未提交的记录, 按ID升序, 由 lock 保护
+     */
+    private final Map<Long, OutboxEntry> staged = new TreeMap<>();
+
+    /**
+     * 由 lock 保护
+     */
+    private FileChannel channel;
+
+    /**
+     * 文件写入位置, 由 lock 保护
+     */
+    private long size;
+
+    /**
+     * 下一条记录的ID, 由 lock 保护
+     */
+    private long nextId = 1;
+
+    /**
+     * 文件达到该大小时压缩, 由 lock 保护
+     */
+    private long compactSize;
+
+    private boolean closed;
+
+    /**
+     * @param directory        发件箱目录, 不存在时自动创建
+     * @param compactThreshold 压缩阈值(字节)
+     * @param sync             是否在每次写入后刷写到磁盘
+     */
+    public OutboxStore(Path directory, long compactThreshold, boolean sync) throws IOException {
+        Assert.notNull(directory, "发件箱目录不能为空");
+        Assert.isTrue(compactThreshold >= 1024 && compactThreshold <= Integer.MAX_VALUE / 2, "压缩阈值应在1KB与1GB之间");
+        this.file = Files.createDirectories(directory).resolve(FILE_NAME);
+        this.compactThreshold = compactThreshold;
+        this.sync = sync;
+        this.compactSize = compactThreshold;
+        Files.deleteIfExists(temporaryFile());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fileSize = channel.size();
+        Assert.isTrue(fileSize <= Integer.MAX_VALUE, "发件箱文件过大: {}", file);
+        size = scan((int) fileSize);
+        if (size < fileSize) {
+            log.warn("丢弃发件箱末尾不完整的记录: 位置 {}, 长度 {}", size, fileSize - size);
+            channel.truncate(size);
+        }
+        if (!staged.isEmpty()) {
+            // 不再会被提交, 下次压缩时从文件中移除
+            log.warn("丢弃发件箱中未提交的记录: {}", staged.size());
+            staged.clear();
+        }
+        if (size >= compactSize) {
+            compact();
+        }
+    }
+
+    /**
+     * 顺序读取文件中的记录, 遇到不完整或校验和不匹配的记录时停止
+     *
+     * @return 最后一条完整记录之后的偏移量
+     */
+    private int scan(int limit) throws IOException {
+        if (limit == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, limit);
+        int offset = 0;
+        while (offset + 4 <= limit) {
+            int length = buffer.getInt(offset);
+            if (length < FIXED_LENGTH || offset + 4 + length > limit) {
+                break;
+            }
+            CRC32C checksum = new CRC32C();
+            checksum.update(buffer.slice(offset + 8, length - 4));
+            if ((int) checksum.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            byte type = buffer.get(offset + 8);
+            long id = buffer.getLong(offset + 9);
+            long timestamp = buffer.getLong(offset + 17);
+            if (type == STAGED) {
+                String[] fields = new String[FIELD_COUNT];
+                int index = offset + 4 + FIXED_LENGTH;
+                for (int i = 0; i < FIELD_COUNT; i++) {
+                    int fieldLength = buffer.getShort(index) & 0xFFFF;
+                    byte[] bytes = new byte[fieldLength];
+                    buffer.get(index + 2, bytes);
+                    fields[i] = new String(bytes, StandardCharsets.UTF_8);
+                    index += 2 + fieldLength;
+                }
+                staged.put(id, new OutboxEntry(id, timestamp, fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]));
+            } else if (type == COMMITTED) {
+                OutboxEntry entry = staged.remove(id);
+                if (entry != null) {
+                    pending.put(id, entry);
+                }
+            } else {
+                staged.remove(id);
+                pending.remove(id);
+            }
+            nextId = Math.max(nextId, id + 1);
+            offset += 4 + length;
+        }
+        return offset;
+    }
+
+    /**
+     * 写入一条延迟动作
+     *
+     * @param timestamp   写入时间
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @param from        源状态编码
+     * @param to          目标状态编码
+     * @param event       事件编码
+     * @param action      动作名称
+     * @param committed   是否同时提交, 不在事务中写入时为true
+     * @return 记录ID
+     */
+    public long append(long timestamp, String machineCode, String businessId, String from, String to, String event, String action, boolean committed) {
+        String[] fields = {machineCode, businessId, from, to, event, action};
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("发件箱已关闭");
+            }
+            long id = nextId;
+            write(channel, size, STAGED, id, timestamp, fields);
+            nextId++;
+            OutboxEntry entry = new OutboxEntry(id, timestamp, machineCode, businessId, from, to, event, action);
+            if (committed) {
+                write(channel, size, COMMITTED, id, timestamp, null);
+                pending.put(id, entry);
+            } else {
+                staged.put(id, entry);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+            return id;
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入发件箱失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 提交事务中写入的记录, 提交后的记录在重启后恢复执行; 已关闭或记录不存在时忽略
+     *
+     * @param ids 记录ID
+     */
+    public void commit(List<Long> ids) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            long timestamp = System.currentTimeMillis();
+            for (Long id : ids) {
+                OutboxEntry entry = staged.remove(id);
+                if (entry != null) {
+                    write(channel, size, COMMITTED, id, timestamp, null);
+                    pending.put(id, entry);
+                }
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(StrUtil.format("写入发件箱提交记录失败: {}", ids), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 标记记录已完成(执行成功或随事务回滚丢弃), 已关闭或记录不存在时忽略
+     *
+     * @param id 记录ID
+     */
+    public void complete(long id) {
+        lock.lock();
+        try {
+            if (closed || (pending.remove(id) == null && staged.remove(id) == null)) {
+                return;
+            }
+            write(channel, size, DONE, id, System.currentTimeMillis(), null);
+            if (size >= compactSize) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(StrUtil.format("写入发件箱完成记录失败: {}", id), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在 position 处写入一条记录并前移写入位置
+     */
+    private void write(FileChannel target, long position, byte type, long id, long timestamp, String[] fields) throws IOException {
+        byte[][] bytes = new byte[fields == null ? 0 : FIELD_COUNT][];
+        int length = 4 + FIXED_LENGTH;
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = encode(fields[i]);
+            length += 2 + bytes[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(length - 4).putInt(0).put(type).putLong(id).putLong(timestamp);
+        for (byte[] field : bytes) {
+            buffer.putShort((short) field.length).put(field);
+        }
+        crc.reset();
+        crc.update(buffer.array(), 8, length - 8);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += target.write(buffer, position);
+        }
+        size = position;
+    }
+
+    /**
+     * 将未完成的记录写入临时文件后替换当前文件, 已提交的记录同时写入提交记录
+     */
+    private void compact() throws IOException {
+        Path temporary = temporaryFile();
+        long previousSize = size;
+        try (FileChannel target = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            size = 0;
+            for (OutboxEntry entry : pending.values()) {
+                write(target, size, STAGED, entry.id(), entry.timestamp(), fields(entry));
+                write(target, size, COMMITTED, entry.id(), entry.timestamp(), null);
+            }
+            for (OutboxEntry entry : staged.values()) {
+                write(target, size, STAGED, entry.id(), entry.timestamp(), fields(entry));
+            }
+            target.force(true);
+        } catch (IOException e) {
+            // 压缩失败时继续追加到原文件
+            size = previousSize;
+            throw e;
+        }
+        channel.close();
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // 未完成的记录较多时放宽阈值, 避免每次完成都重新压缩
+        compactSize = Math.max(compactThreshold, size * 2);
+        log.debug("压缩发件箱, 未完成记录: {}, 文件大小: {}", pending.size() + staged.size(), size);
+    }
+
+    private static String[] fields(OutboxEntry entry) {
+        return new String[]{entry.machineCode(), entry.businessId(), entry.from(), entry.to(), entry.event(), entry.action()};
+    }
+
+    private Path temporaryFile() {
+        return file.resolveSibling(FILE_NAME + ".tmp");
+    }
+
+    private static byte[] encode(String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException(StrUtil.format("发件箱字段长度超过65535字节: {}", value));
+        }
+        return bytes;
+    }
+
+    /**
+     * 获取已提交且未完成的记录
+     *
+     * @return 按ID升序排列的已提交且未完成的记录
+     */
+    public List<OutboxEntry> pending() {
+        lock.lock();
+        try {
+            return new ArrayList<>(pending.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取未完成的记录数量, 包括尚未提交的记录
+     *
+     * @return 未完成的记录数量
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size() + staged.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 刷写并关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            channel.force(false);
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.support.StateMachineManager;
+
+/**
+ * 测试共用的审批状态机: PENDING --APPROVE--> APPROVED, PENDING --REJECT--> REJECTED, APPROVED --CANCEL--> CANCELED
+ */
+public final class ApprovalMachine {
+
+    public static final String MACHINE_CODE = "approval";
+
+    private ApprovalMachine() {
+    }
+
+    /**
+     * 创建注册了审批状态机的注册表
+     *
+     * @param manager 状态管理器
+     * @return 注册表
+     */
+    public static DefaultStateRegistry createRegistry(StateMachineManager manager) {
+        DefaultStateRegistry registry = new DefaultStateRegistry(manager);
+        registry.setInitialState(MACHINE_CODE, ApprovalStatus.PENDING);
+        registry.registerTransition(MACHINE_CODE, new Transition(ApprovalStatus.PENDING, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        registry.registerTransition(MACHINE_CODE, new Transition(ApprovalStatus.PENDING, ApprovalEvent.REJECT, ApprovalStatus.REJECTED));
+        registry.registerTransition(MACHINE_CODE, new Transition(ApprovalStatus.APPROVED, ApprovalEvent.CANCEL, ApprovalStatus.CANCELED));
+        return registry;
+    }
+}
@@ -0,0 +1,151 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.DefaultReactiveStateMachineEngine;
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.core.ReactiveStateMachineManagerAdapter;
+import cn.jasonone.sm.core.StripedLockManagement;
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.domain.TransitionResult;
+import cn.jasonone.sm.domain.TriggerRequest;
+import cn.jasonone.sm.enums.StateMachineActionType;
+import cn.jasonone.sm.exceptions.StateConflictException;
+import cn.jasonone.sm.support.LockManagement;
+import cn.jasonone.sm.support.ReactiveAction;
+import cn.jasonone.sm.support.ReactiveGuard;
+import cn.jasonone.sm.support.ReactiveStateMachineManager;
+import cn.jasonone.sm.support.State;
+import cn.jasonone.sm.support.StateMachineEngine;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cn.jasonone.test.ApprovalMachine.MACHINE_CODE;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DefaultReactiveStateMachineEngineTest {
+
+    @Test
+    public void reactiveAndBlockingHandlersRunInOrder() {
+        DefaultStateMachineManager manager = new DefaultStateMachineManager();
+        DefaultStateRegistry registry = ApprovalMachine.createRegistry(manager);
+        List<String> calls = new CopyOnWriteArrayList<>();
+        registry.registerGuard(MACHINE_CODE, ApprovalStatus.PENDING, ApprovalStatus.APPROVED, (ReactiveGuard) (engine, ctx) ->
+                Mono.delay(Duration.ofMillis(20)).map(tick -> calls.add("guard") && !"denied".equals(ctx.businessId())));
+        registry.registerAction(MACHINE_CODE, ApprovalStatus.PENDING, ApprovalStatus.APPROVED,
+                (engine, ctx) -> calls.add("before"), StateMachineActionType.BEFORE);
+        registry.registerAction(MACHINE_CODE, ApprovalStatus.PENDING, ApprovalStatus.APPROVED, (ReactiveAction) (engine, ctx) ->
+                Mono.delay(Duration.ofMillis(20)).doOnNext(tick -> calls.add("after:" + manager.getCurrentState(ctx.machineCode(), ctx.businessId()))).then(),
+                StateMachineActionType.AFTER);
+        DefaultReactiveStateMachineEngine engine = new DefaultReactiveStateMachineEngine(registry, new ReactiveStateMachineManagerAdapter(manager));
+
+        TransitionResult result = engine.trigger(MACHINE_CODE, "1", ApprovalEvent.APPROVE).block();
+        assertTrue(result.isSuccess());
+        assertEquals(List.of("guard", "before", "after:" + ApprovalStatus.APPROVED), calls);
+
+        TransitionResult denied = engine.trigger(MACHINE_CODE, "denied", ApprovalEvent.APPROVE).block();
+        assertInstanceOf(IllegalArgumentException.class, denied.error());
+        assertNull(manager.getCurrentState(MACHINE_CODE, "denied"));
+
+        List<TransitionResult> results = engine.triggerAll(MACHINE_CODE, List.of(
+                new TriggerRequest("2", ApprovalEvent.REJECT, null),
+                new TriggerRequest("1", ApprovalEvent.CANCEL, null),
+                new TriggerRequest("1", ApprovalEvent.CANCEL, null))).collectList().block();
+        assertEquals(List.of(true, true, false), results.stream().map(TransitionResult::isSuccess).toList());
+        assertEquals(ApprovalStatus.CANCELED, manager.getCurrentState(MACHINE_CODE, "1"));
+    }
+
+    @Test
+    public void conflictIsRetriedWithFreshState() {
+        DefaultStateMachineManager manager = new DefaultStateMachineManager();
+        DefaultStateRegistry registry = ApprovalMachine.createRegistry(manager);
+        AtomicInteger updates = new AtomicInteger();
+        ReactiveStateMachineManagerAdapter adapter = new ReactiveStateMachineManagerAdapter(manager);
+        ReactiveStateMachineManager conflicting = new ReactiveStateMachineManager() {
+            @Override
+            public Mono<State> getCurrentState(String machineCode, String businessId) {
+                return adapter.getCurrentState(machineCode, businessId);
+            }
+
+            @Override
+            public Mono<Boolean> updateState(String machineCode, String businessId, State expected, State state) {
+                if (updates.getAndIncrement() == 0) {
+                    // 模拟其他节点在读取与写入之间修改了状态
+                    manager.updateState(machineCode, businessId, ApprovalStatus.APPROVED);
+                }
+                return adapter.updateState(machineCode, businessId, expected, state);
+            }
+        };
+        DefaultReactiveStateMachineEngine engine = new DefaultReactiveStateMachineEngine(registry, conflicting);
+
+        TransitionResult result = engine.trigger(MACHINE_CODE, "1", ApprovalEvent.APPROVE).block();
+        // 重试时读取到 APPROVED, APPROVE 事件不再适用
+        assertInstanceOf(IllegalArgumentException.class, result.error());
+        assertEquals(1, updates.get());
+
+        updates.set(0);
+        engine.setConflictRetries(0);
+        manager.updateState(MACHINE_CODE, "2", ApprovalStatus.PENDING);
+        TransitionResult conflict = engine.trigger(MACHINE_CODE, "2", ApprovalEvent.REJECT).block();
+        assertInstanceOf(StateConflictException.class, conflict.error());
+    }
+
+    @Test
+    public void triggersForSameBusinessAreSerializedUnderLock() {
+        DefaultStateMachineManager manager = new DefaultStateMachineManager();
+        DefaultStateRegistry registry = ApprovalMachine.createRegistry(manager);
+        AtomicInteger guards = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        registry.registerGuard(MACHINE_CODE, ApprovalStatus.PENDING, ApprovalStatus.APPROVED, (ReactiveGuard) (engine, ctx) -> {
+            guards.incrementAndGet();
+            if (running.incrementAndGet() > 1) {
+                overlapped.set(true);
+            }
+            return Mono.delay(Duration.ofMillis(20)).map(tick -> running.decrementAndGet() >= 0);
+        });
+        // 可重入锁只能由加锁线程解锁, 在其他线程解锁会抛出异常
+        StripedLockManagement stripedLock = new StripedLockManagement(16);
+        List<String> lockThreads = new CopyOnWriteArrayList<>();
+        AtomicInteger held = new AtomicInteger();
+        LockManagement lockManagement = new LockManagement() {
+            @Override
+            public void lock(String machineCode, String businessId) {
+                stripedLock.lock(machineCode, businessId);
+                held.incrementAndGet();
+                lockThreads.add(Thread.currentThread().getName());
+            }
+
+            @Override
+            public void unlock(String machineCode, String businessId) {
+                held.decrementAndGet();
+                lockThreads.add(Thread.currentThread().getName());
+                stripedLock.unlock(machineCode, businessId);
+            }
+        };
+        DefaultReactiveStateMachineEngine engine = new DefaultReactiveStateMachineEngine(registry, new ReactiveStateMachineManagerAdapter(manager));
+        engine.setLockManagement(lockManagement);
+
+        List<TransitionResult> results = Flux.range(0, 8)
+                .flatMap(i -> engine.trigger(MACHINE_CODE, "1", ApprovalEvent.APPROVE), 8)
+                .collectList()
+                .block();
+        // 后续触发读取到 APPROVED, 守卫只执行一次, 不会因冲突重试
+        assertEquals(1, results.stream().filter(TransitionResult::isSuccess).count());
+        assertEquals(1, guards.get());
+        assertFalse(overlapped.get());
+        assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState(MACHINE_CODE, "1"));
+        assertEquals(0, held.get());
+        assertEquals(16, lockThreads.size());
+        for (int i = 0; i < lockThreads.size(); i += 2) {
+            assertEquals(lockThreads.get(i), lockThreads.get(i + 1));
+            assertNotEquals(Thread.currentThread().getName(), lockThreads.get(i));
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.DefaultStateMachineEngine;
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.core.DefaultTransactionManagement;
+import cn.jasonone.sm.core.KeyedSerialExecutor;
+import cn.jasonone.sm.core.MicrometerStateMachineMetrics;
+import cn.jasonone.sm.core.StripedLockManagement;
+import cn.jasonone.sm.core.TransitionAuditLog;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.domain.TransitionRecord;
+import cn.jasonone.sm.domain.TransitionResult;
+import cn.jasonone.sm.domain.TriggerRequest;
+import cn.jasonone.sm.enums.StateMachineActionType;
+import cn.jasonone.sm.exceptions.StateConflictException;
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.support.Guard;
+import cn.jasonone.sm.support.LockManagement;
+import cn.jasonone.sm.support.StateMachineEngine;
+import cn.jasonone.sm.support.StateMachineManager;
+import cn.jasonone.sm.support.TransactionManagement;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DefaultStateMachineEngineTest {
+
+    private final StateMachineManager manager = new DefaultStateMachineManager();
+    private final DefaultStateRegistry registry = new DefaultStateRegistry(manager);
+    private final DefaultStateMachineEngine engine = new DefaultStateMachineEngine(registry, manager, new DefaultTransactionManagement());
+    private final String machineCode = "engine-" + UUID.randomUUID();
+
+    private void registerTransitions() {
+        registry.setInitialState(machineCode, ApprovalStatus.PENDING);
+        registry.registerTransition(machineCode, new Transition(ApprovalStatus.PENDING, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        registry.registerTransition(machineCode, new Transition(ApprovalStatus.PENDING, ApprovalEvent.REJECT, ApprovalStatus.REJECTED));
+    }
+
+    @Test
+    public void compareAndSetRejectsStaleExpectation() {
+        assertTrue(manager.updateState(machineCode, "1", null, ApprovalStatus.PENDING));
+        assertFalse(manager.updateState(machineCode, "1", null, ApprovalStatus.APPROVED));
+        assertFalse(manager.updateState(machineCode, "1", ApprovalStatus.REJECTED, ApprovalStatus.APPROVED));
+        assertTrue(manager.updateState(machineCode, "1", ApprovalStatus.PENDING, ApprovalStatus.APPROVED));
+        assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState(machineCode, "1"));
+    }
+
+    @Test
+    public void concurrentTriggersOnSameBusinessIdApplyOnce() throws Exception {
+        registerTransitions();
+        AtomicInteger guardPasses = new AtomicInteger();
+        registry.registerGuard(machineCode, ApprovalStatus.PENDING, null, (engine, context) -> {
+            guardPasses.incrementAndGet();
+            Thread.sleep(1);
+            return true;
+        });
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                ApprovalEvent event = i % 2 == 0 ? ApprovalEvent.APPROVE : ApprovalEvent.REJECT;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        engine.trigger(machineCode, "1", event);
+                        return true;
+                    } catch (RuntimeException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+            int succeeded = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get(10, TimeUnit.SECONDS)) {
+                    succeeded++;
+                }
+            }
+            assertEquals(1, succeeded);
+            assertEquals(1, guardPasses.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void conflictingUpdateFromAnotherNodeIsRetried() throws Exception {
+        registerTransitions();
+        registry.registerTransition(machineCode, new Transition(ApprovalStatus.REJECTED, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        AtomicInteger attempts = new AtomicInteger();
+        registry.registerGuard(machineCode, null, ApprovalStatus.APPROVED, (engine, context) -> {
+            if (attempts.incrementAndGet() == 1) {
+                // 模拟其他节点在本次守卫执行期间修改了状态
+                manager.updateState(machineCode, "1", null, ApprovalStatus.REJECTED);
+            }
+            return true;
+        });
+
+        engine.trigger(machineCode, "1", ApprovalEvent.APPROVE);
+
+        assertEquals(2, attempts.get());
+        assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState(machineCode, "1"));
+    }
+
+    @Test
+    public void conflictSurfacesAfterRetriesAreExhausted() {
+        registerTransitions();
+        engine.setConflictRetries(0);
+        registry.registerGuard(machineCode, null, ApprovalStatus.APPROVED, (engine, context) -> {
+            manager.updateState(machineCode, "1", ApprovalStatus.PENDING);
+            return true;
+        });
+
+        assertThrows(StateConflictException.class, () -> engine.trigger(machineCode, "1", ApprovalEvent.APPROVE));
+    }
+
+    @Test
+    public void blankKeysAreRejectedBeforeLocking() throws Exception {
+        registerTransitions();
+        assertThrows(IllegalArgumentException.class, () -> engine.trigger(machineCode, null, ApprovalEvent.APPROVE));
+        assertThrows(IllegalArgumentException.class, () -> engine.trigger(null, "1", ApprovalEvent.APPROVE));
+        TransitionResult result = engine.triggerAsync(machineCode, null, ApprovalEvent.APPROVE, null).get(5, TimeUnit.SECONDS);
+        assertFalse(result.isSuccess());
+        assertInstanceOf(IllegalArgumentException.class, result.error());
+    }
+
+    @Test
+    public void triggerAllReportsPerItemResults() {
+        registerTransitions();
+        registry.registerTransition(machineCode, new Transition(ApprovalStatus.REJECTED, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        registry.registerGuard(machineCode, null, null, (engine, context) -> !"denied".equals(context.payload()));
+        manager.updateState(machineCode, "approved", ApprovalStatus.APPROVED);
+
+        List<TransitionResult> results = engine.triggerAll(machineCode, List.of(
+                new TriggerRequest("1", ApprovalEvent.APPROVE),
+                new TriggerRequest("approved", ApprovalEvent.APPROVE),
+                new TriggerRequest("2", ApprovalEvent.REJECT, "denied"),
+                new TriggerRequest("3", ApprovalEvent.REJECT),
+                new TriggerRequest("3", ApprovalEvent.APPROVE)));
+
+        assertEquals(5, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertFalse(results.get(2).isSuccess());
+        assertTrue(results.get(3).isSuccess());
+        // 同一业务的后续请求基于前一个请求的结果
+        assertTrue(results.get(4).isSuccess());
+        assertEquals(ApprovalStatus.REJECTED, results.get(4).from());
+        assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState(machineCode, "1"));
+        assertNull(manager.getCurrentState(machineCode, "2"));
+        assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState(machineCode, "3"));
+    }
+
+    @Test
+    public void triggerAllRollsBackWritesOfFailedRequests() {
+        registerTransitions();
+        // 支持嵌套的事务: 写入记录在当前层, 提交时并入上一层, 回滚时丢弃
+        Deque<List<String>> levels = new ArrayDeque<>();
+        List<String> committed = new ArrayList<>();
+        TransactionManagement transactionManagement = new TransactionManagement() {
+            @Override
+            public void begin() {
+                levels.push(new ArrayList<>());
+            }
+
+            @Override
+            public void commit() {
+                List<String> writes = levels.pop();
+                (levels.isEmpty() ? committed : levels.peek()).addAll(writes);
+            }
+
+            @Override
+            public void rollback() {
+                levels.pop();
+            }
+        };
+        registry.registerAction(machineCode, null, null, (engine, context) -> {
+            levels.peek().add("before:" + context.businessId());
+            if ("before".equals(context.payload())) {
+                throw new IllegalStateException("前置动作失败");
+            }
+        }, StateMachineActionType.BEFORE);
+        registry.registerAction(machineCode, null, null, (engine, context) -> {
+            levels.peek().add("after:" + context.businessId());
+            if ("after".equals(context.payload())) {
+                throw new IllegalStateException("后置动作失败");
+            }
+        }, StateMachineActionType.AFTER);
+        DefaultStateMachineEngine engine = new DefaultStateMachineEngine(registry, manager, transactionManagement);
+
+        List<TransitionResult> results = engine.triggerAll(machineCode, List.of(
+                new TriggerRequest("1", ApprovalEvent.APPROVE),
+                new TriggerRequest("2", ApprovalEvent.APPROVE, "before"),
+                new TriggerRequest("3", ApprovalEvent.APPROVE, "after")));
+
+        // 前置动作失败的请求回滚其写入; 后置动作失败时状态已更新, 返回带有动作失败原因的成功结果
+        assertEquals(List.of(true, false, true), results.stream().map(TransitionResult::isSuccess).toList());
+        assertInstanceOf(IllegalStateException.class, results.get(1).error());
+        assertInstanceOf(IllegalStateException.class, results.get(2).actionError());
+        assertNull(results.get(0).actionError());
+        assertTrue(levels.isEmpty());
+        assertEquals(List.of("before:1", "before:3", "after:1"), committed);
+        assertNull(manager.getCurrentState(machineCode, "2"));
+        assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState(machineCode, "3"));
+    }
+
+    @Test
+    public void triggerAllLocksBusinessIdsInSortedOrder() {
+        registerTransitions();
+        List<String> trace = new CopyOnWriteArrayList<>();
+        engine.setLockManagement(new LockManagement() {
+            @Override
+            public void lock(String machineCode, String businessId) {
+                trace.add("lock:" + businessId);
+            }
+
+            @Override
+            public void unlock(String machineCode, String businessId) {
+                trace.add("unlock:" + businessId);
+            }
+        });
+        registry.registerGuard(machineCode, null, null, (engine, context) -> trace.add("guard:" + context.businessId()));
+
+        List<TransitionResult> results = engine.triggerAll(machineCode, List.of(
+                new TriggerRequest("b", ApprovalEvent.APPROVE),
+                new TriggerRequest("a", ApprovalEvent.APPROVE),
+                new TriggerRequest(null, ApprovalEvent.APPROVE),
+                new TriggerRequest("c", ApprovalEvent.APPROVE)));
+
+        assertInstanceOf(IllegalArgumentException.class, results.get(2).error());
+        assertEquals(List.of("lock:a", "lock:b", "lock:c", "guard:b", "guard:a", "guard:c", "unlock:c", "unlock:b", "unlock:a"), trace);
+    }
+
+    @Test
+    public void stripedLocksAreTakenOncePerStripe() {
+        StripedLockManagement lockManagement = new StripedLockManagement(2);
+        List<String> businessIds = List.of("a", "b", "c", "d", "e");
+        lockManagement.lockAll(machineCode, businessIds);
+        lockManagement.unlockAll(machineCode, businessIds);
+        // 全部释放后其他线程可以立即加锁
+        CompletableFuture.runAsync(() -> {
+            lockManagement.lockAll(machineCode, businessIds);
+            lockManagement.unlockAll(machineCode, businessIds);
+        }).join();
+    }
+
+    @Test
+    public void asyncTriggersApplyInSubmissionOrderPerBusiness() throws Exception {
+        registerTransitions();
+        registry.registerTransition(machineCode, new Transition(ApprovalStatus.APPROVED, ApprovalEvent.REJECT, ApprovalStatus.REJECTED));
+        registry.registerTransition(machineCode, new Transition(ApprovalStatus.REJECTED, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        List<Object> applied = new CopyOnWriteArrayList<>();
+        registry.registerAction(machineCode, null, null, (engine, context) -> applied.add(context.payload()), StateMachineActionType.AFTER);
+
+        List<CompletableFuture<TransitionResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(engine.triggerAsync(machineCode, "1", i % 2 == 0 ? ApprovalEvent.APPROVE : ApprovalEvent.REJECT, i));
+        }
+        for (CompletableFuture<TransitionResult> future : futures) {
+            assertTrue(future.get(10, TimeUnit.SECONDS).isSuccess());
+        }
+        assertEquals(50, applied.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, applied.get(i));
+        }
+        assertEquals(ApprovalStatus.REJECTED, manager.getCurrentState(machineCode, "1"));
+
+        TransitionResult unsupported = engine.triggerAsync(machineCode, "1", ApprovalEvent.REJECT).get(10, TimeUnit.SECONDS);
+        assertFalse(unsupported.isSuccess());
+    }
+
+    @Test
+    public void serialExecutorAcceptsNestedSubmissionsOnCallerThread() throws Exception {
+        KeyedSerialExecutor serialExecutor = new KeyedSerialExecutor();
+        Executor sameThread = Runnable::run;
+        List<String> trace = new ArrayList<>();
+        CompletableFuture<String> outer = serialExecutor.submit("k", () -> {
+            trace.add("outer");
+            serialExecutor.submit("k", () -> trace.add("inner"), sameThread);
+            return "done";
+        }, sameThread);
+
+        assertEquals("done", outer.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("outer", "inner"), trace);
+        assertEquals(0, serialExecutor.size());
+        CompletableFuture<Object> failed = serialExecutor.submit("k", () -> {
+            throw new IllegalStateException("失败");
+        }, sameThread);
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, failed::get).getCause());
+    }
+
+    @Test
+    public void metricsAreRecordedWithoutBusinessId() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        MicrometerStateMachineMetrics metrics = new MicrometerStateMachineMetrics(meterRegistry);
+        engine.setMetrics(metrics);
+        registry.setMetrics(metrics);
+        registerTransitions();
+        registry.registerGuard(machineCode, null, ApprovalStatus.REJECTED, new Guard() {
+            @Override
+            public boolean canTransition(StateMachineEngine engine, StateContext context) {
+                return false;
+            }
+
+            @Override
+            public String getName() {
+                return "rejectGuard#canTransition";
+            }
+        });
+
+        engine.trigger(machineCode, "1", ApprovalEvent.APPROVE);
+        assertThrows(RuntimeException.class, () -> engine.trigger(machineCode, "2", ApprovalEvent.REJECT));
+
+        assertEquals(1, meterRegistry.get("state.machine.trigger")
+                .tags("machine", machineCode, "event", ApprovalEvent.APPROVE.getCode(), "to", ApprovalStatus.APPROVED.getState(), "outcome", "success")
+                .timer().count());
+        assertEquals(1, meterRegistry.get("state.machine.trigger")
+                .tags("event", ApprovalEvent.REJECT.getCode(), "from", "none", "to", "none", "outcome", "failure").timer().count());
+        // 成功与失败的计时器分别注册, 不为每个转换规则预先注册失败计时器
+        assertNull(meterRegistry.find("state.machine.trigger").tags("event", ApprovalEvent.APPROVE.getCode(), "outcome", "failure").timer());
+        // 非枚举事件按事件编码归并
+        for (int i = 0; i < 3; i++) {
+            assertThrows(RuntimeException.class, () -> engine.trigger(machineCode, "3", () -> "UNKNOWN"));
+        }
+        assertEquals(3, meterRegistry.get("state.machine.trigger").tags("event", "UNKNOWN", "outcome", "failure").timer().count());
+        assertEquals(1.0, meterRegistry.get("state.machine.guard.rejected").tags("bean", "rejectGuard", "method", "canTransition").counter().count());
+        assertEquals(1, meterRegistry.get("state.machine.handler").tags("type", "guard", "bean", "rejectGuard").timer().count());
+        assertEquals(5, meterRegistry.get("state.machine.state.read").timer().count());
+        assertEquals(1, meterRegistry.get("state.machine.state.write").timer().count());
+        meterRegistry.getMeters().forEach(meter -> assertTrue(meter.getId().getTags().stream()
+                .noneMatch(tag -> tag.getValue().equals("1") || tag.getValue().equals("2"))));
+    }
+
+    @Test
+    public void auditLogSamplesSuccessesAndKeepsFailures() throws Exception {
+        registerTransitions();
+        List<TransitionRecord> records = new CopyOnWriteArrayList<>();
+        try (TransitionAuditLog auditLog = new TransitionAuditLog(records::add, 16, 0)) {
+            engine.setAuditLog(auditLog);
+            engine.trigger(machineCode, "1", ApprovalEvent.APPROVE);
+            assertThrows(RuntimeException.class, () -> engine.trigger(machineCode, "1", ApprovalEvent.APPROVE));
+        }
+        // 关闭时写完缓冲区中剩余的记录; 采样率为0时只记录失败的转换
+        assertEquals(1, records.size());
+        TransitionRecord record = records.get(0);
+        assertFalse(record.isSuccess());
+        assertEquals("1", record.businessId());
+        assertEquals(ApprovalEvent.APPROVE, record.event());
+    }
+}
@@ -0,0 +1,116 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.enums.TerminalStatePolicy;
+import cn.jasonone.sm.support.State;
+import cn.jasonone.sm.support.StateStore;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DefaultStateMachineManagerTest {
+
+    private final DefaultStateMachineManager manager = new DefaultStateMachineManager();
+
+    @Test
+    public void terminalStatesExpireAfterTtl() throws Exception {
+        manager.setTerminalTtl(Duration.ofMillis(10));
+        // 默认保留策略下终态不过期, 缓存参数在首次读写时生效
+        manager.saveTransition("retained", new Transition(ApprovalStatus.PENDING, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        manager.updateState("retained", "1", ApprovalStatus.APPROVED);
+        manager.setTerminalStatePolicy(TerminalStatePolicy.EXPIRE);
+        manager.saveTransition("order", new Transition(ApprovalStatus.PENDING, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        assertTrue(manager.isTerminalState("order", ApprovalStatus.APPROVED));
+        assertFalse(manager.isTerminalState("order", ApprovalStatus.PENDING));
+
+        manager.updateState("order", "pending", ApprovalStatus.PENDING);
+        manager.updateState("order", "approved", ApprovalStatus.APPROVED);
+        Thread.sleep(50);
+        manager.cleanUp();
+
+        assertEquals(ApprovalStatus.PENDING, manager.getCurrentState("order", "pending"));
+        assertNull(manager.getCurrentState("order", "approved"));
+        assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState("retained", "1"));
+    }
+
+    @Test
+    public void evictedStatesAreReloadedFromStore() {
+        Map<String, State> store = new ConcurrentHashMap<>();
+        manager.setMaximumSize(1);
+        manager.setStateStore(new StateStore() {
+            @Override
+            public State load(String machineCode, String businessId) {
+                return store.get(machineCode + ":" + businessId);
+            }
+
+            @Override
+            public void save(String machineCode, String businessId, State state) {
+                store.put(machineCode + ":" + businessId, state);
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(manager.updateState("order", String.valueOf(i), null, ApprovalStatus.PENDING));
+        }
+        manager.cleanUp();
+        assertEquals(10, store.size());
+        assertTrue(manager.getEstimatedSize() <= 1);
+        assertTrue(manager.getCacheStats().evictionCount() >= 9);
+
+        // 已淘汰的状态从后备存储加载后参与比较
+        assertFalse(manager.updateState("order", "0", null, ApprovalStatus.APPROVED));
+        assertTrue(manager.updateState("order", "0", ApprovalStatus.PENDING, ApprovalStatus.APPROVED));
+        assertEquals(ApprovalStatus.APPROVED, store.get("order:0"));
+    }
+
+    @Test
+    public void failedStoreWriteRestoresPreviousState() {
+        AtomicBoolean failing = new AtomicBoolean();
+        manager.setStateStore(new StateStore() {
+            @Override
+            public State load(String machineCode, String businessId) {
+                return null;
+            }
+
+            @Override
+            public void save(String machineCode, String businessId, State state) {
+                if (failing.get()) {
+                    throw new IllegalStateException("写入失败");
+                }
+            }
+        });
+        manager.updateState("order", "1", ApprovalStatus.PENDING);
+
+        failing.set(true);
+        assertThrows(IllegalStateException.class, () -> manager.updateState("order", "1", ApprovalStatus.APPROVED));
+        assertEquals(ApprovalStatus.PENDING, manager.getCurrentState("order", "1"));
+        assertThrows(IllegalStateException.class, () -> manager.updateState("order", "2", ApprovalStatus.APPROVED));
+        assertNull(manager.getCurrentState("order", "2"));
+    }
+
+    @Test
+    public void declaredTerminalStatesAreArchived() {
+        List<String> archived = new CopyOnWriteArrayList<>();
+        manager.setTerminalStatePolicy(TerminalStatePolicy.ARCHIVE);
+        manager.setStateArchiver((machineCode, businessId, state) -> archived.add(businessId + ":" + state.getState()));
+        manager.saveTransition("order", new Transition(ApprovalStatus.PENDING, ApprovalEvent.REJECT, ApprovalStatus.REJECTED));
+        manager.saveTransition("order", new Transition(ApprovalStatus.REJECTED, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        assertFalse(manager.isTerminalState("order", ApprovalStatus.REJECTED));
+        // 存在后续转换规则的状态也可以显式声明为终态
+        manager.saveTerminalState("order", ApprovalStatus.REJECTED);
+        assertTrue(manager.isTerminalState("order", ApprovalStatus.REJECTED));
+
+        assertTrue(manager.updateState("order", "1", null, ApprovalStatus.PENDING));
+        assertTrue(manager.updateState("order", "1", ApprovalStatus.PENDING, ApprovalStatus.REJECTED));
+        assertFalse(manager.updateState("order", "1", ApprovalStatus.PENDING, ApprovalStatus.REJECTED));
+        assertEquals(List.of("1:" + ApprovalStatus.REJECTED.getState()), archived);
+    }
+}
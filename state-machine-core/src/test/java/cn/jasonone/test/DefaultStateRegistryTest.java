@@ -0,0 +1,216 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.CompiledStateMachine;
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.enums.StateMachineActionType;
+import cn.jasonone.sm.support.Action;
+import cn.jasonone.sm.support.Guard;
+import cn.jasonone.sm.support.State;
+import cn.jasonone.sm.support.StateMachineEngine;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DefaultStateRegistryTest {
+
+    private final DefaultStateRegistry registry = new DefaultStateRegistry(new DefaultStateMachineManager());
+
+    private static StateContext context(String machineCode) {
+        return new StateContext(machineCode, "1", ApprovalStatus.PENDING, ApprovalStatus.APPROVED, ApprovalEvent.APPROVE, null);
+    }
+
+    private static Guard guard(List<String> trace, String name, int priority, boolean result) {
+        return new Guard() {
+            @Override
+            public boolean canTransition(StateMachineEngine engine, StateContext context) {
+                trace.add(name);
+                return result;
+            }
+
+            @Override
+            public int getPriority() {
+                return priority;
+            }
+        };
+    }
+
+    private static Action action(List<String> trace, String name, int priority) {
+        return new Action() {
+            @Override
+            public void execute(StateMachineEngine engine, StateContext ctx) {
+                trace.add(name);
+            }
+
+            @Override
+            public int getPriority() {
+                return priority;
+            }
+        };
+    }
+
+    @Test
+    public void guardsRunByPriorityAndShortCircuit() throws Exception {
+        List<String> trace = new ArrayList<>();
+        registry.registerGuard("order", null, null, guard(trace, "expensive", 10, true));
+        registry.registerGuard("order", ApprovalStatus.PENDING, ApprovalStatus.APPROVED, guard(trace, "cheap", -1, false));
+        registry.registerGuard("*", null, null, guard(trace, "default", 0, true));
+
+        assertFalse(registry.executeGuard(null, "order", ApprovalStatus.PENDING, ApprovalStatus.APPROVED, context("order")));
+        assertEquals(List.of("cheap"), trace);
+    }
+
+    @Test
+    public void actionsResolveWildcardsInPriorityOrder() throws Exception {
+        List<String> trace = new ArrayList<>();
+        registry.registerAction("*", null, null, action(trace, "all", 5), StateMachineActionType.AFTER);
+        registry.registerAction("order", ApprovalStatus.PENDING, null, action(trace, "fromPending", 0), StateMachineActionType.AFTER);
+        registry.registerAction("order", ApprovalStatus.APPROVED, null, action(trace, "fromApproved", 0), StateMachineActionType.AFTER);
+        registry.registerAction("other", null, null, action(trace, "otherMachine", 0), StateMachineActionType.AFTER);
+        registry.registerAction("order", null, ApprovalStatus.APPROVED, action(trace, "toApproved", 0), StateMachineActionType.AFTER);
+
+        registry.executeAfterAction(null, "order", ApprovalStatus.PENDING, ApprovalStatus.APPROVED, context("order"));
+        assertEquals(List.of("fromPending", "toApproved", "all"), trace);
+
+        // 注册新的动作后索引应重建
+        trace.clear();
+        registry.registerAction("order", null, null, action(trace, "first", -1), StateMachineActionType.AFTER);
+        registry.executeAfterAction(null, "order", ApprovalStatus.PENDING, ApprovalStatus.APPROVED, context("order"));
+        assertEquals(List.of("first", "fromPending", "toApproved", "all"), trace);
+    }
+
+    @Test
+    public void compiledMachineFollowsLaterRegistrations() throws Exception {
+        String machineCode = "compiled-" + UUID.randomUUID();
+        Transition approve = new Transition(ApprovalStatus.PENDING, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED);
+        registry.registerTransition(machineCode, approve);
+
+        CompiledStateMachine machine = registry.getCompiledMachine(machineCode);
+        assertEquals(2, machine.stateCount());
+        assertEquals(1, machine.eventCount());
+        assertSame(approve, registry.getTransition(machineCode, ApprovalStatus.PENDING, ApprovalEvent.APPROVE));
+        assertNull(registry.getTransition(machineCode, ApprovalStatus.APPROVED, ApprovalEvent.APPROVE));
+        assertNull(registry.getTransition(machineCode, ApprovalStatus.PENDING, ApprovalEvent.REJECT));
+
+        // 注册新的转换规则后重新编译
+        Transition reject = new Transition(ApprovalStatus.PENDING, ApprovalEvent.REJECT, ApprovalStatus.REJECTED);
+        registry.registerTransition(machineCode, reject);
+        assertSame(reject, registry.getTransition(machineCode, ApprovalStatus.PENDING, ApprovalEvent.REJECT));
+        assertNotSame(machine, registry.getCompiledMachine(machineCode));
+
+        // 编译后的处理器表同样随注册更新
+        List<String> trace = new ArrayList<>();
+        assertTrue(registry.executeGuard(null, machineCode, ApprovalStatus.PENDING, ApprovalStatus.APPROVED, context(machineCode)));
+        registry.registerGuard(machineCode, ApprovalStatus.PENDING, null, guard(trace, "pending", 0, false));
+        assertFalse(registry.executeGuard(null, machineCode, ApprovalStatus.PENDING, ApprovalStatus.APPROVED, context(machineCode)));
+        assertEquals(List.of("pending"), trace);
+    }
+
+    @Test
+    public void compiledHitIsRevalidatedAgainstTransitionVersion() {
+        String machineCode = "versioned-" + UUID.randomUUID();
+        Transition approve = new Transition(ApprovalStatus.PENDING, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED);
+        AtomicReference<Set<Transition>> transitions = new AtomicReference<>(Set.of(approve));
+        AtomicLong version = new AtomicLong(1);
+        DefaultStateRegistry remote = new DefaultStateRegistry(new DefaultStateMachineManager() {
+            @Override
+            public Set<Transition> getTransitions(String machineCode) {
+                return transitions.get();
+            }
+
+            @Override
+            public long getTransitionVersion(String machineCode) {
+                return version.get();
+            }
+        });
+        assertSame(approve, remote.getTransition(machineCode, ApprovalStatus.PENDING, ApprovalEvent.APPROVE));
+
+        // 其他节点修改了同一条转换规则, 命中的旧规则也需要失效
+        Transition reroute = new Transition(ApprovalStatus.PENDING, ApprovalEvent.APPROVE, ApprovalStatus.REJECTED);
+        transitions.set(Set.of(reroute));
+        version.incrementAndGet();
+        assertSame(reroute, remote.getTransition(machineCode, ApprovalStatus.PENDING, ApprovalEvent.APPROVE));
+    }
+
+    @Test
+    public void terminalDeclarationsSurviveManagersWithoutStorage() {
+        String machineCode = "terminal-" + UUID.randomUUID();
+        DefaultStateRegistry plain = new DefaultStateRegistry(new DefaultStateMachineManager() {
+            @Override
+            public void saveTerminalState(String machineCode, State state) {
+                // 与接口默认实现一致, 不保存声明
+            }
+        });
+        plain.registerTransition(machineCode, new Transition(ApprovalStatus.PENDING, ApprovalEvent.REJECT, ApprovalStatus.REJECTED));
+        plain.registerTransition(machineCode, new Transition(ApprovalStatus.REJECTED, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        assertFalse(plain.isTerminalState(machineCode, ApprovalStatus.REJECTED));
+        assertTrue(plain.isTerminalState(machineCode, ApprovalStatus.APPROVED));
+
+        plain.registerTerminalState(machineCode, ApprovalStatus.REJECTED);
+        assertTrue(plain.isTerminalState(machineCode, ApprovalStatus.REJECTED));
+        assertFalse(plain.isTerminalState(machineCode, ApprovalStatus.PENDING));
+    }
+
+    /**
+     * 并行守卫: 先等待组内所有守卫都已开始, 未在超时前全部开始时视为未通过; block 为true时随后一直等待直到被中断
+     */
+    private static Guard parallelGuard(CountDownLatch started, boolean block, boolean result, CountDownLatch interrupted) {
+        return new Guard() {
+            @Override
+            public boolean canTransition(StateMachineEngine engine, StateContext context) {
+                try {
+                    started.countDown();
+                    if (!started.await(5, TimeUnit.SECONDS)) {
+                        return false;
+                    }
+                    if (block) {
+                        new CountDownLatch(1).await();
+                    }
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    return false;
+                }
+                return result;
+            }
+
+            @Override
+            public boolean isParallel() {
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void parallelGuardsRunConcurrentlyAndCancelOnRejection() throws Exception {
+        // 每个守卫都等待其余守卫开始后才结束, 只有并发执行时才能全部通过
+        String machineCode = "parallel-" + UUID.randomUUID();
+        CountDownLatch started = new CountDownLatch(3);
+        CountDownLatch interrupted = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            registry.registerGuard(machineCode, null, null, parallelGuard(started, false, true, interrupted));
+        }
+        assertTrue(registry.executeGuard(null, machineCode, ApprovalStatus.PENDING, ApprovalStatus.APPROVED, context(machineCode)));
+        assertEquals(3, interrupted.getCount());
+
+        // 拒绝的守卫使组内其余仍在执行的守卫被中断
+        String rejecting = "parallel-" + UUID.randomUUID();
+        CountDownLatch allStarted = new CountDownLatch(4);
+        for (int i = 0; i < 3; i++) {
+            registry.registerGuard(rejecting, null, null, parallelGuard(allStarted, true, true, interrupted));
+        }
+        registry.registerGuard(rejecting, null, null, parallelGuard(allStarted, false, false, interrupted));
+        assertFalse(registry.executeGuard(null, rejecting, ApprovalStatus.PENDING, ApprovalStatus.APPROVED, context(rejecting)));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+}
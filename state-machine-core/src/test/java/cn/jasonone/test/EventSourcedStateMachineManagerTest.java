@@ -0,0 +1,92 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.DefaultReactiveStateMachineEngine;
+import cn.jasonone.sm.core.DefaultStateMachineEngine;
+import cn.jasonone.sm.core.DefaultTransactionManagement;
+import cn.jasonone.sm.core.ReactiveStateMachineManagerAdapter;
+import cn.jasonone.sm.core.eventsource.EventSourcedStateMachineManager;
+import cn.jasonone.sm.core.eventsource.StateEvent;
+import cn.jasonone.sm.domain.TriggerRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static cn.jasonone.test.ApprovalMachine.MACHINE_CODE;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventSourcedStateMachineManagerTest {
+
+    @TempDir
+    Path directory;
+
+    private static DefaultStateMachineEngine createEngine(EventSourcedStateMachineManager manager) {
+        return new DefaultStateMachineEngine(ApprovalMachine.createRegistry(manager), manager, new DefaultTransactionManagement());
+    }
+
+    @Test
+    public void historyAndStateAtTime() throws Exception {
+        try (EventSourcedStateMachineManager manager = new EventSourcedStateMachineManager(directory, 1024)) {
+            DefaultStateMachineEngine engine = createEngine(manager);
+            engine.trigger(MACHINE_CODE, "1", ApprovalEvent.APPROVE);
+            Thread.sleep(5);
+            Instant approved = Instant.now();
+            Thread.sleep(5);
+            engine.trigger(MACHINE_CODE, "1", ApprovalEvent.CANCEL);
+
+            List<StateEvent> history = manager.getHistory(MACHINE_CODE, "1");
+            assertEquals(2, history.size());
+            assertEquals(ApprovalEvent.APPROVE.getCode(), history.get(0).event());
+            assertEquals("", history.get(0).from());
+            assertEquals(ApprovalStatus.APPROVED.getState(), history.get(0).to());
+            assertEquals(ApprovalEvent.CANCEL.getCode(), history.get(1).event());
+            assertEquals(ApprovalStatus.APPROVED.getState(), history.get(1).from());
+
+            assertEquals(ApprovalStatus.APPROVED, manager.getStateAt(MACHINE_CODE, "1", approved));
+            assertEquals(ApprovalStatus.CANCELED, manager.getStateAt(MACHINE_CODE, "1", Instant.now()));
+            assertNull(manager.getStateAt(MACHINE_CODE, "1", Instant.ofEpochMilli(history.get(0).timestamp() - 1)));
+            assertNull(manager.getStateAt(MACHINE_CODE, "2", Instant.now()));
+        }
+    }
+
+    @Test
+    public void reactiveEngineRecordsEvent() throws Exception {
+        try (EventSourcedStateMachineManager manager = new EventSourcedStateMachineManager(directory, 1024)) {
+            DefaultReactiveStateMachineEngine engine = new DefaultReactiveStateMachineEngine(
+                    ApprovalMachine.createRegistry(manager), new ReactiveStateMachineManagerAdapter(manager));
+            assertTrue(engine.trigger(MACHINE_CODE, "1", ApprovalEvent.APPROVE).block().isSuccess());
+
+            List<StateEvent> history = manager.getHistory(MACHINE_CODE, "1");
+            assertEquals(1, history.size());
+            assertEquals(ApprovalEvent.APPROVE.getCode(), history.get(0).event());
+            assertEquals(ApprovalStatus.APPROVED.getState(), history.get(0).to());
+        }
+    }
+
+    @Test
+    public void reopenRestoresStateFromSnapshotAndEvents() throws Exception {
+        try (EventSourcedStateMachineManager manager = new EventSourcedStateMachineManager(directory, 1024)) {
+            DefaultStateMachineEngine engine = createEngine(manager);
+            for (int i = 0; i < 50; i++) {
+                engine.trigger(MACHINE_CODE, String.valueOf(i), i % 2 == 0 ? ApprovalEvent.APPROVE : ApprovalEvent.REJECT);
+            }
+            manager.snapshot();
+            // 快照之后的事件只存在于事件存储中, 批量触发同样记录事件
+            engine.triggerAll(MACHINE_CODE, List.of(
+                    new TriggerRequest("0", ApprovalEvent.CANCEL, null),
+                    new TriggerRequest("new", ApprovalEvent.APPROVE, null)));
+        }
+        try (EventSourcedStateMachineManager manager = new EventSourcedStateMachineManager(directory, 1024)) {
+            createEngine(manager);
+            assertEquals(ApprovalStatus.CANCELED, manager.getCurrentState(MACHINE_CODE, "0"));
+            assertEquals(ApprovalStatus.REJECTED, manager.getCurrentState(MACHINE_CODE, "1"));
+            assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState(MACHINE_CODE, "48"));
+            assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState(MACHINE_CODE, "new"));
+            List<StateEvent> history = manager.getHistory(MACHINE_CODE, "0");
+            assertEquals(List.of(ApprovalEvent.APPROVE.getCode(), ApprovalEvent.CANCEL.getCode()),
+                    history.stream().map(StateEvent::event).toList());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.DefaultStateMachineEngine;
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.core.DefaultTransactionManagement;
+import cn.jasonone.sm.core.outbox.FileActionOutbox;
+import cn.jasonone.sm.domain.StateContext;
+import cn.jasonone.sm.enums.StateMachineActionType;
+import cn.jasonone.sm.support.Action;
+import cn.jasonone.sm.support.StateMachineEngine;
+import cn.jasonone.sm.support.TransactionManagement;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cn.jasonone.test.ApprovalMachine.MACHINE_CODE;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileActionOutboxTest {
+
+    @TempDir
+    Path directory;
+
+    private static DefaultStateRegistry createRegistry(FileActionOutbox outbox) {
+        DefaultStateRegistry registry = ApprovalMachine.createRegistry(new DefaultStateMachineManager());
+        registry.setActionOutbox(outbox);
+        return registry;
+    }
+
+    private static Action deferred(String name, Action action) {
+        return new Action() {
+            @Override
+            public void execute(StateMachineEngine engine, StateContext ctx) throws Exception {
+                action.execute(engine, ctx);
+            }
+
+            @Override
+            public boolean isDeferred() {
+                return true;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+        };
+    }
+
+    @Test
+    public void deferredActionRunsAfterCommitAndIsDiscardedOnRollback() throws Exception {
+        AtomicBoolean committed = new AtomicBoolean();
+        AtomicBoolean failCommit = new AtomicBoolean();
+        TransactionManagement transactionManagement = new TransactionManagement() {
+            @Override
+            public void begin() {
+                committed.set(false);
+            }
+
+            @Override
+            public void commit() {
+                if (failCommit.get()) {
+                    throw new IllegalStateException("提交失败");
+                }
+                committed.set(true);
+            }
+
+            @Override
+            public void rollback() {
+            }
+        };
+        try (FileActionOutbox outbox = new FileActionOutbox(directory, 4096, false)) {
+            DefaultStateRegistry registry = createRegistry(outbox);
+            List<String> trace = new CopyOnWriteArrayList<>();
+            CountDownLatch delivered = new CountDownLatch(1);
+            registry.registerAction(MACHINE_CODE, null, null, deferred("notify", (engine, ctx) -> {
+                trace.add(ctx.businessId() + ":" + committed.get() + ":" + ctx.payload());
+                delivered.countDown();
+            }), StateMachineActionType.AFTER);
+            registry.registerAction(MACHINE_CODE, null, null, (engine, ctx) -> trace.add("inline"), StateMachineActionType.AFTER);
+            assertThrows(IllegalArgumentException.class, () -> registry.registerAction(MACHINE_CODE, null, null, deferred("before", (engine, ctx) -> {
+            }), StateMachineActionType.BEFORE));
+            DefaultStateMachineEngine engine = new DefaultStateMachineEngine(registry, registry.getManager(), outbox.transactionManagement(transactionManagement));
+
+            engine.trigger(MACHINE_CODE, "1", ApprovalEvent.APPROVE, "payload");
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of("inline", "1:true:payload"), trace);
+
+            // 提交失败时回滚, 延迟动作被丢弃
+            failCommit.set(true);
+            assertThrows(RuntimeException.class, () -> engine.trigger(MACHINE_CODE, "2", ApprovalEvent.APPROVE));
+            Thread.sleep(100);
+            assertEquals(List.of("inline", "1:true:payload", "inline"), trace);
+            assertEquals(0, outbox.getPendingCount());
+            assertEquals(1, outbox.getCompletedCount());
+        }
+    }
+
+    @Test
+    public void failedActionIsRetriedAndRecoveredAfterRestart() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        try (FileActionOutbox outbox = new FileActionOutbox(directory, 1024, true)) {
+            outbox.setRetryInterval(Duration.ofMillis(10));
+            outbox.setMaxAttempts(3);
+            DefaultStateRegistry registry = createRegistry(outbox);
+            registry.registerAction(MACHINE_CODE, null, null, deferred("webhook", (engine, ctx) -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("回调失败");
+            }), StateMachineActionType.AFTER);
+            DefaultStateMachineEngine engine = new DefaultStateMachineEngine(registry, registry.getManager(), outbox.transactionManagement(new DefaultTransactionManagement()));
+            for (int i = 0; i < 20; i++) {
+                engine.trigger(MACHINE_CODE, String.valueOf(i), ApprovalEvent.APPROVE);
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (outbox.getExhaustedCount() < 20 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(20, outbox.getExhaustedCount());
+            assertEquals(40, outbox.getRetriedCount());
+            assertEquals(60, attempts.get());
+            assertEquals(20, outbox.getPendingCount());
+        }
+
+        // 重启后按动作名称恢复执行, payload 不持久化
+        List<String> recovered = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(20);
+        try (FileActionOutbox outbox = new FileActionOutbox(directory, 1024, true)) {
+            assertEquals(20, outbox.getPendingCount());
+            DefaultStateRegistry registry = createRegistry(outbox);
+            registry.registerAction(MACHINE_CODE, null, null, deferred("webhook", (engine, ctx) -> {
+                recovered.add(ctx.businessId() + ":" + ctx.from().getState() + ":" + ctx.payload());
+                delivered.countDown();
+            }), StateMachineActionType.AFTER);
+            DefaultStateMachineEngine engine = new DefaultStateMachineEngine(registry, registry.getManager(), outbox.transactionManagement(new DefaultTransactionManagement()));
+            assertEquals(20, outbox.recover(engine));
+            assertEquals(0, outbox.recover(engine));
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            assertTrue(recovered.contains("7:" + ApprovalStatus.PENDING.getState() + ":null"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (outbox.getPendingCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, outbox.getPendingCount());
+        }
+        try (FileActionOutbox outbox = new FileActionOutbox(directory, 1024, true)) {
+            assertEquals(0, outbox.getPendingCount());
+        }
+    }
+
+    @Test
+    public void uncommittedActionsAreDiscardedAfterRestart() throws Exception {
+        try (FileActionOutbox outbox = new FileActionOutbox(directory, 1024, true)) {
+            DefaultStateRegistry registry = createRegistry(outbox);
+            Action[] actions = {deferred("webhook", (engine, ctx) -> {
+            })};
+            // 不在事务中写入时立即提交; 事务中写入后进程在提交前退出
+            CountDownLatch blocked = new CountDownLatch(1);
+            outbox.setExecutor(command -> blocked.countDown());
+            DefaultStateMachineEngine engine = new DefaultStateMachineEngine(registry, registry.getManager(), new DefaultTransactionManagement());
+            outbox.stage(engine, actions, new StateContext(MACHINE_CODE, "committed", ApprovalStatus.PENDING, ApprovalStatus.APPROVED, ApprovalEvent.APPROVE, null));
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            TransactionManagement transactionManagement = outbox.transactionManagement(new DefaultTransactionManagement());
+            transactionManagement.begin();
+            for (int i = 0; i < 20; i++) {
+                outbox.stage(engine, actions, new StateContext(MACHINE_CODE, "staged-" + i, ApprovalStatus.PENDING, ApprovalStatus.APPROVED, ApprovalEvent.APPROVE, null));
+            }
+            assertEquals(21, outbox.getPendingCount());
+        }
+
+        List<String> recovered = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(1);
+        try (FileActionOutbox outbox = new FileActionOutbox(directory, 1024, true)) {
+            assertEquals(1, outbox.getPendingCount());
+            DefaultStateRegistry registry = createRegistry(outbox);
+            registry.registerAction(MACHINE_CODE, null, null, deferred("webhook", (engine, ctx) -> {
+                recovered.add(ctx.businessId());
+                delivered.countDown();
+            }), StateMachineActionType.AFTER);
+            DefaultStateMachineEngine engine = new DefaultStateMachineEngine(registry, registry.getManager(), new DefaultTransactionManagement());
+            assertEquals(1, outbox.recover(engine));
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of("committed"), recovered);
+        }
+    }
+}
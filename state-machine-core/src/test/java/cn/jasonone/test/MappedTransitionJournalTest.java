@@ -0,0 +1,68 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.journal.JournalEntry;
+import cn.jasonone.sm.core.journal.MappedTransitionJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedTransitionJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void appendRollsSegmentsAndReplaysInOrder() throws Exception {
+        try (MappedTransitionJournal journal = new MappedTransitionJournal(directory, 1024, Duration.ofMillis(5), true)) {
+            for (int i = 1; i <= 100; i++) {
+                journal.append("order", String.valueOf(i), i == 1 ? null : ApprovalStatus.PENDING, ApprovalStatus.APPROVED, ApprovalEvent.APPROVE);
+            }
+            assertEquals(100, journal.getSequence());
+            assertEquals(100, journal.getCommittedSequence());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.count() > 1, "分段文件未滚动");
+        }
+
+        List<JournalEntry> entries = new ArrayList<>();
+        assertEquals(100, MappedTransitionJournal.replay(directory, 0, entries::add));
+        assertEquals(100, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            JournalEntry entry = entries.get(i);
+            assertEquals(i + 1, entry.sequence());
+            assertEquals(String.valueOf(i + 1), entry.businessId());
+            assertEquals(ApprovalEvent.APPROVE.getCode(), entry.event());
+            assertEquals(i == 0 ? "" : ApprovalStatus.PENDING.getState(), entry.from());
+            assertEquals(ApprovalStatus.APPROVED.getState(), entry.to());
+        }
+
+        entries.clear();
+        assertEquals(100, MappedTransitionJournal.replay(directory, 90, entries::add));
+        assertEquals(10, entries.size());
+        assertEquals(91, entries.get(0).sequence());
+    }
+
+    @Test
+    public void reopenContinuesSequence() throws Exception {
+        try (MappedTransitionJournal journal = new MappedTransitionJournal(directory, 4096, Duration.ofMillis(5), false)) {
+            journal.append("order", "1", ApprovalStatus.PENDING, ApprovalStatus.APPROVED, ApprovalEvent.APPROVE);
+            journal.append("order", "2", ApprovalStatus.PENDING, ApprovalStatus.REJECTED, ApprovalEvent.REJECT);
+        }
+        try (MappedTransitionJournal journal = new MappedTransitionJournal(directory, 4096, Duration.ofMillis(5), false)) {
+            assertEquals(2, journal.getSequence());
+            journal.append("order", "3", ApprovalStatus.PENDING, ApprovalStatus.APPROVED, ApprovalEvent.APPROVE);
+            assertEquals(3, journal.getSequence());
+        }
+        List<String> businessIds = new ArrayList<>();
+        MappedTransitionJournal.replay(directory, 0, entry -> businessIds.add(entry.businessId()));
+        assertEquals(List.of("1", "2", "3"), businessIds);
+    }
+}
@@ -0,0 +1,44 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.config.AutoStateMachineConfiguration;
+import cn.jasonone.sm.config.ReactiveStateMachineConfiguration;
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.support.ReactiveStateMachineEngine;
+import cn.jasonone.sm.support.ReactiveStateMachineManager;
+import cn.jasonone.sm.support.StateRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ReactiveStateMachineConfigurationTest {
+
+    private final ApplicationContextRunner runner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(AutoStateMachineConfiguration.class, ReactiveStateMachineConfiguration.class));
+
+    @Test
+    public void reactiveEngineIsOptIn() {
+        runner.run(context -> {
+            assertThat(context).hasSingleBean(StateRegistry.class);
+            assertThat(context).doesNotHaveBean(ReactiveStateMachineEngine.class);
+            assertThat(context).doesNotHaveBean(ReactiveStateMachineManager.class);
+        });
+        runner.withPropertyValues("state-machine.reactive.enabled=true").run(context -> {
+            assertThat(context).hasSingleBean(ReactiveStateMachineEngine.class);
+            assertThat(context).hasSingleBean(ReactiveStateMachineManager.class);
+        });
+    }
+
+    @Test
+    public void reactiveEngineBacksOffForCustomRegistry() {
+        runner.withPropertyValues("state-machine.reactive.enabled=true")
+                .withBean(StateRegistry.class, () -> mock(StateRegistry.class))
+                .withBean(DefaultStateMachineManager.class, DefaultStateMachineManager::new)
+                .run(context -> {
+                    assertThat(context).hasNotFailed();
+                    assertThat(context).doesNotHaveBean(ReactiveStateMachineEngine.class);
+                });
+    }
+}
@@ -0,0 +1,177 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.config.AutoStateMachineConfiguration;
+import cn.jasonone.sm.config.StateRecoveryLifecycle;
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.DefaultStateRegistry;
+import cn.jasonone.sm.core.DefaultTransactionManagement;
+import cn.jasonone.sm.core.ShardStats;
+import cn.jasonone.sm.core.ShardedStateMachineEngine;
+import cn.jasonone.sm.core.TransitionAuditLog;
+import cn.jasonone.sm.domain.TransitionRecord;
+import cn.jasonone.sm.domain.TransitionResult;
+import cn.jasonone.sm.domain.TriggerRequest;
+import cn.jasonone.sm.enums.StateMachineActionType;
+import cn.jasonone.sm.exceptions.StateConflictException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static cn.jasonone.test.ApprovalMachine.MACHINE_CODE;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedStateMachineEngineTest {
+
+    private static DefaultStateRegistry createRegistry() {
+        return ApprovalMachine.createRegistry(new DefaultStateMachineManager());
+    }
+
+    @Test
+    public void eventsOfOneBusinessRunInSubmissionOrder() throws Exception {
+        try (ShardedStateMachineEngine engine = new ShardedStateMachineEngine(createRegistry(), new DefaultTransactionManagement(), 4, 1024)) {
+            List<TransitionResult> results = engine.triggerAll(MACHINE_CODE, List.of(
+                    new TriggerRequest("1", ApprovalEvent.APPROVE, null),
+                    new TriggerRequest("1", ApprovalEvent.CANCEL, null),
+                    new TriggerRequest("2", ApprovalEvent.CANCEL, null),
+                    new TriggerRequest("3", ApprovalEvent.REJECT, null)));
+            assertTrue(results.get(0).isSuccess());
+            assertTrue(results.get(1).isSuccess());
+            assertEquals(ApprovalStatus.CANCELED, results.get(1).to());
+            assertFalse(results.get(2).isSuccess());
+            assertTrue(results.get(3).isSuccess());
+
+            assertEquals(ApprovalStatus.CANCELED, engine.getCurrentState(MACHINE_CODE, "1").get());
+            assertNull(engine.getCurrentState(MACHINE_CODE, "2").get());
+            assertThrows(IllegalArgumentException.class, () -> engine.trigger(MACHINE_CODE, "3", ApprovalEvent.APPROVE));
+
+            List<CompletableFuture<TransitionResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                futures.add(engine.triggerAsync(MACHINE_CODE, "bulk-" + i, ApprovalEvent.APPROVE));
+            }
+            for (CompletableFuture<TransitionResult> future : futures) {
+                assertTrue(future.get().isSuccess());
+            }
+            long completed = engine.getShardStats().stream().mapToLong(ShardStats::completed).sum();
+            assertEquals(10_000 + 4 + 1, completed);
+        }
+    }
+
+    @Test
+    public void reentrantTriggerFromGuardIsNotOverwritten() throws Exception {
+        DefaultStateRegistry registry = createRegistry();
+        try (ShardedStateMachineEngine engine = new ShardedStateMachineEngine(registry, new DefaultTransactionManagement(), 2, 16)) {
+            registry.registerGuard(MACHINE_CODE, ApprovalStatus.PENDING, ApprovalStatus.APPROVED, (e, context) -> {
+                // 在分片线程内直接执行, 先于外层转换修改状态
+                e.trigger(MACHINE_CODE, context.businessId(), ApprovalEvent.REJECT);
+                return true;
+            });
+            assertThrows(StateConflictException.class, () -> engine.trigger(MACHINE_CODE, "1", ApprovalEvent.APPROVE));
+            assertEquals(ApprovalStatus.REJECTED, engine.getCurrentState(MACHINE_CODE, "1").get());
+        }
+    }
+
+    @Test
+    public void fullShardRejectsAfterSubmitTimeout() throws Exception {
+        DefaultStateRegistry registry = createRegistry();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        registry.registerAction(MACHINE_CODE, ApprovalStatus.PENDING, ApprovalStatus.REJECTED, (engine, ctx) -> {
+            blocked.countDown();
+            release.await();
+        }, StateMachineActionType.BEFORE);
+        try (ShardedStateMachineEngine engine = new ShardedStateMachineEngine(registry, new DefaultTransactionManagement(), 1, 2)) {
+            engine.setSubmitTimeout(Duration.ofMillis(10));
+            CompletableFuture<TransitionResult> first = engine.triggerAsync(MACHINE_CODE, "blocker", ApprovalEvent.REJECT);
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            CompletableFuture<TransitionResult> queued1 = engine.triggerAsync(MACHINE_CODE, "a", ApprovalEvent.APPROVE);
+            CompletableFuture<TransitionResult> queued2 = engine.triggerAsync(MACHINE_CODE, "b", ApprovalEvent.APPROVE);
+            TransitionResult rejected = engine.triggerAsync(MACHINE_CODE, "c", ApprovalEvent.APPROVE).get();
+            assertInstanceOf(RejectedExecutionException.class, rejected.error());
+
+            ShardStats stats = engine.getShardStats().get(0);
+            assertEquals(2, stats.queueDepth());
+            assertEquals(2, stats.queueCapacity());
+            assertEquals(1, stats.rejected());
+
+            release.countDown();
+            assertTrue(first.get().isSuccess());
+            assertTrue(queued1.get().isSuccess());
+            assertTrue(queued2.get().isSuccess());
+        }
+    }
+
+    @Test
+    public void auditLogRecordsShardTransitions() throws Exception {
+        List<TransitionRecord> records = new CopyOnWriteArrayList<>();
+        try (TransitionAuditLog auditLog = new TransitionAuditLog(records::add, 16, 1);
+             ShardedStateMachineEngine engine = new ShardedStateMachineEngine(createRegistry(), new DefaultTransactionManagement(), 2, 16)) {
+            engine.setAuditLog(auditLog);
+            engine.trigger(MACHINE_CODE, "1", ApprovalEvent.APPROVE);
+            assertThrows(IllegalArgumentException.class, () -> engine.trigger(MACHINE_CODE, "1", ApprovalEvent.APPROVE));
+        }
+        assertEquals(2, records.size());
+        assertTrue(records.get(0).isSuccess());
+        assertEquals(ApprovalStatus.PENDING, records.get(0).from());
+        assertEquals(ApprovalStatus.APPROVED, records.get(0).to());
+        assertFalse(records.get(1).isSuccess());
+    }
+
+    @Test
+    public void journalRecoveryIsRefusedWithSharding(@TempDir Path directory) {
+        ApplicationContextRunner runner = new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(AutoStateMachineConfiguration.class))
+                .withPropertyValues("state-machine.sharding.enabled=true", "state-machine.journal.enabled=true",
+                        "state-machine.journal.directory=" + directory.resolve("journal"),
+                        "state-machine.journal.recovery.snapshot-directory=" + directory.resolve("snapshot"));
+        // 恢复的是未使用的默认状态管理器, 其快照会删除记录分片状态的日志分段
+        runner.run(context -> assertThat(context.getStartupFailure()).hasStackTraceContaining("state-machine.journal.recovery.enabled=false"));
+        runner.withPropertyValues("state-machine.journal.recovery.enabled=false").run(context -> {
+            assertThat(context).hasSingleBean(ShardedStateMachineEngine.class);
+            assertThat(context).doesNotHaveBean(StateRecoveryLifecycle.class);
+        });
+    }
+
+    @Test
+    public void submissionWaitingDuringCloseAlwaysCompletes() throws Exception {
+        DefaultStateRegistry registry = createRegistry();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        registry.registerGuard(MACHINE_CODE, ApprovalStatus.PENDING, ApprovalStatus.APPROVED, (e, context) -> {
+            running.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        ShardedStateMachineEngine engine = new ShardedStateMachineEngine(registry, new DefaultTransactionManagement(), 1, 1);
+        engine.setSubmitTimeout(Duration.ofSeconds(5));
+        CompletableFuture<TransitionResult> first = engine.triggerAsync(MACHINE_CODE, "1", ApprovalEvent.APPROVE);
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        CompletableFuture<TransitionResult> queued = engine.triggerAsync(MACHINE_CODE, "2", ApprovalEvent.REJECT);
+        // 队列已满, 提交线程在队列上等待时引擎关闭
+        CompletableFuture<TransitionResult> waiting = CompletableFuture.supplyAsync(() -> engine.triggerAsync(MACHINE_CODE, "3", ApprovalEvent.REJECT).join());
+        CompletableFuture<Void> closing = CompletableFuture.runAsync(() -> {
+            try {
+                engine.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread.sleep(50);
+        release.countDown();
+        assertTrue(first.get(5, TimeUnit.SECONDS).isSuccess());
+        assertTrue(queued.get(5, TimeUnit.SECONDS).isSuccess());
+        TransitionResult result = waiting.get(5, TimeUnit.SECONDS);
+        assertTrue(result.isSuccess() || result.error() instanceof RejectedExecutionException);
+        closing.get(10, TimeUnit.SECONDS);
+    }
+}
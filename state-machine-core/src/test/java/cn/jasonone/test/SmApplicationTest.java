@@ -1,7 +1,10 @@
 package cn.jasonone.test;
 
 import cn.jasonone.sm.config.AutoStateMachineConfiguration;
+import cn.jasonone.sm.config.ReactiveStateMachineConfiguration;
 import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.domain.TransitionResult;
+import cn.jasonone.sm.support.ReactiveStateMachineEngine;
 import cn.jasonone.sm.support.StateMachineEngine;
 import cn.jasonone.sm.support.StateRegistry;
 import jakarta.annotation.Resource;
@@ -9,13 +12,18 @@ import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Bean;
 
-@SpringBootTest(classes = {AutoStateMachineConfiguration.class,TestHandler.class})
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = {AutoStateMachineConfiguration.class, ReactiveStateMachineConfiguration.class, TestHandler.class},
+        properties = "state-machine.reactive.enabled=true")
 public class SmApplicationTest {
 
     @Resource
     private StateRegistry registry;
     @Resource
     private StateMachineEngine engine;
+    @Resource
+    private ReactiveStateMachineEngine reactiveEngine;
 
     @Test
     public void test() throws Exception {
@@ -27,4 +35,18 @@ public class SmApplicationTest {
 
         engine.trigger("test", "1", ApprovalEvent.APPROVE);
     }
+
+    @Test
+    public void reactiveTrigger() {
+        registry.setInitialState("reactive", ApprovalStatus.PENDING);
+        registry.registerTransition("reactive", new Transition(ApprovalStatus.PENDING, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+
+        TransitionResult result = reactiveEngine.trigger("reactive", "reactive", ApprovalEvent.APPROVE).block();
+        assertNotNull(result);
+        assertTrue(result.isSuccess());
+        assertEquals(ApprovalStatus.APPROVED, result.to());
+        // 返回 Mono<Boolean> 的守卫同样对同步引擎生效
+        assertThrows(RuntimeException.class, () -> engine.trigger("reactive", "blocked", ApprovalEvent.APPROVE));
+        assertFalse(reactiveEngine.trigger("reactive", "blocked", ApprovalEvent.APPROVE).block().isSuccess());
+    }
 }
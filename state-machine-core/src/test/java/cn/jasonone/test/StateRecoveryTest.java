@@ -0,0 +1,106 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.DefaultStateMachineEngine;
+import cn.jasonone.sm.core.DefaultStateMachineManager;
+import cn.jasonone.sm.core.DefaultTransactionManagement;
+import cn.jasonone.sm.core.journal.MappedTransitionJournal;
+import cn.jasonone.sm.core.journal.StateRecovery;
+import cn.jasonone.sm.support.State;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import static cn.jasonone.test.ApprovalMachine.MACHINE_CODE;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StateRecoveryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void recoversFromSnapshotAndJournal() throws Exception {
+        Path journalDirectory = directory.resolve("journal");
+        Path snapshotDirectory = directory.resolve("snapshot");
+        DefaultStateMachineManager manager = new DefaultStateMachineManager();
+        try (MappedTransitionJournal journal = new MappedTransitionJournal(journalDirectory, 4096, Duration.ofMillis(5), false)) {
+            DefaultStateMachineEngine engine = new DefaultStateMachineEngine(ApprovalMachine.createRegistry(manager), manager, new DefaultTransactionManagement());
+            engine.setJournal(journal);
+            for (int i = 0; i < 100; i++) {
+                engine.trigger(MACHINE_CODE, String.valueOf(i), i % 2 == 0 ? ApprovalEvent.APPROVE : ApprovalEvent.REJECT);
+            }
+            StateRecovery recovery = new StateRecovery(manager, journal, snapshotDirectory);
+            assertEquals(100, recovery.snapshot());
+            // 快照之后的转换只存在于日志中
+            for (int i = 0; i < 100; i += 4) {
+                engine.trigger(MACHINE_CODE, String.valueOf(i), ApprovalEvent.CANCEL);
+            }
+            engine.trigger(MACHINE_CODE, "new", ApprovalEvent.APPROVE);
+        }
+        try (Stream<Path> files = Files.list(snapshotDirectory)) {
+            assertEquals(1, files.count());
+        }
+
+        DefaultStateMachineManager restored = new DefaultStateMachineManager();
+        ApprovalMachine.createRegistry(restored);
+        try (MappedTransitionJournal journal = new MappedTransitionJournal(journalDirectory, 4096, Duration.ofMillis(5), false)) {
+            StateRecovery recovery = new StateRecovery(restored, journal, snapshotDirectory);
+            recovery.setPartitions(4);
+            assertEquals(100 + 25 + 1, recovery.recover());
+        }
+        assertEquals(101, restored.getEstimatedSize());
+        for (int i = 0; i < 100; i++) {
+            State expected = i % 4 == 0 ? ApprovalStatus.CANCELED : i % 2 == 0 ? ApprovalStatus.APPROVED : ApprovalStatus.REJECTED;
+            assertEquals(expected, restored.getCurrentState(MACHINE_CODE, String.valueOf(i)));
+        }
+        assertEquals(ApprovalStatus.APPROVED, restored.getCurrentState(MACHINE_CODE, "new"));
+    }
+
+    private static long count(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void snapshotsReclaimJournalAndRefuseResetJournal() throws Exception {
+        Path journalDirectory = directory.resolve("journal");
+        Path snapshotDirectory = directory.resolve("snapshot");
+        DefaultStateMachineManager manager = new DefaultStateMachineManager();
+        try (MappedTransitionJournal journal = new MappedTransitionJournal(journalDirectory, 1024, Duration.ofMillis(5), false)) {
+            DefaultStateMachineEngine engine = new DefaultStateMachineEngine(ApprovalMachine.createRegistry(manager), manager, new DefaultTransactionManagement());
+            engine.setJournal(journal);
+            for (int i = 0; i < 100; i++) {
+                engine.trigger(MACHINE_CODE, String.valueOf(i), ApprovalEvent.APPROVE);
+            }
+            assertTrue(count(journalDirectory) > 1);
+            StateRecovery recovery = new StateRecovery(manager, journal, snapshotDirectory);
+            recovery.setRetainedSnapshots(1);
+            assertEquals(100, recovery.snapshot());
+            assertEquals(100, journal.getCommittedSequence());
+            // 只保留当前写入的分段
+            assertEquals(1, count(journalDirectory));
+        }
+
+        // 日志被清空后旧快照领先于新日志, 恢复失败且保留快照
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        DefaultStateMachineManager restored = new DefaultStateMachineManager();
+        ApprovalMachine.createRegistry(restored);
+        try (MappedTransitionJournal journal = new MappedTransitionJournal(journalDirectory, 1024, Duration.ofMillis(5), false)) {
+            StateRecovery recovery = new StateRecovery(restored, journal, snapshotDirectory);
+            IllegalStateException error = assertThrows(IllegalStateException.class, recovery::recover);
+            assertTrue(error.getMessage().contains("日志目录可能已被清空或替换"));
+            assertThrows(IllegalStateException.class, recovery::snapshot);
+            assertEquals(1, count(snapshotDirectory));
+        }
+        assertNull(restored.getCurrentState(MACHINE_CODE, "1"));
+    }
+}
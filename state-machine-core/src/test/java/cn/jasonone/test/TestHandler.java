@@ -6,6 +6,7 @@ import cn.jasonone.sm.annotations.StateMachineGuard;
 import cn.jasonone.sm.domain.StateContext;
 import cn.jasonone.sm.support.StateMachineEngine;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
 
 @Slf4j
 @StateMachineAdvice
@@ -33,6 +34,11 @@ public class TestHandler {
         return true;
     }
 
+    @StateMachineGuard(machineCode = "reactive", sourceState = "PENDING", targetState = "APPROVED")
+    public Mono<Boolean> guardTestReactive(StateMachineEngine engine, StateContext ctx){
+        return Mono.fromSupplier(() -> !"blocked".equals(ctx.businessId()));
+    }
+
     @StateMachineAction
     public void actionTest(StateMachineEngine engine, StateContext ctx){
         log.info("状态机[{}] 动作[{}]", ctx.machineCode(), ctx.businessId());
@@ -1,17 +1,108 @@
 package cn.jasonone.sm.config;
 
+import cn.jasonone.sm.core.ReactiveRedisStateMachineManager;
+import cn.jasonone.sm.core.RedisLeaseLockManagement;
 import cn.jasonone.sm.core.RedisStateMachineManager;
+import cn.jasonone.sm.core.TwoTierStateMachineManager;
+import cn.jasonone.sm.support.LockManagement;
+import cn.jasonone.sm.support.ReactiveStateMachineManager;
+import cn.jasonone.sm.support.StateArchiver;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
 
-@AutoConfiguration
+import java.nio.charset.StandardCharsets;
+
+@AutoConfiguration(after = RedisAutoConfiguration.class, before = AutoStateMachineConfiguration.class)
+@EnableConfigurationProperties({StateMachineProperties.class, RedisStateMachineProperties.class})
 public class AutoRedisConfiguration {
 
     @Bean
     @ConditionalOnBean(RedisTemplate.class)
-    public RedisStateMachineManager redisStateMachineManager(RedisTemplate<String, String> redisTemplate) {
-        return new RedisStateMachineManager(redisTemplate);
+    public RedisStateMachineManager redisStateMachineManager(RedisTemplate<String, String> redisTemplate, RedisStateMachineProperties properties,
+                                                             StateMachineProperties stateMachineProperties, ObjectProvider<StateArchiver> stateArchiver) {
+        StateMachineProperties.Terminal terminal = stateMachineProperties.getTerminal();
+        RedisStateMachineManager manager = new RedisStateMachineManager(redisTemplate);
+        manager.setTerminalStatePolicy(terminal.getPolicy());
+        manager.setTerminalTtl(terminal.getTtl());
+        manager.setStateArchiver(AutoStateMachineConfiguration.requireArchiver(terminal, stateArchiver));
+        if (properties.getLocalCache().isEnabled()) {
+            manager.setStateChannel(properties.getStateChannel());
+        }
+        return manager;
+    }
+
+    /**
+     * 本地状态缓存, 启用后替代Redis状态管理器作为引擎使用的状态管理器
+     */
+    @Bean
+    @Primary
+    @ConditionalOnBean(RedisStateMachineManager.class)
+    @ConditionalOnProperty(prefix = "state-machine.redis.local-cache", name = "enabled", havingValue = "true")
+    public TwoTierStateMachineManager twoTierStateMachineManager(RedisStateMachineManager manager, RedisStateMachineProperties properties) {
+        RedisStateMachineProperties.LocalCache localCache = properties.getLocalCache();
+        return new TwoTierStateMachineManager(manager, localCache.getMaximumSize(), localCache.getExpireAfterWrite());
+    }
+
+    /**
+     * 跨节点租约, 启用后代替本地状态锁
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnBean(RedisTemplate.class)
+    @ConditionalOnProperty(prefix = "state-machine.redis.lease", name = "enabled", havingValue = "true")
+    @ConditionalOnMissingBean(LockManagement.class)
+    public RedisLeaseLockManagement redisLeaseLockManagement(RedisTemplate<String, String> redisTemplate, RedisStateMachineProperties properties) {
+        RedisStateMachineProperties.Lease lease = properties.getLease();
+        RedisLeaseLockManagement lockManagement = new RedisLeaseLockManagement(redisTemplate, lease.getLeaseTime(), lease.getLinger());
+        lockManagement.setAcquireTimeout(lease.getAcquireTimeout());
+        return lockManagement;
+    }
+
+    /**
+     * 订阅转换规则变更通知, 使本节点的转换规则近端缓存失效; 启用本地状态缓存时同时订阅状态变更通知
+     */
+    @Bean
+    @ConditionalOnBean(RedisStateMachineManager.class)
+    public RedisMessageListenerContainer stateMachineTransitionListenerContainer(RedisConnectionFactory connectionFactory, RedisStateMachineManager manager,
+                                                                                 ObjectProvider<TwoTierStateMachineManager> twoTierManager, RedisStateMachineProperties properties) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener((message, pattern) -> manager.invalidateTransitions(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisStateMachineManager.TRANSITION_CHANNEL));
+        twoTierManager.ifAvailable(localManager -> container.addMessageListener(
+                (message, pattern) -> localManager.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(properties.getStateChannel())));
+        return container;
+    }
+
+    /**
+     * 响应式状态管理器, 启用响应式引擎、类路径中存在 Reactor 且容器中存在响应式Redis连接工厂时生效
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "reactor.core.publisher.Mono")
+    @ConditionalOnProperty(prefix = "state-machine.reactive", name = "enabled", havingValue = "true")
+    static class ReactiveRedisConfiguration {
+
+        @Bean
+        @ConditionalOnBean({RedisTemplate.class, ReactiveRedisConnectionFactory.class})
+        @ConditionalOnMissingBean(ReactiveStateMachineManager.class)
+        public ReactiveRedisStateMachineManager reactiveRedisStateMachineManager(ReactiveRedisConnectionFactory connectionFactory, RedisStateMachineManager manager) {
+            return new ReactiveRedisStateMachineManager(new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext.string()), manager);
+        }
     }
 }
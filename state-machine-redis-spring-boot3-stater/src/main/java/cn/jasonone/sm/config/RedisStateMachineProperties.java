@@ -0,0 +1,76 @@
+package cn.jasonone.sm.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Redis状态机属性
+ */
+@Data
+@ConfigurationProperties(prefix = "state-machine.redis")
+public class RedisStateMachineProperties {
+
+    /**
+     * 状态变更通知频道, 启用本地缓存时用于使各节点的本地缓存失效
+     */
+    private String stateChannel = "state-machine:states";
+
+    /**
+     * 本地状态缓存配置
+     */
+    private LocalCache localCache = new LocalCache();
+
+    /**
+     * 跨节点租约配置
+     */
+    private Lease lease = new Lease();
+
+    /**
+     * 本地状态缓存配置
+     */
+    @Data
+    public static class LocalCache {
+        /**
+         * 是否在Redis之前启用本地状态缓存
+         */
+        private boolean enabled = false;
+
+        /**
+         * 本地最多缓存的业务数量
+         */
+        private long maximumSize = 10000;
+
+        /**
+         * 本地缓存写入后的最长保留时间, 用于兜底订阅断开期间丢失的状态变更通知
+         */
+        private Duration expireAfterWrite = Duration.ofSeconds(1);
+    }
+
+    /**
+     * 跨节点租约配置
+     */
+    @Data
+    public static class Lease {
+        /**
+         * 是否使用Redis租约代替本地状态锁, 使多个节点对同一业务的触发串行执行
+         */
+        private boolean enabled = false;
+
+        /**
+         * 租约有效期, 持有期间每 1/3 有效期自动续期; 节点宕机时其他节点最多等待该时长
+         */
+        private Duration leaseTime = Duration.ofSeconds(5);
+
+        /**
+         * 解锁后在本节点保留租约的时长, 期间本节点再次触发同一业务时不访问Redis; 0表示解锁即释放
+         */
+        private Duration linger = Duration.ofMillis(100);
+
+        /**
+         * 获取租约的最长等待时间
+         */
+        private Duration acquireTimeout = Duration.ofSeconds(10);
+    }
+}
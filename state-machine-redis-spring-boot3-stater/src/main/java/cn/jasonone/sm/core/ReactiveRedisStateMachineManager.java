@@ -0,0 +1,61 @@
+package cn.jasonone.sm.core;
+
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.StrUtil;
+import cn.jasonone.sm.support.ReactiveStateMachineManager;
+import cn.jasonone.sm.support.State;
+import lombok.Getter;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * 基于 {@link ReactiveRedisTemplate} 的响应式状态管理器
+ * <pre>
+ *     1. 状态Key、存储格式与比较并更新脚本与 {@link RedisStateMachineManager} 相同, 两者可以同时读写同一业务
+ *     2. 状态编码、终态判断与终态归档复用 {@link RedisStateMachineManager}; 终态判断读取其转换规则近端缓存,
+ *        缓存需要校验版本号时会同步访问一次Redis
+ * </pre>
+ */
+@Getter
+public class ReactiveRedisStateMachineManager implements ReactiveStateMachineManager {
+
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+
+    private final RedisStateMachineManager manager;
+
+    /**
+     * @param redisTemplate 响应式Redis模板
+     * @param manager       同步Redis状态管理器, 提供状态编码、终态处理与状态变更通知配置
+     */
+    public ReactiveRedisStateMachineManager(ReactiveRedisTemplate<String, String> redisTemplate, RedisStateMachineManager manager) {
+        Assert.notNull(redisTemplate, "Redis模板不能为空");
+        Assert.notNull(manager, "状态管理器不能为空");
+        this.redisTemplate = redisTemplate;
+        this.manager = manager;
+    }
+
+    @Override
+    public Mono<State> getCurrentState(String machineCode, String businessId) {
+        return redisTemplate.opsForValue().get(RedisStateMachineManager.getStateKey(machineCode, businessId))
+                .mapNotNull(value -> manager.unpack(value, State.class));
+    }
+
+    @Override
+    public Mono<Boolean> updateState(String machineCode, String businessId, State expected, State state) {
+        Assert.notNull(state, "状态不能为空");
+        return Mono.defer(() -> redisTemplate.execute(RedisStateMachineManager.COMPARE_AND_SET_SCRIPT,
+                        List.of(RedisStateMachineManager.getStateKey(machineCode, businessId)),
+                        List.of(expected == null ? "" : manager.pack(expected), manager.pack(state),
+                                StrUtil.nullToEmpty(manager.getStateChannel()), manager.ttlArgument(machineCode, state)))
+                .next()
+                .map(result -> result == 1L)
+                .defaultIfEmpty(false)
+                .doOnNext(updated -> {
+                    if (updated) {
+                        manager.archiveIfTerminal(machineCode, businessId, state);
+                    }
+                }));
+    }
+}
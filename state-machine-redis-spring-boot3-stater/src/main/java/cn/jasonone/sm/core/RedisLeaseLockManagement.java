@@ -0,0 +1,386 @@
+package cn.jasonone.sm.core;
+
+import cn.hutool.core.lang.Assert;
+import cn.hutool.core.util.IdUtil;
+import cn.jasonone.sm.exceptions.StateConflictException;
+import cn.jasonone.sm.support.LockManagement;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于Redis租约的跨节点状态锁
+ * <pre>
+ *     1. 每个业务(machineCode, businessId)对应一个Redis租约, 同一时刻只有一个节点持有; 节点内先用本地锁串行化, 再获取租约
+ *     2. 每次获取租约都从 machineCode:leaseFence 递增得到新的防护令牌(fencing token), 令牌随获取顺序单调递增,
+ *        动作可以通过 {@link #getFencingToken} 把令牌传给下游, 由下游拒绝令牌更小的过期写入
+ *     3. 租约有效期为 leaseTime, 后台线程在持有期间每 leaseTime/3 续期, 长时间执行的动作不会丢失租约
+ *     4. 解锁后租约在本节点保留 linger 时长, 期间本节点再次触发同一业务时直接复用, 不访问Redis; 超过 linger 后释放.
+ *        其他节点最多等待 linger 即可获取; linger 为0时解锁即释放
+ *     5. 租约被其他节点持有时按其剩余有效期退避重试, 超过 acquireTimeout 抛出 {@link StateConflictException}
+ * </pre>
+ * 续期失败(Redis中的租约已过期并被其他节点获取)时记录告警并丢弃本地租约, 当前触发不会被中断; 状态写入仍由状态管理器的比较并更新保护
+ */
+@Slf4j
+@Getter
+@Setter
+public class RedisLeaseLockManagement implements LockManagement, AutoCloseable {
+
+    /**
+     * 获取租约脚本
+     * <pre>
+     *     KEYS[1]: 租约Key, KEYS[2]: 防护令牌Key
+     *     ARGV[1]: 节点ID, ARGV[2]: 租约毫秒数
+     *     获取成功时返回新的防护令牌(大于0); 租约被其他节点持有时返回其剩余毫秒数的相反数
+     * </pre>
+     */
+    private static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>("""
+            local holder = redis.call('HGET', KEYS[1], 'holder')
+            if holder and holder ~= ARGV[1] then
+                return -redis.call('PTTL', KEYS[1])
+            end
+            local token = redis.call('INCR', KEYS[2])
+            redis.call('HSET', KEYS[1], 'holder', ARGV[1], 'token', token)
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return token
+            """, Long.class);
+
+    /**
+     * 续期脚本
+     * <pre>
+     *     KEYS[1]: 租约Key
+     *     ARGV[1]: 节点ID, ARGV[2]: 防护令牌, ARGV[3]: 租约毫秒数
+     *     租约仍由本节点以该令牌持有时续期并返回1, 否则返回0
+     * </pre>
+     */
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], 'holder') == ARGV[1] and redis.call('HGET', KEYS[1], 'token') == ARGV[2] then
+                redis.call('PEXPIRE', KEYS[1], ARGV[3])
+                return 1
+            end
+            return 0
+            """, Long.class);
+
+    /**
+     * 释放脚本, 参数同续期脚本(不含租约毫秒数); 租约仍由本节点以该令牌持有时删除并返回1
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], 'holder') == ARGV[1] and redis.call('HGET', KEYS[1], 'token') == ARGV[2] then
+                redis.call('DEL', KEYS[1])
+                return 1
+            end
+            return 0
+            """, Long.class);
+
+    /**
+     * 租约被占用时单次退避的最长时间
+     */
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    /**
+     * 节点ID, 用于区分租约持有者
+     */
+    private final String nodeId;
+
+    /**
+     * 租约有效期
+     */
+    private final Duration leaseTime;
+
+    /**
+     * 解锁后在本节点保留租约的时长
+     */
+    private final Duration linger;
+
+    /**
+     * 获取租约的最长等待时间
+     */
+    private Duration acquireTimeout = Duration.ofSeconds(10);
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ScheduledExecutorService scheduler;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final LongAdder acquired = new LongAdder();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final LongAdder reused = new LongAdder();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final LongAdder lost = new LongAdder();
+
+    /**
+     * @param redisTemplate Redis模板
+     * @param leaseTime     租约有效期
+     * @param linger        解锁后在本节点保留租约的时长, 必须小于租约有效期的一半
+     */
+    public RedisLeaseLockManagement(RedisTemplate<String, String> redisTemplate, Duration leaseTime, Duration linger) {
+        Assert.notNull(redisTemplate, "Redis模板不能为空");
+        Assert.isTrue(leaseTime.toMillis() >= 30, "租约有效期不能小于30毫秒");
+        Assert.isTrue(!linger.isNegative() && linger.compareTo(leaseTime.dividedBy(2)) < 0, "租约保留时长必须小于租约有效期的一半");
+        this.redisTemplate = redisTemplate;
+        this.nodeId = IdUtil.fastSimpleUUID();
+        this.leaseTime = leaseTime;
+        this.linger = linger;
+        long tick = leaseTime.toMillis() / 3;
+        if (!linger.isZero()) {
+            tick = Math.min(tick, linger.toMillis());
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "state-machine-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::maintain, tick, Math.max(tick, 1), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void lock(String machineCode, String businessId) {
+        String key = getLeaseKey(machineCode, businessId);
+        long deadline = System.nanoTime() + acquireTimeout.toNanos();
+        Lease lease;
+        while (true) {
+            lease = leases.computeIfAbsent(key, Lease::new);
+            lockLocal(lease, machineCode, businessId, deadline);
+            if (!lease.retired) {
+                break;
+            }
+            // 后台线程已释放并移除该租约, 使用新的租约对象
+            lease.lock.unlock();
+        }
+        if (lease.lock.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            if (lease.token != 0 && lease.expiresAt - System.nanoTime() > leaseTime.toNanos() / 2) {
+                reused.increment();
+            } else {
+                acquire(lease, machineCode, businessId, deadline);
+            }
+            lease.active = true;
+        } catch (RuntimeException e) {
+            lease.lock.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public void unlock(String machineCode, String businessId) {
+        Lease lease = leases.get(getLeaseKey(machineCode, businessId));
+        if (lease == null || !lease.lock.isHeldByCurrentThread()) {
+            return;
+        }
+        if (lease.lock.getHoldCount() == 1) {
+            lease.active = false;
+            lease.releasedAt = System.nanoTime();
+            if (linger.isZero()) {
+                release(lease);
+            }
+        }
+        lease.lock.unlock();
+    }
+
+    /**
+     * 获取本节点当前持有的租约的防护令牌, 应在守卫或动作中调用
+     *
+     * @param machineCode 状态机编码
+     * @param businessId  业务ID
+     * @return 防护令牌, 未持有租约时返回0
+     */
+    public long getFencingToken(String machineCode, String businessId) {
+        Lease lease = leases.get(getLeaseKey(machineCode, businessId));
+        return lease == null ? 0 : lease.token;
+    }
+
+    /**
+     * @return 从Redis获取租约的次数
+     */
+    public long getAcquiredCount() {
+        return acquired.sum();
+    }
+
+    /**
+     * @return 复用本节点保留的租约、未访问Redis的次数
+     */
+    public long getReusedCount() {
+        return reused.sum();
+    }
+
+    /**
+     * @return 续期失败而丢失租约的次数
+     */
+    public long getLostCount() {
+        return lost.sum();
+    }
+
+    private void lockLocal(Lease lease, String machineCode, String businessId, long deadline) {
+        try {
+            if (!lease.lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new StateConflictException("状态机[{}] 业务ID[{}]等待本地锁超时", machineCode, businessId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StateConflictException("状态机[{}] 业务ID[{}]等待本地锁时被中断", machineCode, businessId);
+        }
+    }
+
+    private void acquire(Lease lease, String machineCode, String businessId, long deadline) {
+        List<String> keys = List.of(lease.key, getFenceKey(machineCode));
+        String leaseMillis = String.valueOf(leaseTime.toMillis());
+        while (true) {
+            long sentAt = System.nanoTime();
+            Long result = redisTemplate.execute(ACQUIRE_SCRIPT, keys, nodeId, leaseMillis);
+            Assert.notNull(result, "获取租约失败: {}", lease.key);
+            if (result > 0) {
+                lease.token = result;
+                lease.expiresAt = sentAt + leaseTime.toNanos();
+                acquired.increment();
+                return;
+            }
+            long backoff = Math.max(Math.min(TimeUnit.MILLISECONDS.toNanos(-result), MAX_BACKOFF_NANOS), TimeUnit.MILLISECONDS.toNanos(1));
+            if (System.nanoTime() + backoff - deadline > 0) {
+                throw new StateConflictException("状态机[{}] 业务ID[{}]的租约被其他节点持有, 等待超时", machineCode, businessId);
+            }
+            LockSupport.parkNanos(backoff);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new StateConflictException("状态机[{}] 业务ID[{}]等待租约时被中断", machineCode, businessId);
+            }
+        }
+    }
+
+    private void release(Lease lease) {
+        long token = lease.token;
+        lease.token = 0;
+        if (token == 0) {
+            return;
+        }
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(lease.key), nodeId, String.valueOf(token));
+        } catch (RuntimeException e) {
+            // 释放失败时租约在有效期后自动过期
+            log.warn("释放租约失败: {}", lease.key, e);
+        }
+    }
+
+    /**
+     * 后台维护: 续期持有中的租约, 释放超过保留时长的租约
+     */
+    private void maintain() {
+        long now = System.nanoTime();
+        long renewBefore = leaseTime.toNanos() * 2 / 3;
+        for (Lease lease : leases.values()) {
+            try {
+                if (lease.active) {
+                    if (lease.token != 0 && lease.expiresAt - now < renewBefore) {
+                        renew(lease);
+                    }
+                } else if (lease.token == 0 || now - lease.releasedAt >= linger.toNanos()) {
+                    retire(lease);
+                }
+            } catch (RuntimeException e) {
+                log.warn("维护租约失败: {}", lease.key, e);
+            }
+        }
+    }
+
+    private void renew(Lease lease) {
+        long token = lease.token;
+        long sentAt = System.nanoTime();
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(lease.key), nodeId, String.valueOf(token), String.valueOf(leaseTime.toMillis()));
+        if (renewed != null && renewed == 1L) {
+            lease.expiresAt = sentAt + leaseTime.toNanos();
+        } else if (lease.token == token) {
+            lease.token = 0;
+            lost.increment();
+            log.warn("租约已丢失, 可能已被其他节点获取: {}", lease.key);
+        }
+    }
+
+    private void retire(Lease lease) {
+        if (!lease.lock.tryLock()) {
+            return;
+        }
+        try {
+            if (lease.active || lease.retired) {
+                return;
+            }
+            release(lease);
+            lease.retired = true;
+            leases.remove(lease.key, lease);
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    private static String getLeaseKey(String machineCode, String businessId) {
+        return machineCode + ":lease:" + businessId;
+    }
+
+    private static String getFenceKey(String machineCode) {
+        return machineCode + ":leaseFence";
+    }
+
+    /**
+     * 停止续期并释放本节点持有的全部租约
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (Lease lease : leases.values()) {
+            if (lease.lock.tryLock()) {
+                try {
+                    release(lease);
+                } finally {
+                    lease.lock.unlock();
+                }
+            }
+        }
+        leases.clear();
+    }
+
+    /**
+     * 本节点的租约, 本地锁保护获取与释放, 后台线程读取令牌与有效期进行续期
+     */
+    private static final class Lease {
+        private final String key;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long token;
+        private volatile long expiresAt;
+        private volatile boolean active;
+        private volatile long releasedAt;
+        /**
+         * 已释放并从租约表中移除, 由 lock 保护
+         */
+        private boolean retired;
+
+        private Lease(String key) {
+            this.key = key;
+        }
+    }
+}
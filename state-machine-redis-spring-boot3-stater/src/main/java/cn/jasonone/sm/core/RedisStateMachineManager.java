@@ -3,17 +3,28 @@ package cn.jasonone.sm.core;
 import cn.hutool.core.lang.Assert;
 import cn.hutool.core.util.ClassUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.jasonone.sm.domain.StateUpdate;
 import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.enums.TerminalStatePolicy;
+import cn.jasonone.sm.exceptions.StateMachineException;
+import cn.jasonone.sm.support.Event;
 import cn.jasonone.sm.support.State;
+import cn.jasonone.sm.support.StateArchiver;
 import cn.jasonone.sm.support.StateMachineManager;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Data
@@ -21,48 +32,202 @@ public class RedisStateMachineManager implements StateMachineManager {
 
     private final RedisTemplate<String, String> redisTemplate;
 
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    /**
+     * 状态存储格式中类型与编码的分隔符
+     */
+    private static final char SEPARATOR = '|';
 
+    /**
+     * 比较并更新状态脚本
+     * <pre>
+     *     KEYS[1]: 状态Key
+     *     ARGV[1]: 期望状态(空字符串表示期望状态不存在), ARGV[2]: 新状态, ARGV[3]: 状态变更通知频道(空字符串表示不通知)
+     *     ARGV[4]: 状态Key的过期毫秒数(空字符串表示不过期, 同时清除已有的过期时间)
+     *     返回1表示更新成功, 0表示当前状态与期望状态不一致; 更新成功时在同一脚本中向通知频道发布状态Key
+     * </pre>
+     */
+    static final RedisScript<Long> COMPARE_AND_SET_SCRIPT = new DefaultRedisScript<>("""
+            local value = redis.call('GET', KEYS[1])
+            if ARGV[1] == '' then
+                if value then
+                    return 0
+                end
+            elseif value ~= ARGV[1] then
+                return 0
+            end
+            if ARGV[4] == '' then
+                redis.call('SET', KEYS[1], ARGV[2])
+            else
+                redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[4])
+            end
+            if ARGV[3] ~= '' then
+                redis.call('PUBLISH', ARGV[3], KEYS[1])
+            end
+            return 1
+            """, Long.class);
 
-    private State readState(String key) {
-        String json = redisTemplate.opsForValue().get(key + ":value");
-        String className = redisTemplate.opsForValue().get(key + ":type");
-        if (StrUtil.hasBlank(json, className)) {
+    /**
+     * 保存转换规则脚本
+     * <pre>
+     *     KEYS[1]: 转换规则表Key或终态表Key, KEYS[2]: 转换规则版本Key
+     *     ARGV[1]: 转换规则key或终态编码, ARGV[2]: 转换规则或终态
+     *     发生变化时递增版本号并返回1, 否则返回0; 终态声明与转换规则共用版本号与近端缓存
+     * </pre>
+     */
+    private static final RedisScript<Long> SAVE_TRANSITION_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], ARGV[1]) == ARGV[2] then
+                return 0
+            end
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('INCR', KEYS[2])
+            return 1
+            """, Long.class);
+
+    /**
+     * 转换规则变更通知频道, 消息内容为状态机编码
+     */
+    public static final String TRANSITION_CHANNEL = "state-machine:transitions";
+
+    /**
+     * 编码表: 存储值(类型|编码) -> 状态/事件实例
+     * <pre>
+     *     注册初始状态与转换规则时写入, 读取状态时直接查表, 不经过反射与JSON解析
+     * </pre>
+     */
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Object> codeTable = new ConcurrentHashMap<>();
+
+    /**
+     * 转换规则近端缓存: 状态机编码 -> 转换规则表
+     */
+    @Getter(AccessLevel.NONE)
+    private final Map<String, TransitionTable> transitionTables = new ConcurrentHashMap<>();
+
+    /**
+     * 转换规则近端缓存的校验间隔
+     * <pre>
+     *     收到变更通知时立即失效; 超过该间隔后下一次读取会比较一次Redis中的版本号, 版本未变化时不重新下载转换规则,
+     *     用于兜底订阅断开期间丢失的通知
+     * </pre>
+     */
+    private Duration transitionCheckInterval = Duration.ofSeconds(5);
+
+    /**
+     * 状态变更通知频道, 不为空时每次写入状态后向该频道发布状态Key, 用于使其他节点的本地缓存失效
+     */
+    private String stateChannel;
+
+    /**
+     * 终态处理策略, 默认保留
+     */
+    private TerminalStatePolicy terminalStatePolicy = TerminalStatePolicy.RETAIN;
+
+    /**
+     * 终态状态Key的过期时间, 为null表示不过期
+     */
+    private Duration terminalTtl;
+
+    /**
+     * 终态归档, 仅在归档策略下使用
+     */
+    private StateArchiver stateArchiver;
+
+    String pack(State state) {
+        return pack(state, state.getState());
+    }
+
+    private String pack(Event event) {
+        return pack(event, event.getCode());
+    }
+
+    private String pack(Object instance, String code) {
+        String value = instance.getClass().getName() + SEPARATOR + code;
+        codeTable.putIfAbsent(value, instance);
+        return value;
+    }
+
+    <T> T unpack(String value, Class<T> type) {
+        if (StrUtil.isEmpty(value)) {
             return null;
         }
-        Class<?> type = ClassUtil.getClass(className);
-        try {
-            return (State) MAPPER.readValue(json, type);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+        Object instance = codeTable.get(value);
+        if (instance == null) {
+            // 其他节点写入了本节点未注册的状态或事件, 仅支持按枚举常量解析
+            instance = resolveEnumConstant(value, type);
+            codeTable.putIfAbsent(value, instance);
         }
+        return type.cast(instance);
     }
 
-    private void writeState(String key, State state, Duration timeout) {
-        try {
-            String value = null;
-            if (state != null) {
-                value = MAPPER.writeValueAsString(state);
-                redisTemplate.opsForValue().set(key + ":type", state.getClass().getName(), timeout);
+    private static Object resolveEnumConstant(String value, Class<?> type) {
+        int index = value.indexOf(SEPARATOR);
+        Assert.isTrue(index > 0, "状态机编码[{}]格式错误", value);
+        Class<?> enumType = ClassUtil.loadClass(value.substring(0, index));
+        String code = value.substring(index + 1);
+        if (enumType.isEnum() && type.isAssignableFrom(enumType)) {
+            for (Object constant : enumType.getEnumConstants()) {
+                String constantCode = constant instanceof State state ? state.getState() : ((Event) constant).getCode();
+                if (constantCode.equals(code)) {
+                    return constant;
+                }
             }
-            redisTemplate.opsForValue().set(key + ":value", value, timeout);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
         }
+        throw new StateMachineException("无法解析[{}]", value);
+    }
+
+    private State readState(String key) {
+        return unpack(redisTemplate.opsForValue().get(key), State.class);
     }
 
-    private void writeState(String key, State state) {
-        writeState(key,  state, Duration.ofMillis(0));
+    /**
+     * 转换规则编码: 源状态\n事件\n目标状态
+     */
+    private String encode(Transition transition) {
+        return pack(transition.from()) + '\n' + pack(transition.event()) + '\n' + pack(transition.to());
     }
 
+    private Transition decode(String value) {
+        String[] parts = value.split("\n", 3);
+        Assert.isTrue(parts.length == 3, "转换规则[{}]格式错误", value);
+        return new Transition(unpack(parts[0], State.class), unpack(parts[1], Event.class), unpack(parts[2], State.class));
+    }
+
+    static String getStateKey(String machineCode, String businessId) {
+        return machineCode + ":currentState:" + businessId;
+    }
+
+    private static String getTransitionTableKey(String machineCode) {
+        return machineCode + ":transitionTable";
+    }
+
+    private static String getTerminalStateKey(String machineCode) {
+        return machineCode + ":terminalStates";
+    }
+
+    private static String getTransitionVersionKey(String machineCode) {
+        return machineCode + ":transitionVersion";
+    }
+
+    /**
+     * 使指定状态机的转换规则近端缓存失效, 下一次读取时校验版本号
+     *
+     * @param machineCode 状态机编码
+     */
+    public void invalidateTransitions(String machineCode) {
+        TransitionTable table = transitionTables.get(machineCode);
+        if (table != null) {
+            table.stale = true;
+        }
+    }
 
     @Override
     public void setInitialState(String machineCode, State initialState) {
         // 获取初始状态
         String key = machineCode + ":initialState";
         State oldState = readState(key);
-        Assert.isFalse(oldState == null || oldState.equals(initialState), "状态机[{}]已存在初始状态", machineCode);
-        writeState(key, initialState);
+        // 多个节点启动时会重复设置相同的初始状态
+        Assert.isTrue(oldState == null || oldState.getState().equals(initialState.getState()), "状态机[{}]已存在初始状态", machineCode);
+        redisTemplate.opsForValue().set(key, pack(initialState));
     }
 
     @Override
@@ -72,46 +237,235 @@ public class RedisStateMachineManager implements StateMachineManager {
 
     @Override
     public State getCurrentState(String machineCode, String businessId) {
-        String key = machineCode + ":currentState:" + businessId;
-        State state = readState(key);
-        if (state == null) {
-            writeState(key, null, Duration.ofMinutes(1));
-        }
-        return state;
+        return readState(getStateKey(machineCode, businessId));
     }
 
     @Override
     public void saveTransition(String machineCode, Transition transition) {
-        String key = machineCode + ":transitions";
-        try {
-            String json = MAPPER.writeValueAsString(transition);
-            redisTemplate.opsForList().leftPush(key, json);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+        Long changed = redisTemplate.execute(SAVE_TRANSITION_SCRIPT,
+                List.of(getTransitionTableKey(machineCode), getTransitionVersionKey(machineCode)),
+                transition.key(), encode(transition));
+        if (changed != null && changed == 1L) {
+            invalidateTransitions(machineCode);
+            redisTemplate.convertAndSend(TRANSITION_CHANNEL, machineCode);
         }
+    }
 
+    @Override
+    public void saveTerminalState(String machineCode, State state) {
+        Assert.notNull(state, "终态不能为空");
+        Long changed = redisTemplate.execute(SAVE_TRANSITION_SCRIPT,
+                List.of(getTerminalStateKey(machineCode), getTransitionVersionKey(machineCode)),
+                state.getState(), pack(state));
+        if (changed != null && changed == 1L) {
+            invalidateTransitions(machineCode);
+            redisTemplate.convertAndSend(TRANSITION_CHANNEL, machineCode);
+        }
+    }
+
+    /**
+     * 基于转换规则近端缓存判断, 不额外访问Redis
+     */
+    @Override
+    public boolean isTerminalState(String machineCode, State state) {
+        TransitionTable table = getTransitionTable(machineCode);
+        return table.terminalStates.contains(state.getState())
+                || !table.transitions.isEmpty() && !table.sourceStates.contains(state.getState());
+    }
+
+    /**
+     * 获取写入状态时状态Key的过期毫秒数
+     *
+     * @return 保留策略、未配置过期时间或非终态时返回空字符串, 表示不过期
+     */
+    String ttlArgument(String machineCode, State state) {
+        if (terminalTtl == null || terminalStatePolicy == TerminalStatePolicy.RETAIN || !isTerminalState(machineCode, state)) {
+            return "";
+        }
+        return String.valueOf(Math.max(1, terminalTtl.toMillis()));
+    }
+
+    /**
+     * 归档策略下, 业务进入终态时交给归档器
+     */
+    void archiveIfTerminal(String machineCode, String businessId, State state) {
+        if (terminalStatePolicy == TerminalStatePolicy.ARCHIVE && stateArchiver != null && isTerminalState(machineCode, state)) {
+            stateArchiver.archive(machineCode, businessId, state);
+        }
     }
 
     @Override
     public Set<Transition> getTransitions(String machineCode) {
-        String key = machineCode + ":transitions";
-        List<String> range = redisTemplate.opsForList().range(key, 0, -1);
-        if (range == null) {
-            return null;
+        return getTransitionTable(machineCode).transitions;
+    }
+
+    /**
+     * 返回近端缓存的版本号, 与 {@link #getTransitions(String)} 使用相同的校验规则
+     */
+    @Override
+    public long getTransitionVersion(String machineCode) {
+        return getTransitionTable(machineCode).version;
+    }
+
+    private TransitionTable getTransitionTable(String machineCode) {
+        TransitionTable table = transitionTables.get(machineCode);
+        long now = System.nanoTime();
+        if (table != null && !table.stale && now - table.checkedAt < transitionCheckInterval.toNanos()) {
+            return table;
         }
-        return range.stream().map(json -> {
-            try {
-                return MAPPER.readValue(json, Transition.class);
-            } catch (JsonProcessingException e) {
-                throw new RuntimeException(e);
-            }
-        }).collect(Collectors.toSet());
+        long version = parseVersion(redisTemplate.opsForValue().get(getTransitionVersionKey(machineCode)));
+        if (table != null && table.version == version) {
+            table.checkedAt = now;
+            table.stale = false;
+            return table;
+        }
+        // 版本号变化, 重新下载转换规则与终态声明; 先读版本号再读规则, 规则可能比版本号新, 下次校验时会再次下载
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(getTransitionTableKey(machineCode));
+        Set<Transition> transitions = entries.values().stream()
+                .map(value -> decode((String) value))
+                .collect(Collectors.toUnmodifiableSet());
+        Set<String> terminalStates = redisTemplate.opsForHash().values(getTerminalStateKey(machineCode)).stream()
+                .map(value -> unpack((String) value, State.class).getState())
+                .collect(Collectors.toUnmodifiableSet());
+        table = new TransitionTable(version, transitions, terminalStates, now);
+        transitionTables.put(machineCode, table);
+        return table;
+    }
+
+    private static long parseVersion(String version) {
+        return StrUtil.isEmpty(version) ? 0 : Long.parseLong(version);
     }
 
     @Override
     public boolean updateState(String machineCode, String businessId, State state) {
-        String key = machineCode + ":currentState:" + businessId;
-        writeState(key, state);
+        String key = getStateKey(machineCode, businessId);
+        String ttl = ttlArgument(machineCode, state);
+        if (ttl.isEmpty()) {
+            redisTemplate.opsForValue().set(key, pack(state));
+        } else {
+            redisTemplate.opsForValue().set(key, pack(state), Duration.ofMillis(Long.parseLong(ttl)));
+        }
+        if (stateChannel != null) {
+            redisTemplate.convertAndSend(stateChannel, key);
+        }
+        archiveIfTerminal(machineCode, businessId, state);
         return true;
     }
+
+    @Override
+    public boolean updateState(String machineCode, String businessId, State expected, State state) {
+        Assert.notNull(state, "状态不能为空");
+        Long result = redisTemplate.execute(COMPARE_AND_SET_SCRIPT, List.of(getStateKey(machineCode, businessId)),
+                expected == null ? "" : pack(expected), pack(state), StrUtil.nullToEmpty(stateChannel), ttlArgument(machineCode, state));
+        boolean updated = result != null && result == 1L;
+        if (updated) {
+            archiveIfTerminal(machineCode, businessId, state);
+        }
+        return updated;
+    }
+
+    @Override
+    public Map<String, State> getCurrentStates(String machineCode, Collection<String> businessIds) {
+        if (businessIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        List<String> ids = new ArrayList<>(businessIds);
+        List<String> keys = new ArrayList<>(ids.size());
+        for (String businessId : ids) {
+            keys.add(getStateKey(machineCode, businessId));
+        }
+        List<String> values = redisTemplate.opsForValue().multiGet(keys);
+        Map<String, State> states = new HashMap<>(ids.size());
+        if (values == null) {
+            return states;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            State state = unpack(values.get(i), State.class);
+            if (state != null) {
+                states.put(ids.get(i), state);
+            }
+        }
+        return states;
+    }
+
+    @Override
+    public List<Boolean> updateStates(String machineCode, List<StateUpdate> updates) {
+        List<Object> replies;
+        try {
+            replies = compareAndSetPipelined(machineCode, updates);
+        } catch (RedisPipelineException e) {
+            if (!isNoScriptError(e)) {
+                throw e;
+            }
+            // 脚本缓存被清空(Redis重启、故障转移或 SCRIPT FLUSH)时加载脚本后重新执行;
+            // 比较并更新可以安全重试, 已执行的更新在重试时因状态不一致返回失败, 不会重复修改状态
+            byte[] script = COMPARE_AND_SET_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(script));
+            replies = compareAndSetPipelined(machineCode, updates);
+        }
+        List<Boolean> results = new ArrayList<>(replies.size());
+        for (int i = 0; i < replies.size(); i++) {
+            boolean updated = replies.get(i) instanceof Long result && result == 1L;
+            if (updated) {
+                StateUpdate update = updates.get(i);
+                archiveIfTerminal(machineCode, update.businessId(), update.state());
+            }
+            results.add(updated);
+        }
+        return results;
+    }
+
+    /**
+     * 每个业务执行一次比较并更新脚本, 通过管道一次发送; 只发送脚本的SHA1, 不在每个命令中重复发送脚本内容
+     */
+    private List<Object> compareAndSetPipelined(String machineCode, List<StateUpdate> updates) {
+        byte[] sha = COMPARE_AND_SET_SCRIPT.getSha1().getBytes(StandardCharsets.UTF_8);
+        byte[] channel = StrUtil.nullToEmpty(stateChannel).getBytes(StandardCharsets.UTF_8);
+        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (StateUpdate update : updates) {
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 1,
+                        getStateKey(machineCode, update.businessId()).getBytes(StandardCharsets.UTF_8),
+                        (update.expected() == null ? "" : pack(update.expected())).getBytes(StandardCharsets.UTF_8),
+                        pack(update.state()).getBytes(StandardCharsets.UTF_8),
+                        channel,
+                        ttlArgument(machineCode, update.state()).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    private static boolean isNoScriptError(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 本地缓存的转换规则表
+     */
+    private static final class TransitionTable {
+        private final long version;
+        private final Set<Transition> transitions;
+        /**
+         * 作为转换规则源状态出现过的状态编码
+         */
+        private final Set<String> sourceStates;
+        /**
+         * 显式声明的终态编码
+         */
+        private final Set<String> terminalStates;
+        private volatile long checkedAt;
+        private volatile boolean stale;
+
+        private TransitionTable(long version, Set<Transition> transitions, Set<String> terminalStates, long checkedAt) {
+            this.version = version;
+            this.transitions = transitions;
+            this.sourceStates = transitions.stream().map(transition -> transition.from().getState()).collect(Collectors.toUnmodifiableSet());
+            this.terminalStates = terminalStates;
+            this.checkedAt = checkedAt;
+        }
+    }
 }
@@ -0,0 +1,177 @@
+package cn.jasonone.sm.core;
+
+import cn.jasonone.sm.domain.StateUpdate;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.support.State;
+import cn.jasonone.sm.support.StateMachineManager;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * 两级状态管理器: 本地缓存 + Redis
+ * <pre>
+ *     1. 查询当前状态({@link #getCurrentState(String, String)}, {@link #getCurrentStates(String, Collection)})时优先命中本地缓存,
+ *        未命中时从Redis加载并缓存, 结果最多落后于Redis一次通知的传递延迟
+ *     2. 引擎触发事件时通过 {@link #getLatestState(String, String)} 与 {@link #getLatestStates(String, Collection)} 直接从Redis读取,
+ *        守卫与前置动作总是基于最新状态判断, 不使用也不填充本地缓存
+ *     3. 写入状态与比较并更新始终直接作用于Redis, 无论成功与否都会使本地缓存失效
+ *     4. Redis在比较并更新成功的同一脚本中向状态变更通知频道发布状态Key, 其他节点收到通知后调用 {@link #invalidate(String)}
+ *     5. expireAfterWrite 作为兜底, 限制订阅断开期间本地缓存可能过期的最长时间
+ * </pre>
+ */
+public class TwoTierStateMachineManager implements StateMachineManager {
+
+    /**
+     * Redis状态管理器
+     */
+    @Getter
+    private final RedisStateMachineManager delegate;
+
+    /**
+     * 本地缓存: 状态Key -> 当前状态
+     */
+    private final Cache<String, State> cache;
+
+    /**
+     * @param delegate         Redis状态管理器, 需配置状态变更通知频道
+     * @param maximumSize      本地最多缓存的业务数量
+     * @param expireAfterWrite 本地缓存写入后的最长保留时间
+     */
+    public TwoTierStateMachineManager(RedisStateMachineManager delegate, long maximumSize, Duration expireAfterWrite) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 使本地缓存的状态失效
+     *
+     * @param stateKey 状态Key, 即状态变更通知的消息内容
+     */
+    public void invalidate(String stateKey) {
+        cache.invalidate(stateKey);
+    }
+
+    /**
+     * 获取本地缓存统计
+     *
+     * @return 缓存统计, 包括命中、加载与淘汰次数
+     */
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void setInitialState(String machineCode, State initialState) {
+        delegate.setInitialState(machineCode, initialState);
+    }
+
+    @Override
+    public State getInitialState(String machineCode) {
+        return delegate.getInitialState(machineCode);
+    }
+
+    @Override
+    public State getCurrentState(String machineCode, String businessId) {
+        return cache.get(RedisStateMachineManager.getStateKey(machineCode, businessId),
+                key -> delegate.getCurrentState(machineCode, businessId));
+    }
+
+    /**
+     * 绕过本地缓存, 直接从Redis读取; 读取结果不写入本地缓存, 避免与并发到达的失效通知交错后缓存旧状态
+     */
+    @Override
+    public State getLatestState(String machineCode, String businessId) {
+        return delegate.getCurrentState(machineCode, businessId);
+    }
+
+    @Override
+    public Map<String, State> getLatestStates(String machineCode, Collection<String> businessIds) {
+        return delegate.getCurrentStates(machineCode, businessIds);
+    }
+
+    @Override
+    public void saveTransition(String machineCode, Transition transition) {
+        delegate.saveTransition(machineCode, transition);
+    }
+
+    @Override
+    public void saveTerminalState(String machineCode, State state) {
+        delegate.saveTerminalState(machineCode, state);
+    }
+
+    @Override
+    public boolean isTerminalState(String machineCode, State state) {
+        return delegate.isTerminalState(machineCode, state);
+    }
+
+    @Override
+    public Set<Transition> getTransitions(String machineCode) {
+        return delegate.getTransitions(machineCode);
+    }
+
+    @Override
+    public long getTransitionVersion(String machineCode) {
+        return delegate.getTransitionVersion(machineCode);
+    }
+
+    @Override
+    public boolean updateState(String machineCode, String businessId, State state) {
+        String key = RedisStateMachineManager.getStateKey(machineCode, businessId);
+        try {
+            return delegate.updateState(machineCode, businessId, state);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public boolean updateState(String machineCode, String businessId, State expected, State state) {
+        String key = RedisStateMachineManager.getStateKey(machineCode, businessId);
+        try {
+            return delegate.updateState(machineCode, businessId, expected, state);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * 命中本地缓存的业务直接返回, 其余业务一次从Redis批量读取, 批量读取的结果不写入本地缓存
+     */
+    @Override
+    public Map<String, State> getCurrentStates(String machineCode, Collection<String> businessIds) {
+        Map<String, State> states = new HashMap<>(businessIds.size());
+        List<String> misses = new ArrayList<>();
+        for (String businessId : businessIds) {
+            State state = cache.getIfPresent(RedisStateMachineManager.getStateKey(machineCode, businessId));
+            if (state != null) {
+                states.put(businessId, state);
+            } else {
+                misses.add(businessId);
+            }
+        }
+        if (!misses.isEmpty()) {
+            states.putAll(delegate.getCurrentStates(machineCode, misses));
+        }
+        return states;
+    }
+
+    @Override
+    public List<Boolean> updateStates(String machineCode, List<StateUpdate> updates) {
+        try {
+            return delegate.updateStates(machineCode, updates);
+        } finally {
+            for (StateUpdate update : updates) {
+                cache.invalidate(RedisStateMachineManager.getStateKey(machineCode, update.businessId()));
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.RedisLeaseLockManagement;
+import cn.jasonone.sm.exceptions.StateConflictException;
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 基于进程内 Redis 替身的跨节点租约测试, 两个实例模拟两个节点
+ */
+public class RedisLeaseLockManagementTest {
+
+    private static RedisServer server;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    private final String machineCode = "lease-" + UUID.randomUUID();
+
+    @BeforeAll
+    public static void startRedis() throws Exception {
+        server = RedisServer.newRedisServer();
+        server.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(server.getHost(), server.getBindPort()));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    public static void stopRedis() throws Exception {
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    @Test
+    public void secondNodeWaitsForLeaseAndGetsGreaterFencingToken() throws Exception {
+        try (RedisLeaseLockManagement node1 = new RedisLeaseLockManagement(redisTemplate, Duration.ofSeconds(5), Duration.ZERO);
+             RedisLeaseLockManagement node2 = new RedisLeaseLockManagement(redisTemplate, Duration.ofSeconds(5), Duration.ZERO)) {
+            node1.lock(machineCode, "1");
+            long token1 = node1.getFencingToken(machineCode, "1");
+            assertTrue(token1 > 0);
+            CompletableFuture<Long> second = CompletableFuture.supplyAsync(() -> {
+                node2.lock(machineCode, "1");
+                try {
+                    return node2.getFencingToken(machineCode, "1");
+                } finally {
+                    node2.unlock(machineCode, "1");
+                }
+            });
+            // 不同业务互不影响
+            node2.lock(machineCode, "2");
+            node2.unlock(machineCode, "2");
+            Thread.sleep(100);
+            assertFalse(second.isDone());
+
+            node1.unlock(machineCode, "1");
+            assertTrue(second.get(5, TimeUnit.SECONDS) > token1);
+            assertEquals(0, node1.getFencingToken(machineCode, "1"));
+        }
+    }
+
+    @Test
+    public void leaseIsReusedWithinLingerAndReleasedAfterwards() throws Exception {
+        try (RedisLeaseLockManagement node1 = new RedisLeaseLockManagement(redisTemplate, Duration.ofSeconds(5), Duration.ofMillis(200));
+             RedisLeaseLockManagement node2 = new RedisLeaseLockManagement(redisTemplate, Duration.ofSeconds(5), Duration.ZERO)) {
+            node1.lock(machineCode, "1");
+            node1.unlock(machineCode, "1");
+            node1.lock(machineCode, "1");
+            node1.unlock(machineCode, "1");
+            assertEquals(1, node1.getAcquiredCount());
+            assertEquals(1, node1.getReusedCount());
+
+            long start = System.nanoTime();
+            node2.lock(machineCode, "1");
+            node2.unlock(machineCode, "1");
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            assertNull(redisTemplate.opsForHash().get(machineCode + ":lease:1", "holder"));
+        }
+    }
+
+    @Test
+    public void leaseIsRenewedWhileHeld() throws Exception {
+        try (RedisLeaseLockManagement node1 = new RedisLeaseLockManagement(redisTemplate, Duration.ofMillis(300), Duration.ZERO);
+             RedisLeaseLockManagement node2 = new RedisLeaseLockManagement(redisTemplate, Duration.ofMillis(300), Duration.ZERO)) {
+            node2.setAcquireTimeout(Duration.ofMillis(200));
+            node1.lock(machineCode, "1");
+            try {
+                // 持有时间超过租约有效期的两倍
+                Thread.sleep(700);
+                assertThrows(StateConflictException.class, () -> node2.lock(machineCode, "1"));
+                assertEquals(0, node1.getLostCount());
+            } finally {
+                node1.unlock(machineCode, "1");
+            }
+            node2.lock(machineCode, "1");
+            node2.unlock(machineCode, "1");
+        }
+    }
+}
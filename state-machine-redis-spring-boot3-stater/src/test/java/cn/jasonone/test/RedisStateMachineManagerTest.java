@@ -0,0 +1,167 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.ReactiveRedisStateMachineManager;
+import cn.jasonone.sm.core.RedisStateMachineManager;
+import cn.jasonone.sm.domain.StateUpdate;
+import cn.jasonone.sm.domain.Transition;
+import cn.jasonone.sm.enums.TerminalStatePolicy;
+import cn.jasonone.sm.support.State;
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 基于进程内 Redis 替身的状态管理器测试
+ */
+public class RedisStateMachineManagerTest {
+
+    private static RedisServer server;
+    private static LettuceConnectionFactory connectionFactory;
+    private static RedisStateMachineManager manager;
+
+    private final String machineCode = "redis-" + UUID.randomUUID();
+
+    @BeforeAll
+    public static void startRedis() throws Exception {
+        server = RedisServer.newRedisServer();
+        server.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(server.getHost(), server.getBindPort()));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        manager = new RedisStateMachineManager(new StringRedisTemplate(connectionFactory));
+    }
+
+    @AfterAll
+    public static void stopRedis() throws Exception {
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    @Test
+    public void initialStateCanBeSetByEveryNode() {
+        manager.setInitialState(machineCode, ApprovalStatus.PENDING);
+        manager.setInitialState(machineCode, ApprovalStatus.PENDING);
+        assertEquals(ApprovalStatus.PENDING, manager.getInitialState(machineCode));
+        assertThrows(IllegalArgumentException.class, () -> manager.setInitialState(machineCode, ApprovalStatus.APPROVED));
+    }
+
+    @Test
+    public void compareAndSetIsAtomicOnExpectedState() {
+        assertNull(manager.getCurrentState(machineCode, "1"));
+        assertTrue(manager.updateState(machineCode, "1", null, ApprovalStatus.PENDING));
+        assertFalse(manager.updateState(machineCode, "1", null, ApprovalStatus.APPROVED));
+        assertFalse(manager.updateState(machineCode, "1", ApprovalStatus.REJECTED, ApprovalStatus.APPROVED));
+        assertEquals(ApprovalStatus.PENDING, manager.getCurrentState(machineCode, "1"));
+
+        assertTrue(manager.updateState(machineCode, "1", ApprovalStatus.PENDING, ApprovalStatus.APPROVED));
+        assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState(machineCode, "1"));
+    }
+
+    @Test
+    public void stateWrittenByAnotherNodeIsResolved() {
+        assertTrue(manager.updateState(machineCode, "2", null, ApprovalStatus.REJECTED));
+        // 新节点尚未注册任何状态
+        RedisStateMachineManager other = new RedisStateMachineManager(manager.getRedisTemplate());
+        assertEquals(ApprovalStatus.REJECTED, other.getCurrentState(machineCode, "2"));
+        assertEquals("cn.jasonone.test.ApprovalStatus|" + ApprovalStatus.REJECTED.getState(),
+                manager.getRedisTemplate().opsForValue().get(machineCode + ":currentState:2"));
+    }
+
+    @Test
+    public void transitionsAreReloadedOnlyWhenVersionChanges() {
+        RedisStateMachineManager other = new RedisStateMachineManager(manager.getRedisTemplate());
+        other.setTransitionCheckInterval(Duration.ZERO);
+        Transition approve = new Transition(ApprovalStatus.PENDING, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED);
+        manager.saveTransition(machineCode, approve);
+        manager.saveTransition(machineCode, approve);
+
+        Set<Transition> transitions = other.getTransitions(machineCode);
+        assertEquals(Set.of(approve), transitions);
+        assertEquals("1", manager.getRedisTemplate().opsForValue().get(machineCode + ":transitionVersion"));
+        // 版本号未变化时复用本地缓存
+        assertSame(transitions, other.getTransitions(machineCode));
+
+        Transition reject = new Transition(ApprovalStatus.PENDING, ApprovalEvent.REJECT, ApprovalStatus.REJECTED);
+        manager.saveTransition(machineCode, reject);
+        assertEquals(Set.of(approve, reject), other.getTransitions(machineCode));
+    }
+
+    @Test
+    public void statesAreReadAndUpdatedInBulk() {
+        manager.updateState(machineCode, "a", ApprovalStatus.PENDING);
+        manager.updateState(machineCode, "b", ApprovalStatus.PENDING);
+
+        Map<String, State> states = manager.getCurrentStates(machineCode, List.of("a", "b", "c"));
+        assertEquals(Map.of("a", ApprovalStatus.PENDING, "b", ApprovalStatus.PENDING), states);
+
+        List<Boolean> results = manager.updateStates(machineCode, List.of(
+                new StateUpdate("a", ApprovalStatus.PENDING, ApprovalStatus.APPROVED),
+                new StateUpdate("b", ApprovalStatus.REJECTED, ApprovalStatus.APPROVED),
+                new StateUpdate("c", null, ApprovalStatus.PENDING)));
+        assertEquals(List.of(true, false, true), results);
+        assertEquals(Map.of("a", ApprovalStatus.APPROVED, "b", ApprovalStatus.PENDING, "c", ApprovalStatus.PENDING),
+                manager.getCurrentStates(machineCode, List.of("a", "b", "c")));
+
+        // 脚本缓存被清空后重新加载脚本
+        manager.getRedisTemplate().execute((RedisCallback<String>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+        results = manager.updateStates(machineCode, List.of(
+                new StateUpdate("b", ApprovalStatus.PENDING, ApprovalStatus.REJECTED),
+                new StateUpdate("c", ApprovalStatus.APPROVED, ApprovalStatus.REJECTED)));
+        assertEquals(List.of(true, false), results);
+        assertEquals(ApprovalStatus.REJECTED, manager.getCurrentState(machineCode, "b"));
+    }
+
+    @Test
+    public void terminalStateKeysExpire() {
+        RedisStateMachineManager expiring = new RedisStateMachineManager(manager.getRedisTemplate());
+        expiring.setTerminalTtl(Duration.ofHours(1));
+        expiring.setTerminalStatePolicy(TerminalStatePolicy.EXPIRE);
+        expiring.setTransitionCheckInterval(Duration.ZERO);
+        expiring.saveTransition(machineCode, new Transition(ApprovalStatus.PENDING, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        expiring.saveTransition(machineCode, new Transition(ApprovalStatus.PENDING, ApprovalEvent.REJECT, ApprovalStatus.REJECTED));
+        expiring.saveTransition(machineCode, new Transition(ApprovalStatus.REJECTED, ApprovalEvent.APPROVE, ApprovalStatus.APPROVED));
+        manager.saveTerminalState(machineCode, ApprovalStatus.REJECTED);
+        assertTrue(expiring.isTerminalState(machineCode, ApprovalStatus.APPROVED));
+        assertTrue(expiring.isTerminalState(machineCode, ApprovalStatus.REJECTED));
+        assertFalse(expiring.isTerminalState(machineCode, ApprovalStatus.PENDING));
+
+        assertTrue(expiring.updateState(machineCode, "t", null, ApprovalStatus.PENDING));
+        assertEquals(-1L, manager.getRedisTemplate().getExpire(machineCode + ":currentState:t"));
+        assertTrue(expiring.updateState(machineCode, "t", ApprovalStatus.PENDING, ApprovalStatus.REJECTED));
+        assertTrue(manager.getRedisTemplate().getExpire(machineCode + ":currentState:t") > 0);
+        // 离开终态后清除过期时间
+        assertTrue(expiring.updateState(machineCode, "t", ApprovalStatus.REJECTED, ApprovalStatus.PENDING));
+        assertEquals(-1L, manager.getRedisTemplate().getExpire(machineCode + ":currentState:t"));
+    }
+
+    @Test
+    public void reactiveManagerSharesKeysAndCompareAndSet() {
+        ReactiveRedisStateMachineManager reactive = new ReactiveRedisStateMachineManager(new ReactiveStringRedisTemplate(connectionFactory), manager);
+        assertNull(reactive.getCurrentState(machineCode, "r").block());
+        assertTrue(reactive.updateState(machineCode, "r", null, ApprovalStatus.PENDING).block());
+        assertFalse(reactive.updateState(machineCode, "r", null, ApprovalStatus.APPROVED).block());
+        assertEquals(ApprovalStatus.PENDING, manager.getCurrentState(machineCode, "r"));
+
+        assertTrue(manager.updateState(machineCode, "r", ApprovalStatus.PENDING, ApprovalStatus.REJECTED));
+        assertEquals(ApprovalStatus.REJECTED, reactive.getCurrentState(machineCode, "r").block());
+        assertTrue(reactive.updateState(machineCode, "r", ApprovalStatus.REJECTED, ApprovalStatus.APPROVED).block());
+        assertEquals(ApprovalStatus.APPROVED, manager.getCurrentState(machineCode, "r"));
+    }
+}
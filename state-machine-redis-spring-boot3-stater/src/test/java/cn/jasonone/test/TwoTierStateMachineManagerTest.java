@@ -0,0 +1,100 @@
+package cn.jasonone.test;
+
+import cn.jasonone.sm.core.RedisStateMachineManager;
+import cn.jasonone.sm.core.TwoTierStateMachineManager;
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 两级状态管理器测试, 模拟两个节点共享同一个Redis
+ */
+public class TwoTierStateMachineManagerTest {
+
+    private static final String STATE_CHANNEL = "state-machine:states";
+
+    private static RedisServer server;
+    private static LettuceConnectionFactory connectionFactory;
+    private static RedisMessageListenerContainer container;
+    private static TwoTierStateMachineManager node1;
+    private static TwoTierStateMachineManager node2;
+
+    private final String machineCode = "two-tier-" + UUID.randomUUID();
+
+    @BeforeAll
+    public static void startRedis() throws Exception {
+        server = RedisServer.newRedisServer();
+        server.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(server.getHost(), server.getBindPort()));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        node1 = createNode();
+        node2 = createNode();
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        for (TwoTierStateMachineManager node : new TwoTierStateMachineManager[]{node1, node2}) {
+            container.addMessageListener((message, pattern) -> node.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(STATE_CHANNEL));
+        }
+        container.afterPropertiesSet();
+        container.start();
+    }
+
+    private static TwoTierStateMachineManager createNode() {
+        RedisStateMachineManager redis = new RedisStateMachineManager(new StringRedisTemplate(connectionFactory));
+        redis.setStateChannel(STATE_CHANNEL);
+        return new TwoTierStateMachineManager(redis, 1000, Duration.ofMinutes(1));
+    }
+
+    @AfterAll
+    public static void stopRedis() throws Exception {
+        container.destroy();
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    @Test
+    public void updateOnAnotherNodeInvalidatesLocalCache() throws Exception {
+        assertTrue(node1.updateState(machineCode, "1", null, ApprovalStatus.PENDING));
+        assertEquals(ApprovalStatus.PENDING, node2.getCurrentState(machineCode, "1"));
+
+        assertTrue(node1.updateState(machineCode, "1", ApprovalStatus.PENDING, ApprovalStatus.APPROVED));
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (node2.getCurrentState(machineCode, "1") != ApprovalStatus.APPROVED) {
+            assertTrue(System.nanoTime() < deadline, "未收到状态变更通知");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void failedCompareAndSetDropsStaleEntry() {
+        // 未订阅状态变更通知的节点, 本地缓存只能通过比较并更新失败或过期失效
+        TwoTierStateMachineManager unsubscribed = createNode();
+        assertTrue(node1.updateState(machineCode, "2", null, ApprovalStatus.PENDING));
+        assertEquals(ApprovalStatus.PENDING, unsubscribed.getCurrentState(machineCode, "2"));
+        assertTrue(node1.updateState(machineCode, "2", ApprovalStatus.PENDING, ApprovalStatus.REJECTED));
+        assertEquals(ApprovalStatus.PENDING, unsubscribed.getCurrentState(machineCode, "2"));
+        // 触发事件时读取最新状态, 守卫不会看到过期的缓存
+        assertEquals(ApprovalStatus.REJECTED, unsubscribed.getLatestState(machineCode, "2"));
+        assertEquals(Map.of("2", ApprovalStatus.REJECTED), unsubscribed.getLatestStates(machineCode, List.of("2")));
+        assertEquals(ApprovalStatus.PENDING, unsubscribed.getCurrentState(machineCode, "2"));
+
+        // 基于过期状态的比较并更新被Redis拒绝, 本地缓存随之失效
+        assertFalse(unsubscribed.updateState(machineCode, "2", ApprovalStatus.PENDING, ApprovalStatus.APPROVED));
+        assertEquals(ApprovalStatus.REJECTED, unsubscribed.getCurrentState(machineCode, "2"));
+    }
+}